@@ -0,0 +1,483 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.RollupInterval;
+import se.tre.freki.storage.cassandra.query.RollupIterator;
+import se.tre.freki.storage.cassandra.query.SpeculativePartitionIterator;
+import se.tre.freki.storage.cassandra.statements.RollupStatements;
+import se.tre.freki.storage.cassandra.statements.RollupStatements.InsertRollupStatementMarkers;
+import se.tre.freki.storage.cassandra.statements.RollupStatements.SelectRollupsStatementMarkers;
+import se.tre.freki.utils.AsyncIterator;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A rollup strategy that keeps the min, max, sum and count of the data points in the current
+ * bucket of every {@link RollupInterval} for each time series in memory. A bucket is written to
+ * the table of its interval once it closes, either because a data point in a later bucket of the
+ * same time series arrived or because the configured delay has passed since the end of the bucket.
+ * Rollups are kept as long as the latest data point of their bucket.
+ *
+ * <p>Data points that arrive after their bucket has been written are left out of the rollups, they
+ * are only counted. Time series whose buckets all have been written are forgotten, after which
+ * their buckets that ended more than the delay ago are treated as written. The buckets are only
+ * kept in memory so a process that writes a time series is expected to be the only one that does.
+ * Buckets that are open when the strategy is closed are written as they are, any data points of
+ * those buckets that arrive after a restart replace them.
+ */
+class AggregatingRollupStrategy implements RollupStrategy {
+  private static final Logger LOG = LoggerFactory.getLogger(AggregatingRollupStrategy.class);
+
+  /**
+   * How often buckets that no longer receive any data points are looked for.
+   */
+  private static final long SWEEP_PERIOD = RollupInterval.MINUTE.duration();
+
+  private final Session session;
+  private final Clock clock;
+  private final ScheduledExecutorService executor;
+  private final long delay;
+  private final long since;
+
+  private final Map<RollupInterval, PreparedStatement> insertRollupStatements;
+  private final Map<RollupInterval, PreparedStatement> selectRollupsStatements;
+
+  /**
+   * The open buckets of every time series that has been written to since all of its buckets were
+   * last written.
+   */
+  private final ConcurrentMap<ByteBuffer, SeriesBuckets> series = new ConcurrentHashMap<>();
+
+  private final Counter written = new Counter();
+  private final Counter late = new Counter();
+  private final Counter failures = new Counter();
+
+  /**
+   * Create a new strategy that looks for closed buckets on the provided executor.
+   *
+   * @param session The session to read and write rollups with
+   * @param consistencyLevel The consistency level to write rollups with
+   * @param clock The clock used to decide when buckets are closed
+   * @param executor The executor to look for closed buckets on
+   * @param delay The number of milliseconds to wait after the end of a bucket before it is
+   * written if no data point in a later bucket has arrived
+   * @param since The time in milliseconds since the epoch from which data points have been rolled
+   * up, rollups are not read for the time before it
+   */
+  AggregatingRollupStrategy(final Session session,
+                            final ConsistencyLevel consistencyLevel,
+                            final Clock clock,
+                            final ScheduledExecutorService executor,
+                            final long delay,
+                            final long since) {
+    checkArgument(delay >= 0, "The rollup delay must not be negative but was %s", delay);
+
+    this.session = checkNotNull(session);
+    this.clock = checkNotNull(clock);
+    this.executor = checkNotNull(executor);
+    this.delay = delay;
+    this.since = since;
+
+    this.insertRollupStatements = new EnumMap<>(RollupInterval.class);
+    this.selectRollupsStatements = new EnumMap<>(RollupInterval.class);
+
+    for (final RollupInterval interval : RollupInterval.values()) {
+      final RollupStatements statements =
+          new RollupStatements(session, consistencyLevel, interval);
+      insertRollupStatements.put(interval, statements.insertRollupStatement());
+      selectRollupsStatements.put(interval, statements.selectRollupsStatement());
+    }
+
+    executor.scheduleWithFixedDelay(this::writeClosedBuckets, SWEEP_PERIOD, SWEEP_PERIOD,
+        MILLISECONDS);
+  }
+
+  /**
+   * Get the number of milliseconds each partition of the rollup table of the provided interval
+   * covers. Partitions of both tables hold 1440 rollups.
+   */
+  static long partitionPeriodFor(final RollupInterval interval) {
+    switch (interval) {
+      case MINUTE:
+        return MILLISECONDS.convert(1, DAYS);
+      case HOUR:
+        return MILLISECONDS.convert(60, DAYS);
+      default:
+        throw new IllegalArgumentException("There is no partition period for " + interval);
+    }
+  }
+
+  @Override
+  public void pointWritten(final ByteBuffer timeSeriesId,
+                           final long timestamp,
+                           final double value,
+                           final int ttl) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+
+    while (true) {
+      final SeriesBuckets buckets = bucketsOf(timeSeriesId);
+
+      synchronized (buckets) {
+        // The time series may have been forgotten since it was looked up.
+        if (buckets.evicted) {
+          continue;
+        }
+
+        for (final RollupInterval interval : RollupInterval.values()) {
+          add(buckets, interval, interval.bucketFor(timestamp), value, ttl);
+        }
+
+        return;
+      }
+    }
+  }
+
+  private SeriesBuckets bucketsOf(final ByteBuffer timeSeriesId) {
+    final SeriesBuckets buckets = series.get(timeSeriesId);
+
+    if (buckets != null) {
+      return buckets;
+    }
+
+    final SeriesBuckets created = new SeriesBuckets(copyOf(timeSeriesId), writtenBefore());
+    final SeriesBuckets existing = series.putIfAbsent(created.timeSeriesId, created);
+    return existing != null ? existing : created;
+  }
+
+  /**
+   * Get the start of the oldest bucket of every interval that may not have been written yet for a
+   * time series that is not remembered. Buckets that ended more than the delay ago before the
+   * latest sweep have been written if they had any data points.
+   */
+  private long[] writtenBefore() {
+    final long[] writtenBefore = new long[RollupInterval.values().length];
+    final long sweptBefore = clock.millis() - delay - SWEEP_PERIOD;
+
+    for (final RollupInterval interval : RollupInterval.values()) {
+      writtenBefore[interval.ordinal()] = interval.bucketFor(sweptBefore);
+    }
+
+    return writtenBefore;
+  }
+
+  private void add(final SeriesBuckets buckets,
+                   final RollupInterval interval,
+                   final long bucketStart,
+                   final double value,
+                   final int ttl) {
+    final int index = interval.ordinal();
+    final Bucket bucket = buckets.open[index];
+
+    if (bucket != null && bucket.start == bucketStart) {
+      bucket.add(value, ttl);
+    } else if (bucketStart < buckets.closedBefore[index]
+               || (bucket != null && bucketStart < bucket.start)) {
+      late.inc();
+    } else {
+      if (bucket != null) {
+        closeBucket(buckets, interval);
+      }
+
+      buckets.open[index] = new Bucket(bucketStart, value, ttl);
+    }
+  }
+
+  private void closeBucket(final SeriesBuckets buckets, final RollupInterval interval) {
+    final int index = interval.ordinal();
+    final Bucket bucket = buckets.open[index];
+
+    buckets.open[index] = null;
+    buckets.closedBefore[index] = bucket.start + interval.duration();
+
+    write(buckets.timeSeriesId, interval, bucket);
+  }
+
+  private static ByteBuffer copyOf(final ByteBuffer buffer) {
+    final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+    copy.put(buffer.duplicate());
+    copy.flip();
+    return copy;
+  }
+
+  /**
+   * Write every bucket that ended at least {@link #delay} milliseconds ago. Time series that had no
+   * open buckets left after the previous sweep are forgotten.
+   */
+  void writeClosedBuckets() {
+    final long now = clock.millis();
+
+    for (final SeriesBuckets buckets : series.values()) {
+      synchronized (buckets) {
+        if (buckets.isIdle()) {
+          series.remove(buckets.timeSeriesId, buckets);
+          buckets.evicted = true;
+          continue;
+        }
+
+        for (final RollupInterval interval : RollupInterval.values()) {
+          final Bucket bucket = buckets.open[interval.ordinal()];
+
+          if (bucket != null && bucket.start + interval.duration() + delay <= now) {
+            closeBucket(buckets, interval);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Write the provided bucket to the table of the provided interval.
+   *
+   * @return A future that completes once the bucket has been written
+   */
+  ListenableFuture<ResultSet> write(final ByteBuffer timeSeriesId,
+                                    final RollupInterval interval,
+                                    final Bucket bucket) {
+    final ResultSetFuture future = session.executeAsync(insertRollupStatements.get(interval).bind()
+        .setBytesUnsafe(InsertRollupStatementMarkers.ID.ordinal(), timeSeriesId)
+        .setLong(InsertRollupStatementMarkers.BASE_TIME.ordinal(),
+            BaseTimes.baseTimeFor(bucket.start, partitionPeriodFor(interval)))
+        .setLong(InsertRollupStatementMarkers.TIMESTAMP.ordinal(), bucket.start)
+        .setDouble(InsertRollupStatementMarkers.MIN.ordinal(), bucket.min)
+        .setDouble(InsertRollupStatementMarkers.MAX.ordinal(), bucket.max)
+        .setDouble(InsertRollupStatementMarkers.SUM.ordinal(), bucket.sum)
+        .setLong(InsertRollupStatementMarkers.COUNT.ordinal(), bucket.count)
+        .setInt(InsertRollupStatementMarkers.USING_TTL.ordinal(), bucket.ttl)
+        .setIdempotent(true));
+
+    Futures.addCallback(future, new FutureCallback<ResultSet>() {
+      @Override
+      public void onSuccess(final ResultSet result) {
+        written.inc();
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        failures.inc();
+        LOG.warn("Failed to write the {} rollup at {}", interval, bucket.start, throwable);
+      }
+    });
+
+    return future;
+  }
+
+  @Override
+  public Optional<AsyncIterator<? extends DataPoint>> fetchRollups(final ByteBuffer timeSeriesId,
+                                                                   final long startTime,
+                                                                   final long endTime,
+                                                                   final RollupInterval interval) {
+    final PreparedStatement selectRollupsStatement = selectRollupsStatements.get(interval);
+    final long lowerTimestamp = interval.bucketFor(startTime);
+
+    final AsyncIterator<Row> rows = new SpeculativePartitionIterator<>(
+        BaseTimes.baseTimesBetween(lowerTimestamp, endTime, partitionPeriodFor(interval)),
+        new Function<Long, ResultSetFuture>() {
+          @Override
+          public ResultSetFuture apply(final Long baseTime) {
+            return session.executeAsync(selectRollupsStatement.bind()
+                .setBytesUnsafe(SelectRollupsStatementMarkers.ID.ordinal(), timeSeriesId)
+                .setLong(SelectRollupsStatementMarkers.BASE_TIME.ordinal(), baseTime)
+                .setLong(SelectRollupsStatementMarkers.LOWER_TIMESTAMP.ordinal(), lowerTimestamp)
+                .setLong(SelectRollupsStatementMarkers.UPPER_TIMESTAMP.ordinal(), endTime)
+                .setIdempotent(true));
+          }
+        });
+
+    return Optional.<AsyncIterator<? extends DataPoint>>of(new RollupIterator(rows));
+  }
+
+  /**
+   * Get the buckets from the first one that started after {@link #since} up to the open bucket of
+   * the time series, or up to the buckets that may not have been written yet if it has none.
+   */
+  @Override
+  public Range<Long> rolledUp(final ByteBuffer timeSeriesId, final RollupInterval interval) {
+    final long firstBucket = interval.bucketFor(since);
+    final long lower = firstBucket == since ? since : firstBucket + interval.duration();
+    long upper = writtenBefore()[interval.ordinal()];
+
+    final SeriesBuckets buckets = series.get(timeSeriesId);
+
+    if (buckets != null) {
+      synchronized (buckets) {
+        final Bucket open = buckets.open[interval.ordinal()];
+
+        if (open != null) {
+          upper = open.start;
+        }
+      }
+    }
+
+    return Range.closedOpen(lower, Math.max(lower, upper));
+  }
+
+  /**
+   * The number of time series that are remembered.
+   */
+  int series() {
+    return series.size();
+  }
+
+  /**
+   * The number of buckets that have not been written yet.
+   */
+  int openBuckets() {
+    int open = 0;
+
+    for (final SeriesBuckets buckets : series.values()) {
+      synchronized (buckets) {
+        for (final Bucket bucket : buckets.open) {
+          if (bucket != null) {
+            open++;
+          }
+        }
+      }
+    }
+
+    return open;
+  }
+
+  @Override
+  public void registerMetricsWith(final MetricRegistry registry) {
+    registry.register("freki.storage.cassandra.rollups.open", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return openBuckets();
+      }
+    });
+
+    registry.register("freki.storage.cassandra.rollups.written", written);
+    registry.register("freki.storage.cassandra.rollups.late", late);
+    registry.register("freki.storage.cassandra.rollups.failures", failures);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+
+    final List<ListenableFuture<ResultSet>> writes = new ArrayList<>();
+
+    for (final SeriesBuckets buckets : series.values()) {
+      synchronized (buckets) {
+        for (final RollupInterval interval : RollupInterval.values()) {
+          final Bucket bucket = buckets.open[interval.ordinal()];
+
+          if (bucket != null) {
+            writes.add(write(buckets.timeSeriesId, interval, bucket));
+            buckets.open[interval.ordinal()] = null;
+          }
+        }
+      }
+    }
+
+    try {
+      Uninterruptibles.getUninterruptibly(Futures.successfulAsList(writes));
+      LOG.info("Wrote {} open rollups before closing", writes.size());
+    } catch (ExecutionException e) {
+      LOG.warn("Failed to write the open rollups before closing", e);
+    }
+  }
+
+  /**
+   * The open bucket of each interval for a single time series. The arrays are indexed by the
+   * ordinal of the interval. Access is guarded by the instance itself.
+   */
+  private static final class SeriesBuckets {
+    private final ByteBuffer timeSeriesId;
+    private final Bucket[] open = new Bucket[RollupInterval.values().length];
+
+    /**
+     * The end of the latest bucket that has been written, data points before it are late.
+     */
+    private final long[] closedBefore;
+
+    /**
+     * Set once the time series has been forgotten, data points must then be added to a new
+     * instance.
+     */
+    private boolean evicted;
+
+    SeriesBuckets(final ByteBuffer timeSeriesId, final long[] closedBefore) {
+      this.timeSeriesId = timeSeriesId;
+      this.closedBefore = closedBefore;
+    }
+
+    boolean isIdle() {
+      for (final Bucket bucket : open) {
+        if (bucket != null) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * The summary of the data points within a single bucket.
+   */
+  static final class Bucket {
+    final long start;
+    double min;
+    double max;
+    double sum;
+    long count;
+
+    /**
+     * The TTL in seconds of the latest data point, the bucket is written with it.
+     */
+    int ttl;
+
+    Bucket(final long start, final double value, final int ttl) {
+      this.start = start;
+      this.min = value;
+      this.max = value;
+      this.sum = value;
+      this.count = 1;
+      this.ttl = ttl;
+    }
+
+    void add(final double value, final int ttl) {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      sum += value;
+      count++;
+      this.ttl = ttl;
+    }
+  }
+}
@@ -17,7 +17,25 @@ final class BaseTimes {
    * Calculate the base time based on a timestamp to be used in a partition key.
    */
   static long baseTimeFor(final long timestamp) {
-    return (timestamp - (timestamp % BASE_TIME_PERIOD));
+    return baseTimeFor(timestamp, BASE_TIME_PERIOD);
+  }
+
+  /**
+   * Calculate the base time based on a timestamp to be used in a partition key of a metric whose
+   * partitions each cover {@code period} milliseconds.
+   */
+  static long baseTimeFor(final long timestamp, final long period) {
+    return (timestamp - (timestamp % period));
+  }
+
+  /**
+   * The timestamp that the compacted chunk of the partition with the provided base time is stored
+   * at. It is just before the base time so that it sorts before every data point in the partition
+   * while it still belongs to the previous partition and therefore never collides with a data
+   * point.
+   */
+  static long chunkTimestampFor(final long baseTime) {
+    return baseTime - 1;
   }
 
   /**
@@ -30,16 +48,33 @@ final class BaseTimes {
    * @see se.tre.freki.storage.cassandra.BaseTimes.BaseTimeGenerator
    */
   static PrimitiveIterator.OfLong baseTimesBetween(final long start, final long end) {
-    return new BaseTimeGenerator(start, end);
+    return baseTimesBetween(start, end, BASE_TIME_PERIOD);
+  }
+
+  /**
+   * Build an iterator that will yield all base times (inclusive) of partitions that each cover
+   * {@code period} milliseconds between the provided start and end timestamp.
+   *
+   * @param start The timestamp the iterator will start yielding base times from
+   * @param end The timestamp the iterator will stop yielding base times at
+   * @param period The number of milliseconds each partition covers
+   * @return A primitive iterator that yields base times within the provided timestamps
+   */
+  static PrimitiveIterator.OfLong baseTimesBetween(final long start,
+                                                   final long end,
+                                                   final long period) {
+    return new BaseTimeGenerator(start, end, period);
   }
 
   private static class BaseTimeGenerator implements PrimitiveIterator.OfLong {
     private final long end;
+    private final long period;
 
     private long current;
 
-    public BaseTimeGenerator(final long start, final long end) {
-      this.end = baseTimeFor(end + BASE_TIME_PERIOD);
+    public BaseTimeGenerator(final long start, final long end, final long period) {
+      this.end = baseTimeFor(end + period, period);
+      this.period = period;
       this.current = start;
     }
 
@@ -54,8 +89,8 @@ final class BaseTimes {
         throw new NoSuchElementException("End of time range has been reached");
       }
 
-      final long baseTime = baseTimeFor(current);
-      current += BASE_TIME_PERIOD;
+      final long baseTime = baseTimeFor(current, period);
+      current += period;
       return baseTime;
     }
   }
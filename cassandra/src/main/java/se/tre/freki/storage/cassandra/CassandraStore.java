@@ -1,10 +1,12 @@
 package se.tre.freki.storage.cassandra;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.util.concurrent.Futures.transform;
 import static se.tre.freki.storage.cassandra.CassandraLabelId.fromLong;
 import static se.tre.freki.storage.cassandra.CassandraLabelId.toLong;
 
+import se.tre.freki.core.QueryScheduler;
 import se.tre.freki.labels.LabelException;
 import se.tre.freki.labels.LabelId;
 import se.tre.freki.labels.LabelType;
@@ -12,35 +14,57 @@ import se.tre.freki.labels.TimeSeriesId;
 import se.tre.freki.meta.Annotation;
 import se.tre.freki.meta.LabelMeta;
 import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.query.RollupInterval;
+import se.tre.freki.query.SeriesIndex;
 import se.tre.freki.query.TimeSeriesQuery;
 import se.tre.freki.query.predicate.TimeSeriesQueryPredicate;
+import se.tre.freki.query.predicate.TimeSeriesTagPredicate;
+import se.tre.freki.storage.AddPointsResult;
 import se.tre.freki.storage.Store;
+import se.tre.freki.storage.TimeSeriesDataPoint;
 import se.tre.freki.storage.cassandra.functions.FirstOrAbsentFunction;
-import se.tre.freki.storage.cassandra.functions.IsEmptyFunction;
 import se.tre.freki.storage.cassandra.functions.MultipleRowLoggingFunction;
-import se.tre.freki.storage.cassandra.functions.ToVoidFunction;
 import se.tre.freki.storage.cassandra.query.DataPointIterator;
+import se.tre.freki.storage.cassandra.query.PrefetchWindow;
+import se.tre.freki.storage.cassandra.query.SeriesFetchWindow;
 import se.tre.freki.storage.cassandra.query.SpeculativePartitionIterator;
 import se.tre.freki.storage.cassandra.statements.AddPointStatements;
 import se.tre.freki.storage.cassandra.statements.AddPointStatements.AddPointStatementMarkers;
 import se.tre.freki.storage.cassandra.statements.FetchPointsStatements;
+import se.tre.freki.storage.cassandra.statements.FetchPointsStatements.SelectChunkStatementMarkers;
+import se.tre.freki.storage.cassandra.statements.FetchPointsStatements.SelectLatestPointsStatementMarkers;
 import se.tre.freki.storage.cassandra.statements.FetchPointsStatements.SelectPointStatementMarkers;
+import se.tre.freki.storage.cassandra.statements.FetchPointsStatements.SelectPointsInPartitionsStatementMarkers;
 import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.AsyncIterators;
 
 import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TokenRange;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Table;
 import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
@@ -48,9 +72,16 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -60,6 +91,31 @@ import javax.annotation.Nullable;
 public class CassandraStore extends Store {
   private static final Logger LOG = LoggerFactory.getLogger(CassandraStore.class);
 
+  /**
+   * The number of scans that read the token ranges of the {@code ts_index} table in parallel when
+   * the series index is loaded.
+   */
+  private static final int SERIES_INDEX_SCANS = 16;
+
+  /**
+   * The maximum number of metrics to remember the storage policy of.
+   */
+  private static final int MAX_CACHED_POLICIES = 100000;
+
+  /**
+   * The maximum number of label reads that the bulk lookups {@link #getIds(Collection, LabelType)}
+   * and {@link #getNames(Collection, LabelType)} keep in flight at a time.
+   */
+  private static final int MAX_CONCURRENT_LABEL_READS = 128;
+
+  /**
+   * The maximum number of time series that are looked up in the {@code ts_index} table with a
+   * single read when time series are resolved through Cassandra, and the number of such reads that
+   * are kept in flight at a time.
+   */
+  private static final int TIME_SERIES_PER_READ = 100;
+  private static final int MAX_CONCURRENT_TIME_SERIES_READS = 8;
+
   /**
    * The Cassandra cluster that we are connected to.
    */
@@ -86,10 +142,22 @@ public class CassandraStore extends Store {
    */
   private final PreparedStatement fetchTimeSeriesStatement;
 
+  /**
+   * Statement to fetch the data points of several adjacent partitions of a single time series.
+   */
+  private final PreparedStatement fetchTimeSeriesPartitionsStatement;
+
+  /**
+   * Statements to fetch the newest data points of a partition and its compacted chunk.
+   */
+  private final PreparedStatement fetchLatestStatement;
+  private final PreparedStatement fetchChunkStatement;
+
   /**
    * The statement used by the {@link #createLabel} method.
    */
   private final PreparedStatement createIdStatement;
+  private final PreparedStatement deleteIdStatement;
   /**
    * Used for {@link #renameLabel}, the one that does rename.
    */
@@ -102,6 +170,71 @@ public class CassandraStore extends Store {
 
   private final IndexStrategy addPointIndexingStrategy;
 
+  /**
+   * The strategy that is told about every partition data points are written to.
+   */
+  private final CompactionStrategy compactionStrategy;
+
+  /**
+   * The strategy that is told about every data point that is written and the reader that queries
+   * read its rollups through.
+   */
+  private final RollupStrategy rollupStrategy;
+  private final RollupReader rollupReader;
+
+  /**
+   * The configured storage policies and the policies that have been resolved for each metric so
+   * far. The policy of a metric is found by its name so it is only looked up once per metric.
+   */
+  private final StoragePolicies storagePolicies;
+  private final Cache<LabelId, StoragePolicy> metricPolicies;
+  private final ListenableFuture<StoragePolicy> defaultPolicy;
+
+  /**
+   * The maximum number of statements that {@link #addPoints} will put in a single batch.
+   */
+  private final int maxBatchSize;
+
+  /** The max number of time series that a single query fetches at the same time. */
+  private final int maxOpenSeries;
+
+  /**
+   * Decides how many partitions of each time series are fetched at the same time by queries.
+   */
+  private final PrefetchWindow prefetchWindow;
+
+  /**
+   * Decides how many adjacent partitions of a time series queries read with a single request.
+   */
+  private final PartitionDensities partitionDensities;
+
+  /**
+   * Holds the data points of partitions that have closed so that queries do not read them again,
+   * and the reader that reads time series through it.
+   */
+  private final PartitionCache partitionCache;
+  private final PartitionCacheReader partitionCacheReader;
+
+  /**
+   * Resolves the time series of queries in memory once it has been loaded, {@code null} if
+   * queries always resolve them through the inverted index in Cassandra.
+   */
+  @Nullable
+  private final SeriesIndex<CassandraTimeSeriesId> seriesIndex;
+  private volatile boolean seriesIndexLoaded;
+
+  /**
+   * The consistency level that batches of data points are written with. Statements that are added
+   * to a batch do not keep their own consistency level.
+   */
+  private final ConsistencyLevel writeConsistency;
+
+  /**
+   * The consistency level that labels are created with and that newly created labels are read back
+   * with to detect if someone else got there first.
+   */
+  private final ConsistencyLevel labelConsistency;
+
   /**
    * The statements used when trying to get {@link #getMeta(LabelId, LabelType)} or update meta
    * {@link #updateMeta(LabelMeta)}.
@@ -109,7 +242,20 @@ public class CassandraStore extends Store {
   private final PreparedStatement getMetaStatement;
   private final PreparedStatement updateMetaStatement;
 
+  /**
+   * The statement that finds the time series IDs that use a label in the inverted index and the
+   * statement that looks up the metric and tags of a time series ID.
+   */
   private final PreparedStatement resolveTimeSeriesStatement;
+  private final PreparedStatement getTimeSeriesStatement;
+  private final PreparedStatement scanTimeSeriesStatement;
+
+  /**
+   * The statements that find and copy time series that only are described by the legacy columns
+   * of the inverted index into the {@code ts_index} table.
+   */
+  private final PreparedStatement scanLegacyPostingsStatement;
+  private final PreparedStatement backfillTimeSeriesStatement;
 
   /**
    * Create a new instance that will use the provided Cassandra cluster and session instances.
@@ -117,34 +263,222 @@ public class CassandraStore extends Store {
    * @param cluster A built and configured cluster instance
    * @param session A configured and connected session instance
    * @param clock A Clock to generate times for the time series.
+   * @param options The strategies, caches, windows and limits to read and write data points with
    */
-  public CassandraStore(final Cluster cluster,
-                        final Session session,
-                        final Clock clock,
-                        final IndexStrategy addPointIndexingStrategy) {
+  CassandraStore(final Cluster cluster,
+                 final Session session,
+                 final Clock clock,
+                 final CassandraStoreOptions options) {
     this.cluster = checkNotNull(cluster);
     this.session = checkNotNull(session);
     this.clock = checkNotNull(clock);
 
-    this.addPointIndexingStrategy = checkNotNull(addPointIndexingStrategy);
-
-    final AddPointStatements addPointStatements = new AddPointStatements(session);
+    this.addPointIndexingStrategy = options.indexingStrategy();
+    this.compactionStrategy = options.compactionStrategy();
+    this.rollupStrategy = options.rollupStrategy();
+    this.rollupReader = new RollupReader(rollupStrategy);
+
+    this.storagePolicies = options.storagePolicies();
+    this.metricPolicies = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_POLICIES)
+        .build();
+    this.defaultPolicy = Futures.immediateFuture(storagePolicies.defaultPolicy());
+
+    checkArgument(options.maxOpenSeries() > 0, "The max number of open series must be larger "
+                                               + "than zero but was %s", options.maxOpenSeries());
+    this.maxOpenSeries = options.maxOpenSeries();
+
+    checkArgument(options.maxBatchSize() > 0, "The max batch size must be larger than zero but "
+                                              + "was %s", options.maxBatchSize());
+    this.maxBatchSize = options.maxBatchSize();
+    this.prefetchWindow = options.prefetchWindow();
+    this.partitionDensities = options.partitionDensities();
+    this.partitionCache = options.partitionCache();
+    this.partitionCacheReader = new PartitionCacheReader(partitionCache,
+        this::fetchTimeSeriesPartition);
+    this.writeConsistency = options.writeConsistency();
+    this.labelConsistency = options.labelConsistency();
+
+    final AddPointStatements addPointStatements =
+        new AddPointStatements(session, writeConsistency);
     this.addFloatStatement = addPointStatements.addFloatStatement();
     this.addDoubleStatement = addPointStatements.addDoubleStatement();
     this.addLongStatement = addPointStatements.addLongStatement();
 
     final FetchPointsStatements fetchPointsStatements = new FetchPointsStatements(session);
     this.fetchTimeSeriesStatement = fetchPointsStatements.selectDataPointsStatement();
+    this.fetchTimeSeriesPartitionsStatement =
+        fetchPointsStatements.selectDataPointsInPartitionsStatement();
+    this.fetchLatestStatement = fetchPointsStatements.selectLatestDataPointsStatement();
+    this.fetchChunkStatement = fetchPointsStatements.selectChunkStatement();
 
-    final CassandraStoreStatements cassandraStoreStatements = new CassandraStoreStatements(session);
+    final CassandraStoreStatements cassandraStoreStatements =
+        new CassandraStoreStatements(session, labelConsistency);
 
     this.createIdStatement = cassandraStoreStatements.createIdStatement();
+    this.deleteIdStatement = cassandraStoreStatements.deleteIdStatement();
     this.updateNameUidStatement = cassandraStoreStatements.updateNameUidStatement();
     this.getNameStatement = cassandraStoreStatements.getNameStatement();
     this.getIdStatement = cassandraStoreStatements.getIdStatement();
     this.getMetaStatement = cassandraStoreStatements.getMetaStatement();
     this.updateMetaStatement = cassandraStoreStatements.updateMetaStatement();
     this.resolveTimeSeriesStatement = cassandraStoreStatements.resolveTimeSeriesStatement();
+    this.getTimeSeriesStatement = cassandraStoreStatements.getTimeSeriesStatement();
+    this.scanTimeSeriesStatement = cassandraStoreStatements.scanTimeSeriesStatement();
+    this.scanLegacyPostingsStatement = cassandraStoreStatements.scanLegacyPostingsStatement();
+    this.backfillTimeSeriesStatement = cassandraStoreStatements.backfillTimeSeriesStatement();
+
+    if (options.indexSeriesInMemory()) {
+      this.seriesIndex = new SeriesIndex<>(CassandraTimeSeriesId::timeSeriesId);
+      loadSeriesIndex();
+    } else {
+      this.seriesIndex = null;
+    }
+  }
+
+  /**
+   * Read every time series in the {@code ts_index} table into the series index. The token ring is
+   * split into ranges that are read in parallel. The inverted index is read the same way afterwards
+   * to pick up and backfill the time series that were written before the {@code ts_index} table
+   * existed. Queries keep resolving their time series through Cassandra until all ranges have been
+   * read.
+   */
+  private void loadSeriesIndex() {
+    final List<TokenRange> ranges = new ArrayList<>();
+
+    for (final TokenRange range : cluster.getMetadata().getTokenRanges()) {
+      ranges.addAll(range.unwrap());
+    }
+
+    final int rangesPerScan = Math.max(1, ranges.size() / SERIES_INDEX_SCANS);
+    final List<List<TokenRange>> scanRanges = Lists.partition(ranges, rangesPerScan);
+
+    final ListenableFuture<List<Void>> scans = transform(
+        scanRanges(scanRanges, scanTimeSeriesStatement, this::indexTimeSeriesRow),
+        new AsyncFunction<List<Void>, List<Void>>() {
+          @Override
+          public ListenableFuture<List<Void>> apply(final List<Void> result) {
+            return scanRanges(scanRanges, scanLegacyPostingsStatement,
+                row -> indexLegacyPostingRow(row));
+          }
+        });
+
+    Futures.addCallback(scans, new FutureCallback<List<Void>>() {
+      @Override
+      public void onSuccess(final List<Void> result) {
+        seriesIndexLoaded = true;
+        LOG.info("Loaded {} time series into the series index", seriesIndex.size());
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        LOG.error("Failed to load the series index, queries will resolve time series through "
+                  + "Cassandra", throwable);
+      }
+    });
+  }
+
+  /**
+   * Scan every list of token ranges in parallel with the provided statement.
+   */
+  private ListenableFuture<List<Void>> scanRanges(final List<List<TokenRange>> scanRanges,
+                                                  final PreparedStatement statement,
+                                                  final Consumer<Row> rowConsumer) {
+    final List<ListenableFuture<Void>> scans = new ArrayList<>(scanRanges.size());
+
+    for (final List<TokenRange> ranges : scanRanges) {
+      scans.add(scanRanges(ranges.iterator(), statement, rowConsumer));
+    }
+
+    return Futures.allAsList(scans);
+  }
+
+  /**
+   * Read the rows in the provided token ranges with the provided statement and pass them to the
+   * provided consumer, one range at a time.
+   */
+  private ListenableFuture<Void> scanRanges(final Iterator<TokenRange> ranges,
+                                            final PreparedStatement statement,
+                                            final Consumer<Row> rowConsumer) {
+    if (!ranges.hasNext()) {
+      return Futures.immediateFuture(null);
+    }
+
+    final TokenRange range = ranges.next();
+    final ResultSetFuture rows = session.executeAsync(statement.bind()
+        .setToken(0, range.getStart())
+        .setToken(1, range.getEnd())
+        .setIdempotent(true));
+
+    return transform(ResultSets.allRows(rows), new AsyncFunction<List<Row>, Void>() {
+      @Override
+      public ListenableFuture<Void> apply(final List<Row> rows) {
+        rows.forEach(rowConsumer);
+        return scanRanges(ranges, statement, rowConsumer);
+      }
+    });
+  }
+
+  private void indexTimeSeriesRow(final Row row) {
+    seriesIndex.add(new CassandraTimeSeriesId(row));
+  }
+
+  /**
+   * Add the time series of the provided row in the inverted index to the series index if it is a
+   * metric posting with the legacy metric and tags columns set. Since the {@code ts_index} table
+   * has been read by the time this is called, time series that are new to the series index are
+   * missing from it and are backfilled.
+   */
+  private void indexLegacyPostingRow(final Row row) {
+    if (!LabelType.METRIC.toValue().equals(row.getString("type")) || row.isNull("metric")) {
+      return;
+    }
+
+    final CassandraTimeSeriesId timeSeries = new CassandraTimeSeriesId(row);
+
+    if (seriesIndex.add(timeSeries)) {
+      backfillTimeSeries(row);
+    }
+  }
+
+  /**
+   * Copy the metric and tags of the provided row in the inverted index to the {@code ts_index}
+   * table. Failures are only logged since the time series is found through the legacy columns
+   * until it has been copied.
+   */
+  private void backfillTimeSeries(final Row legacyPosting) {
+    final ByteBuffer timeSeriesId = legacyPosting.getBytesUnsafe("timeseries_id");
+
+    Futures.addCallback(session.executeAsync(backfillTimeSeriesStatement.bind()
+        .setBytesUnsafe(0, timeSeriesId)
+        .setLong(1, legacyPosting.getLong("metric"))
+        .setMap(2, legacyPosting.getMap("tags", Long.class, Long.class))),
+        new FutureCallback<ResultSet>() {
+          @Override
+          public void onSuccess(final ResultSet result) {
+          }
+
+          @Override
+          public void onFailure(final Throwable throwable) {
+            LOG.warn("Failed to copy time series {} to the ts_index table",
+                TimeSeriesIds.toUuid(timeSeriesId), throwable);
+          }
+        });
+  }
+
+  /**
+   * Index the provided time series in Cassandra and in the series index if there is one. This is
+   * called for every write so the series index entry is only built for time series that are new to
+   * it.
+   */
+  private void indexTimeSeries(final TimeSeriesId timeSeries, final ByteBuffer timeSeriesId) {
+    addPointIndexingStrategy.indexTimeseriesId(timeSeries.metric(), timeSeries.tags(),
+        timeSeriesId);
+
+    if (seriesIndex != null && !seriesIndex.contains(timeSeriesId)) {
+      seriesIndex.add(new CassandraTimeSeriesId(timeSeries.metric(),
+          ImmutableList.copyOf(timeSeries.tags()), timeSeriesId));
+    }
   }
 
   @Nonnull
@@ -152,9 +486,7 @@ public class CassandraStore extends Store {
   public ListenableFuture<Void> addPoint(final TimeSeriesId tsuid,
                                          final long timestamp,
                                          final float value) {
-    final BoundStatement addPointStatement = addFloatStatement.bind()
-        .setFloat(AddPointStatementMarkers.VALUE.ordinal(), value);
-    return addPoint(addPointStatement, tsuid.metric(), tsuid.tags(), timestamp);
+    return addPoint(tsuid, DataPoints.floatPoint(timestamp, value));
   }
 
   @Nonnull
@@ -162,9 +494,7 @@ public class CassandraStore extends Store {
   public ListenableFuture<Void> addPoint(final TimeSeriesId tsuid,
                                          final long timestamp,
                                          final double value) {
-    final BoundStatement addPointStatement = addDoubleStatement.bind()
-        .setDouble(AddPointStatementMarkers.VALUE.ordinal(), value);
-    return addPoint(addPointStatement, tsuid.metric(), tsuid.tags(), timestamp);
+    return addPoint(tsuid, DataPoints.doublePoint(timestamp, value));
   }
 
   @Nonnull
@@ -172,73 +502,345 @@ public class CassandraStore extends Store {
   public ListenableFuture<Void> addPoint(final TimeSeriesId tsuid,
                                          final long timestamp,
                                          final long value) {
-    final BoundStatement addPointStatement = addLongStatement.bind()
-        .setLong(AddPointStatementMarkers.VALUE.ordinal(), value);
-    return addPoint(addPointStatement, tsuid.metric(), tsuid.tags(), timestamp);
+    return addPoint(tsuid, DataPoints.longPoint(timestamp, value));
   }
 
   @Nonnull
-  private ListenableFuture<Void> addPoint(final BoundStatement addPointStatement,
-                                          final LabelId metric,
-                                          final List<LabelId> tags,
-                                          final long timestamp) {
-    final ByteBuffer timeSeriesId = TimeSeriesIds.timeSeriesId(metric, tags);
-    final long baseTime = BaseTimes.baseTimeFor(timestamp);
+  private ListenableFuture<Void> addPoint(final TimeSeriesId tsuid,
+                                          final DataPoint dataPoint) {
+    return transform(policyFor(tsuid.metric()), new AsyncFunction<StoragePolicy, Void>() {
+      @Override
+      public ListenableFuture<Void> apply(final StoragePolicy policy) {
+        final ByteBuffer timeSeriesId = timeSeriesIdFor(tsuid);
+        final long timestamp = dataPoint.timestamp();
+        final long baseTime = BaseTimes.baseTimeFor(timestamp, policy.partitionPeriod());
 
-    addPointStatement.setBytesUnsafe(AddPointStatementMarkers.ID.ordinal(), timeSeriesId);
-    addPointStatement.setLong(AddPointStatementMarkers.BASE_TIME.ordinal(), baseTime);
-    addPointStatement.setLong(AddPointStatementMarkers.TIMESTAMP.ordinal(), timestamp);
-    addPointStatement.setLong(AddPointStatementMarkers.USING_TIMESTAMP.ordinal(), timestamp);
+        final ResultSetFuture future = session.executeAsync(bindAddPoint(
+            addPointStatementFor(dataPoint, policy), timeSeriesId, baseTime, timestamp, policy));
 
-    final ResultSetFuture future = session.executeAsync(addPointStatement);
+        indexTimeSeries(tsuid, timeSeriesId);
+        compactionStrategy.partitionWritten(timeSeriesId, baseTime, policy.ttl());
 
-    addPointIndexingStrategy.indexTimeseriesId(metric, tags, timeSeriesId);
+        return transform(future, new Function<ResultSet, Void>() {
+          @Override
+          public Void apply(final ResultSet result) {
+            partitionWritten(timeSeriesId, baseTime, policy);
+            rollupStrategy.pointWritten(timeSeriesId, timestamp, rollupValueOf(dataPoint, policy),
+                policy.ttl());
+            return null;
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Find the storage policy of the provided metric. The name of the metric is looked up the first
+   * time the metric is seen, after that the policy is remembered. Metrics without a name use the
+   * default policy.
+   */
+  private ListenableFuture<StoragePolicy> policyFor(final LabelId metric) {
+    if (storagePolicies.isUniform()) {
+      return defaultPolicy;
+    }
+
+    final StoragePolicy policy = metricPolicies.getIfPresent(metric);
+
+    if (policy != null) {
+      return Futures.immediateFuture(policy);
+    }
+
+    return transform(getName(metric, LabelType.METRIC),
+        new Function<Optional<String>, StoragePolicy>() {
+          @Override
+          public StoragePolicy apply(final Optional<String> name) {
+            if (!name.isPresent()) {
+              return storagePolicies.defaultPolicy();
+            }
+
+            final StoragePolicy policy = storagePolicies.policyFor(name.get());
+            metricPolicies.put(metric, policy);
+            return policy;
+          }
+        });
+  }
+
+  /**
+   * Get the Cassandra representation of the provided time series ID. Time series IDs that have been
+   * prepared by {@link #prepareTimeSeriesId} or read from Cassandra already know it, for all others
+   * it will be calculated.
+   */
+  private ByteBuffer timeSeriesIdFor(final TimeSeriesId timeSeriesId) {
+    if (timeSeriesId instanceof PreparedTimeSeriesId) {
+      return ((PreparedTimeSeriesId) timeSeriesId).timeSeriesId();
+    }
+
+    if (timeSeriesId instanceof CassandraTimeSeriesId) {
+      return ((CassandraTimeSeriesId) timeSeriesId).timeSeriesId();
+    }
+
+    return TimeSeriesIds.timeSeriesId(timeSeriesId.metric(), timeSeriesId.tags());
+  }
 
-    return transform(future, new ToVoidFunction());
+  @Nonnull
+  @Override
+  public TimeSeriesId prepareTimeSeriesId(final TimeSeriesId timeSeriesId) {
+    if (timeSeriesId instanceof PreparedTimeSeriesId) {
+      return timeSeriesId;
+    }
+
+    return new PreparedTimeSeriesId(timeSeriesId.metric(), timeSeriesId.tags());
+  }
+
+  /**
+   * Bind the markers in the provided add point statement that are common to all value types.
+   */
+  private BoundStatement bindAddPoint(final BoundStatement addPointStatement,
+                                      final ByteBuffer timeSeriesId,
+                                      final long baseTime,
+                                      final long timestamp,
+                                      final StoragePolicy policy) {
+    // Every write carries its own timestamp so it is safe to retry or speculatively execute.
+    addPointStatement.setIdempotent(true);
+
+    return addPointStatement
+        .setBytesUnsafe(AddPointStatementMarkers.ID.ordinal(), timeSeriesId)
+        .setLong(AddPointStatementMarkers.BASE_TIME.ordinal(), baseTime)
+        .setLong(AddPointStatementMarkers.TIMESTAMP.ordinal(), timestamp)
+        .setLong(AddPointStatementMarkers.USING_TIMESTAMP.ordinal(), timestamp)
+        .setInt(AddPointStatementMarkers.USING_TTL.ordinal(), policy.ttl());
   }
 
   /**
-   * Check if either of (id, type) and (name, type) are taken or if both are available. If either of
-   * the combinations already are taken the returned future will contain an {@link LabelException}.
+   * Create a statement with the value of the provided data point bound to it. Floating point values
+   * are rounded to the precision of the policy. The remaining markers are bound by {@link
+   * #bindAddPoint}.
+   */
+  private BoundStatement addPointStatementFor(final DataPoint dataPoint,
+                                              final StoragePolicy policy) {
+    if (dataPoint instanceof DataPoint.LongDataPoint) {
+      return addLongStatement.bind()
+          .setLong(AddPointStatementMarkers.VALUE.ordinal(),
+              ((DataPoint.LongDataPoint) dataPoint).value());
+    } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+      return addFloatStatement.bind()
+          .setFloat(AddPointStatementMarkers.VALUE.ordinal(),
+              policy.round(((DataPoint.FloatDataPoint) dataPoint).value()));
+    } else if (dataPoint instanceof DataPoint.DoubleDataPoint) {
+      return addDoubleStatement.bind()
+          .setDouble(AddPointStatementMarkers.VALUE.ordinal(),
+              policy.round(((DataPoint.DoubleDataPoint) dataPoint).value()));
+    }
+
+    throw new IllegalArgumentException("Unknown data point type " + dataPoint.getClass());
+  }
+
+  /**
+   * Get the value of the provided data point as it is written according to the policy. Rollups
+   * are always kept as doubles.
+   */
+  private static double rollupValueOf(final DataPoint dataPoint, final StoragePolicy policy) {
+    if (dataPoint instanceof DataPoint.LongDataPoint) {
+      return ((DataPoint.LongDataPoint) dataPoint).value();
+    } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+      return policy.round(((DataPoint.FloatDataPoint) dataPoint).value());
+    }
+
+    return policy.round(((DataPoint.DoubleDataPoint) dataPoint).value());
+  }
+
+  /**
+   * Write the provided data points using unlogged batches. The data points are grouped by the
+   * partition they belong to, that is by time series ID and base time, so that every batch only
+   * touches a single partition and can be applied by a single replica set. Partitions with more
+   * data points than the max batch size are split into several batches.
+   */
+  @Nonnull
+  @Override
+  public ListenableFuture<AddPointsResult> addPoints(final List<TimeSeriesDataPoint> points) {
+    final Map<LabelId, ListenableFuture<StoragePolicy>> policyFutures = new HashMap<>();
+
+    for (final TimeSeriesDataPoint point : points) {
+      final LabelId metric = point.timeSeriesId().metric();
+
+      if (!policyFutures.containsKey(metric)) {
+        policyFutures.put(metric, policyFor(metric));
+      }
+    }
+
+    final List<LabelId> metrics = ImmutableList.copyOf(policyFutures.keySet());
+
+    return transform(Futures.successfulAsList(policyFutures.values()),
+        new AsyncFunction<List<StoragePolicy>, AddPointsResult>() {
+          @Override
+          public ListenableFuture<AddPointsResult> apply(final List<StoragePolicy> policies) {
+            final Map<LabelId, StoragePolicy> metricPolicies = new HashMap<>();
+
+            for (int index = 0; index < metrics.size(); index++) {
+              if (policies.get(index) != null) {
+                metricPolicies.put(metrics.get(index), policies.get(index));
+              }
+            }
+
+            return addPoints(points, metricPolicies);
+          }
+        });
+  }
+
+  /**
+   * Write the provided data points according to the provided storage policies of their metrics.
+   * Data points whose metric does not have a policy fail.
    *
-   * @param id The id to check if it is available
-   * @param name The name to check if it is available
-   * @param type The type of id and name to check if it available
-   * @return A future that contains an exception if either of the above combinations were taken.
-   * Otherwise a future with meaningless contents will be returned.
-   */
-  private ListenableFuture<Void> checkAvailable(final long id,
-                                                final String name,
-                                                final LabelType type) {
-    ImmutableList<ListenableFuture<Boolean>> availableList =
-        ImmutableList.of(isIdAvailable(id, type), isNameAvailable(name, type));
-    final ListenableFuture<List<Boolean>> availableFuture = Futures.allAsList(availableList);
-
-    return transform(availableFuture, new AsyncFunction<List<Boolean>, Void>() {
-      @Override
-      public ListenableFuture<Void> apply(final List<Boolean> available) {
-        // These are in the same order as they are provided in the call
-        // to Futures#allAsList.
-        final Boolean idAvailable = available.get(0);
-        final Boolean nameAvailable = available.get(1);
-
-        if (!idAvailable) {
-          return Futures.immediateFailedFuture(
-              new LabelException(fromLong(id), type, "Id was already taken"));
-        }
+   * @see #addPoints(List)
+   */
+  private ListenableFuture<AddPointsResult> addPoints(final List<TimeSeriesDataPoint> points,
+                                                      final Map<LabelId, StoragePolicy> policies) {
+    final Table<ByteBuffer, Long, List<Integer>> partitions = HashBasedTable.create();
+    final Map<ByteBuffer, TimeSeriesId> timeSeriesIds = new HashMap<>();
+    final Map<Integer, Throwable> failures = new HashMap<>();
+    final List<BoundStatement> statements = new ArrayList<>(points.size());
+    final ByteBuffer[] ids = new ByteBuffer[points.size()];
+
+    for (int index = 0; index < points.size(); index++) {
+      final TimeSeriesDataPoint point = points.get(index);
+      final TimeSeriesId timeSeriesId = point.timeSeriesId();
+      final StoragePolicy policy = policies.get(timeSeriesId.metric());
+
+      if (policy == null) {
+        failures.put(index, new IllegalStateException(
+            "The storage policy of the metric could not be resolved"));
+        statements.add(null);
+        continue;
+      }
 
-        if (!nameAvailable) {
-          return Futures.immediateFailedFuture(
-              new LabelException(name, type, "Name was already taken"));
+      final ByteBuffer id = timeSeriesIdFor(timeSeriesId);
+      ids[index] = id;
+      final long timestamp = point.dataPoint().timestamp();
+      final long baseTime = BaseTimes.baseTimeFor(timestamp, policy.partitionPeriod());
+
+      try {
+        statements.add(bindAddPoint(addPointStatementFor(point.dataPoint(), policy), id, baseTime,
+            timestamp, policy));
+      } catch (IllegalArgumentException e) {
+        failures.put(index, e);
+        statements.add(null);
+        continue;
+      }
+
+      List<Integer> partition = partitions.get(id, baseTime);
+
+      if (partition == null) {
+        partition = new ArrayList<>();
+        partitions.put(id, baseTime, partition);
+      }
+
+      partition.add(index);
+      timeSeriesIds.put(id, timeSeriesId);
+    }
+
+    final List<List<Integer>> batches = new ArrayList<>();
+    final List<ListenableFuture<Optional<Throwable>>> batchResults = new ArrayList<>();
+
+    for (final List<Integer> partition : partitions.values()) {
+      for (final List<Integer> batchIndexes : Lists.partition(partition, maxBatchSize)) {
+        final BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        batch.setConsistencyLevel(writeConsistency);
+        batch.setIdempotent(true);
+
+        for (final int index : batchIndexes) {
+          batch.add(statements.get(index));
         }
 
-        return Futures.immediateFuture(null);
+        batches.add(batchIndexes);
+        batchResults.add(batchResult(session.executeAsync(batch)));
+      }
+    }
+
+    for (final Map.Entry<ByteBuffer, TimeSeriesId> timeSeries : timeSeriesIds.entrySet()) {
+      indexTimeSeries(timeSeries.getValue(), timeSeries.getKey());
+    }
+
+    for (final Table.Cell<ByteBuffer, Long, List<Integer>> partition : partitions.cellSet()) {
+      final LabelId metric = timeSeriesIds.get(partition.getRowKey()).metric();
+      compactionStrategy.partitionWritten(partition.getRowKey(), partition.getColumnKey(),
+          policies.get(metric).ttl());
+    }
+
+    return transform(Futures.allAsList(batchResults),
+        new Function<List<Optional<Throwable>>, AddPointsResult>() {
+          @Override
+          public AddPointsResult apply(final List<Optional<Throwable>> results) {
+            for (int batch = 0; batch < results.size(); batch++) {
+              final Optional<Throwable> failure = results.get(batch);
+
+              if (failure.isPresent()) {
+                for (final int index : batches.get(batch)) {
+                  failures.put(index, failure.get());
+                }
+              }
+            }
+
+            for (final Table.Cell<ByteBuffer, Long, List<Integer>> partition
+                : partitions.cellSet()) {
+              final LabelId metric = timeSeriesIds.get(partition.getRowKey()).metric();
+              partitionWritten(partition.getRowKey(), partition.getColumnKey(),
+                  policies.get(metric));
+            }
+
+            // Only data points that were written are rolled up, in the order they were given.
+            for (int index = 0; index < points.size(); index++) {
+              if (!failures.containsKey(index)) {
+                final DataPoint dataPoint = points.get(index).dataPoint();
+                final StoragePolicy policy =
+                    policies.get(points.get(index).timeSeriesId().metric());
+                rollupStrategy.pointWritten(ids[index], dataPoint.timestamp(),
+                    rollupValueOf(dataPoint, policy), policy.ttl());
+              }
+            }
+
+            return AddPointsResult.create(points.size(), failures);
+          }
+        });
+  }
+
+  /**
+   * Drop the provided partition from the partition cache if it has closed. Data points that are
+   * written late would otherwise not be seen by queries until the partition is evicted.
+   */
+  private void partitionWritten(final ByteBuffer timeSeriesId,
+                                final long baseTime,
+                                final StoragePolicy policy) {
+    if (partitionCache.isClosed(baseTime, policy.partitionPeriod())) {
+      partitionCache.invalidate(timeSeriesId, baseTime);
+    }
+  }
+
+  /**
+   * Turn the provided future into one that always succeeds and instead contains the exception the
+   * original future failed with, if any.
+   */
+  private static ListenableFuture<Optional<Throwable>> batchResult(final ResultSetFuture future) {
+    final ListenableFuture<Optional<Throwable>> success = transform(future,
+        new Function<ResultSet, Optional<Throwable>>() {
+          @Override
+          public Optional<Throwable> apply(final ResultSet resultSet) {
+            return Optional.absent();
+          }
+        });
+
+    return Futures.withFallback(success, new FutureFallback<Optional<Throwable>>() {
+      @Override
+      public ListenableFuture<Optional<Throwable>> create(final Throwable throwable) {
+        return Futures.immediateFuture(Optional.of(throwable));
       }
     });
   }
 
   @Override
   public void close() {
+    addPointIndexingStrategy.close();
+    compactionStrategy.close();
+    rollupStrategy.close();
     cluster.close();
   }
 
@@ -254,10 +856,7 @@ public class CassandraStore extends Store {
   protected ListenableFuture<LabelId> createId(final long id,
                                                final String name,
                                                final LabelType type) {
-    final Date createTimestamp = Date.from(clock.instant());
-    final ResultSetFuture save = session.executeAsync(
-        createIdStatement.bind(id, type.toValue(), createTimestamp, name,
-            name, type.toValue(), createTimestamp, id));
+    final ResultSetFuture save = saveId(id, name, type, Date.from(clock.instant()));
 
     return transform(save, new AsyncFunction<ResultSet, LabelId>() {
       @Override
@@ -270,11 +869,20 @@ public class CassandraStore extends Store {
     });
   }
 
+  private ResultSetFuture saveId(final long id,
+                                 final String name,
+                                 final LabelType type,
+                                 final Date creationTime) {
+    return session.executeAsync(
+        createIdStatement.bind(id, type.toValue(), creationTime, name,
+            name, type.toValue(), creationTime, id));
+  }
+
   /**
-   * Allocate an ID for the provided (name, type). This will attempt to generate an ID that is
-   * likely to be available. It will then check if this information is available and finally save
-   * the information if it is. If the information could be saved the ID will be returned in a
-   * future, otherwise the future will contain an {@link LabelException}.
+   * Allocate an ID for the provided (name, type). The ID is derived from the name so it is saved
+   * right away without first checking if either of them are taken. Whether they were is checked
+   * afterwards by {@link #verifyCreated}. If the information could be saved the ID will be returned
+   * in a future, otherwise the future will contain an {@link LabelException}.
    *
    * @param name The name to create an ID for
    * @param type The type of name to create an ID for
@@ -287,20 +895,82 @@ public class CassandraStore extends Store {
                                                final LabelType type) {
     // This discards half the hash but it should still work ok with murmur3.
     final long id = CassandraLabelId.generateId(name, type);
+    final Date creationTime = Date.from(clock.instant());
+
+    return transform(saveId(id, name, type, creationTime),
+        new AsyncFunction<ResultSet, LabelId>() {
+          @Override
+          public ListenableFuture<LabelId> apply(final ResultSet resultSet) {
+            return verifyCreated(id, name, type, creationTime);
+          }
+        });
+  }
+
+  /**
+   * Check that the identifier that was just saved with the provided creation time is the one that
+   * is used for both the ID and the name. Rows are ordered by their creation time so the oldest row
+   * of either partition wins, which means that an identifier that already existed or that another
+   * process managed to save first wins. If the saved identifier lost it is deleted again and the
+   * returned future will contain a {@link LabelException}.
+   *
+   * <p>The rows are read with the label consistency level so a level that does not overlap with
+   * itself, such as {@code ONE}, may miss a row that was saved by someone else.
+   */
+  private ListenableFuture<LabelId> verifyCreated(final long id,
+                                                  final String name,
+                                                  final LabelType type,
+                                                  final Date creationTime) {
+    final ListenableFuture<List<ResultSet>> partitions = Futures.allAsList(ImmutableList.of(
+        session.executeAsync(getNameStatement.bind(id, type.toValue())
+            .setConsistencyLevel(labelConsistency)),
+        session.executeAsync(getIdStatement.bind(name, type.toValue())
+            .setConsistencyLevel(labelConsistency))));
+
+    return transform(partitions, new AsyncFunction<List<ResultSet>, LabelId>() {
+      @Override
+      public ListenableFuture<LabelId> apply(final List<ResultSet> partitions) {
+        // These are in the same order as they are provided in the call to Futures#allAsList.
+        final Row idRow = partitions.get(0).one();
+        final Row nameRow = partitions.get(1).one();
+
+        if (idRow != null && !isCreated(idRow, creationTime)) {
+          final LabelException exception = name.equals(idRow.getString("name"))
+              ? new LabelException(name, type, "Name was already taken")
+              : new LabelException(fromLong(id), type, "Id was already taken");
+          return deleteId(id, name, type, creationTime, exception);
+        }
+
+        if (nameRow != null && !isCreated(nameRow, creationTime)) {
+          return deleteId(id, name, type, creationTime,
+              new LabelException(name, type, "Name was already taken"));
+        }
+
+        return Futures.<LabelId>immediateFuture(fromLong(id));
+      }
+    });
+  }
 
-    // This does not protect us against someone trying to create the same
-    // information in parallel but it is a convenience to the user so that we
-    // do not even try to create if we can find an existing ID with the
-    // information we are trying to create now.
-    ListenableFuture<Void> availableFuture = checkAvailable(id, name, type);
+  private static boolean isCreated(final Row row, final Date creationTime) {
+    return creationTime.equals(row.getDate("creation_time"));
+  }
 
-    return transform(availableFuture, new AsyncFunction<Void, LabelId>() {
+  /**
+   * Delete the identifier that was saved with the provided creation time and then fail with the
+   * provided exception.
+   */
+  private ListenableFuture<LabelId> deleteId(final long id,
+                                             final String name,
+                                             final LabelType type,
+                                             final Date creationTime,
+                                             final LabelException exception) {
+    final ResultSetFuture delete = session.executeAsync(
+        deleteIdStatement.bind(id, type.toValue(), creationTime,
+            name, type.toValue(), creationTime));
+
+    return transform(delete, new AsyncFunction<ResultSet, LabelId>() {
       @Override
-      public ListenableFuture<LabelId> apply(final Void available) {
-        // #checkAvailable will have thrown an exception if the id or name was
-        // not available and if it did we would not be there. Thus we are now
-        // free to create the id.
-        return createId(id, name, type);
+      public ListenableFuture<LabelId> apply(final ResultSet resultSet) {
+        return Futures.immediateFailedFuture(exception);
       }
     });
   }
@@ -308,6 +978,13 @@ public class CassandraStore extends Store {
   @Override
   public void registerMetricsWith(final MetricRegistry registry) {
     registry.registerAll(cluster.getMetrics().getRegistry());
+    compactionStrategy.registerMetricsWith(registry);
+    rollupStrategy.registerMetricsWith(registry);
+    partitionCache.registerMetricsWith(registry);
+
+    if (seriesIndex != null) {
+      seriesIndex.registerMetricsWith(registry);
+    }
   }
 
   @Nonnull
@@ -477,22 +1154,130 @@ public class CassandraStore extends Store {
       final ByteBuffer timeSeriesId,
       final long startTime,
       final long endTime) {
+    return fetchTimeSeries(timeSeriesId, startTime, endTime, BaseTimes.BASE_TIME_PERIOD);
+  }
+
+  /**
+   * Fetch all data points for the given time series that are within the given time range indicated
+   * by {@code startTime} and {@code endTime} from partitions that each cover {@code
+   * partitionPeriod} milliseconds.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param partitionPeriod The partition period of the storage policy of the time series
+   * @return An iterator that will loop over all found data points.
+   */
+  protected AsyncIterator<? extends DataPoint> fetchTimeSeries(
+      final ByteBuffer timeSeriesId,
+      final long startTime,
+      final long endTime,
+      final long partitionPeriod) {
+    return fetchTimeSeries(timeSeriesId, startTime, endTime, partitionPeriod, 0);
+  }
+
+  /**
+   * Fetch all data points for the given time series like {@link #fetchTimeSeries(ByteBuffer, long,
+   * long, long)} does but read {@code fetchSize} rows per request. Adjacent partitions of time
+   * series that are sparse enough for several of them to fit within a single page are read
+   * together. Partitions that have closed are read through the partition cache.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param partitionPeriod The partition period of the storage policy of the time series
+   * @param fetchSize The number of rows to read per request or zero to use the default of the
+   * cluster
+   * @return An iterator that will loop over all found data points.
+   */
+  protected AsyncIterator<? extends DataPoint> fetchTimeSeries(
+      final ByteBuffer timeSeriesId,
+      final long startTime,
+      final long endTime,
+      final long partitionPeriod,
+      final int fetchSize) {
+    return fetchTimeSeries(timeSeriesId, startTime, endTime, partitionPeriod, fetchSize,
+        QueryScheduler.Priority.INTERACTIVE);
+  }
+
+  /**
+   * Fetch all data points for the given time series like {@link #fetchTimeSeries(ByteBuffer, long,
+   * long, long, int)} does for a query with the provided priority.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param partitionPeriod The partition period of the storage policy of the time series
+   * @param fetchSize The number of rows to read per request or zero to use the default of the
+   * cluster
+   * @param priority The priority of the query that the data points are fetched for
+   * @return An iterator that will loop over all found data points.
+   */
+  protected AsyncIterator<? extends DataPoint> fetchTimeSeries(
+      final ByteBuffer timeSeriesId,
+      final long startTime,
+      final long endTime,
+      final long partitionPeriod,
+      final int fetchSize,
+      final QueryScheduler.Priority priority) {
+    return partitionCacheReader.fetch(timeSeriesId, startTime, endTime, partitionPeriod,
+        (openStart, openEnd) -> fetchOpenTimeSeries(timeSeriesId, openStart, openEnd,
+            partitionPeriod, fetchSize, priority));
+  }
+
+  /**
+   * Fetch the data points of the given time series like {@link #fetchTimeSeries(ByteBuffer, long,
+   * long, long, int, QueryScheduler.Priority)} does without looking at the partition cache.
+   */
+  private AsyncIterator<? extends DataPoint> fetchOpenTimeSeries(
+      final ByteBuffer timeSeriesId,
+      final long startTime,
+      final long endTime,
+      final long partitionPeriod,
+      final int fetchSize,
+      final QueryScheduler.Priority priority) {
+    final int rowsPerRead = fetchSize > 0
+        ? fetchSize
+        : cluster.getConfiguration().getQueryOptions().getFetchSize();
+    final int partitionsPerRead = partitionDensities.partitionsPerRead(timeSeriesId, rowsPerRead);
+
     final AsyncIterator<Row> rows = new SpeculativePartitionIterator<>(
-        BaseTimes.baseTimesBetween(startTime, endTime),
-        new Function<Long, ResultSetFuture>() {
+        Iterators.partition(BaseTimes.baseTimesBetween(startTime, endTime, partitionPeriod),
+            partitionsPerRead),
+        new Function<List<Long>, ResultSetFuture>() {
           @Nullable
           @Override
-          public ResultSetFuture apply(final Long baseTime) {
-            return fetchTimeSeriesPartition(timeSeriesId, baseTime, startTime, endTime);
+          public ResultSetFuture apply(final List<Long> baseTimes) {
+            final ResultSetFuture partitions = baseTimes.size() == 1
+                ? fetchTimeSeriesPartition(timeSeriesId, baseTimes.get(0), startTime, endTime,
+                    fetchSize)
+                : fetchTimeSeriesPartitions(timeSeriesId, baseTimes, startTime, endTime,
+                    fetchSize);
+
+            Futures.addCallback(partitions, new FutureCallback<ResultSet>() {
+              @Override
+              public void onSuccess(final ResultSet resultSet) {
+                partitionDensities.partitionsRead(timeSeriesId, baseTimes.size(),
+                    resultSet.getAvailableWithoutFetching());
+              }
+
+              @Override
+              public void onFailure(final Throwable throwable) {
+                // The failure is reported to whoever reads the data points.
+              }
+            });
+
+            return partitions;
           }
-        });
+        }, prefetchWindow, priority);
 
-    return DataPointIterator.iteratorFor(rows);
+    return DataPointIterator.iteratorFor(rows, startTime, endTime);
   }
 
   /**
    * Fetch the data points in the partition indicated by {@code timeSeriesId} and {@code baseTime}
-   * that are within the provided time bounds.
+   * that are within the provided time bounds. The compacted chunk of the partition is always
+   * included if there is one.
    *
    * @param timeSeriesId The time series to fetch the data points for
    * @param baseTime The base time as normalized by {@link BaseTimes#baseTimeFor(long)}
@@ -504,11 +1289,163 @@ public class CassandraStore extends Store {
                                                      final long baseTime,
                                                      final long startTime,
                                                      final long endTime) {
-    return session.executeAsync(fetchTimeSeriesStatement.bind()
+    return fetchTimeSeriesPartition(timeSeriesId, baseTime, startTime, endTime, 0);
+  }
+
+  /**
+   * Fetch the data points in a partition like {@link #fetchTimeSeriesPartition(ByteBuffer, long,
+   * long, long)} does but read {@code fetchSize} rows per request, or the default of the cluster if
+   * it is zero.
+   */
+  protected ResultSetFuture fetchTimeSeriesPartition(final ByteBuffer timeSeriesId,
+                                                     final long baseTime,
+                                                     final long startTime,
+                                                     final long endTime,
+                                                     final int fetchSize) {
+    final BoundStatement statement = fetchTimeSeriesStatement.bind()
         .setBytesUnsafe(SelectPointStatementMarkers.ID.ordinal(), timeSeriesId)
         .setLong(SelectPointStatementMarkers.BASE_TIME.ordinal(), baseTime)
-        .setLong(SelectPointStatementMarkers.LOWER_TIMESTAMP.ordinal(), startTime)
-        .setLong(SelectPointStatementMarkers.UPPER_TIMESTAMP.ordinal(), endTime));
+        .setLong(SelectPointStatementMarkers.LOWER_TIMESTAMP.ordinal(),
+            Math.min(startTime, BaseTimes.chunkTimestampFor(baseTime)))
+        .setLong(SelectPointStatementMarkers.UPPER_TIMESTAMP.ordinal(), endTime);
+
+    if (fetchSize > 0) {
+      statement.setFetchSize(fetchSize);
+    }
+
+    return session.executeAsync(statement.setIdempotent(true));
+  }
+
+  /**
+   * Fetch the data points in the adjacent partitions of the time series indicated by {@code
+   * timeSeriesId} and {@code baseTimes} with a single request. The rows are returned one partition
+   * at a time in the order of the base times, which therefore must be ascending.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param baseTimes The ascending base times of the partitions to fetch
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param fetchSize The number of rows to read per request or zero to use the default of the
+   * cluster
+   * @return A future that on completion will contain a paged iterable of rows
+   */
+  protected ResultSetFuture fetchTimeSeriesPartitions(final ByteBuffer timeSeriesId,
+                                                      final List<Long> baseTimes,
+                                                      final long startTime,
+                                                      final long endTime,
+                                                      final int fetchSize) {
+    // The chunks of the later partitions are stored after the start time so only the chunk of the
+    // first partition needs to be accounted for.
+    final BoundStatement statement = fetchTimeSeriesPartitionsStatement.bind()
+        .setBytesUnsafe(SelectPointsInPartitionsStatementMarkers.ID.ordinal(), timeSeriesId)
+        .setList(SelectPointsInPartitionsStatementMarkers.BASE_TIMES.ordinal(), baseTimes)
+        .setLong(SelectPointsInPartitionsStatementMarkers.LOWER_TIMESTAMP.ordinal(),
+            Math.min(startTime, BaseTimes.chunkTimestampFor(baseTimes.get(0))))
+        .setLong(SelectPointsInPartitionsStatementMarkers.UPPER_TIMESTAMP.ordinal(), endTime);
+
+    if (fetchSize > 0) {
+      statement.setFetchSize(fetchSize);
+    }
+
+    return session.executeAsync(statement.setIdempotent(true));
+  }
+
+  /**
+   * Fetch the newest data points of the given time series that are within the given time range
+   * indicated by {@code startTime} and {@code endTime}. The partitions are read newest first, one
+   * at a time, until {@code limit} data points have been found or there are no more partitions.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param partitionPeriod The partition period of the storage policy of the time series
+   * @param limit The maximum number of data points to fetch
+   * @return A future that on completion will contain up to {@code limit} data points, newest first
+   */
+  protected ListenableFuture<List<DataPoint>> fetchLatestDataPoints(final ByteBuffer timeSeriesId,
+                                                                    final long startTime,
+                                                                    final long endTime,
+                                                                    final long partitionPeriod,
+                                                                    final int limit) {
+    return fetchLatestDataPoints(timeSeriesId, BaseTimes.baseTimeFor(endTime, partitionPeriod),
+        startTime, endTime, partitionPeriod, limit, new ArrayList<DataPoint>(limit));
+  }
+
+  private ListenableFuture<List<DataPoint>> fetchLatestDataPoints(final ByteBuffer timeSeriesId,
+                                                                  final long baseTime,
+                                                                  final long startTime,
+                                                                  final long endTime,
+                                                                  final long partitionPeriod,
+                                                                  final int limit,
+                                                                  final List<DataPoint> latest) {
+    if (latest.size() >= limit || baseTime < BaseTimes.baseTimeFor(startTime, partitionPeriod)) {
+      return Futures.immediateFuture(latest);
+    }
+
+    return transform(fetchLatestPartitionDataPoints(timeSeriesId, baseTime, startTime, endTime,
+        limit - latest.size()), new AsyncFunction<List<DataPoint>, List<DataPoint>>() {
+          @Override
+          public ListenableFuture<List<DataPoint>> apply(final List<DataPoint> dataPoints) {
+            latest.addAll(dataPoints);
+            return fetchLatestDataPoints(timeSeriesId, baseTime - partitionPeriod, startTime,
+                endTime, partitionPeriod, limit, latest);
+          }
+        });
+  }
+
+  /**
+   * Fetch the newest data points within the time bounds of the partition indicated by {@code
+   * timeSeriesId} and {@code baseTime}. The newest rows and the compacted chunk of the partition
+   * are read in parallel and then merged.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param baseTime The base time of the partition
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param limit The maximum number of data points to fetch
+   * @return A future that on completion will contain up to {@code limit} data points, newest first
+   */
+  protected ListenableFuture<List<DataPoint>> fetchLatestPartitionDataPoints(
+      final ByteBuffer timeSeriesId,
+      final long baseTime,
+      final long startTime,
+      final long endTime,
+      final int limit) {
+    // The limit doubles as the fetch size so that every row is in the first page.
+    final ResultSetFuture rows = session.executeAsync(fetchLatestStatement.bind()
+        .setBytesUnsafe(SelectLatestPointsStatementMarkers.ID.ordinal(), timeSeriesId)
+        .setLong(SelectLatestPointsStatementMarkers.BASE_TIME.ordinal(), baseTime)
+        .setLong(SelectLatestPointsStatementMarkers.LOWER_TIMESTAMP.ordinal(),
+            Math.max(startTime, baseTime))
+        .setLong(SelectLatestPointsStatementMarkers.UPPER_TIMESTAMP.ordinal(), endTime)
+        .setInt(SelectLatestPointsStatementMarkers.LIMIT.ordinal(), limit)
+        .setFetchSize(limit)
+        .setIdempotent(true));
+
+    final ResultSetFuture chunk = session.executeAsync(fetchChunkStatement.bind()
+        .setBytesUnsafe(SelectChunkStatementMarkers.ID.ordinal(), timeSeriesId)
+        .setLong(SelectChunkStatementMarkers.BASE_TIME.ordinal(), baseTime)
+        .setLong(SelectChunkStatementMarkers.TIMESTAMP.ordinal(),
+            BaseTimes.chunkTimestampFor(baseTime))
+        .setIdempotent(true));
+
+    return transform(Futures.allAsList(ImmutableList.of(rows, chunk)),
+        new Function<List<ResultSet>, List<DataPoint>>() {
+          @Override
+          public List<DataPoint> apply(final List<ResultSet> resultSets) {
+            final ResultSet rowResults = resultSets.get(0);
+            final List<Row> latestRows = new ArrayList<>(rowResults.getAvailableWithoutFetching());
+
+            for (int i = rowResults.getAvailableWithoutFetching(); i > 0; i--) {
+              latestRows.add(rowResults.one());
+            }
+
+            final Row chunkRow = resultSets.get(1).one();
+            return LatestDataPoints.merge(latestRows,
+                chunkRow == null ? null : chunkRow.getBytesUnsafe("chunk"), startTime, endTime,
+                limit);
+          }
+        });
   }
 
   /**
@@ -544,6 +1481,18 @@ public class CassandraStore extends Store {
     });
   }
 
+  /**
+   * Fetch the IDs behind all of the provided names. The partition key of the name_to_id table spans
+   * both the name and the type, so each distinct name is read with a query of its own which the
+   * token aware load balancing policy routes straight to a replica.
+   */
+  @Nonnull
+  @Override
+  public ListenableFuture<Map<String, LabelId>> getIds(final Collection<String> names,
+                                                       final LabelType type) {
+    return readLabels(names, name -> getId(name, type));
+  }
+
   /**
    * Fetch the first two names that are associated with the provided id and type.
    *
@@ -576,6 +1525,61 @@ public class CassandraStore extends Store {
     });
   }
 
+  /**
+   * Fetch the names behind all of the provided IDs. Like {@link #getIds(Collection, LabelType)}
+   * each distinct ID is read from its own partition.
+   */
+  @Nonnull
+  @Override
+  public ListenableFuture<Map<LabelId, String>> getNames(final Collection<LabelId> ids,
+                                                         final LabelType type) {
+    return readLabels(ids, id -> getName(id, type));
+  }
+
+  /**
+   * Read every distinct key with the provided function and collect the keys that were found into a
+   * map. The keys are read in windows of at most {@link #MAX_CONCURRENT_LABEL_READS} so that a
+   * large lookup does not exhaust the connection pool.
+   */
+  private static <K, V> ListenableFuture<Map<K, V>> readLabels(
+      final Collection<K> keys,
+      final Function<K, ListenableFuture<Optional<V>>> read) {
+    final Iterator<List<K>> windows = Iterables.partition(ImmutableSet.copyOf(keys),
+        MAX_CONCURRENT_LABEL_READS).iterator();
+    return readLabels(windows, read, ImmutableMap.<K, V>builder());
+  }
+
+  private static <K, V> ListenableFuture<Map<K, V>> readLabels(
+      final Iterator<List<K>> windows,
+      final Function<K, ListenableFuture<Optional<V>>> read,
+      final ImmutableMap.Builder<K, V> found) {
+    if (!windows.hasNext()) {
+      return Futures.<Map<K, V>>immediateFuture(found.build());
+    }
+
+    final List<K> window = windows.next();
+    final List<ListenableFuture<Optional<V>>> reads = new ArrayList<>(window.size());
+
+    for (final K key : window) {
+      reads.add(read.apply(key));
+    }
+
+    return transform(Futures.allAsList(reads), new AsyncFunction<List<Optional<V>>, Map<K, V>>() {
+      @Override
+      public ListenableFuture<Map<K, V>> apply(final List<Optional<V>> values) {
+        for (int i = 0; i < window.size(); i++) {
+          final Optional<V> value = values.get(i);
+
+          if (value.isPresent()) {
+            found.put(window.get(i), value.get());
+          }
+        }
+
+        return readLabels(windows, read, found);
+      }
+    });
+  }
+
   @Nonnull
   ListenableFuture<List<Row>> getNameRows(final LabelId id,
                                           final LabelType type) {
@@ -603,79 +1607,308 @@ public class CassandraStore extends Store {
     return session;
   }
 
+  @Nonnull
+  @Override
+  public ListenableFuture<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> query(
+      final TimeSeriesQuery query) {
+    return query(query, Optional.<RollupInterval>absent());
+  }
+
   /**
-   * Check if (id, type) is available and return a future that contains a boolean that will be true
-   * if the id is available or false if otherwise.
-   *
-   * @param id The name to check
-   * @param type The type to check
-   * @return A future that contains a boolean that indicates if the id was available
+   * Perform the provided query against the rollups of the provided interval if it is present and
+   * against the data points table otherwise.
    */
-  private ListenableFuture<Boolean> isIdAvailable(final long id,
-                                                  final LabelType type) {
-    return transform(getNames(fromLong(id), type), new IsEmptyFunction());
+  private ListenableFuture<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> query(
+      final TimeSeriesQuery query,
+      final Optional<RollupInterval> interval) {
+    final ListenableFuture<Iterable<CassandraTimeSeriesId>> timeSeries = resolve(query.predicate());
+    final ListenableFuture<StoragePolicy> policy = policyFor(query.predicate().metric());
+
+    return transform(policy,
+        new AsyncFunction<StoragePolicy, Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>>() {
+          @Override
+          public ListenableFuture<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> apply(
+              final StoragePolicy policy) {
+            return transform(timeSeries, fetchFunction(query, policy, interval));
+          }
+        });
+  }
+
+  @Nonnull
+  @Override
+  public ListenableFuture<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> queryRollups(
+      final TimeSeriesQuery query,
+      final RollupInterval interval) {
+    return query(query, Optional.of(interval));
   }
 
   /**
-   * Check if (name, type) is available and return a future that contains a boolean that will be
-   * true if the name is available or false if otherwise.
+   * Create a function that prepares an iterator over the data points of every time series it is
+   * given. Every time series in a query has the same metric and therefore the same storage policy.
+   * The data points are read from the rollups of the interval if it is present and the rollup
+   * strategy keeps any. Descending queries always read the newest data points themselves.
    *
-   * @param name The name to check
-   * @param type The type to check
-   * @return A future that contains a boolean that indicates if the name was available
+   * <p>Nothing is fetched until the iterators are looked at. Ascending queries then fetch at most
+   * {@link #maxOpenSeries} time series at the same time and fetch the time series after the one
+   * being read ahead of it.
    */
-  private ListenableFuture<Boolean> isNameAvailable(final String name,
-                                                    final LabelType type) {
-    return transform(getIds(name, type), new IsEmptyFunction());
+  private Function<Iterable<CassandraTimeSeriesId>,
+      Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> fetchFunction(
+      final TimeSeriesQuery query,
+      final StoragePolicy policy,
+      final Optional<RollupInterval> interval) {
+    return new Function<Iterable<CassandraTimeSeriesId>,
+        Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>>() {
+      @Override
+      public Map<TimeSeriesId, AsyncIterator<? extends DataPoint>> apply(
+          final Iterable<CassandraTimeSeriesId> timeSeries) {
+        final ImmutableMap.Builder<TimeSeriesId, AsyncIterator<? extends DataPoint>>
+            dataPoints = ImmutableMap.builder();
+        final SeriesFetchWindow fetchWindow = new SeriesFetchWindow(maxOpenSeries);
+
+        for (final CassandraTimeSeriesId timeSerie : timeSeries) {
+          if (query.descending()) {
+            // Nothing is read until the data points are looked at, callers may answer some time
+            // series from elsewhere.
+            dataPoints.put(timeSerie, AsyncIterators.deferred(
+                () -> fetchLatestDataPoints(timeSerie.timeSeriesId(), query.startTime(),
+                    query.endTime(), policy.partitionPeriod(), query.limit())));
+            continue;
+          }
+
+          dataPoints.put(timeSerie, fetchWindow.lazilyBlocks(
+              () -> fetchDataPoints(timeSerie.timeSeriesId(), query, policy, interval)));
+        }
+
+        return dataPoints.build();
+      }
+    };
   }
 
+  /**
+   * Start fetching the data points of the provided time series that match the provided ascending
+   * query, from the rollups of the interval if it is present and the rollup strategy keeps them.
+   */
+  private AsyncIterator<? extends DataPoint> fetchDataPoints(
+      final ByteBuffer timeSeriesId,
+      final TimeSeriesQuery query,
+      final StoragePolicy policy,
+      final Optional<RollupInterval> interval) {
+    final RangeFetcher fetcher = (startTime, endTime) -> fetchTimeSeries(timeSeriesId, startTime,
+        endTime, policy.partitionPeriod(), query.fetchSize(), query.priority());
+    final AsyncIterator<? extends DataPoint> dataPoints = interval.isPresent()
+        ? rollupReader.fetch(timeSeriesId, query.startTime(), query.endTime(), interval.get(),
+            fetcher)
+        : fetcher.fetch(query.startTime(), query.endTime());
+
+    return query.limit() > 0
+        ? AsyncIterators.limit(dataPoints, query.limit())
+        : dataPoints;
+  }
+
+  /**
+   * Find all time series that match the provided predicate. The postings of the metric and of the
+   * labels in the tag predicates that the inverted index can narrow down are read at the same time
+   * and intersected, smallest first. Only the time series that are left are looked up in the
+   * {@code ts_index} table, where they are checked against every tag predicate. Time series that
+   * are missing from it but whose metric posting was written with the legacy metric and tags
+   * columns are taken from the posting and backfilled. Once the series index has been loaded it is
+   * used instead.
+   */
   @Nonnull
-  @Override
-  public ListenableFuture<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> query(
-      final TimeSeriesQuery query) {
-    final ListenableFuture<Iterable<CassandraTimeSeriesId>> timeSeries = resolve(query.predicate());
+  private ListenableFuture<Iterable<CassandraTimeSeriesId>> resolve(
+      final TimeSeriesQueryPredicate predicate) {
+    if (seriesIndexLoaded) {
+      return Futures.<Iterable<CassandraTimeSeriesId>>immediateFuture(
+          seriesIndex.resolve(predicate));
+    }
 
-    return transform(timeSeries,
-        new Function<Iterable<CassandraTimeSeriesId>,
-            Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>>() {
+    final List<ListenableFuture<Map<ByteBuffer, Row>>> postings = new ArrayList<>();
+    postings.add(postings(ImmutableSet.of(predicate.metric()), LabelType.METRIC));
+
+    for (final TimeSeriesTagPredicate tagPredicate : predicate.tagPredicates()) {
+      final Optional<TagPredicates.Postings> tagPostings = TagPredicates.postingsFor(tagPredicate);
+
+      if (tagPostings.isPresent()) {
+        postings.add(postings(tagPostings.get().labels(), tagPostings.get().type()));
+      }
+    }
+
+    return transform(Futures.allAsList(postings),
+        new AsyncFunction<List<Map<ByteBuffer, Row>>, Iterable<CassandraTimeSeriesId>>() {
           @Override
-          public Map<TimeSeriesId, AsyncIterator<? extends DataPoint>> apply(
-              final Iterable<CassandraTimeSeriesId> timeSeries) {
-            final ImmutableMap.Builder<TimeSeriesId, AsyncIterator<? extends DataPoint>>
-                dataPoints = ImmutableMap.builder();
-
-            for (final CassandraTimeSeriesId timeSerie : timeSeries) {
-              final AsyncIterator<? extends DataPoint> timeSerieDataPoints = fetchTimeSeries(
-                  timeSerie.timeSeriesId(), query.startTime(), query.endTime());
-              dataPoints.put(timeSerie, timeSerieDataPoints);
+          public ListenableFuture<Iterable<CassandraTimeSeriesId>> apply(
+              final List<Map<ByteBuffer, Row>> postings) {
+            final List<Set<ByteBuffer>> timeSeriesIds = new ArrayList<>(postings.size());
+
+            for (final Map<ByteBuffer, Row> posting : postings) {
+              timeSeriesIds.add(posting.keySet());
             }
 
-            return dataPoints.build();
+            final Set<ByteBuffer> candidates = TagPredicates.intersect(timeSeriesIds);
+            final Map<ByteBuffer, Row> metricPostings = postings.get(0);
+
+            return transform(getTimeSeries(candidates),
+                new Function<Map<ByteBuffer, CassandraTimeSeriesId>,
+                    Iterable<CassandraTimeSeriesId>>() {
+                  @Override
+                  public Iterable<CassandraTimeSeriesId> apply(
+                      final Map<ByteBuffer, CassandraTimeSeriesId> found) {
+                    return matching(withLegacy(candidates, found, metricPostings), predicate);
+                  }
+                });
           }
         });
   }
 
-  @Nonnull
-  private ListenableFuture<Iterable<CassandraTimeSeriesId>> resolve(
+  /**
+   * Read the posting rows of the time series that use any of the provided labels from the inverted
+   * index.
+   *
+   * @param labels The labels to read the postings of
+   * @param type The type of the labels
+   * @return A future that on completion will contain a posting row of every time series that uses
+   * any of the labels keyed by the ID of the time series
+   */
+  private ListenableFuture<Map<ByteBuffer, Row>> postings(final Set<LabelId> labels,
+                                                          final LabelType type) {
+    final List<ListenableFuture<List<Row>>> postings = new ArrayList<>(labels.size());
+
+    for (final LabelId label : labels) {
+      postings.add(ResultSets.allRows(session.executeAsync(
+          resolveTimeSeriesStatement.bind(toLong(label), type.toValue()))));
+    }
+
+    return transform(Futures.allAsList(postings),
+        new Function<List<List<Row>>, Map<ByteBuffer, Row>>() {
+          @Override
+          public Map<ByteBuffer, Row> apply(final List<List<Row>> postings) {
+            final Map<ByteBuffer, Row> timeSeriesIds = new HashMap<>();
+
+            for (final List<Row> posting : postings) {
+              for (final Row row : posting) {
+                timeSeriesIds.put(row.getBytesUnsafe("timeseries_id"), row);
+              }
+            }
+
+            return timeSeriesIds;
+          }
+        });
+  }
+
+  /**
+   * Get the time series of every provided candidate that was found in the {@code ts_index} table
+   * and take the ones that were not from the legacy columns of their metric postings, if they were
+   * written with them. Those are backfilled so that the next time they are found in the table.
+   */
+  private List<CassandraTimeSeriesId> withLegacy(
+      final Set<ByteBuffer> candidates,
+      final Map<ByteBuffer, CassandraTimeSeriesId> found,
+      final Map<ByteBuffer, Row> metricPostings) {
+    final List<CassandraTimeSeriesId> timeSeries = new ArrayList<>(candidates.size());
+
+    for (final ByteBuffer timeSeriesId : candidates) {
+      final CassandraTimeSeriesId timeSerie = found.get(timeSeriesId);
+
+      if (timeSerie != null) {
+        timeSeries.add(timeSerie);
+        continue;
+      }
+
+      final Row legacyPosting = metricPostings.get(timeSeriesId);
+
+      if (!legacyPosting.isNull("metric")) {
+        timeSeries.add(new CassandraTimeSeriesId(legacyPosting));
+        backfillTimeSeries(legacyPosting);
+      }
+    }
+
+    return timeSeries;
+  }
+
+  /**
+   * Keep the time series of the provided metric that match every tag predicate of the provided
+   * predicate. The metric is checked again since the postings of tag values are shared by all
+   * metrics.
+   */
+  private static Iterable<CassandraTimeSeriesId> matching(
+      final Iterable<CassandraTimeSeriesId> timeSeries,
       final TimeSeriesQueryPredicate predicate) {
-    return resolve(predicate.metric(), LabelType.METRIC);
+    final ImmutableList.Builder<CassandraTimeSeriesId> matching = ImmutableList.builder();
+
+    for (final CassandraTimeSeriesId timeSerie : timeSeries) {
+      if (!predicate.metric().equals(timeSerie.metric())) {
+        continue;
+      }
+
+      final List<LabelId> tags = timeSerie.tags();
+      boolean matches = true;
+
+      for (final TimeSeriesTagPredicate tagPredicate : predicate.tagPredicates()) {
+        matches = matches && TagPredicates.matches(tagPredicate, tags);
+      }
+
+      if (matches) {
+        matching.add(timeSerie);
+      }
+    }
+
+    return matching.build();
   }
 
-  private ListenableFuture<Iterable<CassandraTimeSeriesId>> resolve(final LabelId id,
-                                                                    final LabelType type) {
-    final ResultSetFuture timeSeries = session.executeAsync(
-        resolveTimeSeriesStatement.bind(toLong(id), type.toValue()));
+  /**
+   * Look up the metric and tags behind the provided time series IDs in the {@code ts_index} table.
+   * The IDs are read {@link #TIME_SERIES_PER_READ} at a time with at most {@link
+   * #MAX_CONCURRENT_TIME_SERIES_READS} reads in flight so that a metric with many time series costs
+   * a few round trips without exhausting the connection pool.
+   *
+   * @param timeSeriesIds The internal Cassandra representations of the time series IDs
+   * @return A future that on completion will contain the time series that were found keyed by
+   * their IDs
+   */
+  @Nonnull
+  private ListenableFuture<Map<ByteBuffer, CassandraTimeSeriesId>> getTimeSeries(
+      final Set<ByteBuffer> timeSeriesIds) {
+    final Iterator<List<List<ByteBuffer>>> windows = Iterables.partition(
+        Iterables.partition(timeSeriesIds, TIME_SERIES_PER_READ),
+        MAX_CONCURRENT_TIME_SERIES_READS).iterator();
+    return getTimeSeries(windows, new HashMap<>());
+  }
 
-    return transform(timeSeries, new Function<ResultSet, Iterable<CassandraTimeSeriesId>>() {
-      @Override
-      public Iterable<CassandraTimeSeriesId> apply(final ResultSet timeSeriesRows) {
-        return Iterables.transform(timeSeriesRows, new Function<Row, CassandraTimeSeriesId>() {
+  private ListenableFuture<Map<ByteBuffer, CassandraTimeSeriesId>> getTimeSeries(
+      final Iterator<List<List<ByteBuffer>>> windows,
+      final Map<ByteBuffer, CassandraTimeSeriesId> found) {
+    if (!windows.hasNext()) {
+      return Futures.immediateFuture(found);
+    }
+
+    final List<ListenableFuture<List<Row>>> reads = new ArrayList<>();
+
+    for (final List<ByteBuffer> read : windows.next()) {
+      final List<UUID> uuids = new ArrayList<>(read.size());
+
+      for (final ByteBuffer timeSeriesId : read) {
+        uuids.add(TimeSeriesIds.toUuid(timeSeriesId));
+      }
+
+      reads.add(ResultSets.allRows(session.executeAsync(getTimeSeriesStatement.bind()
+          .setList(0, uuids))));
+    }
+
+    return transform(Futures.allAsList(reads),
+        new AsyncFunction<List<List<Row>>, Map<ByteBuffer, CassandraTimeSeriesId>>() {
           @Override
-          public CassandraTimeSeriesId apply(final Row timeSeriesRow) {
-            return new CassandraTimeSeriesId(timeSeriesRow);
+          public ListenableFuture<Map<ByteBuffer, CassandraTimeSeriesId>> apply(
+              final List<List<Row>> reads) {
+            for (final List<Row> rows : reads) {
+              for (final Row row : rows) {
+                final CassandraTimeSeriesId timeSeries = new CassandraTimeSeriesId(row);
+                found.put(timeSeries.timeSeriesId(), timeSeries);
+              }
+            }
+
+            return getTimeSeries(windows, found);
           }
         });
-      }
-    });
   }
 }
@@ -2,24 +2,50 @@ package se.tre.freki.storage.cassandra;
 
 import se.tre.freki.labels.LabelId;
 import se.tre.freki.storage.StoreDescriptor;
+import se.tre.freki.storage.cassandra.query.PrefetchWindow;
 import se.tre.freki.utils.InvalidConfigException;
 
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
 import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.QueryOptions;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SocketOptions;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.SpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import com.google.auto.service.AutoService;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.typesafe.config.Config;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Clock;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.annotation.Nonnull;
 
 @AutoService(StoreDescriptor.class)
 public class CassandraStoreDescriptor extends StoreDescriptor {
   /**
    * Create a new cluster that is configured to use the list of addresses in the config as seed
-   * nodes.
+   * nodes. The load balancing, connection pooling, socket, speculative execution and read
+   * consistency settings are read from the config as well.
    *
    * @param config The config to get the list of addresses to from
    * @return A new {@link com.datastax.driver.core.Cluster} instance
@@ -40,7 +66,15 @@ public class CassandraStoreDescriptor extends StoreDescriptor {
       }
 
       builder.withPort(port)
-          .withProtocolVersion(ProtocolVersion.fromInt(protocolVersion));
+          .withProtocolVersion(ProtocolVersion.fromInt(protocolVersion))
+          .withLoadBalancingPolicy(loadBalancingPolicy(config))
+          .withPoolingOptions(poolingOptions(config))
+          .withSocketOptions(socketOptions(config))
+          .withQueryOptions(queryOptions(config));
+
+      if (config.getBoolean("freki.storage.cassandra.speculative_execution.enabled")) {
+        builder.withSpeculativeExecutionPolicy(speculativeExecutionPolicy(config));
+      }
 
       return builder.build();
     } catch (IllegalArgumentException e) {
@@ -49,6 +83,101 @@ public class CassandraStoreDescriptor extends StoreDescriptor {
     }
   }
 
+  /**
+   * Create a load balancing policy that prefers the configured local data center and, if enabled,
+   * sends each request to a replica of the partition it targets.
+   */
+  private LoadBalancingPolicy loadBalancingPolicy(final Config config) {
+    final String localDc = config.getString("freki.storage.cassandra.local_dc");
+    final LoadBalancingPolicy dcAwarePolicy = localDc.isEmpty()
+        ? new DCAwareRoundRobinPolicy()
+        : new DCAwareRoundRobinPolicy(localDc);
+
+    if (config.getBoolean("freki.storage.cassandra.token_aware")) {
+      return new TokenAwarePolicy(dcAwarePolicy);
+    }
+
+    return dcAwarePolicy;
+  }
+
+  private PoolingOptions poolingOptions(final Config config) {
+    final int coreConnections =
+        config.getInt("freki.storage.cassandra.pooling.core_connections_per_host");
+    final int maxConnections =
+        config.getInt("freki.storage.cassandra.pooling.max_connections_per_host");
+
+    if (coreConnections < 1 || maxConnections < coreConnections) {
+      throw new InvalidConfigException(
+          config.getValue("freki.storage.cassandra.pooling.max_connections_per_host"),
+          "There must be at least one core connection and no fewer max than core connections");
+    }
+
+    final int maxRequests =
+        config.getInt("freki.storage.cassandra.pooling.max_requests_per_connection");
+
+    if (maxRequests < 1) {
+      throw new InvalidConfigException(
+          config.getValue("freki.storage.cassandra.pooling.max_requests_per_connection"),
+          "The max number of requests per connection must be larger than zero");
+    }
+
+    return new PoolingOptions()
+        .setConnectionsPerHost(HostDistance.LOCAL, coreConnections, maxConnections)
+        .setMaxRequestsPerConnection(HostDistance.LOCAL, maxRequests);
+  }
+
+  private SocketOptions socketOptions(final Config config) {
+    return new SocketOptions()
+        .setConnectTimeoutMillis((int) config.getDuration(
+            "freki.storage.cassandra.socket.connect_timeout", TimeUnit.MILLISECONDS))
+        .setReadTimeoutMillis((int) config.getDuration(
+            "freki.storage.cassandra.socket.read_timeout", TimeUnit.MILLISECONDS))
+        .setTcpNoDelay(config.getBoolean("freki.storage.cassandra.socket.tcp_no_delay"))
+        .setKeepAlive(config.getBoolean("freki.storage.cassandra.socket.keep_alive"));
+  }
+
+  private QueryOptions queryOptions(final Config config) {
+    final int fetchSize = config.getInt("freki.storage.cassandra.query.fetch_size");
+
+    if (fetchSize < 1) {
+      throw new InvalidConfigException(config.getValue("freki.storage.cassandra.query.fetch_size"),
+          "The fetch size must be larger than zero");
+    }
+
+    return new QueryOptions()
+        .setConsistencyLevel(consistencyLevel(config, "freki.storage.cassandra.consistency.read"))
+        .setFetchSize(fetchSize);
+  }
+
+  private SpeculativeExecutionPolicy speculativeExecutionPolicy(final Config config) {
+    final long delay = config.getDuration("freki.storage.cassandra.speculative_execution.delay",
+        TimeUnit.MILLISECONDS);
+    final int maxExecutions =
+        config.getInt("freki.storage.cassandra.speculative_execution.max_executions");
+
+    if (delay < 0 || maxExecutions < 1) {
+      throw new InvalidConfigException(
+          config.getValue("freki.storage.cassandra.speculative_execution"),
+          "The delay must not be negative and at least one speculative execution must be allowed");
+    }
+
+    return new ConstantSpeculativeExecutionPolicy(delay, maxExecutions);
+  }
+
+  /**
+   * Read the consistency level at the provided key in the config.
+   *
+   * @throws InvalidConfigException if the value is not the name of a consistency level
+   */
+  private static ConsistencyLevel consistencyLevel(final Config config, final String key) {
+    try {
+      return ConsistencyLevel.valueOf(config.getString(key).toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidConfigException(config.getValue(key),
+          "The value is not a valid consistency level", e);
+    }
+  }
+
   Session connectTo(final Cluster cluster, String keyspace) {
     return cluster.connect(keyspace);
   }
@@ -59,10 +188,34 @@ public class CassandraStoreDescriptor extends StoreDescriptor {
     final String keyspace = config.getString("freki.storage.cassandra.keyspace");
     final Session session = connectTo(cluster, keyspace);
 
-    final IndexStrategy addPointIndexStrategy = indexStrategyFor(session,
-        config.getBoolean("freki.storage.cassandra.index_on_add_point"));
+    final ConsistencyLevel writeConsistency =
+        consistencyLevel(config, "freki.storage.cassandra.consistency.write");
+    final int maxBatchSize = config.getInt("freki.storage.cassandra.max_batch_size");
+
+    if (maxBatchSize < 1) {
+      throw new InvalidConfigException(config.getValue("freki.storage.cassandra.max_batch_size"),
+          "The max batch size must be larger than zero");
+    }
 
-    return new CassandraStore(cluster, session, Clock.systemDefaultZone(), addPointIndexStrategy);
+    final Clock clock = Clock.systemDefaultZone();
+    final CassandraStoreOptions options = CassandraStoreOptions.builder()
+        .indexingStrategy(indexStrategyFor(session, writeConsistency, config))
+        .compactionStrategy(
+            compactionStrategyFor(session, writeConsistency, clock, maxBatchSize, config))
+        .rollupStrategy(rollupStrategyFor(session, writeConsistency, clock, config))
+        .storagePolicies(storagePolicies(config))
+        .prefetchWindow(prefetchWindow(config))
+        .partitionDensities(partitionDensities(config))
+        .partitionCache(partitionCache(config, clock))
+        .indexSeriesInMemory(
+            config.getBoolean("freki.storage.cassandra.query.series_index.enabled"))
+        .maxOpenSeries(maxOpenSeries(config))
+        .maxBatchSize(maxBatchSize)
+        .writeConsistency(writeConsistency)
+        .labelConsistency(consistencyLevel(config, "freki.storage.cassandra.consistency.label"))
+        .build();
+
+    return new CassandraStore(cluster, session, clock, options);
   }
 
   @Nonnull
@@ -77,13 +230,249 @@ public class CassandraStoreDescriptor extends StoreDescriptor {
     return new CassandraLabelId.CassandraLabelIdDeserializer();
   }
 
+  /**
+   * Read the default storage policy and the list of metric specific policies from the config. The
+   * metric specific policies inherit any setting they do not specify from the default policy.
+   *
+   * @throws InvalidConfigException if a pattern or a setting of a policy is invalid
+   */
+  @VisibleForTesting
+  StoragePolicies storagePolicies(final Config config) {
+    final Config defaultConfig =
+        config.getConfig("freki.storage.cassandra.storage_policies.default");
+    final StoragePolicy defaultPolicy = storagePolicy(defaultConfig);
+
+    final Map<Pattern, StoragePolicy> metricPolicies = new LinkedHashMap<>();
+
+    for (final Config metricConfig :
+        config.getConfigList("freki.storage.cassandra.storage_policies.metrics")) {
+      try {
+        final Pattern pattern = Pattern.compile(metricConfig.getString("pattern"));
+        metricPolicies.put(pattern, storagePolicy(metricConfig.withFallback(defaultConfig)));
+      } catch (PatternSyntaxException e) {
+        throw new InvalidConfigException(metricConfig.getValue("pattern"),
+            "The pattern of the storage policy is not a valid regular expression", e);
+      }
+    }
+
+    return new StoragePolicies(defaultPolicy, metricPolicies);
+  }
+
+  private StoragePolicy storagePolicy(final Config config) {
+    try {
+      return new StoragePolicy(
+          Ints.checkedCast(config.getDuration("ttl", TimeUnit.SECONDS)),
+          config.getDuration("partition_period", TimeUnit.MILLISECONDS),
+          config.getInt("decimals"));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidConfigException(config.root(),
+          "The storage policy is invalid: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Read the limits of the window that decides how many partitions queries fetch at the same time
+   * from the config.
+   *
+   * @throws InvalidConfigException if any of the limits is not larger than zero
+   */
+  @VisibleForTesting
+  PrefetchWindow prefetchWindow(final Config config) {
+    try {
+      return new PrefetchWindow(
+          config.getInt("freki.storage.cassandra.query.prefetch.max_partitions"),
+          config.getInt("freki.storage.cassandra.query.prefetch.max_rows"),
+          config.getInt("freki.storage.cassandra.query.prefetch.max_inflight"),
+          Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+              .setNameFormat("freki-prefetch-%d")
+              .setDaemon(true)
+              .build()));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidConfigException(config.getValue("freki.storage.cassandra.query.prefetch"),
+          "The prefetch window is invalid: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Read the max number of time series that a single query fetches at the same time from the
+   * config.
+   *
+   * @throws InvalidConfigException if the max number of time series is not larger than zero
+   */
+  @VisibleForTesting
+  int maxOpenSeries(final Config config) {
+    final int maxOpenSeries = config.getInt("freki.storage.cassandra.query.max_open_series");
+
+    if (maxOpenSeries < 1) {
+      throw new InvalidConfigException(
+          config.getValue("freki.storage.cassandra.query.max_open_series"),
+          "The max number of open series must be larger than zero");
+    }
+
+    return maxOpenSeries;
+  }
+
+  /**
+   * Read how many adjacent partitions queries may read with a single request from the config.
+   *
+   * @throws InvalidConfigException if the max number of partitions is not larger than zero or the
+   * max number of time series is negative
+   */
+  @VisibleForTesting
+  PartitionDensities partitionDensities(final Config config) {
+    final int maxPartitions =
+        config.getInt("freki.storage.cassandra.query.partitions_per_read.max_partitions");
+    final long maxSeries =
+        config.getLong("freki.storage.cassandra.query.partitions_per_read.max_series");
+
+    if (maxPartitions < 1 || maxSeries < 0) {
+      throw new InvalidConfigException(
+          config.getValue("freki.storage.cassandra.query.partitions_per_read"),
+          "The max number of partitions must be larger than zero and the max number of series "
+          + "must not be negative");
+    }
+
+    if (maxPartitions == 1) {
+      return PartitionDensities.disabled();
+    }
+
+    return new PartitionDensities(maxPartitions, maxSeries);
+  }
+
+  /**
+   * Read the size of the cache of closed partitions and when partitions close from the config.
+   *
+   * @throws InvalidConfigException if the max size is not larger than zero or the time until
+   * partitions close is negative
+   */
+  @VisibleForTesting
+  PartitionCache partitionCache(final Config config, final Clock clock) {
+    if (!config.getBoolean("freki.storage.cassandra.query.partition_cache.enabled")) {
+      return PartitionCache.disabled();
+    }
+
+    final long maxBytes =
+        config.getBytes("freki.storage.cassandra.query.partition_cache.max_size");
+    final long closedAfter = config.getDuration(
+        "freki.storage.cassandra.query.partition_cache.closed_after", TimeUnit.MILLISECONDS);
+
+    if (maxBytes < 1 || closedAfter < 0) {
+      throw new InvalidConfigException(
+          config.getValue("freki.storage.cassandra.query.partition_cache"),
+          "The max size must be larger than zero and the time until partitions close must not be "
+          + "negative");
+    }
+
+    return new PartitionCache(maxBytes, closedAfter, clock);
+  }
+
+  @Nonnull
+  private CompactionStrategy compactionStrategyFor(final Session session,
+                                                   final ConsistencyLevel consistencyLevel,
+                                                   final Clock clock,
+                                                   final int maxBatchSize,
+                                                   final Config config) {
+    if (!config.getBoolean("freki.storage.cassandra.compaction.enabled")) {
+      return new CompactionStrategy.NoOpCompactionStrategy();
+    }
+
+    final long delay = config.getDuration("freki.storage.cassandra.compaction.delay",
+        TimeUnit.MILLISECONDS);
+
+    if (delay < 0) {
+      throw new InvalidConfigException(config.getValue("freki.storage.cassandra.compaction.delay"),
+          "The compaction delay must not be negative");
+    }
+
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("freki-compaction-%d")
+            .setDaemon(true)
+            .build());
+
+    return new ChunkCompactionStrategy(session, consistencyLevel, clock, executor, delay,
+        maxBatchSize);
+  }
+
+  @Nonnull
+  private RollupStrategy rollupStrategyFor(final Session session,
+                                           final ConsistencyLevel consistencyLevel,
+                                           final Clock clock,
+                                           final Config config) {
+    if (!config.getBoolean("freki.storage.cassandra.rollups.enabled")) {
+      return new RollupStrategy.NoOpRollupStrategy();
+    }
+
+    final long delay = config.getDuration("freki.storage.cassandra.rollups.delay",
+        TimeUnit.MILLISECONDS);
+
+    if (delay < 0) {
+      throw new InvalidConfigException(config.getValue("freki.storage.cassandra.rollups.delay"),
+          "The rollup delay must not be negative");
+    }
+
+    final long since = rollupsSince(config);
+
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("freki-rollups-%d")
+            .setDaemon(true)
+            .build());
+
+    return new AggregatingRollupStrategy(session, consistencyLevel, clock, executor, delay, since);
+  }
+
+  /**
+   * Read the time in milliseconds since the epoch from which data points have been rolled up. An
+   * empty setting means that they always have been.
+   */
+  private static long rollupsSince(final Config config) {
+    final String since = config.getString("freki.storage.cassandra.rollups.since");
+
+    if (since.isEmpty()) {
+      return 0;
+    }
+
+    try {
+      return Instant.parse(since).toEpochMilli();
+    } catch (DateTimeParseException e) {
+      throw new InvalidConfigException(config.getValue("freki.storage.cassandra.rollups.since"),
+          "The time rollups were enabled since must be an ISO-8601 instant such as "
+          + "2015-06-17T00:00:00Z");
+    }
+  }
+
   @Nonnull
   private IndexStrategy indexStrategyFor(final Session session,
-                                         final boolean shouldWrite) {
-    if (shouldWrite) {
-      return new IndexStrategy.IndexingStrategy(session);
+                                         final ConsistencyLevel consistencyLevel,
+                                         final Config config) {
+    if (!config.getBoolean("freki.storage.cassandra.index_on_add_point")) {
+      return new IndexStrategy.NoOpIndexingStrategy();
+    }
+
+    final IndexStrategy indexingStrategy =
+        new IndexStrategy.IndexingStrategy(session, consistencyLevel);
+
+    if (!config.getBoolean("freki.storage.cassandra.index_once.enabled")) {
+      return indexingStrategy;
+    }
+
+    final long maxSeries = config.getLong("freki.storage.cassandra.index_once.max_series");
+
+    if (maxSeries < 1) {
+      throw new InvalidConfigException(
+          config.getValue("freki.storage.cassandra.index_once.max_series"),
+          "The max number of series must be larger than zero");
     }
 
-    return new IndexStrategy.NoOpIndexingStrategy();
+    final String file = config.getString("freki.storage.cassandra.index_once.file");
+
+    try {
+      return new WriteOnceIndexStrategy(indexingStrategy, maxSeries,
+          file.isEmpty() ? null : Paths.get(file));
+    } catch (IOException e) {
+      throw new InvalidConfigException(config.getValue("freki.storage.cassandra.index_once.file"),
+          "The file with indexed time series could not be read", e);
+    }
   }
 }
@@ -0,0 +1,132 @@
+package se.tre.freki.storage.cassandra;
+
+import se.tre.freki.storage.cassandra.CompactionStrategy.NoOpCompactionStrategy;
+import se.tre.freki.storage.cassandra.IndexStrategy.NoOpIndexingStrategy;
+import se.tre.freki.storage.cassandra.RollupStrategy.NoOpRollupStrategy;
+import se.tre.freki.storage.cassandra.query.PrefetchWindow;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.google.auto.value.AutoValue;
+
+/**
+ * The strategies, caches, windows and limits that a {@link CassandraStore} reads and writes data
+ * points with.
+ */
+@AutoValue
+abstract class CassandraStoreOptions {
+  /**
+   * Create a new builder for options that do not index, compact or roll up anything, store every
+   * metric with the default storage policy, do not cache any partitions and read one partition of
+   * each time series at a time.
+   */
+  static Builder builder() {
+    return new AutoValue_CassandraStoreOptions.Builder()
+        .indexingStrategy(new NoOpIndexingStrategy())
+        .compactionStrategy(new NoOpCompactionStrategy())
+        .rollupStrategy(new NoOpRollupStrategy())
+        .storagePolicies(StoragePolicies.uniform(StoragePolicy.DEFAULT))
+        .prefetchWindow(PrefetchWindow.single())
+        .partitionDensities(PartitionDensities.disabled())
+        .partitionCache(PartitionCache.disabled())
+        .indexSeriesInMemory(false);
+  }
+
+  @AutoValue.Builder
+  abstract static class Builder {
+    abstract CassandraStoreOptions build();
+
+    /**
+     * Set the strategy to use for indexing time series as data points are added.
+     */
+    abstract Builder indexingStrategy(final IndexStrategy indexingStrategy);
+
+    /**
+     * Set the strategy to use for compacting partitions once they are closed.
+     */
+    abstract Builder compactionStrategy(final CompactionStrategy compactionStrategy);
+
+    /**
+     * Set the strategy to use for rolling up data points as they are written and for reading the
+     * rollups back.
+     */
+    abstract Builder rollupStrategy(final RollupStrategy rollupStrategy);
+
+    /**
+     * Set the policies that decide how the data points of each metric are stored.
+     */
+    abstract Builder storagePolicies(final StoragePolicies storagePolicies);
+
+    /**
+     * Set the window that decides how many partitions of a time series queries fetch at the same
+     * time.
+     */
+    abstract Builder prefetchWindow(final PrefetchWindow prefetchWindow);
+
+    /**
+     * Set the estimates that decide how many adjacent partitions of a time series queries read
+     * with a single request.
+     */
+    abstract Builder partitionDensities(final PartitionDensities partitionDensities);
+
+    /**
+     * Set the cache that queries read closed partitions through.
+     */
+    abstract Builder partitionCache(final PartitionCache partitionCache);
+
+    /**
+     * Set whether the time series should be loaded into an index in memory that queries resolve
+     * their time series against.
+     */
+    abstract Builder indexSeriesInMemory(final boolean indexSeriesInMemory);
+
+    /**
+     * Set the max number of time series that a single query fetches at the same time.
+     */
+    abstract Builder maxOpenSeries(final int maxOpenSeries);
+
+    /**
+     * Set the maximum number of data points to write in a single batch.
+     */
+    abstract Builder maxBatchSize(final int maxBatchSize);
+
+    /**
+     * Set the consistency level to write data points with.
+     */
+    abstract Builder writeConsistency(final ConsistencyLevel writeConsistency);
+
+    /**
+     * Set the consistency level to create labels with.
+     */
+    abstract Builder labelConsistency(final ConsistencyLevel labelConsistency);
+  }
+
+  /**
+   * Hide the constructor and prevent subclasses other than the one provided by {@link AutoValue}.
+   */
+  CassandraStoreOptions() {
+  }
+
+  abstract IndexStrategy indexingStrategy();
+
+  abstract CompactionStrategy compactionStrategy();
+
+  abstract RollupStrategy rollupStrategy();
+
+  abstract StoragePolicies storagePolicies();
+
+  abstract PrefetchWindow prefetchWindow();
+
+  abstract PartitionDensities partitionDensities();
+
+  abstract PartitionCache partitionCache();
+
+  abstract boolean indexSeriesInMemory();
+
+  abstract int maxOpenSeries();
+
+  abstract int maxBatchSize();
+
+  abstract ConsistencyLevel writeConsistency();
+
+  abstract ConsistencyLevel labelConsistency();
+}
@@ -4,9 +4,13 @@ import static com.datastax.driver.core.querybuilder.QueryBuilder.batch;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.delete;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.gt;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.in;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.token;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
 
 import com.datastax.driver.core.ConsistencyLevel;
@@ -16,19 +20,26 @@ import com.datastax.driver.core.Session;
 public class CassandraStoreStatements {
 
   private final PreparedStatement createIdStatement;
+  private final PreparedStatement deleteIdStatement;
   private final PreparedStatement updateNameUidStatement;
   private final PreparedStatement getNameStatement;
   private final PreparedStatement getIdStatement;
   private final PreparedStatement getMetaStatement;
   private final PreparedStatement updateMetaStatement;
   private final PreparedStatement resolveTimeSeriesStatement;
+  private final PreparedStatement getTimeSeriesStatement;
+  private final PreparedStatement scanTimeSeriesStatement;
+  private final PreparedStatement scanLegacyPostingsStatement;
+  private final PreparedStatement backfillTimeSeriesStatement;
 
   /**
    * Instantiate the statements and prepare them with the provided session.
    *
    * @param session The session to prepare the statements with.
+   * @param labelConsistency The consistency level to create and delete labels with
    */
-  public CassandraStoreStatements(Session session) {
+  public CassandraStoreStatements(final Session session,
+                                  final ConsistencyLevel labelConsistency) {
 
     this.createIdStatement = session.prepare(
         batch(
@@ -42,7 +53,21 @@ public class CassandraStoreStatements {
                 .value("type", bindMarker())
                 .value("creation_time", bindMarker())
                 .value("label_id", bindMarker())))
-        .setConsistencyLevel(ConsistencyLevel.ALL);
+        .setConsistencyLevel(labelConsistency);
+
+    this.deleteIdStatement = session.prepare(
+        batch(
+            delete()
+                .from(Tables.ID_TO_NAME)
+                .where(eq("label_id", bindMarker()))
+                .and(eq("type", bindMarker()))
+                .and(eq("creation_time", bindMarker())),
+            delete()
+                .from(Tables.NAME_TO_ID)
+                .where(eq("name", bindMarker()))
+                .and(eq("type", bindMarker()))
+                .and(eq("creation_time", bindMarker()))))
+        .setConsistencyLevel(labelConsistency);
 
     this.updateNameUidStatement = session.prepare(
         batch(
@@ -100,12 +125,40 @@ public class CassandraStoreStatements {
             .where(eq("label_id", bindMarker()))
             .and(eq("type", bindMarker())));
 
+    this.getTimeSeriesStatement = session.prepare(
+        select()
+            .all()
+            .from(Tables.TS_INDEX)
+            .where(in("timeseries_id", bindMarker())));
+
+    this.scanTimeSeriesStatement = session.prepare(
+        select()
+            .all()
+            .from(Tables.TS_INDEX)
+            .where(gt(token("timeseries_id"), bindMarker()))
+            .and(lte(token("timeseries_id"), bindMarker())));
+
+    this.scanLegacyPostingsStatement = session.prepare(
+        select("type", "timeseries_id", "metric", "tags")
+            .from(Tables.TS_INVERTED_INDEX)
+            .where(gt(token("label_id", "type"), bindMarker()))
+            .and(lte(token("label_id", "type"), bindMarker())));
+
+    this.backfillTimeSeriesStatement = session.prepare(
+        insertInto(Tables.TS_INDEX)
+            .value("timeseries_id", bindMarker())
+            .value("metric", bindMarker())
+            .value("tags", bindMarker()));
   }
 
   public PreparedStatement createIdStatement() {
     return createIdStatement;
   }
 
+  public PreparedStatement deleteIdStatement() {
+    return deleteIdStatement;
+  }
+
   public PreparedStatement updateNameUidStatement() {
     return updateNameUidStatement;
   }
@@ -129,4 +182,37 @@ public class CassandraStoreStatements {
   public PreparedStatement resolveTimeSeriesStatement() {
     return resolveTimeSeriesStatement;
   }
+
+  /**
+   * The statement that reads the time series in the {@code ts_index} table whose IDs are in a list
+   * of time series IDs, which is bound as a list of UUIDs.
+   */
+  public PreparedStatement getTimeSeriesStatement() {
+    return getTimeSeriesStatement;
+  }
+
+  /**
+   * The statement that reads every time series in the {@code ts_index} table whose token is within
+   * a token range, which is bound as the exclusive start and the inclusive end of the range.
+   */
+  public PreparedStatement scanTimeSeriesStatement() {
+    return scanTimeSeriesStatement;
+  }
+
+  /**
+   * The statement that reads the type, time series ID, metric and tags of every row in the {@code
+   * ts_inverted_index} table whose token is within a token range. Only rows that were written
+   * before the {@code ts_index} table existed have a metric and tags.
+   */
+  public PreparedStatement scanLegacyPostingsStatement() {
+    return scanLegacyPostingsStatement;
+  }
+
+  /**
+   * The statement that writes the metric and tags of a time series that only were found in the
+   * legacy columns of the {@code ts_inverted_index} table to the {@code ts_index} table.
+   */
+  public PreparedStatement backfillTimeSeriesStatement() {
+    return backfillTimeSeriesStatement;
+  }
 }
@@ -15,24 +15,31 @@ import javax.annotation.Nonnull;
 
 /**
  * A {@code TimeSeriesId} implementation that is capable of reading the information from a Cassandra
- * {@link Row}. In addition it also exposes the internal representation of a time series ID.
+ * {@link Row} in the {@code ts_index} table. In addition it also exposes the internal
+ * representation of a time series ID.
  */
 class CassandraTimeSeriesId extends TimeSeriesId {
-  private final Row row;
+  private final LabelId metric;
+  private final List<LabelId> tags;
+  private final ByteBuffer timeSeriesId;
 
   CassandraTimeSeriesId(final Row row) {
-    this.row = row;
+    this(fromLong(row.getLong("metric")), tagsOf(row), row.getBytesUnsafe("timeseries_id"));
   }
 
-  @Nonnull
-  @Override
-  public LabelId metric() {
-    return fromLong(row.getLong("metric"));
+  /**
+   * Create a time series ID from its metric, tags and internal representation that already are
+   * known, such as when a data point is written to it.
+   */
+  CassandraTimeSeriesId(final LabelId metric,
+                        final List<LabelId> tags,
+                        final ByteBuffer timeSeriesId) {
+    this.metric = metric;
+    this.tags = tags;
+    this.timeSeriesId = timeSeriesId;
   }
 
-  @Nonnull
-  @Override
-  public List<LabelId> tags() {
+  private static List<LabelId> tagsOf(final Row row) {
     final Map<Long, Long> tags = row.getMap("tags", Long.class, Long.class);
     final ImmutableList.Builder<LabelId> labelIds = ImmutableList.builder();
 
@@ -44,7 +51,19 @@ class CassandraTimeSeriesId extends TimeSeriesId {
     return labelIds.build();
   }
 
+  @Nonnull
+  @Override
+  public LabelId metric() {
+    return metric;
+  }
+
+  @Nonnull
+  @Override
+  public List<LabelId> tags() {
+    return tags;
+  }
+
   ByteBuffer timeSeriesId() {
-    return row.getBytesUnsafe("timeseries_id");
+    return timeSeriesId;
   }
 }
@@ -0,0 +1,404 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.storage.cassandra.statements.CompactionStatements;
+import se.tre.freki.storage.cassandra.statements.CompactionStatements.DeletePointStatementMarkers;
+import se.tre.freki.storage.cassandra.statements.CompactionStatements.InsertChunkStatementMarkers;
+import se.tre.freki.storage.cassandra.statements.CompactionStatements.SelectPartitionStatementMarkers;
+import se.tre.freki.storage.compression.ChunkDecoder;
+import se.tre.freki.storage.compression.ChunkEncoder;
+import se.tre.freki.storage.compression.ChunkType;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A compaction strategy that rewrites partitions that no longer receive data points into a single
+ * row with all data points encoded as a {@link ChunkEncoder chunk}. A partition is considered
+ * closed once a data point has been written to a later partition of the same time series. Late
+ * data points that are written to a closed partition cause it to be compacted again, the new data
+ * points are then merged with the existing chunk.
+ *
+ * <p>Closed partitions are compacted one at a time on the provided executor once the configured
+ * delay has passed so that data points that arrive slightly out of order are included. The chunk
+ * is written before the rows it replaces are deleted, readers merge the two and prefer the rows so
+ * a partition is never missing data points while it is being compacted.
+ *
+ * <p>Which partition each time series was last written to is only kept in memory, so partitions
+ * that were closed before the process was restarted are left as they are.
+ */
+class ChunkCompactionStrategy implements CompactionStrategy {
+  private static final Logger LOG = LoggerFactory.getLogger(ChunkCompactionStrategy.class);
+
+  private final Session session;
+  private final Clock clock;
+  private final ScheduledExecutorService executor;
+  private final long delay;
+  private final int maxBatchSize;
+  private final ConsistencyLevel consistencyLevel;
+
+  private final PreparedStatement selectPartitionStatement;
+  private final PreparedStatement insertChunkStatement;
+  private final PreparedStatement deletePointStatement;
+
+  /**
+   * The base time of the latest partition each time series has been written to.
+   */
+  private final ConcurrentMap<ByteBuffer, Long> latestBaseTimes = new ConcurrentHashMap<>();
+
+  /**
+   * The partitions that are waiting to be compacted.
+   */
+  private final Set<Partition> scheduled = Sets.newConcurrentHashSet();
+
+  private final Counter compacted = new Counter();
+  private final Counter failures = new Counter();
+
+  /**
+   * Create a new strategy that compacts partitions on the provided executor.
+   *
+   * @param session The session to read and write partitions with
+   * @param consistencyLevel The consistency level to write chunks and delete data points with
+   * @param clock The clock used to order the writes of chunks
+   * @param executor The executor to compact partitions on
+   * @param delay The number of milliseconds to wait after a partition was closed before it is
+   * compacted
+   * @param maxBatchSize The maximum number of data points to delete in a single batch
+   */
+  ChunkCompactionStrategy(final Session session,
+                          final ConsistencyLevel consistencyLevel,
+                          final Clock clock,
+                          final ScheduledExecutorService executor,
+                          final long delay,
+                          final int maxBatchSize) {
+    checkArgument(delay >= 0, "The compaction delay must not be negative but was %s", delay);
+    checkArgument(maxBatchSize > 0, "The max batch size must be larger than zero but was %s",
+        maxBatchSize);
+
+    this.session = checkNotNull(session);
+    this.consistencyLevel = checkNotNull(consistencyLevel);
+    this.clock = checkNotNull(clock);
+    this.executor = checkNotNull(executor);
+    this.delay = delay;
+    this.maxBatchSize = maxBatchSize;
+
+    final CompactionStatements statements = new CompactionStatements(session, consistencyLevel);
+    this.selectPartitionStatement = statements.selectPartitionStatement();
+    this.insertChunkStatement = statements.insertChunkStatement();
+    this.deletePointStatement = statements.deletePointStatement();
+  }
+
+  @Override
+  public void partitionWritten(final ByteBuffer timeSeriesId,
+                               final long baseTime,
+                               final int ttl) {
+    Long latest = latestBaseTimes.get(timeSeriesId);
+
+    while (true) {
+      if (latest == null) {
+        latest = latestBaseTimes.putIfAbsent(copyOf(timeSeriesId), baseTime);
+
+        if (latest == null) {
+          return;
+        }
+      } else if (baseTime > latest) {
+        if (latestBaseTimes.replace(timeSeriesId, latest, baseTime)) {
+          schedule(new Partition(copyOf(timeSeriesId), latest, ttl));
+          return;
+        }
+
+        latest = latestBaseTimes.get(timeSeriesId);
+      } else {
+        if (baseTime < latest) {
+          schedule(new Partition(copyOf(timeSeriesId), baseTime, ttl));
+        }
+
+        return;
+      }
+    }
+  }
+
+  private static ByteBuffer copyOf(final ByteBuffer buffer) {
+    final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+    copy.put(buffer.duplicate());
+    copy.flip();
+    return copy;
+  }
+
+  private void schedule(final Partition partition) {
+    if (!scheduled.add(partition)) {
+      return;
+    }
+
+    try {
+      executor.schedule(() -> compact(partition), delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      scheduled.remove(partition);
+      LOG.debug("Not compacting {} since the strategy has been closed", partition);
+    }
+  }
+
+  /**
+   * The number of partitions that are waiting to be compacted.
+   */
+  int scheduledPartitions() {
+    return scheduled.size();
+  }
+
+  private void compact(final Partition partition) {
+    // Data points written from now on need another compaction to be included.
+    scheduled.remove(partition);
+
+    try {
+      final Iterable<Row> rows = session.execute(selectPartitionStatement.bind()
+          .setBytesUnsafe(SelectPartitionStatementMarkers.ID.ordinal(), partition.timeSeriesId)
+          .setLong(SelectPartitionStatementMarkers.BASE_TIME.ordinal(), partition.baseTime));
+
+      final List<Long> rowTimestamps = new ArrayList<>();
+      final ByteBuffer chunk = encodeChunk(rows, rowTimestamps);
+
+      if (chunk == null) {
+        return;
+      }
+
+      session.execute(insertChunkStatement.bind()
+          .setBytesUnsafe(InsertChunkStatementMarkers.ID.ordinal(), partition.timeSeriesId)
+          .setLong(InsertChunkStatementMarkers.BASE_TIME.ordinal(), partition.baseTime)
+          .setLong(InsertChunkStatementMarkers.TIMESTAMP.ordinal(),
+              BaseTimes.chunkTimestampFor(partition.baseTime))
+          .setBytesUnsafe(InsertChunkStatementMarkers.CHUNK.ordinal(), chunk)
+          .setLong(InsertChunkStatementMarkers.USING_TIMESTAMP.ordinal(), clock.millis())
+          .setInt(InsertChunkStatementMarkers.USING_TTL.ordinal(), partition.ttl));
+
+      for (final List<Long> timestamps : Lists.partition(rowTimestamps, maxBatchSize)) {
+        final BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        batch.setConsistencyLevel(consistencyLevel);
+
+        // The rows were written with their own timestamp as the write time, deleting them with
+        // the same write time leaves data points written later with other timestamps alone.
+        for (final long timestamp : timestamps) {
+          batch.add(deletePointStatement.bind()
+              .setLong(DeletePointStatementMarkers.USING_TIMESTAMP.ordinal(), timestamp)
+              .setBytesUnsafe(DeletePointStatementMarkers.ID.ordinal(), partition.timeSeriesId)
+              .setLong(DeletePointStatementMarkers.BASE_TIME.ordinal(), partition.baseTime)
+              .setLong(DeletePointStatementMarkers.TIMESTAMP.ordinal(), timestamp));
+        }
+
+        session.execute(batch);
+      }
+
+      compacted.inc();
+      LOG.debug("Compacted {} data points in {} into {} bytes", rowTimestamps.size(), partition,
+          chunk.remaining());
+    } catch (Exception e) {
+      failures.inc();
+      LOG.warn("Failed to compact {}", partition, e);
+    }
+  }
+
+  /**
+   * Encode the data points in the provided rows of a partition into a chunk. If there already is a
+   * chunk among the rows its data points are merged with the data points in the other rows, a row
+   * replaces the data point in the chunk with the same timestamp.
+   *
+   * @param rows The rows of a single partition in clustering order
+   * @param rowTimestamps A list that the timestamps of the rows that are not chunks are added to
+   * @return The new chunk or {@code null} if the partition does not need to be compacted because it
+   * has no rows besides a chunk or because it contains values of more than one type
+   */
+  @Nullable
+  static ByteBuffer encodeChunk(final Iterable<Row> rows, final List<Long> rowTimestamps) {
+    final List<DataPoint> chunkDataPoints = new ArrayList<>();
+    final List<DataPoint> rowDataPoints = new ArrayList<>();
+    ChunkType type = null;
+
+    for (final Row row : rows) {
+      final ByteBuffer chunk = row.getBytesUnsafe("chunk");
+
+      if (chunk != null) {
+        final ChunkDecoder decoder = new ChunkDecoder(chunk);
+        type = decoder.type();
+
+        while (decoder.hasNext()) {
+          decoder.next();
+          chunkDataPoints.add(dataPointFor(decoder));
+        }
+      } else {
+        final DataPoint dataPoint = dataPointFor(row);
+        rowDataPoints.add(dataPoint);
+        rowTimestamps.add(dataPoint.timestamp());
+
+        if (type == null) {
+          type = typeOf(row);
+        }
+      }
+    }
+
+    if (rowDataPoints.isEmpty()) {
+      return null;
+    }
+
+    final ChunkEncoder encoder =
+        new ChunkEncoder(type, chunkDataPoints.size() + rowDataPoints.size());
+
+    try {
+      int chunkIndex = 0;
+
+      for (final DataPoint rowDataPoint : rowDataPoints) {
+        while (chunkIndex < chunkDataPoints.size()
+               && chunkDataPoints.get(chunkIndex).timestamp() <= rowDataPoint.timestamp()) {
+          final DataPoint chunkDataPoint = chunkDataPoints.get(chunkIndex++);
+
+          if (chunkDataPoint.timestamp() < rowDataPoint.timestamp()) {
+            encoder.add(chunkDataPoint);
+          }
+        }
+
+        encoder.add(rowDataPoint);
+      }
+
+      for (final DataPoint chunkDataPoint : chunkDataPoints.subList(chunkIndex,
+          chunkDataPoints.size())) {
+        encoder.add(chunkDataPoint);
+      }
+    } catch (IllegalStateException e) {
+      LOG.info("Not compacting a partition with values of more than one type: {}", e.getMessage());
+      return null;
+    }
+
+    return encoder.encode();
+  }
+
+  private static ChunkType typeOf(final Row row) {
+    if (!row.isNull("long_value")) {
+      return ChunkType.LONG;
+    } else if (!row.isNull("float_value")) {
+      return ChunkType.FLOAT;
+    } else if (!row.isNull("double_value")) {
+      return ChunkType.DOUBLE;
+    }
+
+    throw new IllegalStateException(
+        "row does not contain any non-null field for any known known type");
+  }
+
+  /**
+   * Copy the data point in the provided row, which must not be a chunk, into an immutable one.
+   */
+  static DataPoint dataPointFor(final Row row) {
+    final long timestamp = row.getLong("timestamp");
+
+    switch (typeOf(row)) {
+      case LONG:
+        return DataPoints.longPoint(timestamp, row.getLong("long_value"));
+      case FLOAT:
+        return DataPoints.floatPoint(timestamp, row.getFloat("float_value"));
+      case DOUBLE:
+      default:
+        return DataPoints.doublePoint(timestamp, row.getDouble("double_value"));
+    }
+  }
+
+  /**
+   * Copy the data point the provided decoder is positioned at into an immutable one.
+   */
+  static DataPoint dataPointFor(final ChunkDecoder decoder) {
+    switch (decoder.type()) {
+      case LONG:
+        return DataPoints.longPoint(decoder.timestamp(), decoder.longValue());
+      case FLOAT:
+        return DataPoints.floatPoint(decoder.timestamp(), decoder.floatValue());
+      case DOUBLE:
+      default:
+        return DataPoints.doublePoint(decoder.timestamp(), decoder.doubleValue());
+    }
+  }
+
+  @Override
+  public void registerMetricsWith(final MetricRegistry registry) {
+    registry.register("freki.storage.cassandra.compaction.scheduled", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return scheduledPartitions();
+      }
+    });
+
+    registry.register("freki.storage.cassandra.compaction.compacted", compacted);
+    registry.register("freki.storage.cassandra.compaction.failures", failures);
+  }
+
+  @Override
+  public void close() {
+    final int pending = executor.shutdownNow().size();
+
+    if (pending > 0) {
+      LOG.info("Dropped {} partitions that were waiting to be compacted", pending);
+    }
+  }
+
+  /**
+   * A single partition of the data points table. The TTL is not part of the identity of the
+   * partition, it is what the chunk will be written with.
+   */
+  private static final class Partition {
+    private final ByteBuffer timeSeriesId;
+    private final long baseTime;
+    private final int ttl;
+
+    Partition(final ByteBuffer timeSeriesId, final long baseTime, final int ttl) {
+      this.timeSeriesId = timeSeriesId;
+      this.baseTime = baseTime;
+      this.ttl = ttl;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+
+      if (!(obj instanceof Partition)) {
+        return false;
+      }
+
+      final Partition other = (Partition) obj;
+      return baseTime == other.baseTime && timeSeriesId.equals(other.timeSeriesId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * timeSeriesId.hashCode() + Long.hashCode(baseTime);
+    }
+
+    @Override
+    public String toString() {
+      return "partition " + baseTime + " of time series " + TimeSeriesIds.toUuid(timeSeriesId);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package se.tre.freki.storage.cassandra;
+
+import com.codahale.metrics.MetricRegistry;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * A compaction strategy decides what happens to the partitions of the data points table once they
+ * no longer receive any data points.
+ */
+interface CompactionStrategy extends Closeable {
+  /**
+   * Called after data points have been written to the partition identified by the provided time
+   * series ID and base time.
+   *
+   * @param timeSeriesId The internal Cassandra representation of a time series ID
+   * @param baseTime The base time of the partition
+   * @param ttl The TTL in seconds that data points in the partition were written with
+   */
+  void partitionWritten(final ByteBuffer timeSeriesId, final long baseTime, final int ttl);
+
+  /**
+   * Register the metrics of the strategy with the provided registry.
+   */
+  void registerMetricsWith(final MetricRegistry registry);
+
+  /**
+   * Stop compacting partitions. Failures are logged instead of thrown since there is nothing the
+   * store can do about them while it is closing.
+   */
+  @Override
+  void close();
+
+  /**
+   * A compaction strategy which leaves every data point in a row of its own.
+   */
+  class NoOpCompactionStrategy implements CompactionStrategy {
+    @Override
+    public void partitionWritten(final ByteBuffer timeSeriesId,
+                                 final long baseTime,
+                                 final int ttl) {
+    }
+
+    @Override
+    public void registerMetricsWith(final MetricRegistry registry) {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -3,16 +3,24 @@ package se.tre.freki.storage.cassandra;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.transform;
 import static se.tre.freki.storage.cassandra.CassandraLabelId.toLong;
 
 import se.tre.freki.labels.LabelId;
 import se.tre.freki.labels.LabelType;
+import se.tre.freki.storage.cassandra.functions.ToVoidFunction;
 
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Session;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
+import java.io.Closeable;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -21,7 +29,7 @@ import java.util.Map;
  * An indexing strategy defines the behavior for how time series IDs should be indexed. The
  * interesting part is not how they are indexed though, but when which strategy is used.
  */
-interface IndexStrategy {
+interface IndexStrategy extends Closeable {
   /**
    * Write the time series ID to the database so that it will be resolved against the provided
    * metric and tags.
@@ -29,73 +37,103 @@ interface IndexStrategy {
    * @param metric The metric the time series ID represents
    * @param tags The tags the time series ID represents
    * @param timeSeriresId The internal Cassandra representation of a time series ID
+   * @return A future that indicates the completion of the index writes
    */
-  void indexTimeseriesId(final LabelId metric,
-                         final List<LabelId> tags,
-                         final ByteBuffer timeSeriresId);
+  ListenableFuture<Void> indexTimeseriesId(final LabelId metric,
+                                           final List<LabelId> tags,
+                                           final ByteBuffer timeSeriresId);
+
+  /**
+   * Release any resources held by the strategy. Failures are logged instead of thrown since there
+   * is nothing the store can do about them while it is closing.
+   */
+  @Override
+  void close();
 
   /**
    * An indexing strategy which does nothing and therefore should not have any penalties.
    */
   class NoOpIndexingStrategy implements IndexStrategy {
     @Override
-    public void indexTimeseriesId(final LabelId metric,
-                                  final List<LabelId> tags,
-                                  final ByteBuffer timeSeriresId) {
+    public ListenableFuture<Void> indexTimeseriesId(final LabelId metric,
+                                                    final List<LabelId> tags,
+                                                    final ByteBuffer timeSeriresId) {
+      return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public void close() {
     }
   }
 
   /**
-   * An indexing strategy which writes the time series ID to the database. Due to the number of
-   * database calls this makes it is a bit heavy-weight.
+   * An indexing strategy which writes the time series ID to the database. The metric and tags are
+   * written once to the {@code ts_index} table and every label gets a row that only points at the
+   * time series ID in the {@code ts_inverted_index} table. Due to the number of database calls
+   * this makes it is a bit heavy-weight.
    */
   class IndexingStrategy implements IndexStrategy {
     private final Session session;
+    private final PreparedStatement insertTimeSeriesStatement;
     private final PreparedStatement insertTagsStatement;
 
-    public IndexingStrategy(final Session session) {
+    public IndexingStrategy(final Session session,
+                            final ConsistencyLevel consistencyLevel) {
       this.session = checkNotNull(session);
+      checkNotNull(consistencyLevel);
+
+      insertTimeSeriesStatement = session.prepare(
+          insertInto(Tables.TS_INDEX)
+              .value("timeseries_id", bindMarker())
+              .value("metric", bindMarker())
+              .value("tags", bindMarker()))
+          .setConsistencyLevel(consistencyLevel);
 
       insertTagsStatement = session.prepare(
           insertInto(Tables.TS_INVERTED_INDEX)
               .value("label_id", bindMarker())
               .value("type", bindMarker())
-              .value("timeseries_id", bindMarker())
-              .value("metric", bindMarker())
-              .value("tags", bindMarker()));
+              .value("timeseries_id", bindMarker()))
+          .setConsistencyLevel(consistencyLevel);
     }
 
     @Override
-    public void indexTimeseriesId(final LabelId metric,
-                                  final List<LabelId> tags,
-                                  final ByteBuffer timeSeriresId) {
+    public ListenableFuture<Void> indexTimeseriesId(final LabelId metric,
+                                                    final List<LabelId> tags,
+                                                    final ByteBuffer timeSeriresId) {
       final long longMetric = toLong(metric);
       final Map<Long, Long> longTags = toMap(tags);
+      final List<ListenableFuture<ResultSet>> writes = new ArrayList<>(2 + tags.size());
+
+      writes.add(session.executeAsync(insertTimeSeriesStatement.bind()
+          .setBytesUnsafe(0, timeSeriresId)
+          .setLong(1, longMetric)
+          .setMap(2, longTags)));
 
-      session.executeAsync(insertTagsStatement.bind()
+      writes.add(session.executeAsync(insertTagsStatement.bind()
           .setLong(0, longMetric)
           .setString(1, LabelType.METRIC.toValue())
-          .setBytesUnsafe(2, timeSeriresId)
-          .setLong(3, longMetric)
-          .setMap(4, longTags));
+          .setBytesUnsafe(2, timeSeriresId)));
 
       final Iterator<LabelId> tagIterator = tags.iterator();
 
       while (tagIterator.hasNext()) {
-        session.executeAsync(insertTagsStatement.bind()
+        writes.add(session.executeAsync(insertTagsStatement.bind()
             .setLong(0, toLong(tagIterator.next()))
             .setString(1, LabelType.TAGK.toValue())
-            .setBytesUnsafe(2, timeSeriresId)
-            .setLong(3, longMetric)
-            .setMap(4, longTags));
+            .setBytesUnsafe(2, timeSeriresId)));
 
-        session.executeAsync(insertTagsStatement.bind()
+        writes.add(session.executeAsync(insertTagsStatement.bind()
             .setLong(0, toLong(tagIterator.next()))
             .setString(1, LabelType.TAGV.toValue())
-            .setBytesUnsafe(2, timeSeriresId)
-            .setLong(3, longMetric)
-            .setMap(4, longTags));
+            .setBytesUnsafe(2, timeSeriresId)));
       }
+
+      return transform(Futures.allAsList(writes), new ToVoidFunction());
+    }
+
+    @Override
+    public void close() {
     }
 
     private Map<Long, Long> toMap(List<LabelId> tags) {
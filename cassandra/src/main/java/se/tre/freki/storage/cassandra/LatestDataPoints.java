@@ -0,0 +1,109 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.storage.compression.ChunkDecoder;
+
+import com.datastax.driver.core.Row;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Picks the newest data points of a partition out of its newest rows and its compacted chunk.
+ *
+ * <p>The chunk of a partition sorts before all of its rows so a descending read reaches it last.
+ * A row that was written after the partition was compacted may be older than some of the data
+ * points in the chunk, the chunk is therefore always read on its own and merged with the rows.
+ */
+final class LatestDataPoints {
+  private LatestDataPoints() {
+  }
+
+  /**
+   * Merge the provided rows and chunk into the newest data points within the time bounds. If both
+   * the chunk and a row contain a data point with the same timestamp only the one in the row is
+   * returned.
+   *
+   * @param rows The newest rows of the partition within the time bounds, newest first
+   * @param chunk The compacted chunk of the partition or {@code null} if it has none
+   * @param startTime The lower bound of the timestamps to return data points for
+   * @param endTime The upper bound of the timestamps to return data points for
+   * @param limit The maximum number of data points to return
+   * @return Up to {@code limit} immutable data points, newest first
+   */
+  static List<DataPoint> merge(final List<Row> rows,
+                               @Nullable final ByteBuffer chunk,
+                               final long startTime,
+                               final long endTime,
+                               final int limit) {
+    checkArgument(limit > 0, "The limit must be larger than zero");
+
+    final List<DataPoint> chunkDataPoints = decode(chunk, startTime, endTime);
+    final List<DataPoint> latest = new ArrayList<>(Math.min(limit,
+        rows.size() + chunkDataPoints.size()));
+
+    final Iterator<Row> rowIterator = rows.iterator();
+    DataPoint row = next(rowIterator);
+    int chunkIndex = chunkDataPoints.size() - 1;
+
+    while (latest.size() < limit && (row != null || chunkIndex >= 0)) {
+      final DataPoint chunkDataPoint = chunkIndex >= 0 ? chunkDataPoints.get(chunkIndex) : null;
+
+      if (row == null || (chunkDataPoint != null
+                          && chunkDataPoint.timestamp() > row.timestamp())) {
+        latest.add(chunkDataPoint);
+        chunkIndex--;
+        continue;
+      }
+
+      if (chunkDataPoint != null && chunkDataPoint.timestamp() == row.timestamp()) {
+        // The row has been written after the chunk was compacted and replaces its data point.
+        chunkIndex--;
+      }
+
+      latest.add(row);
+      row = next(rowIterator);
+    }
+
+    return latest;
+  }
+
+  @Nullable
+  private static DataPoint next(final Iterator<Row> rows) {
+    return rows.hasNext() ? ChunkCompactionStrategy.dataPointFor(rows.next()) : null;
+  }
+
+  /**
+   * Decode the data points within the time bounds of the provided chunk in ascending order.
+   */
+  private static List<DataPoint> decode(@Nullable final ByteBuffer chunk,
+                                        final long startTime,
+                                        final long endTime) {
+    final List<DataPoint> dataPoints = new ArrayList<>();
+
+    if (chunk == null) {
+      return dataPoints;
+    }
+
+    final ChunkDecoder decoder = new ChunkDecoder(chunk);
+
+    while (decoder.hasNext()) {
+      decoder.next();
+
+      if (decoder.timestamp() > endTime) {
+        break;
+      }
+
+      if (decoder.timestamp() >= startTime) {
+        dataPoints.add(ChunkCompactionStrategy.dataPointFor(decoder));
+      }
+    }
+
+    return dataPoints;
+  }
+}
@@ -0,0 +1,182 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * A cache of the data points of partitions that have closed, each encoded as a single compressed
+ * chunk. A partition is closed once a fixed amount of time has passed since the end of the period
+ * it covers. Data points that are written to a closed partition through the same store drop it
+ * from the cache, data points that other nodes write to it are not seen by queries that read it
+ * from the cache.
+ *
+ * <p>The chunks are kept in direct buffers outside of the heap and the total size of them is
+ * bounded. Partitions that have not been read recently are evicted first.
+ */
+final class PartitionCache {
+  private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+  private final Clock clock;
+  private final long closedAfter;
+
+  @Nullable
+  private final Cache<Map.Entry<ByteBuffer, Long>, ByteBuffer> chunks;
+  private final AtomicLong bytes = new AtomicLong();
+
+  /**
+   * Create a new empty cache.
+   *
+   * @param maxBytes The maximum number of bytes the cached chunks may use together
+   * @param closedAfter The number of milliseconds after the end of a partition that it is closed
+   * @param clock The clock to decide whether a partition is closed by
+   */
+  PartitionCache(final long maxBytes, final long closedAfter, final Clock clock) {
+    checkArgument(maxBytes > 0, "The max number of bytes must be larger than zero");
+    checkArgument(closedAfter >= 0, "The time until partitions are closed must not be negative");
+    this.clock = checkNotNull(clock);
+    this.closedAfter = closedAfter;
+    this.chunks = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(new Weigher<Map.Entry<ByteBuffer, Long>, ByteBuffer>() {
+          @Override
+          public int weigh(final Map.Entry<ByteBuffer, Long> partition, final ByteBuffer chunk) {
+            return chunk.capacity();
+          }
+        })
+        .removalListener(new RemovalListener<Map.Entry<ByteBuffer, Long>, ByteBuffer>() {
+          @Override
+          public void onRemoval(
+              final RemovalNotification<Map.Entry<ByteBuffer, Long>, ByteBuffer> removal) {
+            bytes.addAndGet(-removal.getValue().capacity());
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  private PartitionCache() {
+    this.clock = Clock.systemUTC();
+    this.closedAfter = 0;
+    this.chunks = null;
+  }
+
+  /**
+   * Create an instance that never considers any partition closed and therefore caches nothing.
+   */
+  static PartitionCache disabled() {
+    return new PartitionCache();
+  }
+
+  private static Map.Entry<ByteBuffer, Long> keyFor(final ByteBuffer timeSeriesId,
+                                                    final long baseTime) {
+    return Maps.immutableEntry(timeSeriesId, baseTime);
+  }
+
+  /**
+   * Check whether the partition with the provided base time has closed and can be cached.
+   */
+  boolean isClosed(final long baseTime, final long partitionPeriod) {
+    return chunks != null && baseTime + partitionPeriod + closedAfter <= clock.millis();
+  }
+
+  /**
+   * Get the chunk with every data point of the provided partition if it is cached. The returned
+   * buffer is empty if the partition does not contain any data points.
+   */
+  @Nullable
+  ByteBuffer get(final ByteBuffer timeSeriesId, final long baseTime) {
+    if (chunks == null) {
+      return null;
+    }
+
+    final ByteBuffer chunk = chunks.getIfPresent(keyFor(timeSeriesId, baseTime));
+    return chunk == null ? null : chunk.duplicate();
+  }
+
+  /**
+   * Cache a chunk with every data point of the provided partition, or an empty buffer if it does
+   * not contain any data points. The ID and the chunk are copied so the caller may keep using
+   * them.
+   */
+  void put(final ByteBuffer timeSeriesId, final long baseTime, final ByteBuffer chunk) {
+    if (chunks == null) {
+      return;
+    }
+
+    final ByteBuffer copy;
+
+    if (!chunk.hasRemaining()) {
+      copy = EMPTY;
+    } else {
+      copy = ByteBuffer.allocateDirect(chunk.remaining());
+      copy.put(chunk.duplicate());
+      copy.flip();
+    }
+
+    // The key outlives the query so it must not share its ID with a buffer that may change.
+    final ByteBuffer id = ByteBuffer.allocate(timeSeriesId.remaining());
+    id.put(timeSeriesId.duplicate());
+    id.flip();
+
+    bytes.addAndGet(copy.capacity());
+    chunks.put(keyFor(id, baseTime), copy);
+  }
+
+  /**
+   * Drop the provided partition from the cache so that the next query reads it from the store
+   * again. This is a no-op if the partition is not cached.
+   */
+  void invalidate(final ByteBuffer timeSeriesId, final long baseTime) {
+    if (chunks == null) {
+      return;
+    }
+
+    chunks.invalidate(keyFor(timeSeriesId, baseTime));
+  }
+
+  /**
+   * Register the hit rate, the number of bytes used and the number of evictions of this cache with
+   * the provided registry.
+   */
+  void registerMetricsWith(final MetricRegistry registry) {
+    if (chunks == null) {
+      return;
+    }
+
+    registry.register("freki.storage.cassandra.partition_cache.hit_rate", new Gauge<Double>() {
+      @Override
+      public Double getValue() {
+        return chunks.stats().hitRate();
+      }
+    });
+
+    registry.register("freki.storage.cassandra.partition_cache.bytes", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return bytes.get();
+      }
+    });
+
+    registry.register("freki.storage.cassandra.partition_cache.evictions", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return chunks.stats().evictionCount();
+      }
+    });
+  }
+}
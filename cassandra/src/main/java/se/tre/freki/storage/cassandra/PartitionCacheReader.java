@@ -0,0 +1,188 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.transform;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.query.DataPointBlocks;
+import se.tre.freki.storage.cassandra.query.ChunkIterator;
+import se.tre.freki.storage.cassandra.query.ConcatenatedDataPointIterator;
+import se.tre.freki.storage.cassandra.query.DataPointIterator;
+import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.AsyncIterators;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the data points of time series through a {@link PartitionCache}. The partitions of a time
+ * series that have closed are read from the cache, or read whole and put in it if they are not
+ * there, while the partitions that are still open are read as they are.
+ */
+final class PartitionCacheReader {
+  private final PartitionCache partitionCache;
+  private final PartitionFetcher partitionFetcher;
+
+  /**
+   * Create a new reader.
+   *
+   * @param partitionCache The cache to read closed partitions through
+   * @param partitionFetcher Fetches the rows of closed partitions that are not in the cache
+   */
+  PartitionCacheReader(final PartitionCache partitionCache,
+                       final PartitionFetcher partitionFetcher) {
+    this.partitionCache = checkNotNull(partitionCache);
+    this.partitionFetcher = checkNotNull(partitionFetcher);
+  }
+
+  /**
+   * Fetch all data points of the provided time series that are within the provided time bounds.
+   * The closed partitions are read first and the open ones are not read until they are done with.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param partitionPeriod The partition period of the storage policy of the time series
+   * @param openPartitions Fetches the data points of the partitions that are still open
+   * @return An iterator that will loop over all found data points
+   */
+  AsyncIterator<? extends DataPoint> fetch(final ByteBuffer timeSeriesId,
+                                           final long startTime,
+                                           final long endTime,
+                                           final long partitionPeriod,
+                                           final RangeFetcher openPartitions) {
+    final List<Long> closedBaseTimes = new ArrayList<>();
+    final PrimitiveIterator.OfLong baseTimes =
+        BaseTimes.baseTimesBetween(startTime, endTime, partitionPeriod);
+
+    // Partitions close in the order of their base times so only the oldest ones can be closed.
+    long openStartTime = Long.MAX_VALUE;
+
+    while (baseTimes.hasNext()) {
+      final long baseTime = baseTimes.nextLong();
+
+      if (!partitionCache.isClosed(baseTime, partitionPeriod)) {
+        openStartTime = Math.max(startTime, baseTime);
+        break;
+      }
+
+      closedBaseTimes.add(baseTime);
+    }
+
+    if (closedBaseTimes.isEmpty()) {
+      return openPartitions.fetch(startTime, endTime);
+    }
+
+    final Iterator<ListenableFuture<DataPointBlockIterator>> closedPartitions =
+        Iterators.transform(closedBaseTimes.iterator(),
+            baseTime -> fetchClosedPartition(timeSeriesId, baseTime, startTime, endTime,
+                partitionPeriod));
+
+    if (openStartTime > endTime) {
+      return new ConcatenatedDataPointIterator(closedPartitions);
+    }
+
+    // The open partitions are not read until the closed ones before them are.
+    final Iterator<ListenableFuture<DataPointBlockIterator>> open =
+        Iterators.transform(Iterators.singletonIterator(openStartTime),
+            openStart -> Futures.immediateFuture(DataPointBlocks.blocksOf(
+                openPartitions.fetch(openStart, endTime))));
+
+    return new ConcatenatedDataPointIterator(Iterators.concat(closedPartitions, open));
+  }
+
+  /**
+   * Fetch the data points within the provided time bounds of a partition that has closed. The
+   * partition is read from the partition cache if it is there, otherwise every row of it is read
+   * and encoded into a single chunk that is put in the cache. A partition with values of more than
+   * one type can not be encoded and is read as it is every time.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param baseTime The base time of the partition
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param partitionPeriod The partition period of the storage policy of the time series
+   * @return A future that on completion will contain an iterator over the data points
+   */
+  private ListenableFuture<DataPointBlockIterator> fetchClosedPartition(
+      final ByteBuffer timeSeriesId,
+      final long baseTime,
+      final long startTime,
+      final long endTime,
+      final long partitionPeriod) {
+    final ByteBuffer cachedChunk = partitionCache.get(timeSeriesId, baseTime);
+
+    if (cachedChunk != null) {
+      return Futures.<DataPointBlockIterator>immediateFuture(
+          new ChunkIterator(cachedChunk, startTime, endTime));
+    }
+
+    final ListenableFuture<List<Row>> rows = ResultSets.allRows(partitionFetcher.fetch(
+        timeSeriesId, baseTime, baseTime, baseTime + partitionPeriod - 1));
+
+    return transform(rows, new Function<List<Row>, DataPointBlockIterator>() {
+      @Override
+      public DataPointBlockIterator apply(final List<Row> rows) {
+        final ByteBuffer chunk = chunkOf(rows);
+
+        if (chunk == null) {
+          return DataPointIterator.iteratorFor(AsyncIterators.of(rows), startTime, endTime);
+        }
+
+        partitionCache.put(timeSeriesId, baseTime, chunk);
+        return new ChunkIterator(chunk, startTime, endTime);
+      }
+    });
+  }
+
+  /**
+   * Encode all rows of a partition into a single chunk. A partition that only has a chunk is
+   * returned as it is and an empty partition is returned as an empty buffer.
+   *
+   * @return The chunk or {@code null} if the partition contains values of more than one type
+   */
+  @Nullable
+  private static ByteBuffer chunkOf(final List<Row> rows) {
+    if (rows.isEmpty()) {
+      return ByteBuffer.allocate(0);
+    }
+
+    if (rows.size() == 1 && rows.get(0).getBytesUnsafe("chunk") != null) {
+      return rows.get(0).getBytesUnsafe("chunk");
+    }
+
+    return ChunkCompactionStrategy.encodeChunk(rows, new ArrayList<>());
+  }
+
+  /**
+   * Fetches the rows of a single partition of a time series.
+   */
+  interface PartitionFetcher {
+    /**
+     * Fetch the rows in the partition indicated by {@code timeSeriesId} and {@code baseTime} that
+     * are within the provided time bounds.
+     *
+     * @param timeSeriesId The time series to fetch the rows of
+     * @param baseTime The base time of the partition
+     * @param startTime The lower bound to timestamp to fetch rows within
+     * @param endTime The upper bound to timestamp to fetch rows within
+     * @return A future that on completion will contain a paged iterable of rows
+     */
+    ListenableFuture<ResultSet> fetch(final ByteBuffer timeSeriesId,
+                                      final long baseTime,
+                                      final long startTime,
+                                      final long endTime);
+  }
+}
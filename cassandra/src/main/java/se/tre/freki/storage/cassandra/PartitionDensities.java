@@ -0,0 +1,74 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates of how many rows the partitions of each time series hold, based on the partitions
+ * that queries have read. The estimates decide how many adjacent partitions of a time series are
+ * read with a single request so that sparse time series do not need a request per partition. Only a
+ * bounded number of time series are remembered and time series that are not are read one partition
+ * at a time.
+ */
+final class PartitionDensities {
+  /** The weight given to each new observation in the moving average of a time series. */
+  private static final double ALPHA = 0.2;
+
+  private final int maxPartitionsPerRead;
+  private final Cache<ByteBuffer, Double> rowsPerPartition;
+
+  /**
+   * Create a new instance that does not remember any time series yet.
+   *
+   * @param maxPartitionsPerRead The maximum number of partitions to read with a single request
+   * @param maxSeries The maximum number of time series to remember the density of
+   */
+  PartitionDensities(final int maxPartitionsPerRead, final long maxSeries) {
+    checkArgument(maxPartitionsPerRead > 0,
+        "The max number of partitions per read must be larger than zero");
+    this.maxPartitionsPerRead = maxPartitionsPerRead;
+    this.rowsPerPartition = CacheBuilder.newBuilder()
+        .maximumSize(maxSeries)
+        .build();
+  }
+
+  /**
+   * Create an instance that always reads one partition at a time.
+   */
+  static PartitionDensities disabled() {
+    return new PartitionDensities(1, 0);
+  }
+
+  /**
+   * The number of adjacent partitions of the provided time series to read with a single request
+   * so that their rows are expected to fit within {@code rowsPerRead}.
+   */
+  int partitionsPerRead(final ByteBuffer timeSeriesId, final int rowsPerRead) {
+    final Double rows = rowsPerPartition.getIfPresent(timeSeriesId);
+
+    if (rows == null) {
+      return 1;
+    }
+
+    final double partitions = rowsPerRead / Math.max(rows, 1);
+    return (int) Math.max(1, Math.min(maxPartitionsPerRead, partitions));
+  }
+
+  /**
+   * Record that a request read the provided number of rows from the provided number of partitions
+   * of the time series. Requests whose rows did not fit in a single page should report the rows of
+   * the first page, the estimate then rises towards the real density over time.
+   */
+  void partitionsRead(final ByteBuffer timeSeriesId, final int partitions, final int rows) {
+    if (maxPartitionsPerRead == 1) {
+      return;
+    }
+
+    rowsPerPartition.asMap().merge(timeSeriesId, (double) rows / partitions,
+        (average, value) -> average + ALPHA * (value - average));
+  }
+}
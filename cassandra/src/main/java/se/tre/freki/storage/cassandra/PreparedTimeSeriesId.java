@@ -0,0 +1,48 @@
+package se.tre.freki.storage.cassandra;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.labels.TimeSeriesId;
+
+import com.google.common.collect.ImmutableList;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * A {@code TimeSeriesId} implementation that holds on to the Cassandra representation of the time
+ * series ID so that it only has to be calculated once.
+ *
+ * @see CassandraStore#prepareTimeSeriesId(TimeSeriesId)
+ */
+class PreparedTimeSeriesId extends TimeSeriesId {
+  private final LabelId metric;
+  private final ImmutableList<LabelId> tags;
+  private final byte[] timeSeriesId;
+
+  PreparedTimeSeriesId(final LabelId metric, final List<LabelId> tags) {
+    this.metric = metric;
+    this.tags = ImmutableList.copyOf(tags);
+    this.timeSeriesId = TimeSeriesIds.timeSeriesIdBytes(metric, tags);
+  }
+
+  @Nonnull
+  @Override
+  public LabelId metric() {
+    return metric;
+  }
+
+  @Nonnull
+  @Override
+  public List<LabelId> tags() {
+    return tags;
+  }
+
+  /**
+   * The Cassandra representation of this time series ID. A new buffer that wraps the same bytes is
+   * returned on every call so callers are free to modify its position and limit.
+   */
+  ByteBuffer timeSeriesId() {
+    return ByteBuffer.wrap(timeSeriesId);
+  }
+}
@@ -0,0 +1,20 @@
+package se.tre.freki.storage.cassandra;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.utils.AsyncIterator;
+
+/**
+ * Fetches the data points of a single time series, as they were written, within the time bounds
+ * that it is asked for. The read helpers of the store are handed one for the parts of a query that
+ * they do not read themselves.
+ */
+interface RangeFetcher {
+  /**
+   * Start fetching the data points within the provided time bounds.
+   *
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @return An iterator that will loop over all found data points
+   */
+  AsyncIterator<? extends DataPoint> fetch(final long startTime, final long endTime);
+}
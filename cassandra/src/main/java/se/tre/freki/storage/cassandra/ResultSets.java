@@ -0,0 +1,50 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.util.concurrent.Futures.transform;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A utility class for reading the result sets of asynchronously executed statements.
+ */
+final class ResultSets {
+  private ResultSets() {
+  }
+
+  /**
+   * Read every page of the provided result set into a list without blocking.
+   */
+  static ListenableFuture<List<Row>> allRows(final ListenableFuture<ResultSet> resultSet) {
+    return transform(resultSet, new AsyncFunction<ResultSet, List<Row>>() {
+      @Override
+      public ListenableFuture<List<Row>> apply(final ResultSet resultSet) {
+        return allRows(resultSet, new ArrayList<>());
+      }
+    });
+  }
+
+  private static ListenableFuture<List<Row>> allRows(final ResultSet resultSet,
+                                                     final List<Row> rows) {
+    for (int available = resultSet.getAvailableWithoutFetching(); available > 0; available--) {
+      rows.add(resultSet.one());
+    }
+
+    if (resultSet.isFullyFetched()) {
+      return Futures.immediateFuture(rows);
+    }
+
+    return transform(resultSet.fetchMoreResults(), new AsyncFunction<Void, List<Row>>() {
+      @Override
+      public ListenableFuture<List<Row>> apply(final Void fetched) {
+        return allRows(resultSet, rows);
+      }
+    });
+  }
+}
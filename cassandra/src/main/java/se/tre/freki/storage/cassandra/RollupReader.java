@@ -0,0 +1,92 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.RollupInterval;
+import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.AsyncIterators;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Range;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the data points of time series from the rollups that a {@link RollupStrategy} keeps. The
+ * times that the rollups do not cover, such as those in buckets that have not been written yet,
+ * are read from the data points as they were written.
+ */
+final class RollupReader {
+  private final RollupStrategy rollupStrategy;
+
+  /**
+   * Create a new reader.
+   *
+   * @param rollupStrategy The strategy that keeps the rollups to read
+   */
+  RollupReader(final RollupStrategy rollupStrategy) {
+    this.rollupStrategy = checkNotNull(rollupStrategy);
+  }
+
+  /**
+   * Fetch the data points of the provided time series within the provided time bounds from the
+   * rollups of the provided interval for the time that they cover. The data points before and
+   * after that are fetched through {@code dataPoints} and returned as they are.
+   *
+   * @param timeSeriesId The time series to fetch the data points for
+   * @param startTime The lower bound to timestamp to fetch data points within
+   * @param endTime The upper bound to timestamp to fetch data points within
+   * @param interval The interval of the rollups to read
+   * @param dataPoints Fetches the data points as they were written
+   * @return An iterator that will loop over all found data points and rollups in order
+   */
+  AsyncIterator<? extends DataPoint> fetch(final ByteBuffer timeSeriesId,
+                                           final long startTime,
+                                           final long endTime,
+                                           final RollupInterval interval,
+                                           final RangeFetcher dataPoints) {
+    final Range<Long> rolledUp = rollupStrategy.rolledUp(timeSeriesId, interval);
+
+    if (rolledUp.isEmpty()) {
+      return dataPoints.fetch(startTime, endTime);
+    }
+
+    final List<Supplier<AsyncIterator<? extends DataPoint>>> parts = new ArrayList<>(3);
+
+    if (startTime < rolledUp.lowerEndpoint()) {
+      final long headEnd = Math.min(endTime, rolledUp.lowerEndpoint() - 1);
+      parts.add(() -> dataPoints.fetch(startTime, headEnd));
+    }
+
+    final long rollupStart = Math.max(startTime, rolledUp.lowerEndpoint());
+    final long rollupEnd = Math.min(endTime, rolledUp.upperEndpoint() - 1);
+
+    if (rollupStart <= rollupEnd) {
+      parts.add(() -> fetchRollups(timeSeriesId, rollupStart, rollupEnd, interval, dataPoints));
+    }
+
+    if (endTime >= rolledUp.upperEndpoint()) {
+      final long tailStart = Math.max(startTime, rolledUp.upperEndpoint());
+      parts.add(() -> dataPoints.fetch(tailStart, endTime));
+    }
+
+    return parts.size() == 1 ? parts.get(0).get() : AsyncIterators.concat(parts);
+  }
+
+  private AsyncIterator<? extends DataPoint> fetchRollups(final ByteBuffer timeSeriesId,
+                                                          final long startTime,
+                                                          final long endTime,
+                                                          final RollupInterval interval,
+                                                          final RangeFetcher dataPoints) {
+    final Optional<AsyncIterator<? extends DataPoint>> rollups =
+        rollupStrategy.fetchRollups(timeSeriesId, startTime, endTime, interval);
+
+    return rollups.isPresent()
+        ? rollups.get()
+        : dataPoints.fetch(startTime, endTime);
+  }
+}
@@ -0,0 +1,103 @@
+package se.tre.freki.storage.cassandra;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.RollupInterval;
+import se.tre.freki.utils.AsyncIterator;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.Range;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * A rollup strategy decides whether data points are summarized per {@link RollupInterval} as they
+ * are written and how those summaries are read back.
+ */
+interface RollupStrategy extends Closeable {
+  /**
+   * Called after a data point has been written to the time series with the provided ID.
+   *
+   * @param timeSeriesId The internal Cassandra representation of a time series ID
+   * @param timestamp The timestamp of the data point
+   * @param value The value of the data point as it was written
+   * @param ttl The number of seconds the data point is kept or zero if it is kept forever
+   */
+  void pointWritten(final ByteBuffer timeSeriesId,
+                    final long timestamp,
+                    final double value,
+                    final int ttl);
+
+  /**
+   * Fetch the rollups of the provided interval for the provided time series. The bucket that
+   * {@code startTime} falls within is included.
+   *
+   * @param timeSeriesId The time series to fetch the rollups of
+   * @param startTime The lower bound of the timestamps to fetch rollups within
+   * @param endTime The upper bound of the timestamps to fetch rollups within
+   * @param interval The interval of the rollups to fetch
+   * @return An iterator over the rollups or absent if this strategy does not keep any rollups
+   */
+  Optional<AsyncIterator<? extends DataPoint>> fetchRollups(final ByteBuffer timeSeriesId,
+                                                            final long startTime,
+                                                            final long endTime,
+                                                            final RollupInterval interval);
+
+  /**
+   * Get the timestamps that the rollups of the provided interval cover for the provided time
+   * series. The data points outside of them have to be read as they were written. The range is
+   * aligned to the buckets of the interval.
+   *
+   * @param timeSeriesId The time series to get the covered range of
+   * @param interval The interval of the rollups
+   * @return The range of timestamps that the rollups cover, which is empty if there are none
+   */
+  Range<Long> rolledUp(final ByteBuffer timeSeriesId, final RollupInterval interval);
+
+  /**
+   * Register the metrics of the strategy with the provided registry.
+   */
+  void registerMetricsWith(final MetricRegistry registry);
+
+  /**
+   * Stop rolling up data points. Failures are logged instead of thrown since there is nothing the
+   * store can do about them while it is closing.
+   */
+  @Override
+  void close();
+
+  /**
+   * A rollup strategy which does not keep any rollups.
+   */
+  class NoOpRollupStrategy implements RollupStrategy {
+    @Override
+    public void pointWritten(final ByteBuffer timeSeriesId,
+                             final long timestamp,
+                             final double value,
+                             final int ttl) {
+    }
+
+    @Override
+    public Optional<AsyncIterator<? extends DataPoint>> fetchRollups(
+        final ByteBuffer timeSeriesId,
+        final long startTime,
+        final long endTime,
+        final RollupInterval interval) {
+      return Optional.absent();
+    }
+
+    @Override
+    public Range<Long> rolledUp(final ByteBuffer timeSeriesId, final RollupInterval interval) {
+      return Range.closedOpen(Long.MIN_VALUE, Long.MIN_VALUE);
+    }
+
+    @Override
+    public void registerMetricsWith(final MetricRegistry registry) {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
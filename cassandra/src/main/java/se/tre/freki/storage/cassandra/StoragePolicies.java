@@ -0,0 +1,62 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The storage policies of all metrics. Every metric uses the policy of the first pattern that
+ * matches its whole name, metrics that do not match any pattern use the default policy.
+ */
+final class StoragePolicies {
+  private final StoragePolicy defaultPolicy;
+  private final ImmutableMap<Pattern, StoragePolicy> metricPolicies;
+
+  /**
+   * Create a new set of policies.
+   *
+   * @param defaultPolicy The policy of metrics that do not match any of the patterns
+   * @param metricPolicies The policies to use for metrics with names that match the patterns, in
+   * the order the patterns should be tried
+   */
+  StoragePolicies(final StoragePolicy defaultPolicy,
+                  final Map<Pattern, StoragePolicy> metricPolicies) {
+    this.defaultPolicy = checkNotNull(defaultPolicy);
+    this.metricPolicies = ImmutableMap.copyOf(metricPolicies);
+  }
+
+  /**
+   * Create a set of policies where every metric uses the provided policy.
+   */
+  static StoragePolicies uniform(final StoragePolicy policy) {
+    return new StoragePolicies(policy, ImmutableMap.<Pattern, StoragePolicy>of());
+  }
+
+  /**
+   * Whether every metric uses the default policy, in which case there is no need to look up the
+   * name of a metric to find its policy.
+   */
+  boolean isUniform() {
+    return metricPolicies.isEmpty();
+  }
+
+  StoragePolicy defaultPolicy() {
+    return defaultPolicy;
+  }
+
+  /**
+   * Find the policy of the metric with the provided name.
+   */
+  StoragePolicy policyFor(final String metric) {
+    for (final Map.Entry<Pattern, StoragePolicy> metricPolicy : metricPolicies.entrySet()) {
+      if (metricPolicy.getKey().matcher(metric).matches()) {
+        return metricPolicy.getValue();
+      }
+    }
+
+    return defaultPolicy;
+  }
+}
@@ -0,0 +1,110 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Describes how the data points of a metric are stored. The policy decides how long data points
+ * are kept, how much time each partition covers and how many decimals of floating point values
+ * that are worth keeping.
+ *
+ * @see StoragePolicies
+ */
+final class StoragePolicy {
+  /**
+   * The longest TTL that Cassandra accepts, twenty years in seconds.
+   */
+  static final int MAX_TTL = 630720000;
+
+  /**
+   * The largest number of decimals that rounding is supported for. Doubles do not have any more
+   * significant digits than this anyway.
+   */
+  static final int MAX_DECIMALS = 15;
+
+  /**
+   * The policy that was used for all metrics before policies could be configured. Data points are
+   * kept forever, in partitions of an hour and with full precision.
+   */
+  static final StoragePolicy DEFAULT = new StoragePolicy(0, BaseTimes.BASE_TIME_PERIOD, -1);
+
+  private final int ttl;
+  private final long partitionPeriod;
+  private final int decimals;
+  private final double scale;
+
+  /**
+   * Create a new policy.
+   *
+   * @param ttl The number of seconds data points are kept, 0 means that they are kept forever
+   * @param partitionPeriod The number of milliseconds each partition covers
+   * @param decimals The number of decimals to round floating point values to, a negative number
+   * means that they are not rounded
+   * @throws IllegalArgumentException if any of the arguments is out of range
+   */
+  StoragePolicy(final int ttl, final long partitionPeriod, final int decimals) {
+    checkArgument(ttl >= 0 && ttl <= MAX_TTL, "The TTL must be between 0 and %s seconds but was %s",
+        MAX_TTL, ttl);
+    checkArgument(partitionPeriod > 0, "The partition period must be larger than zero but was %s",
+        partitionPeriod);
+    checkArgument(decimals <= MAX_DECIMALS,
+        "At most %s decimals are supported but %s were asked for", MAX_DECIMALS, decimals);
+
+    this.ttl = ttl;
+    this.partitionPeriod = partitionPeriod;
+    this.decimals = decimals;
+    this.scale = Math.pow(10, Math.max(decimals, 0));
+  }
+
+  /**
+   * The number of seconds data points are kept. This is 0 if they should be kept forever which is
+   * also what Cassandra expects in that case.
+   */
+  int ttl() {
+    return ttl;
+  }
+
+  /**
+   * The number of milliseconds each partition covers.
+   */
+  long partitionPeriod() {
+    return partitionPeriod;
+  }
+
+  /**
+   * Round the provided value to the number of decimals of this policy. Values that are too large
+   * for rounding to make a difference are returned as they are.
+   */
+  double round(final double value) {
+    if (decimals < 0) {
+      return value;
+    }
+
+    final double scaled = value * scale;
+
+    if (Double.isNaN(scaled) || Math.abs(scaled) >= 1L << 52) {
+      return value;
+    }
+
+    return Math.rint(scaled) / scale;
+  }
+
+  /**
+   * Round the provided value to the number of decimals of this policy.
+   *
+   * @see #round(double)
+   */
+  float round(final float value) {
+    return (float) round((double) value);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("ttl", ttl)
+        .add("partitionPeriod", partitionPeriod)
+        .add("decimals", decimals)
+        .toString();
+  }
+}
@@ -5,7 +5,10 @@ package se.tre.freki.storage.cassandra;
  */
 public class Tables {
   public static final String DATAPOINTS = "datapoints";
+  public static final String ROLLUPS_MINUTE = "rollups_1m";
+  public static final String ROLLUPS_HOUR = "rollups_1h";
   static final String TS_INVERTED_INDEX = "ts_inverted_index";
+  static final String TS_INDEX = "ts_index";
 
   static final String ID_TO_NAME = "id_to_name";
   static final String NAME_TO_ID = "name_to_id";
@@ -0,0 +1,155 @@
+package se.tre.freki.storage.cassandra;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.labels.LabelType;
+import se.tre.freki.query.predicate.AlternationTimeSeriesIdPredicate;
+import se.tre.freki.query.predicate.SimpleTimeSeriesIdPredicate;
+import se.tre.freki.query.predicate.TimeSeriesIdPredicate;
+import se.tre.freki.query.predicate.TimeSeriesTagPredicate;
+import se.tre.freki.query.predicate.TimeSeriesTagPredicate.TimeSeriesTagOperator;
+import se.tre.freki.query.predicate.WildcardTimeSeriesIdPredicate;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Evaluates the tag predicates of queries against the {@code ts_inverted_index} and {@code
+ * ts_index} tables.
+ *
+ * <p>The inverted index keeps the tag keys and the tag values of a time series apart, so the
+ * postings of a label only narrow down which time series may match a predicate. Every time series
+ * that is left after the postings have been intersected must still be checked against the
+ * predicates with its tags from the {@code ts_index} table.
+ *
+ * <p>A predicate with the {@link TimeSeriesTagOperator#EQUALS} operator matches the time series
+ * that have at least one tag whose key and value match the key and value of the predicate. A
+ * predicate with the {@link TimeSeriesTagOperator#NOT_EQUALS} operator matches all other time
+ * series, including those that do not have the tag key at all.
+ */
+final class TagPredicates {
+  private TagPredicates() {
+  }
+
+  /**
+   * Get the labels whose postings together hold every time series that may match the provided
+   * predicate. The predicate can not be narrowed down by the index if it has the {@link
+   * TimeSeriesTagOperator#NOT_EQUALS} operator or if both its key and value are wildcards.
+   *
+   * @param predicate The predicate to find the postings of
+   * @return The postings to read if the predicate can be narrowed down by the index
+   */
+  static Optional<Postings> postingsFor(final TimeSeriesTagPredicate predicate) {
+    if (predicate.operator() != TimeSeriesTagOperator.EQUALS) {
+      return Optional.absent();
+    }
+
+    final Optional<ImmutableSet<LabelId>> values = idsOf(predicate.value());
+
+    if (values.isPresent()) {
+      return Optional.of(new Postings(values.get(), LabelType.TAGV));
+    }
+
+    final Optional<ImmutableSet<LabelId>> keys = idsOf(predicate.key());
+
+    if (keys.isPresent()) {
+      return Optional.of(new Postings(keys.get(), LabelType.TAGK));
+    }
+
+    return Optional.absent();
+  }
+
+  /**
+   * Get the IDs that the provided ID predicate matches or absent if it is a wildcard that matches
+   * every ID.
+   */
+  private static Optional<ImmutableSet<LabelId>> idsOf(final TimeSeriesIdPredicate predicate) {
+    if (predicate instanceof SimpleTimeSeriesIdPredicate) {
+      return Optional.of(ImmutableSet.of(((SimpleTimeSeriesIdPredicate) predicate).id()));
+    } else if (predicate instanceof AlternationTimeSeriesIdPredicate) {
+      return Optional.of(((AlternationTimeSeriesIdPredicate) predicate).ids());
+    } else if (predicate instanceof WildcardTimeSeriesIdPredicate) {
+      return Optional.absent();
+    }
+
+    throw new IllegalArgumentException("Unknown time series ID predicate " + predicate);
+  }
+
+  /**
+   * Check if the time series with the provided tags matches the provided predicate.
+   *
+   * @param predicate The predicate to check the time series against
+   * @param tags The tags of the time series as alternating keys and values
+   * @return {@code true} if the time series matches the predicate
+   */
+  static boolean matches(final TimeSeriesTagPredicate predicate, final List<LabelId> tags) {
+    final Optional<ImmutableSet<LabelId>> keys = idsOf(predicate.key());
+    final Optional<ImmutableSet<LabelId>> values = idsOf(predicate.value());
+    boolean hasTag = false;
+
+    final Iterator<LabelId> tagIterator = tags.iterator();
+
+    while (tagIterator.hasNext() && !hasTag) {
+      final LabelId key = tagIterator.next();
+      final LabelId value = tagIterator.next();
+
+      hasTag = (!keys.isPresent() || keys.get().contains(key))
+               && (!values.isPresent() || values.get().contains(value));
+    }
+
+    return hasTag == (predicate.operator() == TimeSeriesTagOperator.EQUALS);
+  }
+
+  /**
+   * Intersect the provided sets starting with the smallest one. Every element of the smallest set
+   * is looked up in the other sets in order of their size so that most elements that are not in
+   * the intersection are dropped after a few lookups.
+   *
+   * @param sets The sets to intersect, at least one
+   * @return A new set that contains the elements that are in all of the provided sets
+   */
+  static <E> Set<E> intersect(final List<? extends Set<E>> sets) {
+    final List<Set<E>> bySize = new ArrayList<>(sets);
+    bySize.sort(Comparator.comparingInt(Set::size));
+
+    final Set<E> intersection = new HashSet<>(bySize.get(0));
+
+    for (final Set<E> set : bySize.subList(1, bySize.size())) {
+      intersection.retainAll(set);
+
+      if (intersection.isEmpty()) {
+        break;
+      }
+    }
+
+    return intersection;
+  }
+
+  /**
+   * The labels of a single type whose postings together hold every time series that may match a
+   * predicate.
+   */
+  static final class Postings {
+    private final ImmutableSet<LabelId> labels;
+    private final LabelType type;
+
+    Postings(final ImmutableSet<LabelId> labels, final LabelType type) {
+      this.labels = labels;
+      this.type = type;
+    }
+
+    ImmutableSet<LabelId> labels() {
+      return labels;
+    }
+
+    LabelType type() {
+      return type;
+    }
+  }
+}
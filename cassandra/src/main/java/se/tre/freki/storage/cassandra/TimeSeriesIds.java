@@ -9,6 +9,7 @@ import com.google.common.hash.Hashing;
 
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * A utility class for working with the Cassandra stores representation of time series IDs.
@@ -47,4 +48,16 @@ final class TimeSeriesIds {
 
     return tsidHasher.hash().asBytes();
   }
+
+  /**
+   * The UUID that the provided byte buffer representation of a time series ID is stored as. This is
+   * what needs to be bound when several time series IDs are bound as a list.
+   *
+   * @param timeSeriesId The internal Cassandra representation of a time series ID
+   * @return The UUID with the same bytes as the time series ID
+   */
+  static UUID toUuid(final ByteBuffer timeSeriesId) {
+    return new UUID(timeSeriesId.getLong(timeSeriesId.position()),
+        timeSeriesId.getLong(timeSeriesId.position() + 8));
+  }
 }
@@ -0,0 +1,185 @@
+package se.tre.freki.storage.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.labels.LabelId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * An indexing strategy that only indexes a time series the first time it sees it and passes it on
+ * to another strategy that does the actual writing. Index rows never change for a time series so
+ * writing them again for every data point is wasted work.
+ *
+ * <p>The time series that have been seen are kept in a bounded set, time series that fall out of it
+ * will simply be indexed again the next time they are seen. A time series whose index writes fail
+ * is removed from the set so that the next data point retries them. The set can optionally be saved
+ * to a file when the strategy is closed and read back when it is created again so that a restart
+ * does not cause every active time series to be indexed again.
+ */
+class WriteOnceIndexStrategy implements IndexStrategy {
+  private static final Logger LOG = LoggerFactory.getLogger(WriteOnceIndexStrategy.class);
+
+  private final IndexStrategy delegate;
+  private final ConcurrentMap<ByteBuffer, Boolean> seen;
+
+  @Nullable
+  private final Path file;
+
+  /**
+   * Create a new strategy that remembers at most {@code maxSeries} time series.
+   *
+   * @param delegate The strategy to write the index with the first time a time series is seen
+   * @param maxSeries The maximum number of time series to remember
+   * @param file The file to read the seen time series from and to save them to on close, or {@code
+   * null} if they should not be saved
+   * @throws IOException if the file exists but could not be read
+   */
+  WriteOnceIndexStrategy(final IndexStrategy delegate,
+                         final long maxSeries,
+                         @Nullable final Path file) throws IOException {
+    checkArgument(maxSeries > 0, "The max number of series must be larger than zero");
+
+    this.delegate = checkNotNull(delegate);
+    this.file = file;
+
+    final Cache<ByteBuffer, Boolean> cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSeries)
+        .build();
+    this.seen = cache.asMap();
+
+    if (file != null && Files.exists(file)) {
+      load(file);
+    }
+  }
+
+  @Override
+  public ListenableFuture<Void> indexTimeseriesId(final LabelId metric,
+                                                  final List<LabelId> tags,
+                                                  final ByteBuffer timeSeriresId) {
+    if (seen.containsKey(timeSeriresId)) {
+      return Futures.immediateFuture(null);
+    }
+
+    // The store may reuse the buffer so keep a copy of our own.
+    final ByteBuffer key = copyOf(timeSeriresId);
+
+    if (seen.putIfAbsent(key, Boolean.TRUE) != null) {
+      return Futures.immediateFuture(null);
+    }
+
+    final ListenableFuture<Void> indexed;
+
+    try {
+      indexed = delegate.indexTimeseriesId(metric, tags, timeSeriresId);
+    } catch (RuntimeException e) {
+      seen.remove(key);
+      throw e;
+    }
+
+    Futures.addCallback(indexed, new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(@Nullable final Void result) {
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        seen.remove(key);
+      }
+    });
+
+    return indexed;
+  }
+
+  /**
+   * The number of time series that currently are remembered.
+   */
+  long size() {
+    return seen.size();
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (file != null) {
+        save(file);
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to save the indexed time series to {}", file, e);
+    } finally {
+      delegate.close();
+    }
+  }
+
+  private static ByteBuffer copyOf(final ByteBuffer buffer) {
+    final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+    copy.put(buffer.duplicate());
+    copy.flip();
+    return copy;
+  }
+
+  /**
+   * Read the time series in the file. The file is a sequence of time series IDs each prefixed by
+   * its length, a truncated entry at the end is ignored.
+   */
+  private void load(final Path file) throws IOException {
+    try (DataInputStream input = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      while (true) {
+        final byte[] timeSeriesId;
+
+        try {
+          timeSeriesId = new byte[input.readUnsignedShort()];
+          input.readFully(timeSeriesId);
+        } catch (EOFException e) {
+          break;
+        }
+
+        seen.put(ByteBuffer.wrap(timeSeriesId), Boolean.TRUE);
+      }
+    }
+
+    LOG.info("Read {} indexed time series from {}", seen.size(), file);
+  }
+
+  /**
+   * Write the time series to a temporary file and move it in place of the file so that a crash
+   * while saving leaves the previous file intact.
+   */
+  private void save(final Path file) throws IOException {
+    final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+      for (final ByteBuffer timeSeriesId : seen.keySet()) {
+        output.writeShort(timeSeriesId.remaining());
+        output.write(timeSeriesId.array(), timeSeriesId.arrayOffset() + timeSeriesId.position(),
+            timeSeriesId.remaining());
+      }
+    }
+
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,80 @@
+package se.tre.freki.storage.cassandra.query;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.storage.compression.ChunkDecoder;
+import se.tre.freki.storage.compression.ChunkType;
+
+/**
+ * A data point view of the current data point of a {@link ChunkDecoder}. The timestamp and value
+ * are copied when the view is set so the decoder is free to move on afterwards.
+ */
+abstract class ChunkDataPoint implements DataPoint {
+  private long timestamp;
+
+  static ChunkDataPoint forType(final ChunkType type) {
+    switch (type) {
+      case LONG:
+        return new ChunkLongDataPoint();
+      case FLOAT:
+        return new ChunkFloatDataPoint();
+      case DOUBLE:
+        return new ChunkDoubleDataPoint();
+      default:
+        throw new IllegalArgumentException("Unknown chunk type " + type);
+    }
+  }
+
+  public void setDataPoint(final ChunkDecoder decoder) {
+    this.timestamp = decoder.timestamp();
+    setValue(decoder);
+  }
+
+  protected abstract void setValue(final ChunkDecoder decoder);
+
+  @Override
+  public long timestamp() {
+    return timestamp;
+  }
+
+  static class ChunkLongDataPoint extends ChunkDataPoint implements LongDataPoint {
+    private long value;
+
+    @Override
+    protected void setValue(final ChunkDecoder decoder) {
+      value = decoder.longValue();
+    }
+
+    @Override
+    public long value() {
+      return value;
+    }
+  }
+
+  static class ChunkFloatDataPoint extends ChunkDataPoint implements FloatDataPoint {
+    private float value;
+
+    @Override
+    protected void setValue(final ChunkDecoder decoder) {
+      value = decoder.floatValue();
+    }
+
+    @Override
+    public float value() {
+      return value;
+    }
+  }
+
+  static class ChunkDoubleDataPoint extends ChunkDataPoint implements DoubleDataPoint {
+    private double value;
+
+    @Override
+    protected void setValue(final ChunkDecoder decoder) {
+      value = decoder.doubleValue();
+    }
+
+    @Override
+    public double value() {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.storage.compression.ChunkDecoder;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator over the data points within a pair of time bounds of a single chunk that is already
+ * in memory. Like {@link DataPointIterator} the returned data point is a view that changes between
+ * each call to {@link #next()}. An empty buffer is treated as a chunk without any data points.
+ */
+public class ChunkIterator implements DataPointBlockIterator {
+  private final ChunkDecoder chunk;
+  private final long startTime;
+  private final long endTime;
+
+  private final ChunkDataPoint dataPoint;
+  private final DataPointBlock.ValueType valueType;
+
+  /**
+   * Whether the decoder is positioned at a data point within the time bounds that has not been
+   * returned yet.
+   */
+  private boolean hasDataPoint;
+
+  /**
+   * Create a new iterator positioned before the first data point within the provided time bounds.
+   *
+   * @param chunk The encoded chunk or an empty buffer
+   * @param startTime The lower bound of the timestamps to return data points for
+   * @param endTime The upper bound of the timestamps to return data points for
+   */
+  public ChunkIterator(final ByteBuffer chunk, final long startTime, final long endTime) {
+    this.startTime = startTime;
+    this.endTime = endTime;
+
+    if (!chunk.hasRemaining()) {
+      this.chunk = null;
+      this.dataPoint = null;
+      this.valueType = null;
+      return;
+    }
+
+    this.chunk = new ChunkDecoder(chunk);
+    this.dataPoint = ChunkDataPoint.forType(this.chunk.type());
+    this.valueType = DataPointIterator.valueType(this.chunk.type());
+    nextDataPoint();
+  }
+
+  /**
+   * Move the decoder to its next data point within the time bounds if there is one.
+   */
+  private void nextDataPoint() {
+    while (chunk.hasNext()) {
+      chunk.next();
+
+      if (chunk.timestamp() > endTime) {
+        break;
+      }
+
+      if (chunk.timestamp() >= startTime) {
+        hasDataPoint = true;
+        return;
+      }
+    }
+
+    hasDataPoint = false;
+  }
+
+  @Override
+  public boolean hasMoreWithoutFetching() {
+    return hasDataPoint;
+  }
+
+  @Override
+  public ListenableFuture<Boolean> fetchMore() {
+    return immediateFuture(hasDataPoint);
+  }
+
+  @Override
+  public boolean hasNext() {
+    return hasDataPoint;
+  }
+
+  @Override
+  public DataPoint next() {
+    if (!hasDataPoint) {
+      throw new NoSuchElementException("The chunk does not contain any more data points");
+    }
+
+    dataPoint.setDataPoint(chunk);
+    nextDataPoint();
+    return dataPoint;
+  }
+
+  @Override
+  public int nextBlock(final DataPointBlock block) {
+    block.clear();
+
+    while (hasDataPoint && block.accepts(valueType)) {
+      DataPointIterator.addDataPoint(chunk, valueType, block);
+      nextDataPoint();
+    }
+
+    return block.size();
+  }
+}
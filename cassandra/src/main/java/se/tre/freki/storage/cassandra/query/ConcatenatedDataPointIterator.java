@@ -0,0 +1,131 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.Futures.transform;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.query.QueryException;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An iterator that returns the data points of a sequence of iterators one after the other. The
+ * iterators are handed out as futures by the provided iterator, which should only start to load
+ * each of them once it is asked for it. The iterator after the one that is being read is asked for
+ * ahead of time so that it can load in the meantime.
+ *
+ * <p>Blocks never span more than one of the iterators so a block may be smaller than its capacity
+ * even though there are more data points to read.
+ */
+public class ConcatenatedDataPointIterator implements DataPointBlockIterator {
+  private final Iterator<ListenableFuture<DataPointBlockIterator>> iterators;
+
+  /**
+   * The iterator that is being read, {@code null} until the first one has loaded.
+   */
+  private DataPointBlockIterator current;
+
+  /**
+   * The iterator that will be read after the current one, {@code null} if there are none left.
+   */
+  private ListenableFuture<DataPointBlockIterator> next;
+
+  /**
+   * Create a new iterator that reads the iterators in the order they are returned by the provided
+   * iterator. The first one is asked for immediately.
+   *
+   * @param iterators An iterator of futures that will contain the iterators to read
+   */
+  public ConcatenatedDataPointIterator(
+      final Iterator<ListenableFuture<DataPointBlockIterator>> iterators) {
+    this.iterators = iterators;
+    this.next = iterators.hasNext() ? iterators.next() : null;
+  }
+
+  /**
+   * Move on to the next iterator and ask for the one after it.
+   */
+  private ListenableFuture<DataPointBlockIterator> takeNext() {
+    final ListenableFuture<DataPointBlockIterator> taken = next;
+    next = iterators.hasNext() ? iterators.next() : null;
+    return taken;
+  }
+
+  @Override
+  public boolean hasMoreWithoutFetching() {
+    return current != null && current.hasMoreWithoutFetching();
+  }
+
+  @Override
+  public ListenableFuture<Boolean> fetchMore() {
+    if (current == null) {
+      return fetchNext();
+    }
+
+    return transform(current.fetchMore(), new AsyncFunction<Boolean, Boolean>() {
+      @Override
+      public ListenableFuture<Boolean> apply(final Boolean fetched) {
+        return fetched ? immediateFuture(Boolean.TRUE) : fetchNext();
+      }
+    });
+  }
+
+  private ListenableFuture<Boolean> fetchNext() {
+    if (next == null) {
+      return immediateFuture(Boolean.FALSE);
+    }
+
+    return transform(takeNext(), new AsyncFunction<DataPointBlockIterator, Boolean>() {
+      @Override
+      public ListenableFuture<Boolean> apply(final DataPointBlockIterator iterator) {
+        current = iterator;
+        return fetchMore();
+      }
+    });
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (current == null || !current.hasNext()) {
+      if (next == null) {
+        return false;
+      }
+
+      try {
+        current = Uninterruptibles.getUninterruptibly(takeNext());
+      } catch (ExecutionException e) {
+        throw new QueryException("Fetch of the next data points threw an exception", e);
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public DataPoint next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException("There are no more data points to iterate over");
+    }
+
+    return current.next();
+  }
+
+  @Override
+  public int nextBlock(final DataPointBlock block) {
+    block.clear();
+
+    if (!hasNext()) {
+      return 0;
+    }
+
+    return current.nextBlock(block);
+  }
+}
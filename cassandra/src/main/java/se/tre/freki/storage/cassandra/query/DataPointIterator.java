@@ -1,9 +1,17 @@
 package se.tre.freki.storage.cassandra.query;
 
+import static com.google.common.util.concurrent.Futures.transform;
+
 import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.storage.compression.ChunkDecoder;
+import se.tre.freki.storage.compression.ChunkType;
 import se.tre.freki.utils.AsyncIterator;
 
+import com.datastax.driver.core.ColumnDefinitions;
 import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.NoSuchElementException;
@@ -15,19 +23,63 @@ import java.util.NoSuchElementException;
  *
  * <p>The type of the data point will be decided using the first row in the iterator given to the
  * constructor. The decision is based on which columns are present in the row.
+ *
+ * <p>Rows that contain a compacted chunk are decoded and their data points are merged with the
+ * rows that follow them in timestamp order. If both a chunk and a row contain a data point with
+ * the same timestamp only the one in the row is returned. Since a chunk covers a whole partition
+ * its data points are filtered by the time bounds the iterator was created with.
+ *
+ * <p>Blocks of data points are filled straight from the rows and the decoded chunks without going
+ * through a data point view. The indexes of the columns are looked up once, from the first row that
+ * is added to a block, instead of by name for every row.
  */
-public class DataPointIterator implements AsyncIterator<DataPoint> {
+public class DataPointIterator implements DataPointBlockIterator {
   private final AsyncIterator<Row> rows;
+  private final long startTime;
+  private final long endTime;
+
   private TypeStrategy typeStrategy;
 
+  /**
+   * The chunk that is currently being merged with the rows, {@code null} if there is none. If
+   * {@link #hasChunkDataPoint} is {@code true} the decoder is positioned at the next data point to
+   * return from it.
+   */
+  private ChunkDecoder chunk;
+  private boolean hasChunkDataPoint;
+  private ChunkDataPoint chunkDataPoint;
+  private DataPointBlock.ValueType chunkValueType;
+
+  /**
+   * The indexes of the columns of the rows, {@code null} until the first row has been added to a
+   * block.
+   */
+  private ColumnIndexes columns;
+
+  /**
+   * A row that has been read from {@link #rows} but that has not been returned yet.
+   */
+  private Row pendingRow;
+
+  /**
+   * Set once {@link #rows} has said that there is nothing more to fetch.
+   */
+  private boolean rowsExhausted;
+
   /**
    * Create a new data point iterator. Consumers of this interface should most likely use the {@link
-   * #iteratorFor(AsyncIterator)} factory method.
+   * #iteratorFor(AsyncIterator, long, long)} factory method.
    *
    * @param rows The rows this iterator will expose as data points
+   * @param startTime The lower bound of the timestamps to return data points for
+   * @param endTime The upper bound of the timestamps to return data points for
    */
-  private DataPointIterator(final AsyncIterator<Row> rows) {
+  private DataPointIterator(final AsyncIterator<Row> rows,
+                            final long startTime,
+                            final long endTime) {
     this.rows = rows;
+    this.startTime = startTime;
+    this.endTime = endTime;
   }
 
   /**
@@ -38,36 +90,235 @@ public class DataPointIterator implements AsyncIterator<DataPoint> {
    * @return A newly instantiated data point iterator
    */
   public static DataPointIterator iteratorFor(final AsyncIterator<Row> rows) {
-    final DataPointIterator dataPointIterator = new DataPointIterator(rows);
+    return iteratorFor(rows, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Create a new data point iterator that will read each row in the provided iterator and represent
+   * it as a data point of the appropriate type. Rows and the data points of chunks outside of the
+   * provided time bounds are skipped.
+   *
+   * @param rows The rows to represent as data points
+   * @param startTime The lower bound of the timestamps to return data points for
+   * @param endTime The upper bound of the timestamps to return data points for
+   * @return A newly instantiated data point iterator
+   */
+  public static DataPointIterator iteratorFor(final AsyncIterator<Row> rows,
+                                              final long startTime,
+                                              final long endTime) {
+    final DataPointIterator dataPointIterator = new DataPointIterator(rows, startTime, endTime);
     dataPointIterator.typeStrategy = new DetectingTypeStrategy(dataPointIterator);
     return dataPointIterator;
   }
 
+  /**
+   * Get the block value type that the values of a chunk of the provided type are added as.
+   */
+  static DataPointBlock.ValueType valueType(final ChunkType chunkType) {
+    switch (chunkType) {
+      case LONG:
+        return DataPointBlock.ValueType.LONG;
+      case FLOAT:
+        return DataPointBlock.ValueType.FLOAT;
+      case DOUBLE:
+        return DataPointBlock.ValueType.DOUBLE;
+      default:
+        throw new AssertionError("Unknown chunk type " + chunkType);
+    }
+  }
+
+  private boolean isChunk(final Row row) {
+    if (columns != null) {
+      return row.getBytesUnsafe(columns.chunk) != null;
+    }
+
+    return row.getBytesUnsafe("chunk") != null;
+  }
+
+  private long timestampOf(final Row row) {
+    if (columns != null) {
+      return row.getLong(columns.timestamp);
+    }
+
+    return row.getLong("timestamp");
+  }
+
   private void checkHasNext(final String message) {
     if (!hasNext()) {
       throw new NoSuchElementException(message);
     }
   }
 
+  /**
+   * Read rows until there is a row to compare the current data point of the chunk with or until
+   * the rows run out. Chunks are opened as soon as the one before them has been exhausted and rows
+   * before the start time are skipped.
+   *
+   * @param fetch Whether rows that are not available without fetching should be waited for
+   */
+  private void readRows(final boolean fetch) {
+    while (pendingRow == null || (!hasChunkDataPoint && isChunk(pendingRow))) {
+      if (pendingRow != null) {
+        openChunk(pendingRow);
+        pendingRow = null;
+      } else if (rowsExhausted || !(fetch ? rows.hasNext() : rows.hasMoreWithoutFetching())) {
+        return;
+      } else {
+        final Row row = rows.next();
+
+        if (isChunk(row) || timestampOf(row) >= startTime) {
+          pendingRow = row;
+        }
+      }
+    }
+  }
+
+  private void openChunk(final Row row) {
+    chunk = new ChunkDecoder(row.getBytesUnsafe("chunk"));
+    chunkDataPoint = ChunkDataPoint.forType(chunk.type());
+    chunkValueType = valueType(chunk.type());
+    nextChunkDataPoint();
+  }
+
+  /**
+   * Move the chunk to its next data point within the time bounds if there is one.
+   */
+  private void nextChunkDataPoint() {
+    while (chunk.hasNext()) {
+      chunk.next();
+
+      if (chunk.timestamp() > endTime) {
+        break;
+      }
+
+      if (chunk.timestamp() >= startTime) {
+        hasChunkDataPoint = true;
+        return;
+      }
+    }
+
+    hasChunkDataPoint = false;
+    chunk = null;
+  }
+
   @Override
   public boolean hasMoreWithoutFetching() {
-    return rows.hasMoreWithoutFetching();
+    readRows(false);
+    return pendingRow != null || (hasChunkDataPoint && rowsExhausted);
   }
 
   @Override
   public ListenableFuture<Boolean> fetchMore() {
-    return rows.fetchMore();
+    return transform(rows.fetchMore(), new Function<Boolean, Boolean>() {
+      @Override
+      public Boolean apply(final Boolean fetched) {
+        if (!fetched) {
+          rowsExhausted = true;
+        }
+
+        return fetched || hasChunkDataPoint || pendingRow != null;
+      }
+    });
   }
 
   @Override
   public boolean hasNext() {
-    return rows.hasNext();
+    readRows(true);
+    return pendingRow != null || hasChunkDataPoint;
+  }
+
+  /**
+   * Decide whether the next data point comes from the chunk or from the pending row. If the pending
+   * row replaces the current data point of the chunk then that data point is skipped. This must
+   * only be called when there is a next data point.
+   */
+  private boolean chunkIsNext() {
+    if (!hasChunkDataPoint) {
+      return false;
+    }
+
+    final boolean rowIsNext = pendingRow != null
+        && !isChunk(pendingRow)
+        && timestampOf(pendingRow) <= chunk.timestamp();
+
+    if (!rowIsNext) {
+      return true;
+    }
+
+    if (timestampOf(pendingRow) == chunk.timestamp()) {
+      // The row has been written after the chunk was compacted and replaces its data point.
+      nextChunkDataPoint();
+    }
+
+    return false;
   }
 
   @Override
   public DataPoint next() {
     checkHasNext("The search result does not contain any more data points");
-    return typeStrategy.dataPoint(rows.next());
+
+    if (chunkIsNext()) {
+      chunkDataPoint.setDataPoint(chunk);
+      nextChunkDataPoint();
+      return chunkDataPoint;
+    }
+
+    final Row row = pendingRow;
+    pendingRow = null;
+    return typeStrategy.dataPoint(row);
+  }
+
+  @Override
+  public int nextBlock(final DataPointBlock block) {
+    block.clear();
+
+    if (!hasNext()) {
+      return 0;
+    }
+
+    do {
+      if (chunkIsNext()) {
+        if (!block.accepts(chunkValueType)) {
+          break;
+        }
+
+        addDataPoint(chunk, chunkValueType, block);
+        nextChunkDataPoint();
+      } else {
+        if (columns == null) {
+          columns = new ColumnIndexes(pendingRow);
+        }
+
+        if (!block.accepts(columns.valueType)) {
+          break;
+        }
+
+        columns.addRow(pendingRow, block);
+        pendingRow = null;
+      }
+    } while (!block.isFull() && hasMoreWithoutFetching());
+
+    return block.size();
+  }
+
+  /**
+   * Add the current data point of the provided chunk to the block. The value type must be the one
+   * that {@link #valueType(ChunkType)} returns for the type of the chunk.
+   */
+  static void addDataPoint(final ChunkDecoder chunk,
+                           final DataPointBlock.ValueType valueType,
+                           final DataPointBlock block) {
+    switch (valueType) {
+      case LONG:
+        block.addLong(chunk.timestamp(), chunk.longValue());
+        break;
+      case FLOAT:
+        block.addFloat(chunk.timestamp(), chunk.floatValue());
+        break;
+      default:
+        block.addDouble(chunk.timestamp(), chunk.doubleValue());
+        break;
+    }
   }
 
   private interface TypeStrategy {
@@ -116,4 +367,54 @@ public class DataPointIterator implements AsyncIterator<DataPoint> {
       return dataPoint;
     }
   }
+
+  /**
+   * The indexes of the columns in the rows of a query and the type of the values in them. Like the
+   * type of the data points that are returned by {@link #next()} the type is decided by the first
+   * row that is looked at.
+   */
+  private static final class ColumnIndexes {
+    private final int timestamp;
+    private final int chunk;
+    private final int value;
+    private final DataPointBlock.ValueType valueType;
+
+    ColumnIndexes(final Row row) {
+      final ColumnDefinitions definitions = row.getColumnDefinitions();
+      timestamp = definitions.getIndexOf("timestamp");
+      chunk = definitions.getIndexOf("chunk");
+
+      final int longValue = definitions.getIndexOf("long_value");
+      final int floatValue = definitions.getIndexOf("float_value");
+      final int doubleValue = definitions.getIndexOf("double_value");
+
+      if (!row.isNull(longValue)) {
+        value = longValue;
+        valueType = DataPointBlock.ValueType.LONG;
+      } else if (!row.isNull(floatValue)) {
+        value = floatValue;
+        valueType = DataPointBlock.ValueType.FLOAT;
+      } else if (!row.isNull(doubleValue)) {
+        value = doubleValue;
+        valueType = DataPointBlock.ValueType.DOUBLE;
+      } else {
+        throw new IllegalStateException(
+            "row does not contain any non-null field for any known type");
+      }
+    }
+
+    void addRow(final Row row, final DataPointBlock block) {
+      switch (valueType) {
+        case LONG:
+          block.addLong(row.getLong(timestamp), row.getLong(value));
+          break;
+        case FLOAT:
+          block.addFloat(row.getLong(timestamp), row.getFloat(value));
+          break;
+        default:
+          block.addDouble(row.getLong(timestamp), row.getDouble(value));
+          break;
+      }
+    }
+  }
 }
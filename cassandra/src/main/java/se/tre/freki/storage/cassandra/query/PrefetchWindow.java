@@ -0,0 +1,232 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.core.QueryScheduler;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Decides how many partitions of a time series a {@link SpeculativePartitionIterator} keeps in
+ * flight ahead of the one that is being read.
+ *
+ * <p>The window is sized so that the partitions in flight cover the time it takes to fetch one
+ * while the reader works through the ones before it. It is kept from growing past the number of
+ * partitions whose first pages together fit within the row budget. Both are based on moving
+ * averages of what every iterator that shares the window has observed, so a single instance is
+ * meant to be shared by all queries against the same table.
+ *
+ * <p>The window also keeps a budget on the number of partitions that all iterators that share it
+ * fetch at the same time. Fetches of the partitions that iterators need next wait for room in the
+ * budget while fetches ahead of need are only started if there is room right away. Every fetch
+ * gives its room back once it completes and the room goes to a waiting fetch first, so fetches
+ * that wait are always started eventually. Waiting fetches of queries with a higher {@link
+ * QueryScheduler.Priority} are started before those of queries with a lower one, and they are
+ * started on the provided executor since room is usually given back on the I/O threads of the
+ * driver.
+ */
+public final class PrefetchWindow {
+  /** The weight given to each new observation in the moving averages. */
+  private static final double ALPHA = 0.2;
+
+  private final int maxPartitions;
+  private final int maxRows;
+  private final int maxInFlight;
+  private final Executor waitingFetchExecutor;
+
+  /** The number of partitions that are being fetched by all iterators. */
+  private int inFlight;
+
+  /**
+   * The fetches of partitions that are needed next that wait for room in the budget by the
+   * priority of their queries. The priorities are in order of precedence.
+   */
+  private final Map<QueryScheduler.Priority, Queue<Runnable>> waitingFetches =
+      new EnumMap<>(QueryScheduler.Priority.class);
+
+  private double rowsPerPartition;
+  private double fetchNanos;
+  private double readNanos;
+
+  /**
+   * Create a new window.
+   *
+   * @param maxPartitions The maximum number of partitions to keep in flight
+   * @param maxRows The maximum number of rows that the first pages of the partitions in flight may
+   * hold together
+   */
+  public PrefetchWindow(final int maxPartitions, final int maxRows) {
+    this(maxPartitions, maxRows, Integer.MAX_VALUE, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Create a new window with a budget on the partitions that are fetched at the same time.
+   *
+   * @param maxPartitions The maximum number of partitions to keep in flight
+   * @param maxRows The maximum number of rows that the first pages of the partitions in flight may
+   * hold together
+   * @param maxInFlight The maximum number of partitions that all iterators that share the window
+   * may fetch at the same time
+   * @param waitingFetchExecutor The executor that starts the fetches that had to wait for room
+   */
+  public PrefetchWindow(final int maxPartitions,
+                        final int maxRows,
+                        final int maxInFlight,
+                        final Executor waitingFetchExecutor) {
+    checkArgument(maxPartitions > 0, "The max number of partitions must be larger than zero");
+    checkArgument(maxRows > 0, "The max number of rows must be larger than zero");
+    checkArgument(maxInFlight > 0, "The max number of partitions in flight must be larger than "
+                                   + "zero");
+    this.maxPartitions = maxPartitions;
+    this.maxRows = maxRows;
+    this.maxInFlight = maxInFlight;
+    this.waitingFetchExecutor = checkNotNull(waitingFetchExecutor);
+
+    for (final QueryScheduler.Priority priority : QueryScheduler.Priority.values()) {
+      waitingFetches.put(priority, new ArrayDeque<>());
+    }
+  }
+
+  /**
+   * Create a window that only ever fetches the next partition ahead of the one that is being read.
+   */
+  public static PrefetchWindow single() {
+    return new PrefetchWindow(1, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Record that a partition was fetched.
+   *
+   * @param rows The number of rows in the first page of the partition
+   * @param nanos The number of nanoseconds it took to fetch the first page
+   */
+  public synchronized void partitionFetched(final int rows, final long nanos) {
+    rowsPerPartition = average(rowsPerPartition, rows);
+    fetchNanos = average(fetchNanos, nanos);
+  }
+
+  /**
+   * Record that the reader was done with a partition.
+   *
+   * @param nanos The number of nanoseconds that the reader spent on the partition, not counting
+   * the time it spent waiting for it to be fetched
+   */
+  public synchronized void partitionRead(final long nanos) {
+    readNanos = average(readNanos, nanos);
+  }
+
+  /**
+   * The number of partitions to keep in flight given what has been observed so far. The window
+   * starts out as large as it is allowed to be until there is anything to go by.
+   */
+  public synchronized int size() {
+    int size = maxPartitions;
+
+    if (readNanos > 0) {
+      size = (int) Math.min(size, Math.ceil(fetchNanos / readNanos) + 1);
+    }
+
+    if (rowsPerPartition > 0) {
+      size = (int) Math.min(size, maxRows / rowsPerPartition);
+    }
+
+    return Math.max(1, size);
+  }
+
+  /**
+   * Take room for a partition that is fetched ahead of need from the budget if there is any left.
+   * It must be given back with {@link #fetchDone()} once the fetch completes.
+   *
+   * @return {@code true} if the partition may be fetched
+   */
+  public synchronized boolean tryPrefetch() {
+    if (inFlight >= maxInFlight) {
+      return false;
+    }
+
+    inFlight++;
+    return true;
+  }
+
+  /**
+   * Start the provided fetch of a partition that is needed next as soon as there is room for it in
+   * the budget. The fetch is started on the calling thread if there is room right away, otherwise
+   * on the executor of the window once room is given back with {@link #fetchDone()}. The room must
+   * be given back once the fetch completes.
+   *
+   * @param priority The priority of the query that needs the partition
+   * @param fetch Starts the fetch of the partition
+   */
+  public void fetchWhenAllowed(final QueryScheduler.Priority priority, final Runnable fetch) {
+    synchronized (this) {
+      if (inFlight >= maxInFlight) {
+        waitingFetches.get(priority).add(fetch);
+        return;
+      }
+
+      inFlight++;
+    }
+
+    fetch.run();
+  }
+
+  /**
+   * Give back the room of a fetch that has completed. The room is handed over to the waiting fetch
+   * of the query with the highest priority if there is one.
+   */
+  public void fetchDone() {
+    final Runnable next = pollWaitingFetch();
+
+    if (next != null) {
+      waitingFetchExecutor.execute(next);
+    }
+  }
+
+  /**
+   * Remove and return the next waiting fetch in order of priority, or give back the room and
+   * return {@code null} if no fetch is waiting.
+   */
+  private synchronized Runnable pollWaitingFetch() {
+    for (final Queue<Runnable> fetches : waitingFetches.values()) {
+      final Runnable next = fetches.poll();
+
+      if (next != null) {
+        return next;
+      }
+    }
+
+    inFlight--;
+    return null;
+  }
+
+  /**
+   * The number of partitions that are being fetched.
+   */
+  public synchronized int inFlight() {
+    return inFlight;
+  }
+
+  /**
+   * The number of fetches of partitions that are needed that wait for room in the budget.
+   */
+  public synchronized int waitingFetches() {
+    int waiting = 0;
+
+    for (final Queue<Runnable> fetches : waitingFetches.values()) {
+      waiting += fetches.size();
+    }
+
+    return waiting;
+  }
+
+  private static double average(final double average, final double value) {
+    return average == 0 ? value : average + ALPHA * (value - average);
+  }
+}
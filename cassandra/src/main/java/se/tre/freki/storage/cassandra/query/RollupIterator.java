@@ -0,0 +1,48 @@
+package se.tre.freki.storage.cassandra.query;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.utils.AsyncIterator;
+
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An iterator that exposes the rows of a rollup table as {@link DataPoint.RollupDataPoint
+ * RollupDataPoints}. Like {@link DataPointIterator} this iterator is not thread safe and the
+ * returned data point is a view that changes between each call to {@link #next()}.
+ */
+public class RollupIterator implements AsyncIterator<DataPoint.RollupDataPoint> {
+  private final AsyncIterator<Row> rows;
+  private final RowDataPoint.RowRollupDataPoint rollup;
+
+  /**
+   * Create a new iterator over the rollups in the provided rows.
+   *
+   * @param rows The rows of a rollup table in timestamp order
+   */
+  public RollupIterator(final AsyncIterator<Row> rows) {
+    this.rows = rows;
+    this.rollup = new RowDataPoint.RowRollupDataPoint();
+  }
+
+  @Override
+  public boolean hasMoreWithoutFetching() {
+    return rows.hasMoreWithoutFetching();
+  }
+
+  @Override
+  public ListenableFuture<Boolean> fetchMore() {
+    return rows.fetchMore();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return rows.hasNext();
+  }
+
+  @Override
+  public DataPoint.RollupDataPoint next() {
+    rollup.setRow(rows.next());
+    return rollup;
+  }
+}
@@ -40,4 +40,31 @@ abstract class RowDataPoint implements DataPoint {
       return row().getDouble("double_value");
     }
   }
+
+  static class RowRollupDataPoint extends RowDataPoint implements RollupDataPoint {
+    @Override
+    public double value() {
+      return sum() / count();
+    }
+
+    @Override
+    public double min() {
+      return row().getDouble("min");
+    }
+
+    @Override
+    public double max() {
+      return row().getDouble("max");
+    }
+
+    @Override
+    public double sum() {
+      return row().getDouble("sum");
+    }
+
+    @Override
+    public long count() {
+      return row().getLong("count");
+    }
+  }
 }
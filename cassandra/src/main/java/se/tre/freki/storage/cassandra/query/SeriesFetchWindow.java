@@ -0,0 +1,232 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.query.DataPointBlocks;
+import se.tre.freki.utils.AsyncIterator;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+/**
+ * Bounds how many of the time series of a single query are fetched at the same time. Each time
+ * series is given an iterator that does not start fetching anything until it is first looked at.
+ * When one is opened the time series after it are opened as well until as many as the window
+ * allows are being fetched, and as each of them is exhausted the next one that has not been
+ * opened yet takes its place. A reader that reads the time series one after the other therefore
+ * always has the next few being fetched while the rest wait.
+ *
+ * <p>An iterator that is looked at is opened even if the window is full, so a reader that reads
+ * several time series at once can never wait on time series it has not read yet. Instances are
+ * created per query and are thread safe.
+ */
+public class SeriesFetchWindow {
+  private final int maxOpenSeries;
+
+  /** The iterators that have not been opened yet in the order they were created. */
+  private final Deque<LazyIterator<?>> unopened = new ArrayDeque<>();
+
+  /** The number of iterators that have been opened but not exhausted yet. */
+  private int openSeries;
+
+  /**
+   * Create a new window that fetches at most {@code maxOpenSeries} time series at the same time
+   * unless a reader asks for more.
+   *
+   * @param maxOpenSeries The max number of time series to fetch at the same time
+   */
+  public SeriesFetchWindow(final int maxOpenSeries) {
+    checkArgument(maxOpenSeries > 0, "The max number of open series must be larger than zero but "
+                                     + "was %s", maxOpenSeries);
+    this.maxOpenSeries = maxOpenSeries;
+  }
+
+  /**
+   * Create an iterator that gets the iterator it reads from the provided supplier once it is
+   * opened by this window or first looked at, whichever comes first.
+   *
+   * @param iterator A supplier that starts fetching the data points of a time series
+   * @return An iterator over the elements of the supplied iterator
+   */
+  public <E> AsyncIterator<E> lazily(
+      final Supplier<? extends AsyncIterator<? extends E>> iterator) {
+    final LazyIterator<E> lazyIterator = new LazyIterator<>(checkNotNull(iterator));
+
+    synchronized (this) {
+      unopened.add(lazyIterator);
+    }
+
+    return lazyIterator;
+  }
+
+  /**
+   * Create an iterator over data points like {@link #lazily(Supplier)} does that also hands out
+   * the data points a block at a time. Blocks are read straight from the supplied iterator if it
+   * supports them.
+   *
+   * @param iterator A supplier that starts fetching the data points of a time series
+   * @return A block iterator over the data points of the supplied iterator
+   */
+  public DataPointBlockIterator lazilyBlocks(
+      final Supplier<? extends AsyncIterator<? extends DataPoint>> iterator) {
+    checkNotNull(iterator);
+    final LazyBlockIterator lazyIterator =
+        new LazyBlockIterator(() -> DataPointBlocks.blocksOf(iterator.get()));
+
+    synchronized (this) {
+      unopened.add(lazyIterator);
+    }
+
+    return lazyIterator;
+  }
+
+  /**
+   * The number of iterators that have been opened but not exhausted yet.
+   */
+  synchronized int openSeries() {
+    return openSeries;
+  }
+
+  /**
+   * Open the provided iterator unless it already is open and then fill the window. Time series are
+   * usually read in order so the iterator is almost always at the head of the queue.
+   */
+  private synchronized void open(final LazyIterator<?> iterator) {
+    if (iterator.isOpen()) {
+      return;
+    }
+
+    unopened.remove(iterator);
+    openSeries++;
+    iterator.start();
+    fill();
+  }
+
+  /**
+   * Let the next iterator that has not been opened yet take the place of one that was exhausted.
+   */
+  private synchronized void release() {
+    openSeries--;
+    fill();
+  }
+
+  private void fill() {
+    while (openSeries < maxOpenSeries && !unopened.isEmpty()) {
+      openSeries++;
+      unopened.poll().start();
+    }
+  }
+
+  private class LazyIterator<E> implements AsyncIterator<E> {
+    private final Supplier<? extends AsyncIterator<? extends E>> supplier;
+
+    private volatile AsyncIterator<? extends E> iterator;
+    private boolean exhausted;
+
+    LazyIterator(final Supplier<? extends AsyncIterator<? extends E>> supplier) {
+      this.supplier = supplier;
+    }
+
+    boolean isOpen() {
+      return iterator != null;
+    }
+
+    /**
+     * Start fetching the time series. This is only called by the window while it holds its lock.
+     */
+    void start() {
+      iterator = supplier.get();
+    }
+
+    AsyncIterator<? extends E> iterator() {
+      if (iterator == null) {
+        open(this);
+      }
+
+      return iterator;
+    }
+
+    /**
+     * Give the place of this iterator in the window to the next one unless it already has been.
+     */
+    void markExhausted() {
+      synchronized (SeriesFetchWindow.this) {
+        if (exhausted) {
+          return;
+        }
+
+        exhausted = true;
+        release();
+      }
+    }
+
+    @Override
+    public boolean hasMoreWithoutFetching() {
+      return iterator().hasMoreWithoutFetching();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> fetchMore() {
+      final ListenableFuture<Boolean> fetched = iterator().fetchMore();
+
+      Futures.addCallback(fetched, new FutureCallback<Boolean>() {
+        @Override
+        public void onSuccess(final Boolean hasMore) {
+          if (!hasMore) {
+            markExhausted();
+          }
+        }
+
+        @Override
+        public void onFailure(final Throwable throwable) {
+          markExhausted();
+        }
+      });
+
+      return fetched;
+    }
+
+    @Override
+    public boolean hasNext() {
+      final boolean hasNext = iterator().hasNext();
+
+      if (!hasNext) {
+        markExhausted();
+      }
+
+      return hasNext;
+    }
+
+    @Override
+    public E next() {
+      return iterator().next();
+    }
+  }
+
+  private final class LazyBlockIterator extends LazyIterator<DataPoint>
+      implements DataPointBlockIterator {
+    LazyBlockIterator(final Supplier<DataPointBlockIterator> supplier) {
+      super(supplier);
+    }
+
+    @Override
+    public int nextBlock(final DataPointBlock block) {
+      final int read = ((DataPointBlockIterator) iterator()).nextBlock(block);
+
+      if (read == 0) {
+        markExhausted();
+      }
+
+      return read;
+    }
+  }
+}
@@ -1,8 +1,11 @@
 package se.tre.freki.storage.cassandra.query;
 
+import static com.google.common.util.concurrent.Futures.addCallback;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static com.google.common.util.concurrent.Futures.transform;
 
+import se.tre.freki.core.QueryScheduler;
 import se.tre.freki.query.QueryException;
 import se.tre.freki.storage.cassandra.ExhaustedResultSet;
 import se.tre.freki.storage.cassandra.functions.TrueFunction;
@@ -13,41 +16,56 @@ import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.google.common.base.Function;
 import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutionException;
 
 /**
- * An iterator implementation that speculatively fetches the next partition when it detects that the
- * current one is close to being exhausted. Whether there are any more elements to get without
- * fetching can be checked by calling {@link #hasMoreWithoutFetching()} and {@link #fetchMore()} can
- * be called without blocking to get a future that {@link ListenableFuture#isDone()} once the fetch
- * is complete. The future returned by {@link #fetchMore()} will contain a {@code boolean} that
- * indicates if there is anything more to read or not.
+ * An iterator implementation that speculatively fetches the partitions ahead of the one that is
+ * currently being read. Whether there are any more elements to get without fetching can be checked
+ * by calling {@link #hasMoreWithoutFetching()} and {@link #fetchMore()} can be called without
+ * blocking to get a future that {@link ListenableFuture#isDone()} once the fetch is complete. The
+ * future returned by {@link #fetchMore()} will contain a {@code boolean} that indicates if there is
+ * anything more to read or not.
  *
  * <p>The partition keys are generated by the provided iterator and the partitions are fetched using
- * the provided fetch function.
+ * the provided fetch function. The number of partitions that are fetched at the same time is
+ * decided by the provided {@link PrefetchWindow}, the rows are still returned in the order of the
+ * partition keys.
  *
  * @param <K> The type of the partition key
  */
 public class SpeculativePartitionIterator<K> implements AsyncIterator<Row> {
   private static final Logger LOG = LoggerFactory.getLogger(SpeculativePartitionIterator.class);
 
-  private ListenableFuture<ResultSet> exhaustedNextResultSet;
-
   private final Function<K, ResultSetFuture> fetchFunction;
   private final Iterator<K> partitionKeyGenerator;
+  private final PrefetchWindow prefetchWindow;
+  private final QueryScheduler.Priority priority;
+
+  /** The partitions that are being fetched in the order they should be read. */
+  private final Deque<ListenableFuture<ResultSet>> nextResultSets = new ArrayDeque<>();
 
   private ResultSet currentResultSet;
-  private ListenableFuture<ResultSet> nextResultSet;
+
+  /**
+   * When the current result set became current as returned by {@link System#nanoTime()} or zero if
+   * there is no current result set.
+   */
+  private long currentResultSetStart;
 
   /**
    * Create a new iterator that reads partition keys from the provided {@link
-   * #partitionKeyGenerator} and loads the partitions using the {@link #fetchFunction}.
+   * #partitionKeyGenerator} and loads the partitions using the {@link #fetchFunction} one partition
+   * ahead of the one that is being read.
    *
    * @param partitionKeyGenerator An iterator that generates partition keys
    * @param fetchFunction A function that loads partitions given the partition keys generated by the
@@ -55,14 +73,47 @@ public class SpeculativePartitionIterator<K> implements AsyncIterator<Row> {
    */
   public SpeculativePartitionIterator(final Iterator<K> partitionKeyGenerator,
                                       final Function<K, ResultSetFuture> fetchFunction) {
+    this(partitionKeyGenerator, fetchFunction, PrefetchWindow.single());
+  }
+
+  /**
+   * Create a new iterator that reads partition keys from the provided {@link
+   * #partitionKeyGenerator} and loads the partitions using the {@link #fetchFunction} as many
+   * partitions ahead as the provided window allows.
+   *
+   * @param partitionKeyGenerator An iterator that generates partition keys
+   * @param fetchFunction A function that loads partitions given the partition keys generated by the
+   * provided iterator
+   * @param prefetchWindow The window that decides how many partitions to fetch at the same time
+   */
+  public SpeculativePartitionIterator(final Iterator<K> partitionKeyGenerator,
+                                      final Function<K, ResultSetFuture> fetchFunction,
+                                      final PrefetchWindow prefetchWindow) {
+    this(partitionKeyGenerator, fetchFunction, prefetchWindow,
+        QueryScheduler.Priority.INTERACTIVE);
+  }
+
+  /**
+   * Create a new iterator like {@link #SpeculativePartitionIterator(Iterator, Function,
+   * PrefetchWindow)} does for a query with the provided priority.
+   *
+   * @param partitionKeyGenerator An iterator that generates partition keys
+   * @param fetchFunction A function that loads partitions given the partition keys generated by the
+   * provided iterator
+   * @param prefetchWindow The window that decides how many partitions to fetch at the same time
+   * @param priority The priority of the query that the partitions are read for
+   */
+  public SpeculativePartitionIterator(final Iterator<K> partitionKeyGenerator,
+                                      final Function<K, ResultSetFuture> fetchFunction,
+                                      final PrefetchWindow prefetchWindow,
+                                      final QueryScheduler.Priority priority) {
     this.partitionKeyGenerator = partitionKeyGenerator;
     this.fetchFunction = fetchFunction;
+    this.prefetchWindow = prefetchWindow;
+    this.priority = priority;
 
-    final ResultSet exhaustedResultSet = new ExhaustedResultSet();
-    this.exhaustedNextResultSet = immediateFuture(exhaustedResultSet);
-
-    currentResultSet = exhaustedResultSet;
-    nextResultSet = fetchNextPartition();
+    currentResultSet = new ExhaustedResultSet();
+    fillWindow();
   }
 
   @Override
@@ -73,19 +124,29 @@ public class SpeculativePartitionIterator<K> implements AsyncIterator<Row> {
   @Override
   public ListenableFuture<Boolean> fetchMore() {
     if (currentResultSet.isExhausted()) {
-      return transform(nextPartitionResultSet(), new AsyncFunction<ResultSet, Boolean>() {
+      final ListenableFuture<ResultSet> nextResultSet = nextResultSets.poll();
+
+      if (nextResultSet == null) {
+        return immediateFuture(Boolean.FALSE);
+      }
+
+      if (currentResultSetStart != 0) {
+        prefetchWindow.partitionRead(System.nanoTime() - currentResultSetStart);
+        currentResultSetStart = 0;
+      }
+
+      fillWindow();
+
+      return transform(nextResultSet, new AsyncFunction<ResultSet, Boolean>() {
         @Override
         public ListenableFuture<Boolean> apply(final ResultSet fetchedResultSet) {
           currentResultSet = fetchedResultSet;
 
           if (currentResultSet.isExhausted()) {
-            if (nextResultSet != exhaustedNextResultSet) {
-              return fetchMore();
-            }
-
-            return immediateFuture(Boolean.FALSE);
+            return fetchMore();
           }
 
+          currentResultSetStart = System.nanoTime();
           return immediateFuture(Boolean.TRUE);
         }
       });
@@ -100,7 +161,7 @@ public class SpeculativePartitionIterator<K> implements AsyncIterator<Row> {
   public boolean hasNext() {
     if (currentResultSet.isExhausted()) {
       try {
-        LOG.debug("Waiting for next partition {} to finish loading", nextResultSet);
+        LOG.debug("Waiting for next partition {} to finish loading", nextResultSets.peek());
         return fetchMore().get();
       } catch (ExecutionException e) {
         throw new QueryException("Fetch of next partition threw an exception", e);
@@ -125,33 +186,87 @@ public class SpeculativePartitionIterator<K> implements AsyncIterator<Row> {
   }
 
   /**
-   * Start fetching the next partition and return the future of the partition currently being
-   * fetched.
-   *
-   * @return The value of {@link #nextResultSet} as it was before this method was called
+   * Start fetching partitions until as many are in flight as the prefetch window allows or there
+   * are no more partitions to fetch. The partition that is needed next is always fetched once the
+   * budget of the window has room for it, those after it only while the budget allows it.
    */
-  private ListenableFuture<ResultSet> nextPartitionResultSet() {
-    final ListenableFuture<ResultSet> fetchedResultSet = nextResultSet;
-    nextResultSet = fetchNextPartition();
-    return fetchedResultSet;
+  private void fillWindow() {
+    final int windowSize = prefetchWindow.size();
+
+    while (nextResultSets.size() < windowSize && partitionKeyGenerator.hasNext()) {
+      if (nextResultSets.isEmpty()) {
+        nextResultSets.add(fetchNeededPartition());
+      } else if (prefetchWindow.tryPrefetch()) {
+        nextResultSets.add(fetchNextPartition(partitionKeyGenerator.next()));
+      } else {
+        break;
+      }
+    }
   }
 
   /**
-   * Start fetching the next partition. If there are no more partitions to fetch an immidiate future
-   * will be returned with an exhausted result set.
+   * Fetch the next partition once the budget of the prefetch window has room for it.
    *
    * @return A future that on completion will contain the result set of the next partition
    */
-  private ListenableFuture<ResultSet> fetchNextPartition() {
-    if (!partitionKeyGenerator.hasNext()) {
-      return exhaustedNextResultSet;
+  private ListenableFuture<ResultSet> fetchNeededPartition() {
+    final K nextPartitionKey = partitionKeyGenerator.next();
+    final SettableFuture<ResultSet> nextPartition = SettableFuture.create();
+    prefetchWindow.fetchWhenAllowed(priority, () -> forward(fetchNextPartition(nextPartitionKey),
+        nextPartition));
+    return nextPartition;
+  }
+
+  private static void forward(final ListenableFuture<ResultSet> fetched,
+                              final SettableFuture<ResultSet> target) {
+    addCallback(fetched, new FutureCallback<ResultSet>() {
+      @Override
+      public void onSuccess(final ResultSet resultSet) {
+        target.set(resultSet);
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        target.setException(throwable);
+      }
+    });
+  }
+
+  /**
+   * Start fetching the partition with the provided key, report how long the fetch took to the
+   * prefetch window and give its room in the budget back once it completes. The room must already
+   * have been taken.
+   *
+   * @return A future that on completion will contain the result set of the partition
+   */
+  private ListenableFuture<ResultSet> fetchNextPartition(final K partitionKey) {
+    final long fetchStart = System.nanoTime();
+    final ResultSetFuture nextPartition;
+
+    try {
+      nextPartition = fetchFunction.apply(partitionKey);
+    } catch (RuntimeException e) {
+      prefetchWindow.fetchDone();
+      return immediateFailedFuture(e);
     }
 
-    final K nextPartitionKey = partitionKeyGenerator.next();
-    final ResultSetFuture nextPartition = fetchFunction.apply(nextPartitionKey);
+    addCallback(nextPartition, new FutureCallback<ResultSet>() {
+      @Override
+      public void onSuccess(final ResultSet resultSet) {
+        prefetchWindow.partitionFetched(resultSet.getAvailableWithoutFetching(),
+            System.nanoTime() - fetchStart);
+        prefetchWindow.fetchDone();
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        // The failure is reported to the reader once it reaches the partition.
+        prefetchWindow.fetchDone();
+      }
+    });
 
     LOG.trace("Initiated load of next partition in {} with key {}",
-        nextPartition, nextPartitionKey);
+        nextPartition, partitionKey);
     return nextPartition;
   }
 }
@@ -3,9 +3,11 @@ package se.tre.freki.storage.cassandra.statements;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.timestamp;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
 
 import se.tre.freki.storage.cassandra.Tables;
 
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.Session;
 
@@ -13,6 +15,9 @@ import com.datastax.driver.core.Session;
  * A collection of {@link com.datastax.driver.core.PreparedStatement PreparedStatements} that are
  * used to add data points.
  *
+ * <p>The whole partition key is bound by markers so the driver can compute the routing key of every
+ * bound statement and a token aware load balancing policy can send it straight to a replica.
+ *
  * @see se.tre.freki.storage.cassandra.CassandraStore#addPoint
  */
 public class AddPointStatements {
@@ -24,15 +29,19 @@ public class AddPointStatements {
    * Instantiate the statements and prepare them with the provided session.
    *
    * @param session The session to prepare the statements with.
+   * @param consistencyLevel The consistency level to write data points with
    */
-  public AddPointStatements(final Session session) {
+  public AddPointStatements(final Session session,
+                            final ConsistencyLevel consistencyLevel) {
     addFloatStatement = session.prepare(
         insertInto(Tables.DATAPOINTS)
             .value("timeseries_id", bindMarker())
             .value("basetime", bindMarker())
             .value("timestamp", bindMarker())
             .value("float_value", bindMarker())
-            .using(timestamp(bindMarker())));
+            .using(timestamp(bindMarker()))
+            .and(ttl(bindMarker())))
+        .setConsistencyLevel(consistencyLevel);
 
     addDoubleStatement = session.prepare(
         insertInto(Tables.DATAPOINTS)
@@ -40,7 +49,9 @@ public class AddPointStatements {
             .value("basetime", bindMarker())
             .value("timestamp", bindMarker())
             .value("double_value", bindMarker())
-            .using(timestamp(bindMarker())));
+            .using(timestamp(bindMarker()))
+            .and(ttl(bindMarker())))
+        .setConsistencyLevel(consistencyLevel);
 
     addLongStatement = session.prepare(
         insertInto(Tables.DATAPOINTS)
@@ -48,7 +59,9 @@ public class AddPointStatements {
             .value("basetime", bindMarker())
             .value("timestamp", bindMarker())
             .value("long_value", bindMarker())
-            .using(timestamp(bindMarker())));
+            .using(timestamp(bindMarker()))
+            .and(ttl(bindMarker())))
+        .setConsistencyLevel(consistencyLevel);
   }
 
   public PreparedStatement addFloatStatement() {
@@ -68,6 +81,6 @@ public class AddPointStatements {
    * must match the order in the add point statements above.
    */
   public enum AddPointStatementMarkers {
-    ID, BASE_TIME, TIMESTAMP, VALUE, USING_TIMESTAMP
+    ID, BASE_TIME, TIMESTAMP, VALUE, USING_TIMESTAMP, USING_TTL
   }
 }
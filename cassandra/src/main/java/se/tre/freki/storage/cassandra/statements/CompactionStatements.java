@@ -0,0 +1,99 @@
+package se.tre.freki.storage.cassandra.statements;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.delete;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.timestamp;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
+
+import se.tre.freki.storage.cassandra.Tables;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+
+/**
+ * A collection of {@link com.datastax.driver.core.PreparedStatement PreparedStatements} that are
+ * used to compact the data points of a partition into a single chunk.
+ *
+ * @see se.tre.freki.storage.cassandra.ChunkCompactionStrategy
+ */
+public class CompactionStatements {
+  private final PreparedStatement selectPartitionStatement;
+  private final PreparedStatement insertChunkStatement;
+  private final PreparedStatement deletePointStatement;
+
+  /**
+   * Instantiate the statements and prepare them with the provided session.
+   *
+   * @param session The session to prepare the statements with.
+   * @param consistencyLevel The consistency level to write chunks and delete data points with
+   */
+  public CompactionStatements(final Session session,
+                              final ConsistencyLevel consistencyLevel) {
+    selectPartitionStatement = session.prepare(
+        select()
+            .all()
+            .from(Tables.DATAPOINTS)
+            .where(eq("timeseries_id", bindMarker()))
+            .and(eq("basetime", bindMarker())));
+
+    insertChunkStatement = session.prepare(
+        insertInto(Tables.DATAPOINTS)
+            .value("timeseries_id", bindMarker())
+            .value("basetime", bindMarker())
+            .value("timestamp", bindMarker())
+            .value("chunk", bindMarker())
+            .using(timestamp(bindMarker()))
+            .and(ttl(bindMarker())))
+        .setConsistencyLevel(consistencyLevel);
+
+    deletePointStatement = session.prepare(
+        delete()
+            .from(Tables.DATAPOINTS)
+            .using(timestamp(bindMarker()))
+            .where(eq("timeseries_id", bindMarker()))
+            .and(eq("basetime", bindMarker()))
+            .and(eq("timestamp", bindMarker())))
+        .setConsistencyLevel(consistencyLevel);
+  }
+
+  public PreparedStatement selectPartitionStatement() {
+    return selectPartitionStatement;
+  }
+
+  public PreparedStatement insertChunkStatement() {
+    return insertChunkStatement;
+  }
+
+  public PreparedStatement deletePointStatement() {
+    return deletePointStatement;
+  }
+
+  /**
+   * An enum which makes the bind statements more expressive. The ordinal of the values in this
+   * enum must match the order in the select partition statement above.
+   */
+  public enum SelectPartitionStatementMarkers {
+    ID, BASE_TIME
+  }
+
+  /**
+   * An enum which makes the bind statements more expressive. The ordinal of the values in this
+   * enum must match the order in the insert chunk statement above.
+   */
+  public enum InsertChunkStatementMarkers {
+    ID, BASE_TIME, TIMESTAMP, CHUNK, USING_TIMESTAMP, USING_TTL
+  }
+
+  /**
+   * An enum which makes the bind statements more expressive. The ordinal of the values in this
+   * enum must match the order in the delete point statement above, the {@code USING} clause comes
+   * before the {@code WHERE} clause in a delete.
+   */
+  public enum DeletePointStatementMarkers {
+    USING_TIMESTAMP, ID, BASE_TIME, TIMESTAMP
+  }
+}
@@ -1,8 +1,10 @@
 package se.tre.freki.storage.cassandra.statements;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.desc;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.gte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.in;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
 
@@ -13,6 +15,9 @@ import com.datastax.driver.core.Session;
 
 public class FetchPointsStatements {
   private final PreparedStatement selectDataPointsStatement;
+  private final PreparedStatement selectDataPointsInPartitionsStatement;
+  private final PreparedStatement selectLatestDataPointsStatement;
+  private final PreparedStatement selectChunkStatement;
 
   /**
    * Instantiate the statements and prepare them with the provided session.
@@ -28,12 +33,61 @@ public class FetchPointsStatements {
             .and(eq("basetime", bindMarker()))
             .and(gte("timestamp", bindMarker()))
             .and(lte("timestamp", bindMarker())));
+
+    selectDataPointsInPartitionsStatement = session.prepare(
+        select()
+            .all()
+            .from(Tables.DATAPOINTS)
+            .where(eq("timeseries_id", bindMarker()))
+            .and(in("basetime", bindMarker()))
+            .and(gte("timestamp", bindMarker()))
+            .and(lte("timestamp", bindMarker())));
+
+    selectLatestDataPointsStatement = session.prepare(
+        select()
+            .all()
+            .from(Tables.DATAPOINTS)
+            .where(eq("timeseries_id", bindMarker()))
+            .and(eq("basetime", bindMarker()))
+            .and(gte("timestamp", bindMarker()))
+            .and(lte("timestamp", bindMarker()))
+            .orderBy(desc("timestamp"))
+            .limit(bindMarker()));
+
+    selectChunkStatement = session.prepare(
+        select("chunk")
+            .from(Tables.DATAPOINTS)
+            .where(eq("timeseries_id", bindMarker()))
+            .and(eq("basetime", bindMarker()))
+            .and(eq("timestamp", bindMarker())));
   }
 
   public PreparedStatement selectDataPointsStatement() {
     return selectDataPointsStatement;
   }
 
+  /**
+   * A statement that selects the data points of several partitions of the same time series. The
+   * rows are returned one partition at a time in the order the base times are bound in.
+   */
+  public PreparedStatement selectDataPointsInPartitionsStatement() {
+    return selectDataPointsInPartitionsStatement;
+  }
+
+  /**
+   * A statement that selects the newest data points of a partition, newest first, up to a limit.
+   */
+  public PreparedStatement selectLatestDataPointsStatement() {
+    return selectLatestDataPointsStatement;
+  }
+
+  /**
+   * A statement that selects the compacted chunk of a partition, if it has one.
+   */
+  public PreparedStatement selectChunkStatement() {
+    return selectChunkStatement;
+  }
+
   /**
    * An eum which makes the bind statements more expressive. The ordinal of the values in this enum
    * must match the order in the add point statements above.
@@ -41,4 +95,26 @@ public class FetchPointsStatements {
   public enum SelectPointStatementMarkers {
     ID, BASE_TIME, LOWER_TIMESTAMP, UPPER_TIMESTAMP
   }
+
+  /**
+   * The bind markers of {@link #selectDataPointsInPartitionsStatement()}, where the base times are
+   * bound as a list.
+   */
+  public enum SelectPointsInPartitionsStatementMarkers {
+    ID, BASE_TIMES, LOWER_TIMESTAMP, UPPER_TIMESTAMP
+  }
+
+  /**
+   * The bind markers of {@link #selectLatestDataPointsStatement()}.
+   */
+  public enum SelectLatestPointsStatementMarkers {
+    ID, BASE_TIME, LOWER_TIMESTAMP, UPPER_TIMESTAMP, LIMIT
+  }
+
+  /**
+   * The bind markers of {@link #selectChunkStatement()}.
+   */
+  public enum SelectChunkStatementMarkers {
+    ID, BASE_TIME, TIMESTAMP
+  }
 }
@@ -0,0 +1,100 @@
+package se.tre.freki.storage.cassandra.statements;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.gte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
+
+import se.tre.freki.query.RollupInterval;
+import se.tre.freki.storage.cassandra.Tables;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+
+/**
+ * A collection of {@link com.datastax.driver.core.PreparedStatement PreparedStatements} that are
+ * used to write and read the rollups of a single {@link RollupInterval}. Every interval has a table
+ * of its own.
+ *
+ * @see se.tre.freki.storage.cassandra.AggregatingRollupStrategy
+ */
+public class RollupStatements {
+  private final PreparedStatement insertRollupStatement;
+  private final PreparedStatement selectRollupsStatement;
+
+  /**
+   * Instantiate the statements and prepare them with the provided session.
+   *
+   * @param session The session to prepare the statements with.
+   * @param consistencyLevel The consistency level to write rollups with
+   * @param interval The interval of the rollups that the statements read and write
+   */
+  public RollupStatements(final Session session,
+                          final ConsistencyLevel consistencyLevel,
+                          final RollupInterval interval) {
+    final String table = tableFor(interval);
+
+    insertRollupStatement = session.prepare(
+        insertInto(table)
+            .value("timeseries_id", bindMarker())
+            .value("basetime", bindMarker())
+            .value("timestamp", bindMarker())
+            .value("min", bindMarker())
+            .value("max", bindMarker())
+            .value("sum", bindMarker())
+            .value("count", bindMarker())
+            .using(ttl(bindMarker())))
+        .setConsistencyLevel(consistencyLevel);
+
+    selectRollupsStatement = session.prepare(
+        select()
+            .all()
+            .from(table)
+            .where(eq("timeseries_id", bindMarker()))
+            .and(eq("basetime", bindMarker()))
+            .and(gte("timestamp", bindMarker()))
+            .and(lte("timestamp", bindMarker())));
+  }
+
+  /**
+   * Get the name of the table that holds the rollups of the provided interval.
+   */
+  public static String tableFor(final RollupInterval interval) {
+    switch (interval) {
+      case MINUTE:
+        return Tables.ROLLUPS_MINUTE;
+      case HOUR:
+        return Tables.ROLLUPS_HOUR;
+      default:
+        throw new IllegalArgumentException("There is no table for the interval " + interval);
+    }
+  }
+
+  public PreparedStatement insertRollupStatement() {
+    return insertRollupStatement;
+  }
+
+  public PreparedStatement selectRollupsStatement() {
+    return selectRollupsStatement;
+  }
+
+  /**
+   * An enum which makes the bind statements more expressive. The ordinal of the values in this
+   * enum must match the order in the insert rollup statement above.
+   */
+  public enum InsertRollupStatementMarkers {
+    ID, BASE_TIME, TIMESTAMP, MIN, MAX, SUM, COUNT, USING_TTL
+  }
+
+  /**
+   * An enum which makes the bind statements more expressive. The ordinal of the values in this
+   * enum must match the order in the select rollups statement above.
+   */
+  public enum SelectRollupsStatementMarkers {
+    ID, BASE_TIME, LOWER_TIMESTAMP, UPPER_TIMESTAMP
+  }
+}
@@ -0,0 +1,277 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static se.tre.freki.storage.cassandra.CassandraLabelId.fromLong;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.query.RollupInterval;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class AggregatingRollupStrategyTest {
+  private static final long HOUR = 1434499200000L;
+  private static final long MINUTE = RollupInterval.MINUTE.duration();
+  private static final long HOUR_DURATION = RollupInterval.HOUR.duration();
+  private static final long DELAY = 1000;
+  private static final int TTL = 3600;
+
+  private Session session;
+  private ScheduledExecutorService executor;
+  private List<Written> written;
+  private ByteBuffer timeSeriesId;
+  private MutableClock clock;
+
+  @Before
+  public void setUp() throws Exception {
+    session = mock(Session.class);
+    final PreparedStatement statement = mock(PreparedStatement.class);
+    when(session.prepare(any(RegularStatement.class))).thenReturn(statement);
+    when(statement.setConsistencyLevel(any(ConsistencyLevel.class))).thenReturn(statement);
+
+    executor = mock(ScheduledExecutorService.class);
+    written = new ArrayList<>();
+
+    timeSeriesId = TimeSeriesIds.timeSeriesId(fromLong(1L),
+        ImmutableList.<LabelId>of(fromLong(2L), fromLong(3L)));
+  }
+
+  private AggregatingRollupStrategy strategyAt(final long now) {
+    clock = new MutableClock(now);
+    return new AggregatingRollupStrategy(session, ConsistencyLevel.ONE, clock, executor, DELAY,
+        0) {
+      @Override
+      ListenableFuture<ResultSet> write(final ByteBuffer timeSeriesId,
+                                        final RollupInterval interval,
+                                        final Bucket bucket) {
+        written.add(new Written(interval, bucket));
+        return Futures.immediateFuture(null);
+      }
+    };
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorNegativeDelay() {
+    new AggregatingRollupStrategy(session, ConsistencyLevel.ONE, Clock.systemUTC(), executor, -1,
+        0);
+  }
+
+  @Test
+  public void testPointsInSameBucketAreAggregated() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR);
+    strategy.pointWritten(timeSeriesId, HOUR, 3, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + 10, -1, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + 20, 4, TTL);
+
+    assertEquals(0, written.size());
+    assertEquals(RollupInterval.values().length, strategy.openBuckets());
+  }
+
+  @Test
+  public void testLaterBucketWritesPreviousBucket() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR);
+    strategy.pointWritten(timeSeriesId, HOUR, 3, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + 10, -1, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + 20, 4, TTL);
+    strategy.pointWritten(timeSeriesId.duplicate(), HOUR + MINUTE, 7, TTL);
+
+    assertEquals(1, written.size());
+
+    final Written minute = written.get(0);
+    assertEquals(RollupInterval.MINUTE, minute.interval);
+    assertEquals(HOUR, minute.bucket.start);
+    assertEquals(-1, minute.bucket.min, 0);
+    assertEquals(4, minute.bucket.max, 0);
+    assertEquals(6, minute.bucket.sum, 0);
+    assertEquals(3, minute.bucket.count);
+  }
+
+  @Test
+  public void testLatePointIsLeftOut() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR);
+    strategy.pointWritten(timeSeriesId, HOUR, 1, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + MINUTE, 1, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + 10, 1, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + 2 * MINUTE, 1, TTL);
+
+    assertEquals(2, written.size());
+    assertEquals(1, written.get(0).bucket.count);
+    assertEquals(1, written.get(1).bucket.count);
+  }
+
+  @Test
+  public void testNanIsLeftOut() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR);
+    strategy.pointWritten(timeSeriesId, HOUR, Double.NaN, TTL);
+    assertEquals(0, strategy.openBuckets());
+  }
+
+  @Test
+  public void testIdleBucketIsWrittenAfterDelay() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR + MINUTE + DELAY);
+    strategy.pointWritten(timeSeriesId, HOUR, 1, TTL);
+    strategy.writeClosedBuckets();
+
+    assertEquals(1, written.size());
+    assertEquals(RollupInterval.MINUTE, written.get(0).interval);
+    assertEquals(1, strategy.openBuckets());
+  }
+
+  @Test
+  public void testIdleBucketIsNotWrittenBeforeDelay() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR + MINUTE + DELAY - 1);
+    strategy.pointWritten(timeSeriesId, HOUR, 1, TTL);
+    strategy.writeClosedBuckets();
+
+    assertEquals(0, written.size());
+  }
+
+  @Test
+  public void testCloseWritesOpenBuckets() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR);
+    strategy.pointWritten(timeSeriesId, HOUR, 1, TTL);
+    strategy.close();
+
+    assertEquals(RollupInterval.values().length, written.size());
+    assertEquals(0, strategy.openBuckets());
+  }
+
+  @Test
+  public void testBucketIsWrittenWithTtlOfLatestPoint() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR);
+    strategy.pointWritten(timeSeriesId, HOUR, 1, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + 10, 1, 2 * TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + MINUTE, 1, TTL);
+
+    assertEquals(2 * TTL, written.get(0).bucket.ttl);
+  }
+
+  @Test
+  public void testIdleSeriesIsForgottenAfterNextSweep() {
+    final long end = HOUR + 2 * HOUR_DURATION;
+    final AggregatingRollupStrategy strategy = strategyAt(end + DELAY + 30000);
+    strategy.pointWritten(timeSeriesId, end - 10000, 1, TTL);
+    strategy.writeClosedBuckets();
+    assertEquals(RollupInterval.values().length, written.size());
+    assertEquals(1, strategy.series());
+
+    clock.now += MINUTE;
+    strategy.writeClosedBuckets();
+    assertEquals(0, strategy.series());
+  }
+
+  @Test
+  public void testLatePointOfForgottenSeriesIsLeftOut() {
+    final long end = HOUR + 2 * HOUR_DURATION;
+    final AggregatingRollupStrategy strategy = strategyAt(end + DELAY + 30000);
+    strategy.pointWritten(timeSeriesId, end - 10000, 1, TTL);
+    strategy.writeClosedBuckets();
+    clock.now += MINUTE;
+    strategy.writeClosedBuckets();
+
+    strategy.pointWritten(timeSeriesId, end - 20000, 1, TTL);
+
+    assertEquals(RollupInterval.values().length, written.size());
+    assertEquals(0, strategy.openBuckets());
+  }
+
+  @Test
+  public void testRolledUpEndsAtOpenBucket() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR + MINUTE);
+    strategy.pointWritten(timeSeriesId, HOUR, 1, TTL);
+    strategy.pointWritten(timeSeriesId, HOUR + MINUTE, 1, TTL);
+
+    assertEquals(Range.closedOpen(0L, HOUR + MINUTE),
+        strategy.rolledUp(timeSeriesId, RollupInterval.MINUTE));
+    assertEquals(Range.closedOpen(0L, HOUR),
+        strategy.rolledUp(timeSeriesId, RollupInterval.HOUR));
+  }
+
+  @Test
+  public void testRolledUpOfUnknownSeriesEndsBeforeUnsweptBuckets() {
+    final AggregatingRollupStrategy strategy = strategyAt(HOUR + 2 * MINUTE + DELAY);
+
+    assertEquals(Range.closedOpen(0L, HOUR + MINUTE),
+        strategy.rolledUp(timeSeriesId, RollupInterval.MINUTE));
+  }
+
+  @Test
+  public void testRolledUpStartsAtFirstWholeBucketSince() {
+    final Clock clock = Clock.fixed(Instant.ofEpochMilli(HOUR + 2 * HOUR_DURATION),
+        ZoneOffset.UTC);
+    final AggregatingRollupStrategy strategy = new AggregatingRollupStrategy(session,
+        ConsistencyLevel.ONE, clock, executor, DELAY, HOUR + 10);
+
+    assertEquals(HOUR + MINUTE,
+        (long) strategy.rolledUp(timeSeriesId, RollupInterval.MINUTE).lowerEndpoint());
+    assertEquals(HOUR + HOUR_DURATION,
+        (long) strategy.rolledUp(timeSeriesId, RollupInterval.HOUR).lowerEndpoint());
+  }
+
+  @Test
+  public void testPartitionPeriodsHoldSameNumberOfRollups() {
+    for (final RollupInterval interval : RollupInterval.values()) {
+      assertEquals(1440,
+          AggregatingRollupStrategy.partitionPeriodFor(interval) / interval.duration());
+    }
+  }
+
+  private static final class MutableClock extends Clock {
+    private long now;
+
+    MutableClock(final long now) {
+      this.now = now;
+    }
+
+    @Override
+    public long millis() {
+      return now;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(now);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static final class Written {
+    private final RollupInterval interval;
+    private final AggregatingRollupStrategy.Bucket bucket;
+
+    Written(final RollupInterval interval, final AggregatingRollupStrategy.Bucket bucket) {
+      this.interval = interval;
+      this.bucket = bucket;
+    }
+  }
+}
@@ -78,4 +78,22 @@ public class BaseTimesTest {
     assertEquals(baseTime + BaseTimes.BASE_TIME_PERIOD, baseTimes.nextLong());
     assertFalse(baseTimes.hasNext());
   }
+
+  @Test
+  public void testBaseTimeForPeriod() {
+    final long day = 24 * BASE_TIME_PERIOD;
+    assertEquals(1434499200000L, BaseTimes.baseTimeFor(1434545416154L, day));
+  }
+
+  @Test
+  public void testBaseTimesBetweenPeriod() throws Exception {
+    final long day = 24 * BASE_TIME_PERIOD;
+    final long baseTime = 1434499200000L;
+    final PrimitiveIterator.OfLong baseTimes = baseTimesBetween(baseTime + 1,
+        baseTime + day + 1, day);
+
+    assertEquals(baseTime, baseTimes.nextLong());
+    assertEquals(baseTime + day, baseTimes.nextLong());
+    assertFalse(baseTimes.hasNext());
+  }
 }
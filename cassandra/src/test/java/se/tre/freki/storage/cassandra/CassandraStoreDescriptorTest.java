@@ -1,13 +1,22 @@
 package se.tre.freki.storage.cassandra;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import se.tre.freki.storage.StoreDescriptor;
 import se.tre.freki.storage.StoreDescriptorTest;
 import se.tre.freki.storage.StoreModule;
+import se.tre.freki.storage.cassandra.query.PrefetchWindow;
+import se.tre.freki.utils.InvalidConfigException;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import org.junit.Test;
 
+import java.time.Clock;
 import javax.annotation.Nullable;
 
 public class CassandraStoreDescriptorTest extends StoreDescriptorTest {
@@ -28,4 +37,94 @@ public class CassandraStoreDescriptorTest extends StoreDescriptorTest {
       }
     });
   }
+
+  private Config storagePoliciesConfig(final String metrics) {
+    return ConfigFactory.parseString("freki.storage.cassandra.storage_policies.metrics = "
+        + metrics)
+        .withFallback(ConfigFactory.load());
+  }
+
+  @Test
+  public void testStoragePoliciesDefaultIsUniform() {
+    final StoragePolicies policies =
+        new CassandraStoreDescriptor().storagePolicies(ConfigFactory.load());
+    assertTrue(policies.isUniform());
+    assertEquals(0, policies.defaultPolicy().ttl());
+    assertEquals(BaseTimes.BASE_TIME_PERIOD, policies.defaultPolicy().partitionPeriod());
+  }
+
+  @Test
+  public void testStoragePoliciesInheritDefault() {
+    final StoragePolicies policies = new CassandraStoreDescriptor().storagePolicies(
+        storagePoliciesConfig("[{pattern = \"sys\\\\..*\", ttl = 1d}]"));
+    final StoragePolicy policy = policies.policyFor("sys.cpu");
+    assertEquals(86400, policy.ttl());
+    assertEquals(BaseTimes.BASE_TIME_PERIOD, policy.partitionPeriod());
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testStoragePoliciesInvalidPattern() {
+    new CassandraStoreDescriptor().storagePolicies(
+        storagePoliciesConfig("[{pattern = \"sys[\"}]"));
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testStoragePoliciesInvalidTtl() {
+    new CassandraStoreDescriptor().storagePolicies(
+        storagePoliciesConfig("[{pattern = \"sys\", ttl = -1s}]"));
+  }
+
+  @Test
+  public void testPrefetchWindowDefault() {
+    final PrefetchWindow window =
+        new CassandraStoreDescriptor().prefetchWindow(ConfigFactory.load());
+    assertEquals(8, window.size());
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testPartitionDensitiesZeroPartitions() {
+    new CassandraStoreDescriptor().partitionDensities(ConfigFactory.parseString(
+        "freki.storage.cassandra.query.partitions_per_read.max_partitions = 0")
+        .withFallback(ConfigFactory.load()));
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testPrefetchWindowZeroPartitions() {
+    new CassandraStoreDescriptor().prefetchWindow(ConfigFactory.parseString(
+        "freki.storage.cassandra.query.prefetch.max_partitions = 0")
+        .withFallback(ConfigFactory.load()));
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testPrefetchWindowZeroInFlight() {
+    new CassandraStoreDescriptor().prefetchWindow(ConfigFactory.parseString(
+        "freki.storage.cassandra.query.prefetch.max_inflight = 0")
+        .withFallback(ConfigFactory.load()));
+  }
+
+  @Test
+  public void testMaxOpenSeriesDefault() {
+    assertEquals(16, new CassandraStoreDescriptor().maxOpenSeries(ConfigFactory.load()));
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testMaxOpenSeriesZero() {
+    new CassandraStoreDescriptor().maxOpenSeries(ConfigFactory.parseString(
+        "freki.storage.cassandra.query.max_open_series = 0")
+        .withFallback(ConfigFactory.load()));
+  }
+
+  @Test
+  public void testPartitionCacheDisabledByDefault() {
+    final PartitionCache cache = new CassandraStoreDescriptor().partitionCache(
+        ConfigFactory.load(), Clock.systemUTC());
+    assertFalse(cache.isClosed(0, BaseTimes.BASE_TIME_PERIOD));
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testPartitionCacheNegativeClosedAfter() {
+    new CassandraStoreDescriptor().partitionCache(ConfigFactory.parseString(
+        "freki.storage.cassandra.query.partition_cache {enabled = true, closed_after = -1s}")
+        .withFallback(ConfigFactory.load()), Clock.systemUTC());
+  }
 }
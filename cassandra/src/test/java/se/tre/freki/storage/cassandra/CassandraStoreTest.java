@@ -2,27 +2,52 @@ package se.tre.freki.storage.cassandra;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static se.tre.freki.query.predicate.SimpleTimeSeriesIdPredicate.id;
+import static se.tre.freki.query.predicate.TimeSeriesTagPredicate.eq;
+import static se.tre.freki.query.predicate.WildcardTimeSeriesIdPredicate.wildcard;
 
 import se.tre.freki.labels.LabelId;
 import se.tre.freki.labels.LabelType;
+import se.tre.freki.labels.StaticTimeSeriesId;
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.query.DataPointBlocks;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.query.TimeSeriesQuery;
+import se.tre.freki.query.predicate.TimeSeriesQueryPredicate;
 import se.tre.freki.storage.StoreTest;
-import se.tre.freki.storage.cassandra.IndexStrategy.NoOpIndexingStrategy;
+import se.tre.freki.storage.TimeSeriesDataPoint;
+import se.tre.freki.utils.AsyncIterator;
 
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValueFactory;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Clock;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 public class CassandraStoreTest extends StoreTest<CassandraStore> {
+  private static final int MAX_BATCH_SIZE = 100;
+  private static final int MAX_OPEN_SERIES = 16;
+
   @Rule
   public final Timeout timeout = Timeout.millis(CassandraTestHelpers.TIMEOUT);
 
@@ -47,14 +72,22 @@ public class CassandraStoreTest extends StoreTest<CassandraStore> {
     CassandraTestHelpers.truncate(store.getSession());
   }
 
+  private static CassandraStoreOptions options(final int maxBatchSize) {
+    return CassandraStoreOptions.builder()
+        .maxOpenSeries(MAX_OPEN_SERIES)
+        .maxBatchSize(maxBatchSize)
+        .writeConsistency(ConsistencyLevel.ONE)
+        .labelConsistency(ConsistencyLevel.ONE)
+        .build();
+  }
+
   @Test
   public void constructor() throws IOException {
     final String keyspace = config.getString("freki.storage.cassandra.keyspace");
     final Cluster cluster = storeDescriptor.createCluster(config);
     final Session session = storeDescriptor.connectTo(cluster, keyspace);
     final Clock clock = Clock.systemDefaultZone();
-    final IndexStrategy indexingStrategy = new NoOpIndexingStrategy();
-    assertNotNull(new CassandraStore(cluster, session, clock, indexingStrategy));
+    assertNotNull(new CassandraStore(cluster, session, clock, options(MAX_BATCH_SIZE)));
   }
 
   @Test(expected = NullPointerException.class)
@@ -62,8 +95,7 @@ public class CassandraStoreTest extends StoreTest<CassandraStore> {
     final String keyspace = config.getString("freki.storage.cassandra.keyspace");
     final Cluster cluster = storeDescriptor.createCluster(config);
     final Session session = storeDescriptor.connectTo(cluster, keyspace);
-    final IndexStrategy indexingStrategy = new NoOpIndexingStrategy();
-    new CassandraStore(cluster, session, null, indexingStrategy);
+    new CassandraStore(cluster, session, null, options(MAX_BATCH_SIZE));
   }
 
   @Test(expected = NullPointerException.class)
@@ -72,16 +104,23 @@ public class CassandraStoreTest extends StoreTest<CassandraStore> {
     final Cluster cluster = storeDescriptor.createCluster(config);
     final Session session = storeDescriptor.connectTo(cluster, keyspace);
     final Clock clock = Clock.systemDefaultZone();
-    final IndexStrategy indexingStrategy = new NoOpIndexingStrategy();
-    new CassandraStore(null, session, clock, indexingStrategy);
+    new CassandraStore(null, session, clock, options(MAX_BATCH_SIZE));
   }
 
   @Test(expected = NullPointerException.class)
   public void constructorNullSession() throws IOException {
     final Cluster cluster = storeDescriptor.createCluster(config);
     final Clock clock = Clock.systemDefaultZone();
-    final IndexStrategy indexingStrategy = new NoOpIndexingStrategy();
-    new CassandraStore(cluster, null, clock, indexingStrategy);
+    new CassandraStore(cluster, null, clock, options(MAX_BATCH_SIZE));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructorZeroMaxBatchSize() throws IOException {
+    final String keyspace = config.getString("freki.storage.cassandra.keyspace");
+    final Cluster cluster = storeDescriptor.createCluster(config);
+    final Session session = storeDescriptor.connectTo(cluster, keyspace);
+    final Clock clock = Clock.systemDefaultZone();
+    new CassandraStore(cluster, session, clock, options(0));
   }
 
   @Override
@@ -149,4 +188,119 @@ public class CassandraStoreTest extends StoreTest<CassandraStore> {
       assertTrue(exception.getCause() instanceof IndexOutOfBoundsException);
     }
   }
+
+  @Test
+  public void testQueryResolvesManySeries() throws Exception {
+    final LabelId metric = CassandraLabelId.fromLong(1L);
+    final LabelId tagk = CassandraLabelId.fromLong(2L);
+    final int seriesCount = 250;
+
+    for (long tagv = 0; tagv < seriesCount; tagv++) {
+      final List<LabelId> tags = ImmutableList.of(tagk, CassandraLabelId.fromLong(100L + tagv));
+      store.addPoint(new StaticTimeSeriesId(metric, tags), 1000L, tagv).get();
+    }
+
+    assertEquals(seriesCount, store.query(queryFor(metric, tagk)).get().size());
+  }
+
+  @Test
+  public void testQueryResolvesAndBackfillsLegacySeries() throws Exception {
+    final LabelId metric = CassandraLabelId.fromLong(1L);
+    final LabelId tagk = CassandraLabelId.fromLong(2L);
+    final LabelId tagv = CassandraLabelId.fromLong(3L);
+    final ByteBuffer timeSeriesId = TimeSeriesIds.timeSeriesId(metric,
+        ImmutableList.of(tagk, tagv));
+    final UUID uuid = TimeSeriesIds.toUuid(timeSeriesId);
+
+    // Rows in the inverted index as they were written before the ts_index table existed
+    final Map<LabelType, Long> labels = ImmutableMap.of(
+        LabelType.METRIC, 1L, LabelType.TAGK, 2L, LabelType.TAGV, 3L);
+
+    for (final Map.Entry<LabelType, Long> label : labels.entrySet()) {
+      store.getSession().execute(QueryBuilder.insertInto(Tables.TS_INVERTED_INDEX)
+          .value("label_id", label.getValue())
+          .value("type", label.getKey().toValue())
+          .value("timeseries_id", uuid)
+          .value("metric", 1L)
+          .value("tags", ImmutableMap.of(2L, 3L)));
+    }
+
+    final TimeSeriesId timeSeries =
+        store.query(queryFor(metric, tagk)).get().keySet().iterator().next();
+
+    assertEquals(metric, timeSeries.metric());
+    assertEquals(ImmutableList.of(tagk, tagv), timeSeries.tags());
+
+    while (store.getSession().execute(QueryBuilder.select().from(Tables.TS_INDEX)
+        .where(QueryBuilder.eq("timeseries_id", uuid))).one() == null) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testQueryReturnsBlockIterators() throws Exception {
+    final LabelId metric = CassandraLabelId.fromLong(1L);
+    final LabelId tagk = CassandraLabelId.fromLong(2L);
+    final TimeSeriesId timeSeriesId =
+        new StaticTimeSeriesId(metric, ImmutableList.of(tagk, CassandraLabelId.fromLong(3L)));
+
+    store.addPoint(timeSeriesId, 1000L, 1L).get();
+    store.addPoint(timeSeriesId, 1001L, 2L).get();
+
+    final AsyncIterator<? extends DataPoint> dataPoints =
+        store.query(queryFor(metric, tagk)).get().values().iterator().next();
+    final DataPointBlockIterator blocks = DataPointBlocks.blocksOf(dataPoints);
+
+    // The blocks are read from the store iterator and not filled one data point at a time.
+    assertSame(dataPoints, blocks);
+
+    final DataPointBlock block = new DataPointBlock(16);
+    assertEquals(2, blocks.nextBlock(block));
+    assertEquals(0, blocks.nextBlock(block));
+  }
+
+  @Test
+  public void testLateWriteIsReadThroughPartitionCache() throws Exception {
+    final CassandraStore cachingStore = storeDescriptor.createStore(config.withValue(
+        "freki.storage.cassandra.query.partition_cache.enabled",
+        ConfigValueFactory.fromAnyRef(true)));
+    final LabelId metric = CassandraLabelId.fromLong(1L);
+    final LabelId tagk = CassandraLabelId.fromLong(2L);
+    final TimeSeriesId timeSeriesId =
+        new StaticTimeSeriesId(metric, ImmutableList.of(tagk, CassandraLabelId.fromLong(3L)));
+
+    // The partition of these data points closed long ago so the first query caches it.
+    cachingStore.addPoint(timeSeriesId, 1000L, 1L).get();
+    assertEquals(1, count(cachingStore.query(queryFor(metric, tagk)).get().values()));
+
+    cachingStore.addPoint(timeSeriesId, 1001L, 2L).get();
+    cachingStore.addPoints(ImmutableList.of(TimeSeriesDataPoint.create(timeSeriesId,
+        DataPoints.longPoint(1002L, 3L)))).get();
+    assertEquals(3, count(cachingStore.query(queryFor(metric, tagk)).get().values()));
+  }
+
+  private static int count(final Iterable<? extends AsyncIterator<? extends DataPoint>> series) {
+    int count = 0;
+
+    for (final AsyncIterator<? extends DataPoint> dataPoints : series) {
+      while (dataPoints.hasNext()) {
+        dataPoints.next();
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  private static TimeSeriesQuery queryFor(final LabelId metric, final LabelId tagk) {
+    final TimeSeriesQueryPredicate.Builder predicate = TimeSeriesQueryPredicate.builder();
+    predicate.metric(metric);
+    predicate.addTagPredicate(eq(id(tagk), wildcard()));
+
+    return TimeSeriesQuery.builder()
+        .startTime(0)
+        .endTime(2000)
+        .predicate(predicate.build())
+        .build();
+  }
 }
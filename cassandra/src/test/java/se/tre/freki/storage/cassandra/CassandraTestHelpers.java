@@ -23,6 +23,7 @@ public class CassandraTestHelpers {
   public static void truncate(final Session session) {
     session.execute(QueryBuilder.truncate(Tables.DATAPOINTS));
     session.execute(QueryBuilder.truncate(Tables.TS_INVERTED_INDEX));
+    session.execute(QueryBuilder.truncate(Tables.TS_INDEX));
     session.execute(QueryBuilder.truncate(Tables.ID_TO_NAME));
     session.execute(QueryBuilder.truncate(Tables.NAME_TO_ID));
     session.execute(QueryBuilder.truncate(Tables.LABEL_SEARCH_INDEX));
@@ -0,0 +1,166 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static se.tre.freki.storage.cassandra.CassandraLabelId.fromLong;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.storage.compression.ChunkDecoder;
+import se.tre.freki.storage.compression.ChunkEncoder;
+import se.tre.freki.storage.compression.ChunkType;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ChunkCompactionStrategyTest {
+  private static final long BASE_TIME = 1434499200000L;
+  private static final long DELAY = 1000;
+
+  private ScheduledExecutorService executor;
+  private ChunkCompactionStrategy strategy;
+  private ByteBuffer timeSeriesId;
+
+  @Before
+  public void setUp() throws Exception {
+    final Session session = mock(Session.class);
+    final PreparedStatement statement = mock(PreparedStatement.class);
+    when(session.prepare(any(RegularStatement.class))).thenReturn(statement);
+    when(statement.setConsistencyLevel(any(ConsistencyLevel.class))).thenReturn(statement);
+
+    executor = mock(ScheduledExecutorService.class);
+    strategy = new ChunkCompactionStrategy(session, ConsistencyLevel.ONE,
+        Clock.systemDefaultZone(), executor, DELAY, 100);
+
+    timeSeriesId = TimeSeriesIds.timeSeriesId(fromLong(1L),
+        ImmutableList.<LabelId>of(fromLong(2L), fromLong(3L)));
+  }
+
+  private Row mockRow(final long timestamp, final String column) {
+    final Row row = mock(Row.class);
+    when(row.getLong("timestamp")).thenReturn(timestamp);
+    when(row.isNull("long_value")).thenReturn(!"long_value".equals(column));
+    when(row.isNull("float_value")).thenReturn(!"float_value".equals(column));
+    when(row.isNull("double_value")).thenReturn(!"double_value".equals(column));
+    when(row.getLong("long_value")).thenReturn(timestamp * 2);
+    when(row.getDouble("double_value")).thenReturn(timestamp * 0.5D);
+    return row;
+  }
+
+  private Row mockChunkRow(final long... timestamps) {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, timestamps.length);
+
+    for (final long timestamp : timestamps) {
+      encoder.add(timestamp, -timestamp);
+    }
+
+    final Row row = mock(Row.class);
+    when(row.getBytesUnsafe("chunk")).thenReturn(encoder.encode());
+    return row;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorNegativeDelay() {
+    new ChunkCompactionStrategy(mock(Session.class), ConsistencyLevel.ONE,
+        Clock.systemDefaultZone(), executor, -1, 100);
+  }
+
+  @Test
+  public void testLatestPartitionIsNotCompacted() {
+    strategy.partitionWritten(timeSeriesId, BASE_TIME, 0);
+    strategy.partitionWritten(timeSeriesId, BASE_TIME, 0);
+
+    verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    assertEquals(0, strategy.scheduledPartitions());
+  }
+
+  @Test
+  public void testPreviousPartitionIsCompactedOnce() {
+    strategy.partitionWritten(timeSeriesId, BASE_TIME, 0);
+    strategy.partitionWritten(timeSeriesId, BASE_TIME + BaseTimes.BASE_TIME_PERIOD, 0);
+    strategy.partitionWritten(timeSeriesId.duplicate(), BASE_TIME, 0);
+
+    verify(executor, times(1)).schedule(any(Runnable.class), eq(DELAY),
+        eq(TimeUnit.MILLISECONDS));
+    assertEquals(1, strategy.scheduledPartitions());
+  }
+
+  @Test
+  public void testLateWriteIsCompacted() {
+    strategy.partitionWritten(timeSeriesId, BASE_TIME, 0);
+    strategy.partitionWritten(timeSeriesId, BASE_TIME - BaseTimes.BASE_TIME_PERIOD, 0);
+
+    verify(executor, times(1)).schedule(any(Runnable.class), eq(DELAY),
+        eq(TimeUnit.MILLISECONDS));
+    assertEquals(1, strategy.scheduledPartitions());
+  }
+
+  @Test
+  public void testEncodeChunkOfRows() {
+    final List<Long> rowTimestamps = new ArrayList<>();
+    final ByteBuffer chunk = ChunkCompactionStrategy.encodeChunk(ImmutableList.of(
+        mockRow(BASE_TIME, "double_value"), mockRow(BASE_TIME + 10, "double_value")),
+        rowTimestamps);
+
+    assertEquals(ImmutableList.of(BASE_TIME, BASE_TIME + 10), rowTimestamps);
+
+    final ChunkDecoder decoder = new ChunkDecoder(chunk);
+    assertEquals(ChunkType.DOUBLE, decoder.type());
+    decoder.next();
+    assertEquals(BASE_TIME * 0.5D, decoder.doubleValue(), 0);
+    decoder.next();
+    assertEquals(BASE_TIME + 10, decoder.timestamp());
+    assertFalse(decoder.hasNext());
+  }
+
+  @Test
+  public void testEncodeChunkMergesExistingChunk() {
+    final List<Long> rowTimestamps = new ArrayList<>();
+    final ByteBuffer chunk = ChunkCompactionStrategy.encodeChunk(ImmutableList.of(
+        mockChunkRow(BASE_TIME, BASE_TIME + 20), mockRow(BASE_TIME + 10, "long_value"),
+        mockRow(BASE_TIME + 20, "long_value")), rowTimestamps);
+
+    final ChunkDecoder decoder = new ChunkDecoder(chunk);
+    assertEquals(3, decoder.size());
+    decoder.next();
+    assertEquals(-BASE_TIME, decoder.longValue());
+    decoder.next();
+    assertEquals((BASE_TIME + 10) * 2, decoder.longValue());
+    decoder.next();
+    assertEquals((BASE_TIME + 20) * 2, decoder.longValue());
+  }
+
+  @Test
+  public void testEncodeChunkWithoutRows() {
+    assertNull(ChunkCompactionStrategy.encodeChunk(ImmutableList.of(mockChunkRow(BASE_TIME)),
+        new ArrayList<Long>()));
+  }
+
+  @Test
+  public void testEncodeChunkWithMixedTypes() {
+    assertNull(ChunkCompactionStrategy.encodeChunk(ImmutableList.of(
+        mockRow(BASE_TIME, "long_value"), mockRow(BASE_TIME + 10, "double_value")),
+        new ArrayList<Long>()));
+  }
+}
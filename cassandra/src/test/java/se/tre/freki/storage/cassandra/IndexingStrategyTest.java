@@ -6,6 +6,7 @@ import se.tre.freki.labels.LabelId;
 import se.tre.freki.storage.cassandra.IndexStrategy.IndexingStrategy;
 
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Session;
 import com.google.common.collect.ImmutableList;
 import com.typesafe.config.Config;
@@ -40,7 +41,7 @@ public class IndexingStrategyTest {
     final String keyspace = config.getString("freki.storage.cassandra.keyspace");
     session = storeDescriptor.connectTo(cluster, keyspace);
 
-    indexingStrategy = new IndexingStrategy(session);
+    indexingStrategy = new IndexingStrategy(session, ConsistencyLevel.ONE);
   }
 
   @After
@@ -0,0 +1,81 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.storage.compression.ChunkEncoder;
+import se.tre.freki.storage.compression.ChunkType;
+
+import com.datastax.driver.core.Row;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LatestDataPointsTest {
+  private Row mockRow(final long timestamp) {
+    final Row row = mock(Row.class);
+    when(row.getLong("timestamp")).thenReturn(timestamp);
+    when(row.isNull("long_value")).thenReturn(false);
+    when(row.getLong("long_value")).thenReturn(-timestamp);
+    return row;
+  }
+
+  private ByteBuffer chunk(final long... timestamps) {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, timestamps.length);
+
+    for (final long timestamp : timestamps) {
+      encoder.add(timestamp, timestamp * 10);
+    }
+
+    return encoder.encode();
+  }
+
+  private List<Long> timestamps(final List<DataPoint> dataPoints) {
+    final List<Long> timestamps = new ArrayList<>();
+
+    for (final DataPoint dataPoint : dataPoints) {
+      timestamps.add(dataPoint.timestamp());
+    }
+
+    return timestamps;
+  }
+
+  @Test
+  public void testMergeRowsOnly() {
+    final List<DataPoint> latest = LatestDataPoints.merge(
+        ImmutableList.of(mockRow(30), mockRow(20), mockRow(10)), null, 0, 100, 2);
+
+    assertEquals(ImmutableList.of(30L, 20L), timestamps(latest));
+  }
+
+  @Test
+  public void testMergeChunkOnlyWithinBounds() {
+    final List<DataPoint> latest = LatestDataPoints.merge(ImmutableList.<Row>of(),
+        chunk(10, 20, 30, 40), 15, 35, 5);
+
+    assertEquals(ImmutableList.of(30L, 20L), timestamps(latest));
+  }
+
+  @Test
+  public void testMergeLateRowOlderThanChunk() {
+    final List<DataPoint> latest = LatestDataPoints.merge(ImmutableList.of(mockRow(15)),
+        chunk(10, 20, 30), 0, 100, 3);
+
+    assertEquals(ImmutableList.of(30L, 20L, 15L), timestamps(latest));
+  }
+
+  @Test
+  public void testMergeRowReplacesChunkDataPoint() {
+    final List<DataPoint> latest = LatestDataPoints.merge(ImmutableList.of(mockRow(20)),
+        chunk(10, 20), 0, 100, 5);
+
+    assertEquals(ImmutableList.of(20L, 10L), timestamps(latest));
+    assertEquals(-20L, ((DataPoint.LongDataPoint) latest.get(0)).value());
+    assertEquals(100L, ((DataPoint.LongDataPoint) latest.get(1)).value());
+  }
+}
@@ -0,0 +1,146 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.storage.compression.ChunkEncoder;
+import se.tre.freki.storage.compression.ChunkType;
+import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.AsyncIterators;
+
+import com.datastax.driver.core.ResultSet;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PartitionCacheReaderTest {
+  private static final long PERIOD = BaseTimes.BASE_TIME_PERIOD;
+  private static final long NOW = 10 * PERIOD;
+  private static final long CLOSED = NOW - 2 * PERIOD;
+  private static final long OPEN = NOW - PERIOD;
+
+  private PartitionCache cache;
+  private PartitionCacheReader reader;
+  private ByteBuffer timeSeriesId;
+  private List<List<Long>> openFetches;
+  private List<List<Long>> partitionFetches;
+
+  @Before
+  public void setUp() {
+    cache = new PartitionCache(1024, PERIOD,
+        Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
+    reader = new PartitionCacheReader(cache, this::fetchPartition);
+    timeSeriesId = ByteBuffer.wrap(new byte[] {1, 2, 3});
+    openFetches = new ArrayList<>();
+    partitionFetches = new ArrayList<>();
+  }
+
+  private static ByteBuffer chunk(final long... timestamps) {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, timestamps.length);
+
+    for (final long timestamp : timestamps) {
+      encoder.add(timestamp, timestamp * 10);
+    }
+
+    return encoder.encode();
+  }
+
+  private ListenableFuture<ResultSet> fetchPartition(final ByteBuffer timeSeriesId,
+                                                     final long baseTime,
+                                                     final long startTime,
+                                                     final long endTime) {
+    partitionFetches.add(ImmutableList.of(baseTime, startTime, endTime));
+    return Futures.<ResultSet>immediateFuture(new ExhaustedResultSet());
+  }
+
+  private AsyncIterator<? extends DataPoint> fetchOpen(final long startTime, final long endTime) {
+    openFetches.add(ImmutableList.of(startTime, endTime));
+    return AsyncIterators.of(ImmutableList.of(DataPoints.longPoint(startTime, 1)));
+  }
+
+  private static List<Long> timestamps(final AsyncIterator<? extends DataPoint> dataPoints) {
+    final List<Long> timestamps = new ArrayList<>();
+
+    while (dataPoints.hasNext()) {
+      timestamps.add(dataPoints.next().timestamp());
+    }
+
+    return timestamps;
+  }
+
+  @Test
+  public void testOpenPartitionsAreReadAsTheyAre() {
+    final AsyncIterator<? extends DataPoint> dataPoints =
+        reader.fetch(timeSeriesId, OPEN, NOW, PERIOD, this::fetchOpen);
+
+    assertEquals(ImmutableList.of(OPEN), timestamps(dataPoints));
+    assertEquals(ImmutableList.of(ImmutableList.of(OPEN, NOW)), openFetches);
+    assertEquals(ImmutableList.of(), partitionFetches);
+  }
+
+  @Test
+  public void testDisabledCacheReadsEverythingAsItIs() {
+    final AsyncIterator<? extends DataPoint> dataPoints =
+        new PartitionCacheReader(PartitionCache.disabled(), this::fetchPartition)
+            .fetch(timeSeriesId, 0, NOW, PERIOD, this::fetchOpen);
+
+    assertEquals(ImmutableList.of(0L), timestamps(dataPoints));
+    assertEquals(ImmutableList.of(ImmutableList.of(0L, NOW)), openFetches);
+    assertEquals(ImmutableList.of(), partitionFetches);
+  }
+
+  @Test
+  public void testClosedPartitionsAreReadFromCache() {
+    cache.put(timeSeriesId, CLOSED, chunk(CLOSED + 1, CLOSED + 2, CLOSED + 3));
+
+    final AsyncIterator<? extends DataPoint> dataPoints =
+        reader.fetch(timeSeriesId, CLOSED + 2, OPEN - 1, PERIOD, this::fetchOpen);
+
+    assertEquals(ImmutableList.of(CLOSED + 2, CLOSED + 3), timestamps(dataPoints));
+    assertEquals(ImmutableList.of(), openFetches);
+    assertEquals(ImmutableList.of(), partitionFetches);
+  }
+
+  @Test
+  public void testOpenPartitionsAreReadAfterClosedOnes() {
+    cache.put(timeSeriesId, CLOSED, chunk(CLOSED + 1));
+
+    final AsyncIterator<? extends DataPoint> dataPoints =
+        reader.fetch(timeSeriesId, CLOSED, NOW, PERIOD, this::fetchOpen);
+
+    assertEquals(ImmutableList.of(), openFetches);
+    assertEquals(ImmutableList.of(CLOSED + 1, OPEN), timestamps(dataPoints));
+    assertEquals(ImmutableList.of(ImmutableList.of(OPEN, NOW)), openFetches);
+  }
+
+  @Test
+  public void testEmptyClosedPartition() {
+    cache.put(timeSeriesId, CLOSED, ByteBuffer.allocate(0));
+
+    final AsyncIterator<? extends DataPoint> dataPoints =
+        reader.fetch(timeSeriesId, CLOSED, OPEN - 1, PERIOD, this::fetchOpen);
+
+    assertFalse(dataPoints.hasNext());
+  }
+
+  @Test
+  public void testMissingPartitionIsFetchedWholeAndCached() {
+    final AsyncIterator<? extends DataPoint> dataPoints =
+        reader.fetch(timeSeriesId, CLOSED + 5, OPEN - 5, PERIOD, this::fetchOpen);
+
+    assertFalse(dataPoints.hasNext());
+    assertEquals(ImmutableList.of(ImmutableList.of(CLOSED, CLOSED, OPEN - 1)), partitionFetches);
+    assertEquals(0, cache.get(timeSeriesId, CLOSED).remaining());
+  }
+}
@@ -0,0 +1,119 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+public class PartitionCacheTest {
+  private static final long PERIOD = BaseTimes.BASE_TIME_PERIOD;
+  private static final long NOW = 10 * PERIOD;
+
+  private PartitionCache cache;
+  private ByteBuffer timeSeriesId;
+
+  @Before
+  public void setUp() {
+    cache = new PartitionCache(1024, PERIOD,
+        Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
+    timeSeriesId = ByteBuffer.wrap(new byte[] {1, 2, 3});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroMaxBytes() {
+    new PartitionCache(0, PERIOD, Clock.systemUTC());
+  }
+
+  @Test
+  public void testIsClosedAfterClosedAfter() {
+    assertTrue(cache.isClosed(NOW - 2 * PERIOD, PERIOD));
+    assertFalse(cache.isClosed(NOW - 2 * PERIOD + 1, PERIOD));
+  }
+
+  @Test
+  public void testGetMissing() {
+    assertNull(cache.get(timeSeriesId, 0));
+  }
+
+  @Test
+  public void testPutCopiesChunk() {
+    final ByteBuffer chunk = ByteBuffer.wrap(new byte[] {4, 5, 6});
+    cache.put(timeSeriesId, 0, chunk);
+    chunk.put(0, (byte) 7);
+
+    final ByteBuffer cached = cache.get(timeSeriesId, 0);
+    assertTrue(cached.isDirect());
+    assertEquals(ByteBuffer.wrap(new byte[] {4, 5, 6}), cached);
+  }
+
+  @Test
+  public void testGetEmptyPartition() {
+    cache.put(timeSeriesId, 0, ByteBuffer.allocate(0));
+    assertFalse(cache.get(timeSeriesId, 0).hasRemaining());
+  }
+
+  @Test
+  public void testGetDoesNotMoveCachedChunk() {
+    cache.put(timeSeriesId, 0, ByteBuffer.wrap(new byte[] {4, 5, 6}));
+    cache.get(timeSeriesId, 0).get();
+    assertEquals(3, cache.get(timeSeriesId, 0).remaining());
+  }
+
+  @Test
+  public void testInvalidate() {
+    cache.put(timeSeriesId, 0, ByteBuffer.wrap(new byte[] {4, 5, 6}));
+    cache.put(timeSeriesId, PERIOD, ByteBuffer.wrap(new byte[] {7}));
+    cache.invalidate(ByteBuffer.wrap(new byte[] {1, 2, 3}), 0);
+
+    assertNull(cache.get(timeSeriesId, 0));
+    assertEquals(1, cache.get(timeSeriesId, PERIOD).remaining());
+  }
+
+  @Test
+  public void testEvictsWhenFull() {
+    final MetricRegistry registry = new MetricRegistry();
+    cache.registerMetricsWith(registry);
+
+    cache.put(timeSeriesId, 0, ByteBuffer.allocate(2000));
+
+    assertNull(cache.get(timeSeriesId, 0));
+    assertEquals(0L, gauge(registry, "bytes"));
+    assertEquals(1L, gauge(registry, "evictions"));
+  }
+
+  @Test
+  public void testHitRate() {
+    final MetricRegistry registry = new MetricRegistry();
+    cache.registerMetricsWith(registry);
+
+    cache.put(timeSeriesId, 0, ByteBuffer.allocate(10));
+    cache.get(timeSeriesId, 0);
+    cache.get(timeSeriesId, PERIOD);
+
+    assertEquals(0.5, gauge(registry, "hit_rate"));
+  }
+
+  @Test
+  public void testDisabledCachesNothing() {
+    final PartitionCache disabled = PartitionCache.disabled();
+    disabled.put(timeSeriesId, 0, ByteBuffer.allocate(10));
+
+    assertFalse(disabled.isClosed(0, PERIOD));
+    assertNull(disabled.get(timeSeriesId, 0));
+  }
+
+  private static Object gauge(final MetricRegistry registry, final String name) {
+    return ((Gauge<?>) registry.getMetrics()
+        .get("freki.storage.cassandra.partition_cache." + name)).getValue();
+  }
+}
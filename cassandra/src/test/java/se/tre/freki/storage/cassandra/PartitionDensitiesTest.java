@@ -0,0 +1,63 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class PartitionDensitiesTest {
+  private static final int ROWS_PER_READ = 5000;
+
+  private PartitionDensities densities;
+  private ByteBuffer timeSeriesId;
+
+  @Before
+  public void setUp() {
+    densities = new PartitionDensities(24, 100);
+    timeSeriesId = ByteBuffer.wrap(new byte[] {1, 2, 3});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroPartitions() {
+    new PartitionDensities(0, 100);
+  }
+
+  @Test
+  public void testUnknownSeriesReadsOnePartition() {
+    assertEquals(1, densities.partitionsPerRead(timeSeriesId, ROWS_PER_READ));
+  }
+
+  @Test
+  public void testSparseSeriesCappedByMaxPartitions() {
+    densities.partitionsRead(timeSeriesId, 1, 12);
+    assertEquals(24, densities.partitionsPerRead(timeSeriesId, ROWS_PER_READ));
+  }
+
+  @Test
+  public void testPartitionsFitWithinRowsPerRead() {
+    densities.partitionsRead(timeSeriesId, 2, 2000);
+    assertEquals(5, densities.partitionsPerRead(timeSeriesId, ROWS_PER_READ));
+  }
+
+  @Test
+  public void testDenseSeriesReadsOnePartition() {
+    densities.partitionsRead(timeSeriesId, 1, 3600);
+    assertEquals(1, densities.partitionsPerRead(timeSeriesId, ROWS_PER_READ));
+  }
+
+  @Test
+  public void testEstimateMovesTowardsObservations() {
+    densities.partitionsRead(timeSeriesId, 1, 100);
+    densities.partitionsRead(timeSeriesId, 1, 600);
+    assertEquals(10, densities.partitionsPerRead(timeSeriesId, 2000));
+  }
+
+  @Test
+  public void testDisabledReadsOnePartition() {
+    final PartitionDensities disabled = PartitionDensities.disabled();
+    disabled.partitionsRead(timeSeriesId, 1, 1);
+    assertEquals(1, disabled.partitionsPerRead(timeSeriesId, ROWS_PER_READ));
+  }
+}
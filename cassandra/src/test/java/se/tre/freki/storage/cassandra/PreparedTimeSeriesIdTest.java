@@ -0,0 +1,52 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static se.tre.freki.storage.cassandra.CassandraLabelId.fromLong;
+
+import se.tre.freki.labels.LabelId;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class PreparedTimeSeriesIdTest {
+  private LabelId metric;
+  private List<LabelId> tags;
+
+  @Before
+  public void setUp() throws Exception {
+    metric = fromLong(1L);
+
+    tags = ImmutableList.<LabelId>of(
+        fromLong(1L),
+        fromLong(2L));
+  }
+
+  @Test
+  public void testTimeSeriesIdMatchesCalculated() throws Exception {
+    final PreparedTimeSeriesId timeSeriesId = new PreparedTimeSeriesId(metric, tags);
+    assertEquals(TimeSeriesIds.timeSeriesId(metric, tags), timeSeriesId.timeSeriesId());
+  }
+
+  @Test
+  public void testTimeSeriesIdReturnsNewBuffer() throws Exception {
+    final PreparedTimeSeriesId timeSeriesId = new PreparedTimeSeriesId(metric, tags);
+    final ByteBuffer first = timeSeriesId.timeSeriesId();
+    first.position(first.limit());
+
+    final ByteBuffer second = timeSeriesId.timeSeriesId();
+    assertNotSame(first, second);
+    assertEquals(0, second.position());
+  }
+
+  @Test
+  public void testMetricAndTags() throws Exception {
+    final PreparedTimeSeriesId timeSeriesId = new PreparedTimeSeriesId(metric, tags);
+    assertEquals(metric, timeSeriesId.metric());
+    assertEquals(tags, timeSeriesId.tags());
+  }
+}
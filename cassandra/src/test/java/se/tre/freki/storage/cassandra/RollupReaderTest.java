@@ -0,0 +1,111 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.query.RollupInterval;
+import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.AsyncIterators;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RollupReaderTest {
+  private static final RollupInterval INTERVAL = RollupInterval.MINUTE;
+  private static final long MINUTE = INTERVAL.duration();
+
+  private RollupStrategy rollupStrategy;
+  private RollupReader reader;
+  private ByteBuffer timeSeriesId;
+  private List<List<Long>> fetches;
+
+  @Before
+  public void setUp() {
+    rollupStrategy = mock(RollupStrategy.class);
+    reader = new RollupReader(rollupStrategy);
+    timeSeriesId = ByteBuffer.wrap(new byte[] {1, 2, 3});
+    fetches = new ArrayList<>();
+  }
+
+  private AsyncIterator<? extends DataPoint> fetch(final long startTime, final long endTime) {
+    fetches.add(ImmutableList.of(startTime, endTime));
+    return AsyncIterators.of(ImmutableList.of(DataPoints.longPoint(startTime, 1)));
+  }
+
+  private static List<Long> timestamps(final AsyncIterator<? extends DataPoint> dataPoints) {
+    final List<Long> timestamps = new ArrayList<>();
+
+    while (dataPoints.hasNext()) {
+      timestamps.add(dataPoints.next().timestamp());
+    }
+
+    return timestamps;
+  }
+
+  private void rolledUp(final long startTime, final long endTime) {
+    final Range<Long> range = Range.closedOpen(startTime, endTime);
+    when(rollupStrategy.rolledUp(timeSeriesId, INTERVAL)).thenReturn(range);
+  }
+
+  private void rollups(final long startTime, final long endTime) {
+    final AsyncIterator<? extends DataPoint> rollups =
+        AsyncIterators.of(ImmutableList.of(DataPoints.doublePoint(startTime, 1)));
+    when(rollupStrategy.fetchRollups(timeSeriesId, startTime, endTime, INTERVAL))
+        .thenReturn(Optional.<AsyncIterator<? extends DataPoint>>of(rollups));
+  }
+
+  @Test
+  public void testNothingRolledUpReadsDataPoints() {
+    rolledUp(0, 0);
+
+    assertEquals(ImmutableList.of(MINUTE),
+        timestamps(reader.fetch(timeSeriesId, MINUTE, 3 * MINUTE, INTERVAL, this::fetch)));
+    assertEquals(ImmutableList.of(ImmutableList.of(MINUTE, 3 * MINUTE)), fetches);
+    verify(rollupStrategy, never()).fetchRollups(timeSeriesId, MINUTE, 3 * MINUTE, INTERVAL);
+  }
+
+  @Test
+  public void testOnlyRollups() {
+    rolledUp(0, 10 * MINUTE);
+    rollups(MINUTE, 3 * MINUTE);
+
+    assertEquals(ImmutableList.of(MINUTE),
+        timestamps(reader.fetch(timeSeriesId, MINUTE, 3 * MINUTE, INTERVAL, this::fetch)));
+    assertEquals(ImmutableList.of(), fetches);
+  }
+
+  @Test
+  public void testDataPointsAroundRollups() {
+    rolledUp(2 * MINUTE, 4 * MINUTE);
+    rollups(2 * MINUTE, 4 * MINUTE - 1);
+
+    assertEquals(ImmutableList.of(MINUTE, 2 * MINUTE, 4 * MINUTE),
+        timestamps(reader.fetch(timeSeriesId, MINUTE, 5 * MINUTE, INTERVAL, this::fetch)));
+    assertEquals(ImmutableList.of(
+        ImmutableList.of(MINUTE, 2 * MINUTE - 1),
+        ImmutableList.of(4 * MINUTE, 5 * MINUTE)), fetches);
+  }
+
+  @Test
+  public void testMissingRollupsReadDataPoints() {
+    rolledUp(0, 10 * MINUTE);
+    when(rollupStrategy.fetchRollups(timeSeriesId, MINUTE, 3 * MINUTE, INTERVAL))
+        .thenReturn(Optional.<AsyncIterator<? extends DataPoint>>absent());
+
+    assertEquals(ImmutableList.of(MINUTE),
+        timestamps(reader.fetch(timeSeriesId, MINUTE, 3 * MINUTE, INTERVAL, this::fetch)));
+    assertEquals(ImmutableList.of(ImmutableList.of(MINUTE, 3 * MINUTE)), fetches);
+  }
+}
@@ -0,0 +1,52 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+public class StoragePoliciesTest {
+  private StoragePolicy cpuPolicy;
+  private StoragePolicy sysPolicy;
+  private StoragePolicies policies;
+
+  @Before
+  public void setUp() throws Exception {
+    cpuPolicy = new StoragePolicy(3600, BaseTimes.BASE_TIME_PERIOD, 2);
+    sysPolicy = new StoragePolicy(86400, 24 * BaseTimes.BASE_TIME_PERIOD, -1);
+    policies = new StoragePolicies(StoragePolicy.DEFAULT, ImmutableMap.of(
+        Pattern.compile("sys\\.cpu\\..*"), cpuPolicy,
+        Pattern.compile("sys\\..*"), sysPolicy));
+  }
+
+  @Test
+  public void testUniformIsUniform() {
+    assertTrue(StoragePolicies.uniform(StoragePolicy.DEFAULT).isUniform());
+  }
+
+  @Test
+  public void testMetricPoliciesIsNotUniform() {
+    assertFalse(policies.isUniform());
+  }
+
+  @Test
+  public void testPolicyForFirstMatch() {
+    assertSame(cpuPolicy, policies.policyFor("sys.cpu.user"));
+    assertSame(sysPolicy, policies.policyFor("sys.mem.free"));
+  }
+
+  @Test
+  public void testPolicyForMatchesWholeName() {
+    assertSame(StoragePolicy.DEFAULT, policies.policyFor("app.sys.cpu.user"));
+  }
+
+  @Test
+  public void testPolicyForNoMatchIsDefault() {
+    assertSame(StoragePolicy.DEFAULT, policies.policyFor("app.requests"));
+  }
+}
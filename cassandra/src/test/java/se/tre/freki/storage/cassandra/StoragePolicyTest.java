@@ -0,0 +1,63 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class StoragePolicyTest {
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorNegativeTtl() {
+    new StoragePolicy(-1, BaseTimes.BASE_TIME_PERIOD, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorTooLargeTtl() {
+    new StoragePolicy(StoragePolicy.MAX_TTL + 1, BaseTimes.BASE_TIME_PERIOD, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroPartitionPeriod() {
+    new StoragePolicy(0, 0, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorTooManyDecimals() {
+    new StoragePolicy(0, BaseTimes.BASE_TIME_PERIOD, StoragePolicy.MAX_DECIMALS + 1);
+  }
+
+  @Test
+  public void testRoundNegativeDecimalsKeepsValue() {
+    assertEquals(1.23456789D, StoragePolicy.DEFAULT.round(1.23456789D), 0);
+  }
+
+  @Test
+  public void testRoundDouble() {
+    final StoragePolicy policy = new StoragePolicy(0, BaseTimes.BASE_TIME_PERIOD, 2);
+    assertEquals(1.23D, policy.round(1.23456789D), 0);
+    assertEquals(-1.24D, policy.round(-1.23756789D), 0);
+  }
+
+  @Test
+  public void testRoundFloat() {
+    final StoragePolicy policy = new StoragePolicy(0, BaseTimes.BASE_TIME_PERIOD, 1);
+    assertEquals(1.2F, policy.round(1.23456F), 0);
+  }
+
+  @Test
+  public void testRoundZeroDecimals() {
+    final StoragePolicy policy = new StoragePolicy(0, BaseTimes.BASE_TIME_PERIOD, 0);
+    assertEquals(2D, policy.round(1.5D), 0);
+  }
+
+  @Test
+  public void testRoundLargeValueKeepsValue() {
+    final StoragePolicy policy = new StoragePolicy(0, BaseTimes.BASE_TIME_PERIOD, 2);
+    assertEquals(1e300D, policy.round(1e300D), 0);
+  }
+
+  @Test
+  public void testRoundNanKeepsValue() {
+    final StoragePolicy policy = new StoragePolicy(0, BaseTimes.BASE_TIME_PERIOD, 2);
+    assertEquals(Double.NaN, policy.round(Double.NaN), 0);
+  }
+}
@@ -0,0 +1,104 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.tre.freki.query.predicate.AlternationTimeSeriesIdPredicate.ids;
+import static se.tre.freki.query.predicate.SimpleTimeSeriesIdPredicate.id;
+import static se.tre.freki.query.predicate.TimeSeriesTagPredicate.eq;
+import static se.tre.freki.query.predicate.TimeSeriesTagPredicate.neq;
+import static se.tre.freki.query.predicate.WildcardTimeSeriesIdPredicate.wildcard;
+import static se.tre.freki.storage.cassandra.CassandraLabelId.fromLong;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.labels.LabelType;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TagPredicatesTest {
+  private static final LabelId HOST = fromLong(1L);
+  private static final LabelId WEB01 = fromLong(2L);
+  private static final LabelId WEB02 = fromLong(3L);
+  private static final LabelId DC = fromLong(4L);
+
+  private static final List<LabelId> TAGS = ImmutableList.of(HOST, WEB01, DC, WEB02);
+
+  @Test
+  public void testPostingsForSimpleValue() {
+    final Optional<TagPredicates.Postings> postings =
+        TagPredicates.postingsFor(eq(id(HOST), id(WEB01)));
+    assertEquals(ImmutableSet.of(WEB01), postings.get().labels());
+    assertEquals(LabelType.TAGV, postings.get().type());
+  }
+
+  @Test
+  public void testPostingsForAlternationValue() {
+    final Optional<TagPredicates.Postings> postings =
+        TagPredicates.postingsFor(eq(id(HOST), ids(WEB01, WEB02)));
+    assertEquals(ImmutableSet.of(WEB01, WEB02), postings.get().labels());
+  }
+
+  @Test
+  public void testPostingsForWildcardValueUsesKey() {
+    final Optional<TagPredicates.Postings> postings =
+        TagPredicates.postingsFor(eq(id(HOST), wildcard()));
+    assertEquals(ImmutableSet.of(HOST), postings.get().labels());
+    assertEquals(LabelType.TAGK, postings.get().type());
+  }
+
+  @Test
+  public void testNoPostingsForNotEquals() {
+    assertFalse(TagPredicates.postingsFor(neq(id(HOST), id(WEB01))).isPresent());
+  }
+
+  @Test
+  public void testNoPostingsForWildcards() {
+    assertFalse(TagPredicates.postingsFor(eq(wildcard(), wildcard())).isPresent());
+  }
+
+  @Test
+  public void testMatchesKeyAndValueOfSameTag() {
+    assertTrue(TagPredicates.matches(eq(id(HOST), id(WEB01)), TAGS));
+    assertFalse(TagPredicates.matches(eq(id(HOST), id(WEB02)), TAGS));
+  }
+
+  @Test
+  public void testMatchesAlternation() {
+    assertTrue(TagPredicates.matches(eq(id(HOST), ids(WEB02, WEB01)), TAGS));
+  }
+
+  @Test
+  public void testMatchesWildcardValue() {
+    assertTrue(TagPredicates.matches(eq(id(DC), wildcard()), TAGS));
+    assertFalse(TagPredicates.matches(eq(id(WEB01), wildcard()), TAGS));
+  }
+
+  @Test
+  public void testMatchesNotEquals() {
+    assertTrue(TagPredicates.matches(neq(id(HOST), id(WEB02)), TAGS));
+    assertFalse(TagPredicates.matches(neq(id(HOST), id(WEB01)), TAGS));
+  }
+
+  @Test
+  public void testNotEqualsMatchesMissingKey() {
+    assertTrue(TagPredicates.matches(neq(id(WEB01), wildcard()), TAGS));
+    assertFalse(TagPredicates.matches(neq(id(HOST), wildcard()), TAGS));
+  }
+
+  @Test
+  public void testIntersect() {
+    assertEquals(ImmutableSet.of(2, 3), TagPredicates.intersect(ImmutableList.of(
+        ImmutableSet.of(1, 2, 3, 4), ImmutableSet.of(2, 3), ImmutableSet.of(0, 2, 3, 5))));
+  }
+
+  @Test
+  public void testIntersectDisjoint() {
+    assertTrue(TagPredicates.intersect(ImmutableList.of(
+        ImmutableSet.of(1, 2), ImmutableSet.of(3))).isEmpty());
+  }
+}
@@ -1,6 +1,7 @@
 package se.tre.freki.storage.cassandra;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static se.tre.freki.storage.cassandra.CassandraLabelId.fromLong;
 
 import se.tre.freki.labels.LabelId;
@@ -9,7 +10,9 @@ import com.google.common.collect.ImmutableList;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.UUID;
 
 public class TimeSeriesIdsTest {
   private LabelId metric;
@@ -30,4 +33,14 @@ public class TimeSeriesIdsTest {
         new byte[] {30, -121, -66, 9, -20, -71, 123, -110, 71, -5, -106, -42, -90, 64, -55, 108},
         TimeSeriesIds.timeSeriesIdBytes(metric, tags));
   }
+
+  @Test
+  public void testToUuidReadsFromPosition() throws Exception {
+    final ByteBuffer timeSeriesId = ByteBuffer.allocate(24);
+    timeSeriesId.putInt(-1).putLong(1L).putLong(2L).putInt(-1);
+    timeSeriesId.position(4);
+
+    assertEquals(new UUID(1L, 2L), TimeSeriesIds.toUuid(timeSeriesId));
+    assertEquals(4, timeSeriesId.position());
+  }
 }
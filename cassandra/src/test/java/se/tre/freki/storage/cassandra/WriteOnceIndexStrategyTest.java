@@ -0,0 +1,102 @@
+package se.tre.freki.storage.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static se.tre.freki.storage.cassandra.CassandraLabelId.fromLong;
+
+import se.tre.freki.labels.LabelId;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+public class WriteOnceIndexStrategyTest {
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private IndexStrategy delegate;
+
+  private LabelId metric;
+  private List<LabelId> tags;
+  private ByteBuffer timeSeriesId;
+
+  @Before
+  public void setUp() throws Exception {
+    delegate = mock(IndexStrategy.class);
+    when(delegate.indexTimeseriesId(any(LabelId.class), anyListOf(LabelId.class),
+        any(ByteBuffer.class))).thenReturn(Futures.<Void>immediateFuture(null));
+
+    metric = fromLong(1L);
+    tags = ImmutableList.<LabelId>of(fromLong(2L), fromLong(3L));
+    timeSeriesId = TimeSeriesIds.timeSeriesId(metric, tags);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroMaxSeries() throws IOException {
+    new WriteOnceIndexStrategy(delegate, 0, null);
+  }
+
+  @Test
+  public void testIndexesOnlyOnce() throws IOException {
+    final WriteOnceIndexStrategy strategy = new WriteOnceIndexStrategy(delegate, 10, null);
+
+    strategy.indexTimeseriesId(metric, tags, timeSeriesId);
+    strategy.indexTimeseriesId(metric, tags, timeSeriesId.duplicate());
+
+    verify(delegate, times(1)).indexTimeseriesId(metric, tags, timeSeriesId);
+    assertEquals(1, strategy.size());
+  }
+
+  @Test
+  public void testIndexesAgainAfterFailure() throws IOException {
+    final ListenableFuture<Void> failed =
+        Futures.immediateFailedFuture(new IllegalStateException("Unavailable"));
+    when(delegate.indexTimeseriesId(metric, tags, timeSeriesId))
+        .thenReturn(failed)
+        .thenReturn(Futures.<Void>immediateFuture(null));
+
+    final WriteOnceIndexStrategy strategy = new WriteOnceIndexStrategy(delegate, 10, null);
+
+    strategy.indexTimeseriesId(metric, tags, timeSeriesId);
+    assertEquals(0, strategy.size());
+
+    strategy.indexTimeseriesId(metric, tags, timeSeriesId);
+    verify(delegate, times(2)).indexTimeseriesId(metric, tags, timeSeriesId);
+    assertEquals(1, strategy.size());
+  }
+
+  @Test
+  public void testSeenSeriesSavedAcrossRestarts() throws IOException {
+    final Path file = folder.getRoot().toPath().resolve("indexed");
+
+    final WriteOnceIndexStrategy first = new WriteOnceIndexStrategy(delegate, 10, file);
+    first.indexTimeseriesId(metric, tags, timeSeriesId);
+    first.close();
+
+    final WriteOnceIndexStrategy second = new WriteOnceIndexStrategy(delegate, 10, file);
+    assertEquals(1, second.size());
+
+    second.indexTimeseriesId(metric, tags, timeSeriesId);
+    verify(delegate, times(1)).indexTimeseriesId(metric, tags, timeSeriesId);
+  }
+
+  @Test
+  public void testCloseClosesDelegate() throws IOException {
+    new WriteOnceIndexStrategy(delegate, 10, null).close();
+    verify(delegate).close();
+  }
+}
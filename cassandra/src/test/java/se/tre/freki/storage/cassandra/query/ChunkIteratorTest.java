@@ -0,0 +1,69 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.storage.compression.ChunkEncoder;
+import se.tre.freki.storage.compression.ChunkType;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+public class ChunkIteratorTest {
+  private static ByteBuffer chunk(final long... timestamps) {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, timestamps.length);
+
+    for (final long timestamp : timestamps) {
+      encoder.add(timestamp, timestamp * 10);
+    }
+
+    return encoder.encode();
+  }
+
+  @Test
+  public void testReturnsDataPointsWithinBounds() {
+    final ChunkIterator dataPoints = new ChunkIterator(chunk(1, 2, 3, 4), 2, 3);
+
+    assertTrue(dataPoints.hasNext());
+    final DataPoint.LongDataPoint first = (DataPoint.LongDataPoint) dataPoints.next();
+    assertEquals(2, first.timestamp());
+    assertEquals(20, first.value());
+
+    assertEquals(3, dataPoints.next().timestamp());
+    assertFalse(dataPoints.hasNext());
+  }
+
+  @Test
+  public void testEmptyBuffer() throws Exception {
+    final ChunkIterator dataPoints = new ChunkIterator(ByteBuffer.allocate(0), 0, 10);
+
+    assertFalse(dataPoints.hasNext());
+    assertFalse(dataPoints.fetchMore().get());
+    assertEquals(0, dataPoints.nextBlock(new DataPointBlock(4)));
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testNextWhenExhausted() {
+    new ChunkIterator(chunk(1), 2, 3).next();
+  }
+
+  @Test
+  public void testNextBlockFillsToCapacity() {
+    final ChunkIterator dataPoints = new ChunkIterator(chunk(1, 2, 3), 0, 10);
+    final DataPointBlock block = new DataPointBlock(2);
+
+    assertEquals(2, dataPoints.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.LONG, block.type());
+    assertArrayEquals(new long[] {10, 20}, block.longValues());
+
+    assertEquals(1, dataPoints.nextBlock(block));
+    assertEquals(3, block.timestamps()[0]);
+    assertEquals(0, dataPoints.nextBlock(block));
+  }
+}
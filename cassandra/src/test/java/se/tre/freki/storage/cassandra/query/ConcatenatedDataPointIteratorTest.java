@@ -0,0 +1,133 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.storage.compression.ChunkEncoder;
+import se.tre.freki.storage.compression.ChunkType;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class ConcatenatedDataPointIteratorTest {
+  private List<SettableFuture<DataPointBlockIterator>> requested;
+
+  @Before
+  public void setUp() {
+    requested = new ArrayList<>();
+  }
+
+  private static ChunkIterator chunk(final long... timestamps) {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, timestamps.length);
+
+    for (final long timestamp : timestamps) {
+      encoder.add(timestamp, timestamp * 10);
+    }
+
+    return new ChunkIterator(encoder.encode(), Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * An iterator that hands out unset futures and remembers them so the test can set them.
+   */
+  private Iterator<ListenableFuture<DataPointBlockIterator>> settable(final int count) {
+    return new Iterator<ListenableFuture<DataPointBlockIterator>>() {
+      private int handedOut;
+
+      @Override
+      public boolean hasNext() {
+        return handedOut < count;
+      }
+
+      @Override
+      public ListenableFuture<DataPointBlockIterator> next() {
+        handedOut++;
+        final SettableFuture<DataPointBlockIterator> future = SettableFuture.create();
+        requested.add(future);
+        return future;
+      }
+    };
+  }
+
+  @Test
+  public void testReturnsIteratorsInOrder() {
+    final ConcatenatedDataPointIterator dataPoints = new ConcatenatedDataPointIterator(
+        ImmutableList.<ListenableFuture<DataPointBlockIterator>>of(
+            Futures.<DataPointBlockIterator>immediateFuture(chunk(1, 2)),
+            Futures.<DataPointBlockIterator>immediateFuture(new ChunkIterator(
+                ByteBuffer.allocate(0), 0, 10)),
+            Futures.<DataPointBlockIterator>immediateFuture(chunk(3))).iterator());
+
+    assertEquals(1, dataPoints.next().timestamp());
+    assertEquals(2, dataPoints.next().timestamp());
+    assertEquals(3, dataPoints.next().timestamp());
+    assertFalse(dataPoints.hasNext());
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    final ConcatenatedDataPointIterator dataPoints = new ConcatenatedDataPointIterator(
+        ImmutableList.<ListenableFuture<DataPointBlockIterator>>of().iterator());
+
+    assertFalse(dataPoints.hasNext());
+    assertFalse(dataPoints.fetchMore().get());
+  }
+
+  @Test
+  public void testRequestsOneIteratorAhead() throws Exception {
+    final ConcatenatedDataPointIterator dataPoints =
+        new ConcatenatedDataPointIterator(settable(3));
+    assertEquals(1, requested.size());
+
+    final ListenableFuture<Boolean> fetched = dataPoints.fetchMore();
+    assertEquals(2, requested.size());
+    assertFalse(fetched.isDone());
+
+    requested.get(0).set(chunk(1));
+    assertTrue(fetched.get());
+    assertTrue(dataPoints.hasMoreWithoutFetching());
+    assertEquals(1, dataPoints.next().timestamp());
+    assertEquals(2, requested.size());
+  }
+
+  @Test
+  public void testFetchMoreSkipsEmptyIterators() throws Exception {
+    final ConcatenatedDataPointIterator dataPoints =
+        new ConcatenatedDataPointIterator(settable(3));
+
+    final ListenableFuture<Boolean> fetched = dataPoints.fetchMore();
+    requested.get(0).set(chunk());
+    requested.get(1).set(chunk());
+    requested.get(2).set(chunk(5));
+
+    assertTrue(fetched.get());
+    assertEquals(5, dataPoints.next().timestamp());
+    assertFalse(dataPoints.fetchMore().get());
+  }
+
+  @Test
+  public void testNextBlockDoesNotSpanIterators() {
+    final ConcatenatedDataPointIterator dataPoints = new ConcatenatedDataPointIterator(
+        ImmutableList.<ListenableFuture<DataPointBlockIterator>>of(
+            Futures.<DataPointBlockIterator>immediateFuture(chunk(1, 2)),
+            Futures.<DataPointBlockIterator>immediateFuture(chunk(3))).iterator());
+    final DataPointBlock block = new DataPointBlock(4);
+
+    assertEquals(2, dataPoints.nextBlock(block));
+    assertEquals(1, dataPoints.nextBlock(block));
+    assertEquals(3, block.timestamps()[0]);
+    assertEquals(0, dataPoints.nextBlock(block));
+  }
+}
@@ -1,21 +1,32 @@
 package se.tre.freki.storage.cassandra.query;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.storage.compression.ChunkEncoder;
+import se.tre.freki.storage.compression.ChunkType;
 import se.tre.freki.utils.AsyncIterator;
 import se.tre.freki.utils.CollectionBackedAsyncIterator;
 
+import com.datastax.driver.core.ColumnDefinitions;
 import com.datastax.driver.core.Row;
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 public class DataPointIteratorTest {
+  private static final ImmutableList<String> COLUMNS = ImmutableList.of(
+      "timestamp", "chunk", "long_value", "float_value", "double_value");
+
   private Row mockRowWithColumnType(final String columnType) {
     final Row row = mock(Row.class);
 
@@ -33,6 +44,64 @@ public class DataPointIteratorTest {
     return row;
   }
 
+  private Row mockLongRow(final long timestamp, final long value) {
+    final Row row = mockRowWithColumnType("long_value");
+    when(row.getLong("timestamp")).thenReturn(timestamp);
+    when(row.getLong("long_value")).thenReturn(value);
+    return row;
+  }
+
+  /**
+   * Mock a row whose columns can be read both by name and by index.
+   */
+  private Row mockIndexedRow(final long timestamp, final String column, final Object value) {
+    final ColumnDefinitions definitions = mock(ColumnDefinitions.class);
+    final Row row = mock(Row.class);
+    when(row.getColumnDefinitions()).thenReturn(definitions);
+
+    for (int index = 0; index < COLUMNS.size(); index++) {
+      final String name = COLUMNS.get(index);
+      when(definitions.getIndexOf(name)).thenReturn(index);
+      when(row.isNull(name)).thenReturn(!name.equals(column));
+      when(row.isNull(index)).thenReturn(!name.equals(column));
+    }
+
+    when(row.getLong("timestamp")).thenReturn(timestamp);
+    when(row.getLong(COLUMNS.indexOf("timestamp"))).thenReturn(timestamp);
+
+    final int valueIndex = COLUMNS.indexOf(column);
+    if (value instanceof Long) {
+      when(row.getLong(valueIndex)).thenReturn((Long) value);
+    } else if (value instanceof Float) {
+      when(row.getFloat(valueIndex)).thenReturn((Float) value);
+    } else {
+      when(row.getDouble(valueIndex)).thenReturn((Double) value);
+    }
+
+    return row;
+  }
+
+  private Row mockChunkRow(final long... timestamps) {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, timestamps.length);
+
+    for (final long timestamp : timestamps) {
+      encoder.add(timestamp, timestamp * 10);
+    }
+
+    final Row row = mock(Row.class);
+    when(row.getBytesUnsafe("chunk")).thenReturn(encoder.encode());
+    return row;
+  }
+
+  private void assertNextLong(final DataPointIterator dataPoints,
+                              final long timestamp,
+                              final long value) {
+    assertTrue(dataPoints.hasNext());
+    final DataPoint.LongDataPoint dataPoint = (DataPoint.LongDataPoint) dataPoints.next();
+    assertEquals(timestamp, dataPoint.timestamp());
+    assertEquals(value, dataPoint.value());
+  }
+
   private AsyncIterator<Row> rowIterator(Row... rows) {
     return new CollectionBackedAsyncIterator<>(ImmutableList.copyOf(rows));
   }
@@ -99,4 +168,111 @@ public class DataPointIteratorTest {
     assertSame(firstDataPoints, dataPoints.next());
   }
 
+  @Test
+  public void testMergesChunkWithRows() throws Exception {
+    final AsyncIterator<Row> rows = rowIterator(mockChunkRow(10, 20, 30), mockLongRow(15, 1),
+        mockLongRow(30, 2), mockLongRow(40, 3));
+
+    final DataPointIterator dataPoints = DataPointIterator.iteratorFor(rows);
+    assertNextLong(dataPoints, 10, 100);
+    assertNextLong(dataPoints, 15, 1);
+    assertNextLong(dataPoints, 20, 200);
+    assertNextLong(dataPoints, 30, 2);
+    assertNextLong(dataPoints, 40, 3);
+    assertFalse(dataPoints.hasNext());
+  }
+
+  @Test
+  public void testMergesConsecutiveChunks() throws Exception {
+    final AsyncIterator<Row> rows = rowIterator(mockChunkRow(10, 20), mockChunkRow(30),
+        mockLongRow(35, 1));
+
+    final DataPointIterator dataPoints = DataPointIterator.iteratorFor(rows);
+    assertNextLong(dataPoints, 10, 100);
+    assertNextLong(dataPoints, 20, 200);
+    assertNextLong(dataPoints, 30, 300);
+    assertNextLong(dataPoints, 35, 1);
+    assertFalse(dataPoints.hasNext());
+  }
+
+  @Test
+  public void testFiltersByTimeBounds() throws Exception {
+    final AsyncIterator<Row> rows = rowIterator(mockChunkRow(10, 20, 30), mockLongRow(12, 1),
+        mockLongRow(25, 2));
+
+    final DataPointIterator dataPoints = DataPointIterator.iteratorFor(rows, 15, 25);
+    assertNextLong(dataPoints, 20, 200);
+    assertNextLong(dataPoints, 25, 2);
+    assertFalse(dataPoints.hasNext());
+  }
+
+  @Test
+  public void testChunkDataPointSurvivesLookahead() throws Exception {
+    final AsyncIterator<Row> rows = rowIterator(mockChunkRow(10, 20));
+
+    final DataPointIterator dataPoints = DataPointIterator.iteratorFor(rows);
+    final DataPoint dataPoint = dataPoints.next();
+    assertTrue(dataPoints.hasNext());
+    assertEquals(10, dataPoint.timestamp());
+  }
+
+  @Test
+  public void testNextBlockMergesChunkWithRows() throws Exception {
+    final AsyncIterator<Row> rows = rowIterator(mockChunkRow(10, 20, 30),
+        mockIndexedRow(15, "long_value", 1L), mockIndexedRow(30, "long_value", 2L),
+        mockIndexedRow(40, "long_value", 3L));
+
+    final DataPointIterator dataPoints = DataPointIterator.iteratorFor(rows);
+    final DataPointBlock block = new DataPointBlock(8);
+
+    assertEquals(5, dataPoints.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.LONG, block.type());
+    assertArrayEquals(new long[] {10, 15, 20, 30, 40}, Arrays.copyOf(block.timestamps(), 5));
+    assertArrayEquals(new long[] {100, 1, 200, 2, 3}, Arrays.copyOf(block.longValues(), 5));
+    assertEquals(0, dataPoints.nextBlock(block));
+  }
+
+  @Test
+  public void testNextBlockContinuesAfterNext() throws Exception {
+    final AsyncIterator<Row> rows = rowIterator(mockChunkRow(10, 20),
+        mockIndexedRow(30, "long_value", 1L));
+
+    final DataPointIterator dataPoints = DataPointIterator.iteratorFor(rows);
+    final DataPointBlock block = new DataPointBlock(1);
+
+    assertNextLong(dataPoints, 10, 100);
+    assertEquals(1, dataPoints.nextBlock(block));
+    assertEquals(20, block.timestamps()[0]);
+    assertEquals(1, dataPoints.nextBlock(block));
+    assertEquals(30, block.timestamps()[0]);
+    assertFalse(dataPoints.hasNext());
+  }
+
+  @Test
+  public void testNextBlockEndsOnTypeChange() throws Exception {
+    final AsyncIterator<Row> rows = rowIterator(mockChunkRow(10),
+        mockIndexedRow(20, "double_value", 0.5D), mockIndexedRow(30, "double_value", 1.5D));
+
+    final DataPointIterator dataPoints = DataPointIterator.iteratorFor(rows);
+    final DataPointBlock block = new DataPointBlock(8);
+
+    assertEquals(1, dataPoints.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.LONG, block.type());
+
+    assertEquals(2, dataPoints.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.DOUBLE, block.type());
+    assertEquals(1.5D, block.doubleValues()[1], 0);
+  }
+
+  @Test
+  public void testNextBlockReadsFloatRows() throws Exception {
+    final AsyncIterator<Row> rows = rowIterator(mockIndexedRow(10, "float_value", 0.5F));
+
+    final DataPointIterator dataPoints = DataPointIterator.iteratorFor(rows);
+    final DataPointBlock block = new DataPointBlock(8);
+
+    assertEquals(1, dataPoints.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.FLOAT, block.type());
+    assertEquals(0.5F, block.floatValues()[0], 0);
+  }
 }
@@ -0,0 +1,156 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import se.tre.freki.core.QueryScheduler.Priority;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PrefetchWindowTest {
+  private final List<Runnable> executed = new ArrayList<>();
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroPartitions() {
+    new PrefetchWindow(0, 100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroRows() {
+    new PrefetchWindow(8, 0);
+  }
+
+  @Test
+  public void testStartsAtMaxPartitions() {
+    assertEquals(8, new PrefetchWindow(8, 100).size());
+  }
+
+  @Test
+  public void testSingleIsOne() {
+    assertEquals(1, PrefetchWindow.single().size());
+  }
+
+  @Test
+  public void testShrinksToRowBudget() {
+    final PrefetchWindow window = new PrefetchWindow(8, 100);
+    window.partitionFetched(50, TimeUnit.MILLISECONDS.toNanos(10));
+    assertEquals(2, window.size());
+  }
+
+  @Test
+  public void testNeverSmallerThanOne() {
+    final PrefetchWindow window = new PrefetchWindow(8, 100);
+    window.partitionFetched(1000, TimeUnit.MILLISECONDS.toNanos(10));
+    assertEquals(1, window.size());
+  }
+
+  @Test
+  public void testCoversFetchLatency() {
+    final PrefetchWindow window = new PrefetchWindow(8, 100);
+    window.partitionFetched(1, TimeUnit.MILLISECONDS.toNanos(30));
+    window.partitionRead(TimeUnit.MILLISECONDS.toNanos(10));
+    assertEquals(4, window.size());
+  }
+
+  @Test
+  public void testCappedByMaxPartitions() {
+    final PrefetchWindow window = new PrefetchWindow(8, 100);
+    window.partitionFetched(1, TimeUnit.MILLISECONDS.toNanos(100));
+    window.partitionRead(TimeUnit.MILLISECONDS.toNanos(1));
+    assertEquals(8, window.size());
+  }
+
+  /**
+   * Create a window with the provided budget whose waiting fetches are put in {@link #executed}
+   * instead of being started.
+   */
+  private PrefetchWindow budgeted(final int maxInFlight) {
+    return new PrefetchWindow(8, 100, maxInFlight, executed::add);
+  }
+
+  @Test
+  public void testPrefetchBudget() {
+    final PrefetchWindow window = budgeted(2);
+    assertTrue(window.tryPrefetch());
+    assertTrue(window.tryPrefetch());
+    assertFalse(window.tryPrefetch());
+
+    window.fetchDone();
+    assertEquals(1, window.inFlight());
+    assertTrue(window.tryPrefetch());
+  }
+
+  @Test
+  public void testNeededFetchTakesFromBudget() {
+    final PrefetchWindow window = budgeted(2);
+    final List<String> started = new ArrayList<>();
+
+    window.fetchWhenAllowed(Priority.INTERACTIVE, () -> started.add("needed"));
+    assertTrue(window.tryPrefetch());
+
+    assertEquals(ImmutableList.of("needed"), started);
+    assertEquals(2, window.inFlight());
+    assertFalse(window.tryPrefetch());
+  }
+
+  @Test
+  public void testNeededFetchWaitsForRoom() {
+    final PrefetchWindow window = budgeted(1);
+
+    assertTrue(window.tryPrefetch());
+    window.fetchWhenAllowed(Priority.INTERACTIVE, () -> { });
+    assertTrue(executed.isEmpty());
+    assertEquals(1, window.waitingFetches());
+
+    window.fetchDone();
+    assertEquals(1, executed.size());
+    assertEquals(1, window.inFlight());
+    assertEquals(0, window.waitingFetches());
+
+    window.fetchDone();
+    assertEquals(0, window.inFlight());
+  }
+
+  @Test
+  public void testWaitingFetchesStartOnExecutor() {
+    final PrefetchWindow window = budgeted(1);
+    final List<String> started = new ArrayList<>();
+
+    assertTrue(window.tryPrefetch());
+    window.fetchWhenAllowed(Priority.INTERACTIVE, () -> started.add("needed"));
+    window.fetchDone();
+
+    assertTrue(started.isEmpty());
+    executed.get(0).run();
+    assertEquals(ImmutableList.of("needed"), started);
+  }
+
+  @Test
+  public void testWaitingFetchesStartInOrderOfPriority() {
+    final PrefetchWindow window = budgeted(1);
+    final List<String> started = new ArrayList<>();
+
+    assertTrue(window.tryPrefetch());
+    window.fetchWhenAllowed(Priority.BATCH, () -> started.add("batch1"));
+    window.fetchWhenAllowed(Priority.BATCH, () -> started.add("batch2"));
+    window.fetchWhenAllowed(Priority.INTERACTIVE, () -> started.add("interactive"));
+
+    for (int i = 0; i < 3; i++) {
+      window.fetchDone();
+      executed.get(i).run();
+    }
+
+    assertEquals(ImmutableList.of("interactive", "batch1", "batch2"), started);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroInFlightBudget() {
+    budgeted(0);
+  }
+}
@@ -0,0 +1,154 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.AsyncIterators;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SeriesFetchWindowTest {
+  private SeriesFetchWindow window;
+  private List<Integer> started;
+
+  @Before
+  public void setUp() {
+    window = new SeriesFetchWindow(2);
+    started = new ArrayList<>();
+  }
+
+  /**
+   * Create an iterator in the window over the single provided element that remembers when it was
+   * started.
+   */
+  private AsyncIterator<Integer> series(final int element) {
+    return window.lazily(() -> started(element));
+  }
+
+  private AsyncIterator<Integer> started(final int element) {
+    started.add(element);
+    return AsyncIterators.of(ImmutableList.of(element));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroMaxOpenSeries() {
+    new SeriesFetchWindow(0);
+  }
+
+  @Test
+  public void testNothingStartedUntilLookedAt() {
+    series(1);
+    series(2);
+
+    assertTrue(started.isEmpty());
+    assertEquals(0, window.openSeries());
+  }
+
+  @Test
+  public void testOpensAheadUpToMax() {
+    final AsyncIterator<Integer> first = series(1);
+    series(2);
+    series(3);
+
+    assertTrue(first.hasNext());
+    assertEquals(ImmutableList.of(1, 2), started);
+    assertEquals(2, window.openSeries());
+  }
+
+  @Test
+  public void testExhaustedMakesRoomForNext() {
+    final AsyncIterator<Integer> first = series(1);
+    series(2);
+    series(3);
+
+    assertEquals(1, (int) first.next());
+    assertFalse(first.hasNext());
+    assertFalse(first.hasNext());
+
+    assertEquals(ImmutableList.of(1, 2, 3), started);
+    assertEquals(2, window.openSeries());
+  }
+
+  @Test
+  public void testFetchMoreExhaustedMakesRoomForNext() {
+    final AsyncIterator<Integer> first = series(1);
+    series(2);
+    series(3);
+
+    first.next();
+    first.fetchMore();
+
+    assertEquals(ImmutableList.of(1, 2, 3), started);
+  }
+
+  @Test
+  public void testOpensLookedAtBeyondMax() {
+    final AsyncIterator<Integer> first = series(1);
+    series(2);
+    final AsyncIterator<Integer> third = series(3);
+
+    first.hasNext();
+    assertEquals(3, (int) third.next());
+
+    assertEquals(ImmutableList.of(1, 2, 3), started);
+    assertEquals(3, window.openSeries());
+  }
+
+  @Test
+  public void testReadsInOrder() {
+    final List<AsyncIterator<Integer>> series = ImmutableList.of(series(1), series(2), series(3));
+    final List<Integer> read = new ArrayList<>();
+
+    for (final AsyncIterator<Integer> iterator : series) {
+      while (iterator.hasNext()) {
+        read.add(iterator.next());
+      }
+    }
+
+    assertEquals(ImmutableList.of(1, 2, 3), read);
+    assertEquals(0, window.openSeries());
+  }
+
+  @Test
+  public void testLazilyBlocksForwardsNextBlock() {
+    final DataPointBlockIterator blocks = mock(DataPointBlockIterator.class);
+    final DataPointBlock block = new DataPointBlock(8);
+    when(blocks.nextBlock(any(DataPointBlock.class))).thenReturn(3, 0);
+
+    final DataPointBlockIterator lazy = window.lazilyBlocks(() -> blocks);
+
+    assertEquals(3, lazy.nextBlock(block));
+    verify(blocks).nextBlock(block);
+    assertEquals(1, window.openSeries());
+
+    assertEquals(0, lazy.nextBlock(block));
+    assertEquals(0, window.openSeries());
+  }
+
+  @Test
+  public void testLazilyBlocksFillsBlocksOfPlainIterators() {
+    final DataPointBlock block = new DataPointBlock(8);
+    final DataPointBlockIterator lazy = window.lazilyBlocks(
+        () -> AsyncIterators.<DataPoint>of(ImmutableList.of(
+            DataPoints.longPoint(10, 1), DataPoints.longPoint(20, 2))));
+
+    assertEquals(2, lazy.nextBlock(block));
+    assertEquals(20, block.timestamps()[1]);
+    assertEquals(0, lazy.nextBlock(block));
+  }
+}
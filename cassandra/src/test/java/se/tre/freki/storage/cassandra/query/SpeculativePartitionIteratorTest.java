@@ -0,0 +1,130 @@
+package se.tre.freki.storage.cassandra.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import se.tre.freki.storage.cassandra.ExhaustedResultSet;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SpeculativePartitionIteratorTest {
+  private List<Integer> fetchedKeys;
+  private List<SettableResultSetFuture> partitions;
+  private Function<Integer, ResultSetFuture> fetchFunction;
+
+  @Before
+  public void setUp() {
+    fetchedKeys = new ArrayList<>();
+    partitions = new ArrayList<>();
+    fetchFunction = new Function<Integer, ResultSetFuture>() {
+      @Override
+      public ResultSetFuture apply(final Integer key) {
+        final SettableResultSetFuture partition = new SettableResultSetFuture();
+        fetchedKeys.add(key);
+        partitions.add(partition);
+        return partition;
+      }
+    };
+  }
+
+  @Test
+  public void testSingleWindowFetchesOnePartitionAhead() {
+    new SpeculativePartitionIterator<>(ImmutableList.of(1, 2, 3).iterator(), fetchFunction);
+    assertEquals(ImmutableList.of(1), fetchedKeys);
+  }
+
+  @Test
+  public void testFillsWindowOnCreation() {
+    new SpeculativePartitionIterator<>(ImmutableList.of(1, 2, 3, 4).iterator(), fetchFunction,
+        new PrefetchWindow(3, Integer.MAX_VALUE));
+    assertEquals(ImmutableList.of(1, 2, 3), fetchedKeys);
+  }
+
+  @Test
+  public void testRowsInPartitionOrderWhenFetchedOutOfOrder() {
+    final SpeculativePartitionIterator<Integer> rows = new SpeculativePartitionIterator<>(
+        ImmutableList.of(1, 2, 3).iterator(), fetchFunction,
+        new PrefetchWindow(3, Integer.MAX_VALUE));
+
+    final Row first = mock(Row.class);
+    final Row second = mock(Row.class);
+    final Row third = mock(Row.class);
+
+    partitions.get(2).set(new RowsResultSet(third));
+    partitions.get(1).set(new RowsResultSet());
+    partitions.get(0).set(new RowsResultSet(first, second));
+
+    assertSame(first, rows.next());
+    assertSame(second, rows.next());
+    assertSame(third, rows.next());
+    assertFalse(rows.hasNext());
+  }
+
+  @Test
+  public void testRefillsWindowAsPartitionsAreRead() {
+    final SpeculativePartitionIterator<Integer> rows = new SpeculativePartitionIterator<>(
+        ImmutableList.of(1, 2, 3, 4).iterator(), fetchFunction,
+        new PrefetchWindow(2, Integer.MAX_VALUE));
+
+    partitions.get(0).set(new RowsResultSet(mock(Row.class)));
+    rows.next();
+
+    assertEquals(ImmutableList.of(1, 2, 3), fetchedKeys);
+  }
+
+  private static class SettableResultSetFuture extends AbstractFuture<ResultSet>
+      implements ResultSetFuture {
+    @Override
+    public boolean set(final ResultSet resultSet) {
+      return super.set(resultSet);
+    }
+
+    @Override
+    public ResultSet getUninterruptibly() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultSet getUninterruptibly(final long timeout, final TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class RowsResultSet extends ExhaustedResultSet {
+    private final Deque<Row> rows;
+
+    RowsResultSet(final Row... rows) {
+      this.rows = new ArrayDeque<>(ImmutableList.copyOf(rows));
+    }
+
+    @Override
+    public boolean isExhausted() {
+      return rows.isEmpty();
+    }
+
+    @Override
+    public Row one() {
+      return rows.poll();
+    }
+
+    @Override
+    public int getAvailableWithoutFetching() {
+      return rows.size();
+    }
+  }
+}
@@ -31,4 +31,9 @@ public class AddPointStatementsTest {
   public void testEnumMarkerUsingTimestampOrdinal4() throws Exception {
     assertEquals(4, AddPointStatementMarkers.USING_TIMESTAMP.ordinal());
   }
+
+  @Test
+  public void testEnumMarkerUsingTtlOrdinal5() throws Exception {
+    assertEquals(5, AddPointStatementMarkers.USING_TTL.ordinal());
+  }
 }
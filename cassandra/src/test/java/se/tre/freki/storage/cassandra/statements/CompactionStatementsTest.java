@@ -0,0 +1,28 @@
+package se.tre.freki.storage.cassandra.statements;
+
+import static org.junit.Assert.assertEquals;
+
+import se.tre.freki.storage.cassandra.statements.CompactionStatements.DeletePointStatementMarkers;
+import se.tre.freki.storage.cassandra.statements.CompactionStatements.InsertChunkStatementMarkers;
+
+import org.junit.Test;
+
+public class CompactionStatementsTest {
+  @Test
+  public void testInsertChunkMarkerOrdinals() throws Exception {
+    assertEquals(0, InsertChunkStatementMarkers.ID.ordinal());
+    assertEquals(1, InsertChunkStatementMarkers.BASE_TIME.ordinal());
+    assertEquals(2, InsertChunkStatementMarkers.TIMESTAMP.ordinal());
+    assertEquals(3, InsertChunkStatementMarkers.CHUNK.ordinal());
+    assertEquals(4, InsertChunkStatementMarkers.USING_TIMESTAMP.ordinal());
+    assertEquals(5, InsertChunkStatementMarkers.USING_TTL.ordinal());
+  }
+
+  @Test
+  public void testDeletePointUsingTimestampComesFirst() throws Exception {
+    assertEquals(0, DeletePointStatementMarkers.USING_TIMESTAMP.ordinal());
+    assertEquals(1, DeletePointStatementMarkers.ID.ordinal());
+    assertEquals(2, DeletePointStatementMarkers.BASE_TIME.ordinal());
+    assertEquals(3, DeletePointStatementMarkers.TIMESTAMP.ordinal());
+  }
+}
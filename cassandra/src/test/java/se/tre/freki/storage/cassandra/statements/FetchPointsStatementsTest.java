@@ -24,4 +24,33 @@ public class FetchPointsStatementsTest {
   public void testEnumMarkerValueOrdinal3() throws Exception {
     assertEquals(3, FetchPointsStatements.SelectPointStatementMarkers.UPPER_TIMESTAMP.ordinal());
   }
+
+  @Test
+  public void testInPartitionsMarkerOrdinals() throws Exception {
+    assertEquals(0, FetchPointsStatements.SelectPointsInPartitionsStatementMarkers.ID.ordinal());
+    assertEquals(1,
+        FetchPointsStatements.SelectPointsInPartitionsStatementMarkers.BASE_TIMES.ordinal());
+    assertEquals(2,
+        FetchPointsStatements.SelectPointsInPartitionsStatementMarkers.LOWER_TIMESTAMP.ordinal());
+    assertEquals(3,
+        FetchPointsStatements.SelectPointsInPartitionsStatementMarkers.UPPER_TIMESTAMP.ordinal());
+  }
+
+  @Test
+  public void testLatestPointsMarkerOrdinals() throws Exception {
+    assertEquals(0, FetchPointsStatements.SelectLatestPointsStatementMarkers.ID.ordinal());
+    assertEquals(1, FetchPointsStatements.SelectLatestPointsStatementMarkers.BASE_TIME.ordinal());
+    assertEquals(2,
+        FetchPointsStatements.SelectLatestPointsStatementMarkers.LOWER_TIMESTAMP.ordinal());
+    assertEquals(3,
+        FetchPointsStatements.SelectLatestPointsStatementMarkers.UPPER_TIMESTAMP.ordinal());
+    assertEquals(4, FetchPointsStatements.SelectLatestPointsStatementMarkers.LIMIT.ordinal());
+  }
+
+  @Test
+  public void testChunkMarkerOrdinals() throws Exception {
+    assertEquals(0, FetchPointsStatements.SelectChunkStatementMarkers.ID.ordinal());
+    assertEquals(1, FetchPointsStatements.SelectChunkStatementMarkers.BASE_TIME.ordinal());
+    assertEquals(2, FetchPointsStatements.SelectChunkStatementMarkers.TIMESTAMP.ordinal());
+  }
 }
@@ -0,0 +1,37 @@
+package se.tre.freki.storage.cassandra.statements;
+
+import static org.junit.Assert.assertEquals;
+
+import se.tre.freki.query.RollupInterval;
+import se.tre.freki.storage.cassandra.Tables;
+import se.tre.freki.storage.cassandra.statements.RollupStatements.InsertRollupStatementMarkers;
+import se.tre.freki.storage.cassandra.statements.RollupStatements.SelectRollupsStatementMarkers;
+
+import org.junit.Test;
+
+public class RollupStatementsTest {
+  @Test
+  public void testInsertRollupMarkerOrdinals() throws Exception {
+    assertEquals(0, InsertRollupStatementMarkers.ID.ordinal());
+    assertEquals(1, InsertRollupStatementMarkers.BASE_TIME.ordinal());
+    assertEquals(2, InsertRollupStatementMarkers.TIMESTAMP.ordinal());
+    assertEquals(3, InsertRollupStatementMarkers.MIN.ordinal());
+    assertEquals(4, InsertRollupStatementMarkers.MAX.ordinal());
+    assertEquals(5, InsertRollupStatementMarkers.SUM.ordinal());
+    assertEquals(6, InsertRollupStatementMarkers.COUNT.ordinal());
+  }
+
+  @Test
+  public void testSelectRollupsMarkerOrdinals() throws Exception {
+    assertEquals(0, SelectRollupsStatementMarkers.ID.ordinal());
+    assertEquals(1, SelectRollupsStatementMarkers.BASE_TIME.ordinal());
+    assertEquals(2, SelectRollupsStatementMarkers.LOWER_TIMESTAMP.ordinal());
+    assertEquals(3, SelectRollupsStatementMarkers.UPPER_TIMESTAMP.ordinal());
+  }
+
+  @Test
+  public void testEveryIntervalHasATable() throws Exception {
+    assertEquals(Tables.ROLLUPS_MINUTE, RollupStatements.tableFor(RollupInterval.MINUTE));
+    assertEquals(Tables.ROLLUPS_HOUR, RollupStatements.tableFor(RollupInterval.HOUR));
+  }
+}
@@ -0,0 +1,93 @@
+package se.tre.freki.storage.compression;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding of an hour of data points at a ten second interval, which is what
+ * a compacted Cassandra partition typically holds.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(3)
+public class ChunkCodecBenchmark {
+  private static final int SIZE = 360;
+  private static final long START = 1434499200000L;
+
+  @Param({"LONG", "DOUBLE"})
+  public ChunkType type;
+
+  private long[] timestamps;
+  private long[] longValues;
+  private double[] doubleValues;
+
+  private ByteBuffer chunk;
+
+  /**
+   * Generate the data points and a chunk of them for the decode benchmark.
+   */
+  @Setup
+  public void setUp() {
+    final Random random = new Random(42);
+
+    timestamps = new long[SIZE];
+    longValues = new long[SIZE];
+    doubleValues = new double[SIZE];
+
+    for (int i = 0; i < SIZE; i++) {
+      // Real collectors jitter slightly around their interval.
+      timestamps[i] = START + i * 10000L + random.nextInt(3);
+      longValues[i] = 1000000L + i * 17L + random.nextInt(100);
+      doubleValues[i] = Math.round((50 + random.nextGaussian() * 5) * 100) / 100.0D;
+    }
+
+    chunk = encode();
+  }
+
+  /**
+   * Encode all data points into a new chunk.
+   */
+  @Benchmark
+  public ByteBuffer encode() {
+    final ChunkEncoder encoder = new ChunkEncoder(type, SIZE);
+
+    if (type == ChunkType.LONG) {
+      for (int i = 0; i < SIZE; i++) {
+        encoder.add(timestamps[i], longValues[i]);
+      }
+    } else {
+      for (int i = 0; i < SIZE; i++) {
+        encoder.add(timestamps[i], doubleValues[i]);
+      }
+    }
+
+    return encoder.encode();
+  }
+
+  /**
+   * Decode every data point in the chunk.
+   */
+  @Benchmark
+  public void decode(final Blackhole blackhole) {
+    final ChunkDecoder decoder = new ChunkDecoder(chunk);
+
+    while (decoder.hasNext()) {
+      decoder.next();
+      blackhole.consume(decoder.timestamp());
+      blackhole.consume(type == ChunkType.LONG ? decoder.longValue() : decoder.doubleValue());
+    }
+  }
+}
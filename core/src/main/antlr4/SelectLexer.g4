@@ -30,6 +30,10 @@ mode TimeMode;
 AND             : 'AND';
 NOW             : 'NOW';
 AGO             : 'AGO';
+EVERY           : 'EVERY';
+LAST            : 'LAST';
+LIMIT           : 'LIMIT';
+DESC            : 'DESC';
 
 WEEK            :'w';
 DAY             :'d';
@@ -7,7 +7,7 @@ options { tokenVocab=SelectLexer; }
 package se.tre.freki.query;
 }
 
-query           : SELECT_KEYWORD (function|qualifier) BETWEEN_KEYWORD startTime=timestamp AND endTime=timestamp EOS*;
+query           : SELECT_KEYWORD (function|qualifier) BETWEEN_KEYWORD startTime=timestamp AND endTime=timestamp (EVERY resolution)? limit? EOS*;
 
 function        : functionName=FUNCTION_NAME FUNCTION_START (function|qualifier) FUNCTION_STOP;
 
@@ -35,4 +35,9 @@ since           : (week=DIGIT WEEK)? (day=DIGIT DAY)? (hour=DIGIT HOUR)? (minute
 
 now             : NOW;
 
+resolution      : (week=DIGIT WEEK)? (day=DIGIT DAY)? (hour=DIGIT HOUR)? (minute=DIGIT MINUTE)? (second=DIGIT SECOND)?;
+
 absolute        : DIGIT;
+
+limit           : LAST
+                | LIMIT count=DIGIT DESC?;
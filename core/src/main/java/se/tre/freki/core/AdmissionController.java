@@ -0,0 +1,356 @@
+package se.tre.freki.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.stats.Measurable;
+import se.tre.freki.utils.InvalidConfigException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.typesafe.config.Config;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of data points that are being written to the store at the same time. Without
+ * a limit a slow store will cause pending writes to pile up on the heap until the JVM runs out of
+ * memory.
+ *
+ * <p>What happens to a write that would exceed the limit is decided by the configured {@link
+ * Policy}.
+ */
+public class AdmissionController implements Measurable {
+  /**
+   * What to do with writes that would exceed the limit on in-flight data points.
+   */
+  public enum Policy {
+    /**
+     * Block the calling thread until the write can be admitted or the block timeout expires. This
+     * should only be used when the callers are running on threads of their own and not on a shared
+     * event loop.
+     */
+    BLOCK,
+    /**
+     * Put the write in a bounded queue and start it once enough in-flight writes have completed.
+     * Writes are rejected when the queue is full.
+     */
+    QUEUE,
+    /** Reject the write immediately. */
+    REJECT
+  }
+
+  private final int maxInflight;
+  private final Policy policy;
+  private final int maxQueued;
+  private final long blockTimeoutMillis;
+
+  private final Semaphore permits;
+
+  /**
+   * Writes waiting for permits, only used by {@link Policy#QUEUE}. Guarded by itself.
+   */
+  private final Queue<PendingWrite<?>> queue = new ArrayDeque<>();
+  /**
+   * The sum of the permits needed by all writes in {@link #queue}. Guarded by {@link #queue}.
+   */
+  private int queuedPermits;
+
+  /**
+   * The number of times {@link #drain()} has been requested but not yet served.
+   */
+  private final AtomicInteger drainRequests = new AtomicInteger();
+
+  private final Counter rejected = new Counter();
+
+  /**
+   * Create a new instance.
+   *
+   * @param maxInflight The maximum number of data points that may be in flight at once
+   * @param policy What to do with writes that would exceed the limit
+   * @param maxQueued The maximum number of data points that may be waiting in the queue
+   * @param blockTimeoutMillis The maximum number of milliseconds to block for
+   */
+  public AdmissionController(final int maxInflight,
+                             final Policy policy,
+                             final int maxQueued,
+                             final long blockTimeoutMillis) {
+    checkArgument(maxInflight > 0, "The max number of in-flight writes must be larger than zero");
+    checkArgument(maxQueued >= 0, "The max number of queued writes must not be negative");
+    checkArgument(blockTimeoutMillis >= 0, "The block timeout must not be negative");
+
+    this.maxInflight = maxInflight;
+    this.policy = checkNotNull(policy);
+    this.maxQueued = maxQueued;
+    this.blockTimeoutMillis = blockTimeoutMillis;
+    this.permits = new Semaphore(maxInflight);
+  }
+
+  /**
+   * Create a new instance configured by the {@code freki.core.max_inflight_writes} and {@code
+   * freki.core.inflight_writes} settings in the provided config.
+   *
+   * @param config The config to read the settings from
+   * @return A newly created instance
+   * @throws InvalidConfigException if any of the settings are invalid
+   */
+  public static AdmissionController fromConfig(final Config config) {
+    final int maxInflight = config.getInt("freki.core.max_inflight_writes");
+
+    if (maxInflight < 1) {
+      throw new InvalidConfigException(config.getValue("freki.core.max_inflight_writes"),
+          "The max number of in-flight writes must be larger than zero");
+    }
+
+    final String policyName = config.getString("freki.core.inflight_writes.policy");
+    final Policy policy;
+
+    try {
+      policy = Policy.valueOf(policyName.toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidConfigException(config.getValue("freki.core.inflight_writes.policy"),
+          "The policy must be one of block, queue or reject", e);
+    }
+
+    final int maxQueued = config.getInt("freki.core.inflight_writes.max_queued");
+
+    if (maxQueued < 0) {
+      throw new InvalidConfigException(config.getValue("freki.core.inflight_writes.max_queued"),
+          "The max number of queued writes must not be negative");
+    }
+
+    final long blockTimeout = config.getDuration("freki.core.inflight_writes.block_timeout",
+        TimeUnit.MILLISECONDS);
+
+    return new AdmissionController(maxInflight, policy, maxQueued, blockTimeout);
+  }
+
+  /**
+   * Start the write provided by {@code write} once it has been admitted. The write will count
+   * against the limit until the future it returns has completed. If the write is not admitted then
+   * the returned future will contain a {@link WriteRejectedException}.
+   *
+   * <p>A write with more data points than the limit allows is treated as if it had exactly as many
+   * data points as the limit so that it can be admitted at all.
+   *
+   * @param dataPoints The number of data points the write consists of
+   * @param write Starts the write and returns a future that indicates when it has completed
+   * @return A future that will contain the result of the write or an exception
+   */
+  public <T> ListenableFuture<T> submit(final int dataPoints,
+                                        final Supplier<ListenableFuture<T>> write) {
+    final int required = Math.min(dataPoints, maxInflight);
+
+    if (required <= 0) {
+      return write.get();
+    }
+
+    switch (policy) {
+      case BLOCK:
+        return block(required, write);
+      case QUEUE:
+        return enqueue(required, write);
+      case REJECT:
+      default:
+        if (!permits.tryAcquire(required)) {
+          return reject(WriteRejectedException.Reason.INFLIGHT_LIMIT);
+        }
+
+        return run(required, write);
+    }
+  }
+
+  private <T> ListenableFuture<T> block(final int required,
+                                        final Supplier<ListenableFuture<T>> write) {
+    try {
+      if (!permits.tryAcquire(required, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        return reject(WriteRejectedException.Reason.TIMED_OUT);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Futures.immediateFailedFuture(e);
+    }
+
+    return run(required, write);
+  }
+
+  private <T> ListenableFuture<T> enqueue(final int required,
+                                          final Supplier<ListenableFuture<T>> write) {
+    synchronized (queue) {
+      // Writes that are already waiting go first.
+      if (!queue.isEmpty() || !permits.tryAcquire(required)) {
+        if (queuedPermits + required > maxQueued) {
+          return reject(WriteRejectedException.Reason.QUEUE_FULL);
+        }
+
+        final PendingWrite<T> pending = new PendingWrite<>(required, write);
+        queue.add(pending);
+        queuedPermits += required;
+        return pending.result;
+      }
+    }
+
+    return run(required, write);
+  }
+
+  /**
+   * Start the write with the already acquired permits and release them once the write completes.
+   */
+  private <T> ListenableFuture<T> run(final int acquired,
+                                      final Supplier<ListenableFuture<T>> write) {
+    final ListenableFuture<T> future;
+
+    try {
+      future = write.get();
+    } catch (RuntimeException e) {
+      release(acquired);
+      throw e;
+    }
+
+    future.addListener(() -> release(acquired), MoreExecutors.directExecutor());
+    return future;
+  }
+
+  private void release(final int acquired) {
+    permits.release(acquired);
+
+    if (policy == Policy.QUEUE) {
+      drain();
+    }
+  }
+
+  /**
+   * Start as many queued writes as there are permits for. Writes that complete immediately will
+   * call this method again from within {@link PendingWrite#start()}, those calls only record that
+   * another pass is needed so that the stack does not grow with the length of the queue.
+   */
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+
+    int requests = 1;
+
+    do {
+      PendingWrite<?> next;
+
+      while ((next = pollAdmitted()) != null) {
+        next.start();
+      }
+
+      requests = drainRequests.addAndGet(-requests);
+    } while (requests != 0);
+  }
+
+  /**
+   * Remove and return the first queued write if there are enough permits for it, the permits will
+   * be acquired on its behalf.
+   */
+  private PendingWrite<?> pollAdmitted() {
+    synchronized (queue) {
+      final PendingWrite<?> next = queue.peek();
+
+      if (next == null || !permits.tryAcquire(next.permits)) {
+        return null;
+      }
+
+      queue.remove();
+      queuedPermits -= next.permits;
+      return next;
+    }
+  }
+
+  private <T> ListenableFuture<T> reject(final WriteRejectedException.Reason reason) {
+    rejected.inc();
+    return Futures.immediateFailedFuture(new WriteRejectedException(reason, messageFor(reason)));
+  }
+
+  /**
+   * Describe why a write was rejected for the provided reason in terms of the configured limits.
+   */
+  private String messageFor(final WriteRejectedException.Reason reason) {
+    switch (reason) {
+      case QUEUE_FULL:
+        return "There are already " + maxQueued + " data points waiting to be written";
+      case TIMED_OUT:
+        return "There was no room for the write among the " + maxInflight
+               + " data points being written within " + blockTimeoutMillis + " ms";
+      case INFLIGHT_LIMIT:
+      default:
+        return "There are already " + maxInflight + " data points being written";
+    }
+  }
+
+  @Override
+  public void registerMetricsWith(final MetricRegistry registry) {
+    registry.register("freki.core.writes.inflight", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return maxInflight - permits.availablePermits();
+      }
+    });
+
+    registry.register("freki.core.writes.queued", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        synchronized (queue) {
+          return queuedPermits;
+        }
+      }
+    });
+
+    registry.register("freki.core.writes.rejected", rejected);
+  }
+
+  /**
+   * A write that is waiting in the queue for permits.
+   */
+  private class PendingWrite<T> {
+    private final int permits;
+    private final Supplier<ListenableFuture<T>> write;
+    private final SettableFuture<T> result = SettableFuture.create();
+
+    PendingWrite(final int permits, final Supplier<ListenableFuture<T>> write) {
+      this.permits = permits;
+      this.write = write;
+    }
+
+    /**
+     * Start the write, the permits must already have been acquired.
+     */
+    void start() {
+      final ListenableFuture<T> future;
+
+      try {
+        future = run(permits, write);
+      } catch (RuntimeException e) {
+        result.setException(e);
+        return;
+      }
+
+      Futures.addCallback(future, new FutureCallback<T>() {
+        @Override
+        public void onSuccess(final T value) {
+          result.set(value);
+        }
+
+        @Override
+        public void onFailure(final Throwable throwable) {
+          result.setException(throwable);
+        }
+      });
+    }
+  }
+}
@@ -12,13 +12,17 @@ import com.codahale.metrics.jvm.MemoryUsageGaugeSet;
 import com.codahale.metrics.jvm.ThreadStatesGaugeSet;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
+import com.typesafe.config.Config;
 import dagger.Module;
 import dagger.Provides;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.time.Clock;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
 
 @Module
@@ -63,6 +67,67 @@ public class CoreModule {
     return new FrekiMetricRegistrator(labelClient, defaultTags());
   }
 
+  @Provides
+  @Singleton
+  AdmissionController provideAdmissionController(final Config config) {
+    return AdmissionController.fromConfig(config);
+  }
+
+  @Provides
+  @Singleton
+  QueryScheduler provideQueryScheduler(final Config config) {
+    return QueryScheduler.fromConfig(config);
+  }
+
+  /**
+   * Provide the cache of the latest data point of each time series or {@code null} if it is
+   * disabled.
+   */
+  @Provides
+  @Singleton
+  @Nullable
+  LatestPointCache provideLatestPointCache(final Config config) {
+    if (config.getBoolean("freki.core.latest_points.enabled")) {
+      return LatestPointCache.fromConfig(config);
+    }
+
+    return null;
+  }
+
+  /**
+   * Provide the ingest pipeline or {@code null} if it is disabled. The pipeline is started by
+   * {@link DataPointsClient#start()}.
+   */
+  @Provides
+  @Singleton
+  @Nullable
+  IngestPipeline provideIngestPipeline(final Config config) {
+    if (config.getBoolean("freki.core.ingest_pipeline.enabled")) {
+      return IngestPipeline.fromConfig(config);
+    }
+
+    return null;
+  }
+
+  /**
+   * Provide the opened write-ahead log or {@code null} if it is disabled. The log is started by
+   * {@link DataPointsClient#start()}.
+   */
+  @Provides
+  @Singleton
+  @Nullable
+  WriteAheadLog provideWriteAheadLog(final Config config) {
+    if (config.getBoolean("freki.core.wal.enabled")) {
+      try {
+        return WriteAheadLog.fromConfig(config);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to open the write-ahead log", e);
+      }
+    }
+
+    return null;
+  }
+
   @Provides
   public Clock provideClock() {
     return Clock.systemDefaultZone();
@@ -4,66 +4,125 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.util.concurrent.Futures.addCallback;
 import static com.google.common.util.concurrent.Futures.transform;
-import static se.tre.freki.utils.MoreMaps.transformKeys;
 
 import se.tre.freki.labels.Labels;
 import se.tre.freki.labels.TimeSeriesId;
 import se.tre.freki.plugins.PluginError;
+import se.tre.freki.plugins.PublishedDataPoint;
 import se.tre.freki.plugins.RealTimePublisher;
 import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
 import se.tre.freki.query.DecoratedTimeSeriesId;
 import se.tre.freki.query.QueryException;
 import se.tre.freki.query.QueryStringTranslator;
-import se.tre.freki.query.ResultEntry;
+import se.tre.freki.query.RollupInterval;
 import se.tre.freki.query.SelectLexer;
 import se.tre.freki.query.SelectParser;
 import se.tre.freki.query.TimeSeriesQuery;
 import se.tre.freki.stats.Measurable;
 import se.tre.freki.stats.StopTimerCallback;
+import se.tre.freki.storage.AddPointsResult;
 import se.tre.freki.storage.Store;
+import se.tre.freki.storage.TimeSeriesDataPoint;
 import se.tre.freki.time.Timestamps;
 import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.AsyncIterators;
 import se.tre.freki.utils.DescriptiveErrorListener;
 import se.tre.freki.utils.InvalidConfigException;
 
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.primitives.SignedBytes;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.typesafe.config.Config;
 import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 @Singleton
 public class DataPointsClient implements Measurable {
+  /**
+   * The future returned for every data point that was accepted into the ingest pipeline or the
+   * write-ahead log.
+   */
+  private static final ListenableFuture<Void> STAGED = Futures.immediateFuture(null);
+
   private final Store store;
   private final LabelClient labelClient;
   private final RealTimePublisher publisher;
 
   private final Timer addDataPointTimer;
+  private final Timer addDataPointsTimer;
+  private final AdmissionController admission;
+  private final QueryScheduler queries;
   private final byte maxTags;
 
   /**
-   * Create a new instance using the given non-null arguments to configure itself.
+   * The pipeline single data points are staged in or {@code null} if they should be written one by
+   * one.
+   */
+  @Nullable
+  private final IngestPipeline pipeline;
+
+  /**
+   * The log data points are acknowledged from before they are written to the store or {@code null}
+   * if they should be written to the store directly.
+   */
+  @Nullable
+  private final WriteAheadLog wal;
+
+  /**
+   * The latest data point of each time series that has been written through this instance or
+   * {@code null} if they should not be remembered.
+   */
+  @Nullable
+  private final LatestPointCache latestPoints;
+
+  /**
+   * Create a new instance using the given non-null arguments to configure itself. The ingest
+   * pipeline and the write-ahead log are not started until {@link #start()} is called.
    */
   @Inject
   public DataPointsClient(final Store store,
                           final LabelClient labelClient,
                           final RealTimePublisher realTimePublisher,
-                          final Config config) {
+                          final Config config,
+                          final AdmissionController admission,
+                          final QueryScheduler queries,
+                          @Nullable final LatestPointCache latestPoints,
+                          @Nullable final IngestPipeline pipeline,
+                          @Nullable final WriteAheadLog wal) {
     this.store = checkNotNull(store);
     this.labelClient = checkNotNull(labelClient);
     this.publisher = checkNotNull(realTimePublisher);
+    this.admission = checkNotNull(admission);
+    this.queries = checkNotNull(queries);
+    this.latestPoints = latestPoints;
+    this.pipeline = pipeline;
+    this.wal = wal;
 
     this.addDataPointTimer = new Timer();
+    this.addDataPointsTimer = new Timer();
 
     // The config library unfortunately doesn't have any API to get any smaller primitive type than
     // ints so we have to do a little dance to make sure the value is not too extreme since it can
@@ -83,6 +142,23 @@ public class DataPointsClient implements Measurable {
     this.maxTags = SignedBytes.checkedCast(configMaxTags);
   }
 
+  /**
+   * Start writing the data points that are staged in the ingest pipeline and the write-ahead log,
+   * if they are enabled. Data points that are left in the write-ahead log since the last run are
+   * replayed. Should only be called once.
+   */
+  public void start() {
+    if (pipeline != null) {
+      // Batches from the pipeline bypass the admission controller, the size of the buffer already
+      // bounds the number of data points that can be pending.
+      pipeline.start(new PipelineSink());
+    }
+
+    if (wal != null) {
+      wal.start(this::resolveAndAddPoints);
+    }
+  }
+
   /**
    * Makes sure that the input arguments are non-null, non-empty and does not contain any illegal
    * characters. It also makes sure that the number of tags does not exceed the configured limit.
@@ -105,12 +181,70 @@ public class DataPointsClient implements Measurable {
     }
   }
 
+  /**
+   * Get the future to return to the caller of one of the {@code addPoint} methods that take a
+   * metric and tags when the ingest pipeline is enabled.
+   */
+  private static ListenableFuture<Void> staged(final boolean accepted) {
+    if (accepted) {
+      return STAGED;
+    }
+
+    return Futures.immediateFailedFuture(new WriteRejectedException(
+        WriteRejectedException.Reason.QUEUE_FULL, "The ingest pipeline is full"));
+  }
+
+  /**
+   * Append the data point to the write-ahead log and get the future to return to the caller of one
+   * of the {@code addPoint} methods that take a metric and tags.
+   */
+  private ListenableFuture<Void> logged(final IncomingDataPoint point) {
+    try {
+      if (wal.append(point)) {
+        return STAGED;
+      }
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+
+    return Futures.immediateFailedFuture(new WriteRejectedException(
+        WriteRejectedException.Reason.QUEUE_FULL, "The write-ahead log is full"));
+  }
+
+  /**
+   * Validate and resolve the time series behind the provided metric and tags and return a handle to
+   * it. See {@link #checkMetricAndTags(String, Map)} for the contract that the metric and tags must
+   * fulfill.
+   *
+   * @param metric The metric of the time series
+   * @param tags The tags of the time series
+   * @return A future that on completion will contain a handle that data points can be added to
+   * @see #addPoint(SeriesHandle, long, long)
+   */
+  public ListenableFuture<SeriesHandle> seriesHandle(final String metric,
+                                                     final Map<String, String> tags) {
+    checkMetricAndTags(metric, tags);
+
+    final ImmutableMap<String, String> immutableTags = ImmutableMap.copyOf(tags);
+
+    return transform(labelClient.getTimeSeriesId(metric, immutableTags),
+        new Function<TimeSeriesId, SeriesHandle>() {
+          @Override
+          public SeriesHandle apply(final TimeSeriesId timeSeriesId) {
+            return SeriesHandle.create(metric, immutableTags, timeSeriesId);
+          }
+        });
+  }
+
   /**
    * Add a floating point data point at the provided timestamp that will belong to the time series
    * behind the given metric and tags. See {@link #checkMetricAndTags(String, Map)} for the contract
    * that the metric and tags must fulfill and see {@link Timestamps#checkTimestamp(long)} for the
    * contract that the timestamp must fulfill.
    *
+   * <p>When the write-ahead log or the ingest pipeline is enabled the data point is only staged
+   * and the returned future completes as soon as it has been accepted into the log or pipeline.
+   *
    * @return A future that indicates the completion of the request or an error.
    */
   public ListenableFuture<Void> addPoint(final String metric,
@@ -120,26 +254,8 @@ public class DataPointsClient implements Measurable {
     Timestamps.checkTimestamp(timestamp);
     checkMetricAndTags(metric, tags);
 
-    class AddPointFunction implements AsyncFunction<TimeSeriesId, Void> {
-      @Override
-      public ListenableFuture<Void> apply(final TimeSeriesId timeSeriesId) {
-        ListenableFuture<Void> result = store.addPoint(timeSeriesId, timestamp, value);
-
-        addCallback(publisher.publishDataPoint(metric, timestamp, value, tags, timeSeriesId),
-            new PluginError(publisher));
-
-        return result;
-      }
-    }
-
-    final Timer.Context time = addDataPointTimer.time();
-
-    final ListenableFuture<Void> addPointComplete = Futures.transform(
-        labelClient.getTimeSeriesId(metric, tags), new AddPointFunction());
-
-    StopTimerCallback.stopOn(time, addPointComplete);
-
-    return addPointComplete;
+    return addPoint(
+        IncomingDataPoint.create(metric, tags, DataPoints.floatPoint(timestamp, value)));
   }
 
   /**
@@ -148,6 +264,9 @@ public class DataPointsClient implements Measurable {
    * for the contract that the metric and tags must fulfill and see {@link
    * Timestamps#checkTimestamp(long)} for the contract that the timestamp must fulfill.
    *
+   * <p>When the write-ahead log or the ingest pipeline is enabled the data point is only staged
+   * and the returned future completes as soon as it has been accepted into the log or pipeline.
+   *
    * @return A future that indicates the completion of the request or an error.
    */
   public ListenableFuture<Void> addPoint(final String metric,
@@ -157,26 +276,8 @@ public class DataPointsClient implements Measurable {
     Timestamps.checkTimestamp(timestamp);
     checkMetricAndTags(metric, tags);
 
-    class AddPointFunction implements AsyncFunction<TimeSeriesId, Void> {
-      @Override
-      public ListenableFuture<Void> apply(final TimeSeriesId timeSeriesId) {
-        ListenableFuture<Void> result = store.addPoint(timeSeriesId, timestamp, value);
-
-        addCallback(publisher.publishDataPoint(metric, timestamp, value, tags, timeSeriesId),
-            new PluginError(publisher));
-
-        return result;
-      }
-    }
-
-    final Timer.Context time = addDataPointTimer.time();
-
-    final ListenableFuture<Void> addPointComplete = Futures.transform(
-        labelClient.getTimeSeriesId(metric, tags), new AddPointFunction());
-
-    StopTimerCallback.stopOn(time, addPointComplete);
-
-    return addPointComplete;
+    return addPoint(
+        IncomingDataPoint.create(metric, tags, DataPoints.doublePoint(timestamp, value)));
   }
 
   /**
@@ -185,6 +286,9 @@ public class DataPointsClient implements Measurable {
    * that the metric and tags must fulfill and see {@link Timestamps#checkTimestamp(long)} for the
    * contract that the timestamp must fulfill.
    *
+   * <p>When the write-ahead log or the ingest pipeline is enabled the data point is only staged
+   * and the returned future completes as soon as it has been accepted into the log or pipeline.
+   *
    * @return A future that indicates the completion of the request or an error.
    */
   public ListenableFuture<Void> addPoint(final String metric,
@@ -194,22 +298,130 @@ public class DataPointsClient implements Measurable {
     Timestamps.checkTimestamp(timestamp);
     checkMetricAndTags(metric, tags);
 
-    class AddPointFunction implements AsyncFunction<TimeSeriesId, Void> {
-      @Override
-      public ListenableFuture<Void> apply(final TimeSeriesId timeSeriesId) {
-        ListenableFuture<Void> result = store.addPoint(timeSeriesId, timestamp, value);
+    return addPoint(
+        IncomingDataPoint.create(metric, tags, DataPoints.longPoint(timestamp, value)));
+  }
+
+  /**
+   * Add a data point that already has been validated. The data point is appended to the
+   * write-ahead log if it is enabled, otherwise it is offered to the ingest pipeline if that is
+   * enabled and otherwise it is written to the store once it has been admitted.
+   *
+   * @param point The data point to add
+   * @param timeSeriesId Resolves the time series of the data point when it is written to the store
+   * directly. The write-ahead log and the ingest pipeline resolve it on their own when they write
+   * the data point.
+   * @return A future that indicates the completion of the request or an error
+   */
+  private ListenableFuture<Void> addPoint(
+      final IncomingDataPoint point,
+      final Supplier<ListenableFuture<TimeSeriesId>> timeSeriesId) {
+    if (wal != null) {
+      return logged(point);
+    }
+
+    if (pipeline != null) {
+      return staged(pipeline.offer(point));
+    }
+
+    return admitted(point, timeSeriesId);
+  }
+
+  /**
+   * Add a data point that already has been validated and whose time series has not been resolved
+   * yet.
+   *
+   * @see #addPoint(IncomingDataPoint, Supplier)
+   */
+  private ListenableFuture<Void> addPoint(final IncomingDataPoint point) {
+    return addPoint(point, () -> labelClient.getTimeSeriesId(point.metric(), point.tags()));
+  }
+
+  /**
+   * Add a floating point data point at the provided timestamp to the time series behind the
+   * provided handle. See {@link Timestamps#checkTimestamp(long)} for the contract that the
+   * timestamp must fulfill.
+   *
+   * <p>When the write-ahead log or the ingest pipeline is enabled the data point is only staged
+   * and the returned future completes as soon as it has been accepted into the log or pipeline.
+   *
+   * @return A future that indicates the completion of the request or an error.
+   */
+  public ListenableFuture<Void> addPoint(final SeriesHandle series,
+                                         final long timestamp,
+                                         final float value) {
+    Timestamps.checkTimestamp(timestamp);
+    return addPoint(series, DataPoints.floatPoint(timestamp, value));
+  }
 
-        addCallback(publisher.publishDataPoint(metric, timestamp, value, tags, timeSeriesId),
-            new PluginError(publisher));
+  /**
+   * Add a double precision floating point data point at the provided timestamp to the time series
+   * behind the provided handle. See {@link Timestamps#checkTimestamp(long)} for the contract that
+   * the timestamp must fulfill.
+   *
+   * <p>When the write-ahead log or the ingest pipeline is enabled the data point is only staged
+   * and the returned future completes as soon as it has been accepted into the log or pipeline.
+   *
+   * @return A future that indicates the completion of the request or an error.
+   */
+  public ListenableFuture<Void> addPoint(final SeriesHandle series,
+                                         final long timestamp,
+                                         final double value) {
+    Timestamps.checkTimestamp(timestamp);
+    return addPoint(series, DataPoints.doublePoint(timestamp, value));
+  }
 
-        return result;
+  /**
+   * Add a long integral data point at the provided timestamp to the time series behind the provided
+   * handle. See {@link Timestamps#checkTimestamp(long)} for the contract that the timestamp must
+   * fulfill.
+   *
+   * <p>When the write-ahead log or the ingest pipeline is enabled the data point is only staged
+   * and the returned future completes as soon as it has been accepted into the log or pipeline.
+   *
+   * @return A future that indicates the completion of the request or an error.
+   */
+  public ListenableFuture<Void> addPoint(final SeriesHandle series,
+                                         final long timestamp,
+                                         final long value) {
+    Timestamps.checkTimestamp(timestamp);
+    return addPoint(series, DataPoints.longPoint(timestamp, value));
+  }
+
+  /**
+   * Add a data point that already has been validated to the time series behind the provided
+   * handle. The handle saves resolving the time series when the data point is written to the store
+   * directly, the write-ahead log and the ingest pipeline go by the metric and tags of the handle.
+   */
+  private ListenableFuture<Void> addPoint(final SeriesHandle series, final DataPoint dataPoint) {
+    final IncomingDataPoint point =
+        IncomingDataPoint.create(series.metric(), series.tags(), dataPoint);
+    return addPoint(point, () -> Futures.immediateFuture(series.timeSeriesId()));
+  }
+
+  /**
+   * Write the data point to the store once it has been admitted and the time series behind it has
+   * been resolved.
+   *
+   * @param point The data point to write
+   * @param timeSeriesId Resolves the time series of the data point, it is only called once the
+   * data point has been admitted
+   * @return A future that indicates the completion of the write or an error
+   */
+  private ListenableFuture<Void> admitted(
+      final IncomingDataPoint point,
+      final Supplier<ListenableFuture<TimeSeriesId>> timeSeriesId) {
+    class StoreAndPublishFunction implements AsyncFunction<TimeSeriesId, Void> {
+      @Override
+      public ListenableFuture<Void> apply(final TimeSeriesId timeSeriesId) {
+        return storeAndPublish(timeSeriesId, point);
       }
     }
 
     final Timer.Context time = addDataPointTimer.time();
 
-    final ListenableFuture<Void> addPointComplete = Futures.transform(
-        labelClient.getTimeSeriesId(metric, tags), new AddPointFunction());
+    final ListenableFuture<Void> addPointComplete = admission.submit(1,
+        () -> transform(timeSeriesId.get(), new StoreAndPublishFunction()));
 
     StopTimerCallback.stopOn(time, addPointComplete);
 
@@ -217,13 +429,273 @@ public class DataPointsClient implements Measurable {
   }
 
   /**
-   * Parse the query that is in string form and execute it against the store.
+   * Add the data point to the store and publish it, the write must already have been admitted.
+   */
+  private ListenableFuture<Void> storeAndPublish(final TimeSeriesId timeSeriesId,
+                                                 final IncomingDataPoint point) {
+    final DataPoint dataPoint = point.dataPoint();
+    final ListenableFuture<Void> result;
+
+    if (dataPoint instanceof DataPoint.LongDataPoint) {
+      result = store.addPoint(timeSeriesId, dataPoint.timestamp(),
+          ((DataPoint.LongDataPoint) dataPoint).value());
+    } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+      result = store.addPoint(timeSeriesId, dataPoint.timestamp(),
+          ((DataPoint.FloatDataPoint) dataPoint).value());
+    } else {
+      result = store.addPoint(timeSeriesId, dataPoint.timestamp(),
+          ((DataPoint.DoubleDataPoint) dataPoint).value());
+    }
+
+    if (latestPoints != null) {
+      latestPoints.addOnSuccess(result, timeSeriesId, dataPoint);
+    }
+
+    addCallback(publisher.publishDataPoints(ImmutableList.of(
+        PublishedDataPoint.create(point.metric(), point.tags(), dataPoint, timeSeriesId))),
+        new PluginError(publisher));
+
+    return result;
+  }
+
+  /**
+   * Add all of the provided data points. The time series behind each distinct metric and tags
+   * combination will only be resolved once and the data points are then handed to the store in a
+   * single batch.
+   *
+   * <p>Data points that do not fulfill the contracts described by {@link
+   * #checkMetricAndTags(String, Map)} and {@link Timestamps#checkTimestamp(long)}, whose time
+   * series could not be resolved or that the store failed to write will be reported in the returned
+   * {@link AddPointsResult} against the index they had in {@code points}. A failure of some data
+   * points will not prevent the rest from being written.
+   *
+   * <p>The batch as a whole counts against the limit on in-flight writes, if it is not admitted
+   * then the returned future will contain a {@link WriteRejectedException}. When the write-ahead
+   * log is enabled the returned result instead only describes which data points could not be
+   * appended to the log.
+   *
+   * @param points The data points to add
+   * @return A future that on completion will describe which data points failed, if any
+   */
+  public ListenableFuture<AddPointsResult> addPoints(final List<IncomingDataPoint> points) {
+    if (wal != null) {
+      return Futures.immediateFuture(appendPoints(points));
+    }
+
+    final Timer.Context time = addDataPointsTimer.time();
+
+    final ListenableFuture<AddPointsResult> addPointsComplete =
+        admission.submit(points.size(), () -> resolveAndAddPoints(points));
+
+    StopTimerCallback.stopOn(time, addPointsComplete);
+
+    return addPointsComplete;
+  }
+
+  /**
+   * Validate the provided data points and append the valid ones to the write-ahead log.
+   *
+   * @see #addPoints(List)
+   */
+  private AddPointsResult appendPoints(final List<IncomingDataPoint> points) {
+    final Map<Integer, Throwable> failures = new HashMap<>();
+
+    for (int index = 0; index < points.size(); index++) {
+      final IncomingDataPoint point = points.get(index);
+
+      try {
+        Timestamps.checkTimestamp(point.dataPoint().timestamp());
+        checkMetricAndTags(point.metric(), point.tags());
+
+        if (!wal.append(point)) {
+          failures.put(index, new WriteRejectedException(
+              WriteRejectedException.Reason.QUEUE_FULL, "The write-ahead log is full"));
+        }
+      } catch (IllegalArgumentException | IOException e) {
+        failures.put(index, e);
+      }
+    }
+
+    return AddPointsResult.create(points.size(), failures);
+  }
+
+  /**
+   * Validate the provided data points, resolve the time series behind them and add them to the
+   * store through {@link #addResolvedPoints(List, List)}.
+   *
+   * @see #addPoints(List)
+   */
+  private ListenableFuture<AddPointsResult> resolveAndAddPoints(
+      final List<IncomingDataPoint> points) {
+    final Map<Integer, Throwable> failures = new HashMap<>();
+    final Map<Map.Entry<String, ImmutableMap<String, String>>, ListenableFuture<TimeSeriesId>>
+        timeSeries = new HashMap<>();
+    final List<ListenableFuture<TimeSeriesId>> pointTimeSeries = new ArrayList<>(points.size());
+
+    for (int index = 0; index < points.size(); index++) {
+      final IncomingDataPoint point = points.get(index);
+
+      try {
+        Timestamps.checkTimestamp(point.dataPoint().timestamp());
+        checkMetricAndTags(point.metric(), point.tags());
+      } catch (IllegalArgumentException e) {
+        failures.put(index, e);
+        pointTimeSeries.add(null);
+        continue;
+      }
+
+      final Map.Entry<String, ImmutableMap<String, String>> key =
+          Maps.immutableEntry(point.metric(), point.tags());
+      ListenableFuture<TimeSeriesId> timeSeriesId = timeSeries.get(key);
+
+      if (timeSeriesId == null) {
+        timeSeriesId = labelClient.getTimeSeriesId(point.metric(), point.tags());
+        timeSeries.put(key, timeSeriesId);
+      }
+
+      pointTimeSeries.add(timeSeriesId);
+    }
+
+    class AddPointsFunction implements AsyncFunction<List<TimeSeriesId>, AddPointsResult> {
+      @Override
+      public ListenableFuture<AddPointsResult> apply(final List<TimeSeriesId> resolved) {
+        final List<IncomingDataPoint> storePoints = new ArrayList<>(points.size());
+        final List<TimeSeriesId> storeTimeSeriesIds = new ArrayList<>(points.size());
+        final List<Integer> storeIndexes = new ArrayList<>(points.size());
+
+        for (int index = 0; index < points.size(); index++) {
+          final ListenableFuture<TimeSeriesId> timeSeriesId = pointTimeSeries.get(index);
+
+          if (timeSeriesId == null) {
+            continue;
+          }
+
+          try {
+            // All time series futures are done at this point so this will not block.
+            storeTimeSeriesIds.add(Uninterruptibles.getUninterruptibly(timeSeriesId));
+            storePoints.add(points.get(index));
+            storeIndexes.add(index);
+          } catch (ExecutionException e) {
+            failures.put(index, e.getCause());
+          }
+        }
+
+        return transform(addResolvedPoints(storePoints, storeTimeSeriesIds),
+            new Function<AddPointsResult, AddPointsResult>() {
+              @Override
+              public AddPointsResult apply(final AddPointsResult storeResult) {
+                for (final Map.Entry<Integer, Throwable> failure
+                    : storeResult.failures().entrySet()) {
+                  failures.put(storeIndexes.get(failure.getKey()), failure.getValue());
+                }
+
+                return AddPointsResult.create(points.size(), failures);
+              }
+            });
+      }
+    }
+
+    return transform(Futures.successfulAsList(timeSeries.values()), new AddPointsFunction());
+  }
+
+  /**
+   * Add data points whose time series already have been resolved to the store and publish the ones
+   * that were written. The data points must already have been validated.
+   *
+   * @param points The data points to add
+   * @param timeSeriesIds The time series of the data point at the same index in {@code points}
+   * @return A future that on completion will describe which data points failed, if any
+   */
+  private ListenableFuture<AddPointsResult> addResolvedPoints(
+      final List<IncomingDataPoint> points,
+      final List<TimeSeriesId> timeSeriesIds) {
+    final List<TimeSeriesDataPoint> storePoints = new ArrayList<>(points.size());
+
+    for (int index = 0; index < points.size(); index++) {
+      storePoints.add(TimeSeriesDataPoint.create(timeSeriesIds.get(index),
+          points.get(index).dataPoint()));
+    }
+
+    return transform(store.addPoints(storePoints),
+        new Function<AddPointsResult, AddPointsResult>() {
+          @Override
+          public AddPointsResult apply(final AddPointsResult storeResult) {
+            final List<PublishedDataPoint> published = new ArrayList<>(points.size());
+
+            for (int index = 0; index < points.size(); index++) {
+              if (!storeResult.failures().containsKey(index)) {
+                final IncomingDataPoint point = points.get(index);
+                rememberLatest(timeSeriesIds.get(index), point);
+                published.add(PublishedDataPoint.create(point.metric(), point.tags(),
+                    point.dataPoint(), timeSeriesIds.get(index)));
+              }
+            }
+
+            if (!published.isEmpty()) {
+              addCallback(publisher.publishDataPoints(published), new PluginError(publisher));
+            }
+
+            return storeResult;
+          }
+        });
+  }
+
+  /**
+   * Remember the provided data point as the latest one of its time series if it is newer than the
+   * one so far and the latest data points are remembered at all.
+   */
+  private void rememberLatest(final TimeSeriesId timeSeriesId, final IncomingDataPoint point) {
+    if (latestPoints != null) {
+      latestPoints.add(timeSeriesId, point.dataPoint());
+    }
+  }
+
+  /**
+   * Connects the ingest pipeline to the label client and the store. The pipeline only receives data
+   * points that have passed validation in one of the {@code addPoint} methods.
+   */
+  private class PipelineSink implements IngestPipeline.Sink {
+    @Override
+    public ListenableFuture<TimeSeriesId> resolve(final String metric,
+                                                  final Map<String, String> tags) {
+      return labelClient.getTimeSeriesId(metric, tags);
+    }
+
+    @Override
+    public long resolveGeneration() {
+      return labelClient.timeSeriesIdGeneration();
+    }
+
+    @Override
+    public ListenableFuture<AddPointsResult> write(final List<IncomingDataPoint> points,
+                                                   final List<TimeSeriesId> timeSeriesIds) {
+      return addResolvedPoints(points, timeSeriesIds);
+    }
+  }
+
+  /**
+   * Parse the query that is in string form and execute it against the store as an interactive
+   * query.
    *
    * @param query The query to parse and perform
    * @return A future that on completion will contain the query result
    */
   public ListenableFuture<Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>> query(
       final String query) throws QueryException {
+    return query(query, QueryScheduler.Priority.INTERACTIVE);
+  }
+
+  /**
+   * Parse the query that is in string form and execute it against the store once the query
+   * scheduler lets queries of the provided priority run.
+   *
+   * @param query The query to parse and perform
+   * @param priority The priority to schedule the query with
+   * @return A future that on completion will contain the query result
+   */
+  public ListenableFuture<Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>> query(
+      final String query,
+      final QueryScheduler.Priority priority) throws QueryException {
 
     final ANTLRInputStream input = new ANTLRInputStream(query);
     final SelectLexer lexer = new SelectLexer(input);
@@ -247,40 +719,157 @@ public class DataPointsClient implements Measurable {
           public ListenableFuture<Map<DecoratedTimeSeriesId,
               AsyncIterator<? extends DataPoint>>> apply(
               final TimeSeriesQuery timeSeriesQuery) throws Exception {
-            return query(timeSeriesQuery);
+            return query(timeSeriesQuery, priority);
           }
         });
   }
 
   /**
-   * Execute the query against the configured store.
+   * Execute the query against the configured store as an interactive query. Queries with a
+   * resolution are answered from the coarsest rollups that satisfy it, if there are any, unless
+   * they have a limit. The store falls back to the data points as they were written for the time
+   * that its rollups do not cover. Queries for the single latest data point are answered from the
+   * latest data points that have been written through this instance for the time series where it
+   * is known.
    *
    * @param query The query to perform
    * @return A future that on completion will contain the query result
+   * @see RollupInterval#coarsestWithin(long)
    */
   public ListenableFuture<Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>> query(
       final TimeSeriesQuery query) {
+    return query(query, QueryScheduler.Priority.INTERACTIVE);
+  }
+
+  /**
+   * Execute the query against the configured store like {@link #query(TimeSeriesQuery)} does once
+   * the query scheduler lets queries of the provided priority run. The query is given the
+   * provided priority before it is run against the store. The future contains a {@link
+   * QueryRejectedException} if the query was not let through.
+   *
+   * <p>The query holds its slot in the scheduler until every iterator in the result has been read
+   * to the end or closed, so callers that stop reading early must close the iterators they leave.
+   *
+   * @param query The query to perform
+   * @param priority The priority to schedule the query with
+   * @return A future that on completion will contain the query result
+   */
+  public ListenableFuture<Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>> query(
+      final TimeSeriesQuery query,
+      final QueryScheduler.Priority priority) {
+    final TimeSeriesQuery prioritized = query.toBuilder().priority(priority).build();
+    return queries.submitUntilReleased(priority,
+        slot -> holdUntilRead(startQuery(prioritized), slot));
+  }
+
+  private static ListenableFuture<Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>>
+      holdUntilRead(
+      final ListenableFuture<Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>> result,
+      final QueryScheduler.Slot slot) {
+    return transform(result,
+        new Function<Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>,
+            Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>>() {
+          @Override
+          public Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>> apply(
+              final Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>> dataPoints) {
+            return SlotHolder.holdUntilRead(dataPoints, slot);
+          }
+        });
+  }
+
+  /**
+   * Start the query against the configured store now that it has been given a slot.
+   */
+  private ListenableFuture<Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>>
+      startQuery(final TimeSeriesQuery query) {
+    final Optional<RollupInterval> interval = RollupInterval.coarsestWithin(query.resolution());
+
+    if (interval.isPresent() && query.limit() == 0) {
+      return transform(store.queryRollups(query, interval.get()),
+          DataPointsClient.this::applyAggregation);
+    }
+
+    if (latestPoints != null && query.limit() == 1 && query.descending()) {
+      return transform(transform(store.query(query), latestFromCache(query)),
+          DataPointsClient.this::applyAggregation);
+    }
+
     return transform(store.query(query), DataPointsClient.this::applyAggregation);
   }
 
+  /**
+   * Create a function that replaces the data points of every time series whose latest data point is
+   * known and within the time bounds of the provided query with just that data point. The data
+   * points of the store are lazily read so those time series are never read from it. The store is
+   * not consulted at all for them, which is only correct when this instance is the single writer,
+   * see {@link LatestPointCache}.
+   */
+  private Function<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>,
+      Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> latestFromCache(
+      final TimeSeriesQuery query) {
+    return new Function<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>,
+        Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>>() {
+      @Override
+      public Map<TimeSeriesId, AsyncIterator<? extends DataPoint>> apply(
+          final Map<TimeSeriesId, AsyncIterator<? extends DataPoint>> result) {
+        final ImmutableMap.Builder<TimeSeriesId, AsyncIterator<? extends DataPoint>> latest =
+            ImmutableMap.builder();
+
+        for (final Map.Entry<TimeSeriesId, AsyncIterator<? extends DataPoint>> timeSeries
+            : result.entrySet()) {
+          final Optional<DataPoint> dataPoint = latestPoints.latest(timeSeries.getKey(),
+              query.startTime(), query.endTime());
+
+          if (dataPoint.isPresent()) {
+            latest.put(timeSeries.getKey(), AsyncIterators.of(ImmutableList.of(dataPoint.get())));
+          } else {
+            latest.put(timeSeries);
+          }
+        }
+
+        return latest.build();
+      }
+    };
+  }
+
   private ListenableFuture<Map<DecoratedTimeSeriesId,
       AsyncIterator<? extends DataPoint>>> applyAggregation(
       final Map<TimeSeriesId, AsyncIterator<? extends DataPoint>> result) {
-    return transformKeys(result,
-        (AsyncFunction<Map.Entry<TimeSeriesId, AsyncIterator<? extends DataPoint>>, ResultEntry>)
-            DataPointsClient.this::applyTimeSeriesName);
-  }
+    // Resolve the names of every time series at once so that labels shared between them are only
+    // looked up once.
+    return transform(labelClient.resolveAll(result.keySet()),
+        new Function<Map<TimeSeriesId, DecoratedTimeSeriesId>,
+            Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>>() {
+          @Override
+          public Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>> apply(
+              final Map<TimeSeriesId, DecoratedTimeSeriesId> decoratedIds) {
+            final ImmutableMap.Builder<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>>
+                decoratedResult = ImmutableMap.builder();
 
-  private ListenableFuture<ResultEntry> applyTimeSeriesName(
-      final Map.Entry<TimeSeriesId, AsyncIterator<? extends DataPoint>> resultEntry) {
-    return transform(labelClient.resolve(resultEntry.getKey()),
-      (DecoratedTimeSeriesId decoratedTimeSeries) -> {
-        return new ResultEntry(decoratedTimeSeries, resultEntry.getValue());
-      });
+            for (final Map.Entry<TimeSeriesId, AsyncIterator<? extends DataPoint>> resultEntry
+                : result.entrySet()) {
+              decoratedResult.put(decoratedIds.get(resultEntry.getKey()), resultEntry.getValue());
+            }
+
+            return decoratedResult.build();
+          }
+        });
   }
 
   @Override
   public void registerMetricsWith(final MetricRegistry registry) {
     registry.register("freki.core.add_data_point", addDataPointTimer);
+    registry.register("freki.core.add_data_points", addDataPointsTimer);
+    admission.registerMetricsWith(registry);
+    queries.registerMetricsWith(registry);
+    registry.registerAll(publisher.metrics());
+
+    if (pipeline != null) {
+      pipeline.registerMetricsWith(registry);
+    }
+
+    if (wal != null) {
+      wal.registerMetricsWith(registry);
+    }
   }
 }
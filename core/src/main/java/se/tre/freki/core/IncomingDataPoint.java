@@ -0,0 +1,40 @@
+package se.tre.freki.core;
+
+import se.tre.freki.query.DataPoint;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * A data point as it is received from a client, that is with the metric and tags still in their
+ * string form. Instances of this class are added in batches through {@link
+ * DataPointsClient#addPoints(java.util.List)}.
+ */
+@AutoValue
+public abstract class IncomingDataPoint {
+  /**
+   * Create an instance with the provided information.
+   */
+  public static IncomingDataPoint create(final String metric,
+                                         final Map<String, String> tags,
+                                         final DataPoint dataPoint) {
+    return new AutoValue_IncomingDataPoint(metric, ImmutableMap.copyOf(tags), dataPoint);
+  }
+
+  /**
+   * Hide the constructor and prevent subclasses other than the one provided by {@link AutoValue}.
+   */
+  IncomingDataPoint() {
+  }
+
+  /** The name of the metric the data point belongs to. */
+  public abstract String metric();
+
+  /** The tags of the time series the data point belongs to. */
+  public abstract ImmutableMap<String, String> tags();
+
+  /** The timestamp and value of the data point. */
+  public abstract DataPoint dataPoint();
+}
@@ -0,0 +1,640 @@
+package se.tre.freki.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.stats.Measurable;
+import se.tre.freki.storage.AddPointsResult;
+import se.tre.freki.utils.InvalidConfigException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A staging area for single data points between the front-ends and the store. Each time series is
+ * hashed on its metric and tags to one of a fixed number of shards. A shard has a preallocated ring
+ * buffer of mutable slots that data points are copied into and a single worker thread that drains
+ * the buffer in batches, resolves the time series and hands the batch to the store.
+ *
+ * <p>Adding a data point to the pipeline does not allocate any futures or callbacks, the price for
+ * this is that the caller only learns whether the data point was accepted into the buffer. Data
+ * points that later fail to be written are logged and counted.
+ *
+ * <p>Since all data points of a time series go to the same shard they are written in the order they
+ * were accepted. Each worker keeps the time series it has resolved in a map that only it touches,
+ * so time series that are written to repeatedly are resolved without any locking or contention
+ * with the other workers. The maps are cleared when the shared time series cache is invalidated.
+ *
+ * <p>Each buffer is a bounded multi-producer single-consumer queue where each slot carries a
+ * sequence number that tells producers and the worker whose turn it is to use the slot.
+ */
+class IngestPipeline implements Measurable, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(IngestPipeline.class);
+
+  /**
+   * How long workers park for when they find their buffer empty.
+   */
+  private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /**
+   * The hooks a pipeline uses to resolve and write the data points it has staged.
+   */
+  interface Sink {
+    /**
+     * Resolve the time series behind the metric and tags.
+     */
+    ListenableFuture<TimeSeriesId> resolve(String metric, Map<String, String> tags);
+
+    /**
+     * A number that changes whenever previously resolved time series may have become invalid.
+     */
+    long resolveGeneration();
+
+    /**
+     * Write the data points to the time series at the same index in {@code timeSeriesIds}.
+     */
+    ListenableFuture<AddPointsResult> write(List<IncomingDataPoint> points,
+                                            List<TimeSeriesId> timeSeriesIds);
+  }
+
+  private final Shard[] shards;
+  private final int batchSize;
+  private final int maxSeriesPerShard;
+
+  /**
+   * Resolves and writes the staged data points, it is handed to the pipeline when the pipeline is
+   * started.
+   */
+  private Sink sink;
+
+  private volatile boolean running;
+
+  private final Timer queueTimer = new Timer();
+  private final Timer writeTimer = new Timer();
+  private final Counter failed = new Counter();
+
+  /**
+   * Create a new pipeline. No data points will be accepted until {@link #start(Sink)} has been
+   * called.
+   *
+   * @param shards The number of shards and thereby worker threads
+   * @param bufferSize The minimum number of data points each shard's buffer should fit, it will be
+   * rounded up to the next power of two
+   * @param batchSize The maximum number of data points a worker writes at once
+   * @param maxSeriesPerShard The maximum number of resolved time series each worker remembers
+   */
+  IngestPipeline(final int shards,
+                 final int bufferSize,
+                 final int batchSize,
+                 final int maxSeriesPerShard) {
+    checkArgument(shards > 0, "There must be at least one shard");
+    checkArgument(bufferSize > 0 && bufferSize <= 1 << 30,
+        "The buffer size must be between 1 and 2^30 but was %s", bufferSize);
+    checkArgument(batchSize > 0, "The batch size must be larger than zero");
+    checkArgument(maxSeriesPerShard >= 0, "The max number of series must not be negative");
+
+    this.batchSize = batchSize;
+    this.maxSeriesPerShard = maxSeriesPerShard;
+
+    final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+        .setNameFormat("freki-ingest-shard-%d")
+        .setDaemon(true)
+        .build();
+
+    final int capacity = Math.max(Integer.highestOneBit(bufferSize - 1) << 1, 1);
+
+    this.shards = new Shard[shards];
+    for (int i = 0; i < shards; i++) {
+      this.shards[i] = new Shard(capacity, threadFactory);
+    }
+  }
+
+  /**
+   * Create a new pipeline configured by the {@code freki.core.ingest_pipeline} settings in the
+   * provided config.
+   *
+   * @param config The config to read the settings from
+   * @return A newly created pipeline that has not been started
+   * @throws InvalidConfigException if any of the settings are invalid
+   */
+  static IngestPipeline fromConfig(final Config config) {
+    final int configShards = config.getInt("freki.core.ingest_pipeline.shards");
+
+    if (configShards < 0) {
+      throw new InvalidConfigException(config.getValue("freki.core.ingest_pipeline.shards"),
+          "The number of shards must not be negative");
+    }
+
+    final int shards = configShards == 0
+        ? Runtime.getRuntime().availableProcessors()
+        : configShards;
+
+    final int bufferSize = config.getInt("freki.core.ingest_pipeline.buffer_size");
+
+    if (bufferSize < 1 || bufferSize > 1 << 30) {
+      throw new InvalidConfigException(config.getValue("freki.core.ingest_pipeline.buffer_size"),
+          "The buffer size must be between 1 and 2^30");
+    }
+
+    final int batchSize = config.getInt("freki.core.ingest_pipeline.batch_size");
+
+    if (batchSize < 1) {
+      throw new InvalidConfigException(config.getValue("freki.core.ingest_pipeline.batch_size"),
+          "The batch size must be larger than zero");
+    }
+
+    final long maxSeries = config.getLong("freki.core.time_series_ids.cache.max_size");
+    final int maxSeriesPerShard = (int) Math.min(maxSeries / shards, Integer.MAX_VALUE);
+
+    return new IngestPipeline(shards, bufferSize, batchSize, maxSeriesPerShard);
+  }
+
+  /**
+   * Start the worker threads.
+   *
+   * @param sink Resolves and writes the staged data points
+   */
+  void start(final Sink sink) {
+    checkState(!running, "The pipeline has already been started");
+    this.sink = checkNotNull(sink);
+    running = true;
+
+    for (final Shard shard : shards) {
+      shard.worker.start();
+    }
+  }
+
+  /**
+   * Stop accepting data points and wait for the workers to write the data points that are already
+   * in the buffers. Data points that are offered while the pipeline is being closed may be dropped.
+   */
+  @Override
+  public void close() {
+    running = false;
+
+    for (final Shard shard : shards) {
+      if (shard.worker.isAlive()) {
+        Uninterruptibles.joinUninterruptibly(shard.worker);
+      }
+    }
+  }
+
+  /**
+   * The number of slots in the buffer of each shard.
+   */
+  int capacity() {
+    return shards[0].slots.length;
+  }
+
+  /**
+   * Offer a floating point data point to the pipeline.
+   *
+   * @return {@code true} if the data point was accepted, {@code false} if the buffer of its shard
+   * is full or the pipeline is not running
+   */
+  boolean offer(final String metric,
+                final Map<String, String> tags,
+                final long timestamp,
+                final float value) {
+    return offer(metric, tags, timestamp, ValueType.FLOAT, Float.floatToRawIntBits(value));
+  }
+
+  /**
+   * Offer a double precision floating point data point to the pipeline.
+   *
+   * @return {@code true} if the data point was accepted, {@code false} if the buffer of its shard
+   * is full or the pipeline is not running
+   */
+  boolean offer(final String metric,
+                final Map<String, String> tags,
+                final long timestamp,
+                final double value) {
+    return offer(metric, tags, timestamp, ValueType.DOUBLE, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Offer a long integral data point to the pipeline.
+   *
+   * @return {@code true} if the data point was accepted, {@code false} if the buffer of its shard
+   * is full or the pipeline is not running
+   */
+  boolean offer(final String metric,
+                final Map<String, String> tags,
+                final long timestamp,
+                final long value) {
+    return offer(metric, tags, timestamp, ValueType.LONG, value);
+  }
+
+  /**
+   * Offer a data point of any value type to the pipeline.
+   *
+   * @return {@code true} if the data point was accepted, {@code false} if the buffer of its shard
+   * is full or the pipeline is not running
+   */
+  boolean offer(final IncomingDataPoint point) {
+    final DataPoint dataPoint = point.dataPoint();
+
+    if (dataPoint instanceof DataPoint.LongDataPoint) {
+      return offer(point.metric(), point.tags(), dataPoint.timestamp(),
+          ((DataPoint.LongDataPoint) dataPoint).value());
+    } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+      return offer(point.metric(), point.tags(), dataPoint.timestamp(),
+          ((DataPoint.FloatDataPoint) dataPoint).value());
+    } else {
+      return offer(point.metric(), point.tags(), dataPoint.timestamp(),
+          ((DataPoint.DoubleDataPoint) dataPoint).value());
+    }
+  }
+
+  private boolean offer(final String metric,
+                        final Map<String, String> tags,
+                        final long timestamp,
+                        final ValueType type,
+                        final long valueBits) {
+    if (!running) {
+      return false;
+    }
+
+    return shardFor(metric, tags).offer(metric, tags, timestamp, type, valueBits);
+  }
+
+  private Shard shardFor(final String metric, final Map<String, String> tags) {
+    final int hash = SeriesKey.hash(metric, tags);
+    return shards[(hash & Integer.MAX_VALUE) % shards.length];
+  }
+
+  @Override
+  public void registerMetricsWith(final MetricRegistry registry) {
+    registry.register("freki.core.ingest.queue_depth", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        long depth = 0;
+        for (final Shard shard : shards) {
+          depth += shard.depth();
+        }
+        return depth;
+      }
+    });
+
+    registry.register("freki.core.ingest.queue_time", queueTimer);
+    registry.register("freki.core.ingest.write_time", writeTimer);
+    registry.register("freki.core.ingest.failed", failed);
+  }
+
+  private enum ValueType {
+    FLOAT, DOUBLE, LONG
+  }
+
+  /**
+   * A ring buffer and the worker that drains it. Everything but the slots and {@link #tail} is only
+   * touched by the worker thread.
+   */
+  private final class Shard {
+    private final Slot[] slots;
+    private final int mask;
+
+    /**
+     * The sequence of the next slot to publish to.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * The sequence of the next slot to drain. Only written by the worker.
+     */
+    private volatile long head;
+
+    private final Thread worker;
+
+    /**
+     * The time series this worker has resolved, least recently used first.
+     */
+    private final LinkedHashMap<SeriesKey, TimeSeriesId> series;
+    private final SeriesKey probe = new SeriesKey();
+    private long seriesGeneration;
+
+    Shard(final int capacity, final ThreadFactory threadFactory) {
+      this.slots = new Slot[capacity];
+      this.mask = capacity - 1;
+
+      for (int sequence = 0; sequence < capacity; sequence++) {
+        slots[sequence] = new Slot(sequence);
+      }
+
+      this.series = new LinkedHashMap<SeriesKey, TimeSeriesId>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<SeriesKey, TimeSeriesId> eldest) {
+          return size() > maxSeriesPerShard;
+        }
+      };
+
+      this.worker = threadFactory.newThread(this::drainUntilClosed);
+    }
+
+    long depth() {
+      return Math.max(tail.get() - head, 0);
+    }
+
+    boolean offer(final String metric,
+                  final Map<String, String> tags,
+                  final long timestamp,
+                  final ValueType type,
+                  final long valueBits) {
+      long sequence = tail.get();
+      Slot slot;
+
+      while (true) {
+        slot = slots[(int) sequence & mask];
+        final long difference = slot.sequence - sequence;
+
+        if (difference == 0) {
+          if (tail.compareAndSet(sequence, sequence + 1)) {
+            break;
+          }
+
+          sequence = tail.get();
+        } else if (difference < 0) {
+          // The slot still holds a data point from the previous lap so the buffer is full.
+          return false;
+        } else {
+          sequence = tail.get();
+        }
+      }
+
+      slot.metric = metric;
+      // The caller may change its map once this returns.
+      slot.tags = ImmutableMap.copyOf(tags);
+      slot.timestamp = timestamp;
+      slot.type = type;
+      slot.valueBits = valueBits;
+      slot.publishedNanos = System.nanoTime();
+      slot.sequence = sequence + 1;
+
+      return true;
+    }
+
+    /**
+     * Move up to {@link #batchSize} data points from the buffer into {@code batch}.
+     */
+    private void drainTo(final List<IncomingDataPoint> batch) {
+      final long now = System.nanoTime();
+      long sequence = head;
+
+      while (batch.size() < batchSize) {
+        final Slot slot = slots[(int) sequence & mask];
+
+        if (slot.sequence != sequence + 1) {
+          // Nothing has been published to the slot yet so the buffer is empty.
+          break;
+        }
+
+        batch.add(IncomingDataPoint.create(slot.metric, slot.tags, slot.dataPoint()));
+        queueTimer.update(now - slot.publishedNanos, TimeUnit.NANOSECONDS);
+
+        slot.metric = null;
+        slot.tags = null;
+        slot.sequence = sequence + slots.length;
+        sequence++;
+      }
+
+      head = sequence;
+    }
+
+    private void drainUntilClosed() {
+      final List<IncomingDataPoint> batch = new ArrayList<>(batchSize);
+
+      while (running || head != tail.get()) {
+        drainTo(batch);
+
+        if (batch.isEmpty()) {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+          continue;
+        }
+
+        write(batch);
+        batch.clear();
+      }
+    }
+
+    /**
+     * Resolve the time series of the batch and write it. The worker waits for the batch to
+     * complete, this means that a slow store will fill up the buffer and cause new data points to
+     * be rejected instead of piling up on the heap.
+     */
+    private void write(final List<IncomingDataPoint> batch) {
+      final Timer.Context time = writeTimer.time();
+
+      try {
+        final List<IncomingDataPoint> points = new ArrayList<>(batch.size());
+        final List<TimeSeriesId> timeSeriesIds = new ArrayList<>(batch.size());
+        resolve(batch, points, timeSeriesIds);
+
+        if (points.isEmpty()) {
+          return;
+        }
+
+        final AddPointsResult result =
+            Uninterruptibles.getUninterruptibly(sink.write(points, timeSeriesIds));
+
+        if (!result.isSuccessful()) {
+          failed.inc(result.failures().size());
+          LOG.warn("Failed to add {} out of {} staged data points", result.failures().size(),
+              result.size());
+        }
+      } catch (ExecutionException e) {
+        failed.inc(batch.size());
+        LOG.error("Failed to add {} staged data points", batch.size(), e.getCause());
+      } catch (RuntimeException e) {
+        failed.inc(batch.size());
+        LOG.error("Failed to add {} staged data points", batch.size(), e);
+      } finally {
+        time.stop();
+      }
+    }
+
+    /**
+     * Resolve the time series of all data points in the batch, first from the worker's own map and
+     * then through the sink. The data points whose time series could be resolved are added to
+     * {@code points} and their time series to {@code timeSeriesIds}.
+     */
+    private void resolve(final List<IncomingDataPoint> batch,
+                         final List<IncomingDataPoint> points,
+                         final List<TimeSeriesId> timeSeriesIds) {
+      final long generation = sink.resolveGeneration();
+
+      if (generation != seriesGeneration) {
+        series.clear();
+        seriesGeneration = generation;
+      }
+
+      Map<SeriesKey, ListenableFuture<TimeSeriesId>> pending = null;
+
+      for (final IncomingDataPoint point : batch) {
+        probe.set(point.metric(), point.tags());
+
+        if (series.containsKey(probe)) {
+          continue;
+        }
+
+        if (pending == null) {
+          pending = new HashMap<>();
+        }
+
+        if (!pending.containsKey(probe)) {
+          pending.put(probe.copy(), sink.resolve(point.metric(), point.tags()));
+        }
+      }
+
+      if (pending != null) {
+        final Map<SeriesKey, TimeSeriesId> resolved = new HashMap<>();
+
+        for (final Map.Entry<SeriesKey, ListenableFuture<TimeSeriesId>> lookup
+            : pending.entrySet()) {
+          try {
+            resolved.put(lookup.getKey(), Uninterruptibles.getUninterruptibly(lookup.getValue()));
+          } catch (ExecutionException e) {
+            LOG.info("Unable to resolve the time series {}", lookup.getKey(), e.getCause());
+          }
+        }
+
+        // Only remember the resolved time series if nothing was invalidated during the lookups,
+        // which have all completed by now.
+        if (sink.resolveGeneration() == generation) {
+          series.putAll(resolved);
+        }
+      }
+
+      for (final IncomingDataPoint point : batch) {
+        probe.set(point.metric(), point.tags());
+        TimeSeriesId timeSeriesId = series.get(probe);
+
+        if (timeSeriesId == null && pending != null) {
+          final ListenableFuture<TimeSeriesId> lookup = pending.get(probe);
+
+          if (lookup != null && lookup.isDone()) {
+            try {
+              timeSeriesId = Uninterruptibles.getUninterruptibly(lookup);
+            } catch (ExecutionException e) {
+              // Already logged above
+            }
+          }
+        }
+
+        if (timeSeriesId == null) {
+          failed.inc();
+          continue;
+        }
+
+        points.add(point);
+        timeSeriesIds.add(timeSeriesId);
+      }
+    }
+  }
+
+  /**
+   * The metric and tags of a time series. Workers reuse a single instance to look up time series
+   * so that a lookup does not allocate anything.
+   */
+  private static final class SeriesKey {
+    private String metric;
+    private Map<String, String> tags;
+    private int hash;
+
+    static int hash(final String metric, final Map<String, String> tags) {
+      return 31 * metric.hashCode() + tags.hashCode();
+    }
+
+    void set(final String metric, final Map<String, String> tags) {
+      this.metric = metric;
+      this.tags = tags;
+      this.hash = hash(metric, tags);
+    }
+
+    SeriesKey copy() {
+      final SeriesKey copy = new SeriesKey();
+      copy.metric = metric;
+      copy.tags = tags;
+      copy.hash = hash;
+      return copy;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (this == other) {
+        return true;
+      }
+
+      if (!(other instanceof SeriesKey)) {
+        return false;
+      }
+
+      final SeriesKey key = (SeriesKey) other;
+      return hash == key.hash && metric.equals(key.metric) && tags.equals(key.tags);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return metric + tags;
+    }
+  }
+
+  /**
+   * A reusable holder of a data point in a buffer. The fields other than {@link #sequence} are only
+   * accessed by the thread that currently owns the slot, ownership is handed over by the write to
+   * {@link #sequence}.
+   */
+  private static final class Slot {
+    volatile long sequence;
+
+    String metric;
+    Map<String, String> tags;
+    long timestamp;
+    ValueType type;
+    long valueBits;
+    long publishedNanos;
+
+    Slot(final long sequence) {
+      this.sequence = sequence;
+    }
+
+    DataPoint dataPoint() {
+      switch (type) {
+        case FLOAT:
+          return DataPoints.floatPoint(timestamp, Float.intBitsToFloat((int) valueBits));
+        case DOUBLE:
+          return DataPoints.doublePoint(timestamp, Double.longBitsToDouble(valueBits));
+        case LONG:
+        default:
+          return DataPoints.longPoint(timestamp, valueBits);
+      }
+    }
+  }
+}
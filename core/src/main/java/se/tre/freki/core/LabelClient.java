@@ -13,6 +13,7 @@ import se.tre.freki.labels.LabelType;
 import se.tre.freki.labels.Labels;
 import se.tre.freki.labels.StaticTimeSeriesId;
 import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.labels.TimeSeriesIdCache;
 import se.tre.freki.query.DecoratedTimeSeriesId;
 import se.tre.freki.search.IdChangeIndexerListener;
 import se.tre.freki.search.SearchPlugin;
@@ -24,6 +25,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
@@ -31,9 +33,12 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.typesafe.config.Config;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -47,10 +52,15 @@ public class LabelClient implements Measurable {
   /** Label type context for the tag values. */
   final LabelClientTypeContext tagValues;
 
+  private final Store store;
+
   private final IdLookupStrategy tagKeyLookupStrategy;
   private final IdLookupStrategy tagValueLookupStrategy;
   private final IdLookupStrategy metricLookupStrategy;
 
+  /** Cache of the time series IDs behind previously seen metric and tags combinations. */
+  private final TimeSeriesIdCache timeSeriesIds;
+
   /**
    * Create a new instance using the given non-null arguments to configure itself.
    */
@@ -60,7 +70,7 @@ public class LabelClient implements Measurable {
                      final EventBus idEventBus,
                      final SearchPlugin searchPlugin) {
     checkNotNull(config);
-    checkNotNull(store);
+    this.store = checkNotNull(store);
 
     tagKeyLookupStrategy = lookupStrategy(
         config.getBoolean("freki.core.auto_create_tagks"));
@@ -76,6 +86,10 @@ public class LabelClient implements Measurable {
     tagValues = new LabelClientTypeContext(store, LabelType.TAGV, idEventBus,
         config.getLong("freki.core.tag_values.cache.max_size"));
 
+    timeSeriesIds = new TimeSeriesIdCache(
+        config.getLong("freki.core.time_series_ids.cache.max_size"));
+    idEventBus.register(timeSeriesIds);
+
     // Notify the search plugin about new and deleted labels
     idEventBus.register(new IdChangeIndexerListener(store, searchPlugin));
   }
@@ -264,13 +278,27 @@ public class LabelClient implements Measurable {
   }
 
   /**
-   * Returns an initialized {@link TimeSeriesId} for this metric and these tags.
+   * Returns an initialized {@link TimeSeriesId} for this metric and these tags. The returned time
+   * series ID has been prepared by {@link Store#prepareTimeSeriesId(TimeSeriesId)}. Time series
+   * that have been resolved before will be served from a cache without looking up the individual
+   * labels.
    *
    * @param metric The metric to use in the TSUID
    * @param tags The string tags to use in the TSUID
    */
   ListenableFuture<TimeSeriesId> getTimeSeriesId(final String metric,
                                                  final Map<String, String> tags) {
+    return timeSeriesIds.get(metric, tags, () -> resolveTimeSeriesId(metric, tags));
+  }
+
+  /**
+   * Resolve the {@link TimeSeriesId} for this metric and these tags by looking up each label.
+   *
+   * @param metric The metric to use in the TSUID
+   * @param tags The string tags to use in the TSUID
+   */
+  private ListenableFuture<TimeSeriesId> resolveTimeSeriesId(final String metric,
+                                                             final Map<String, String> tags) {
     // Use the configured metric lookup strategy to get the id behind the name
     final ListenableFuture<LabelId> metric_id = metricLookupStrategy.getId(metrics, metric);
 
@@ -283,7 +311,7 @@ public class LabelClient implements Measurable {
 
       @Override
       public TimeSeriesId apply(final LabelId metricid) {
-        return new StaticTimeSeriesId(metricid, tagIds);
+        return store.prepareTimeSeriesId(new StaticTimeSeriesId(metricid, tagIds));
       }
     }
 
@@ -299,11 +327,20 @@ public class LabelClient implements Measurable {
         new TransformToTimeSeriesId());
   }
 
+  /**
+   * A number that changes every time the time series returned by {@link #getTimeSeriesId(String,
+   * Map)} may have become invalid because a label was renamed or deleted.
+   */
+  long timeSeriesIdGeneration() {
+    return timeSeriesIds.generation();
+  }
+
   @Override
   public void registerMetricsWith(final MetricRegistry registry) {
     metrics.registerMetricsWith(registry);
     tagKeys.registerMetricsWith(registry);
     tagValues.registerMetricsWith(registry);
+    timeSeriesIds.registerMetricsWith(registry);
   }
 
   /**
@@ -330,6 +367,85 @@ public class LabelClient implements Measurable {
     });
   }
 
+  /**
+   * Resolve all the names for the label IDs in all of the provided time series IDs. Every distinct
+   * label ID is only looked up once, regardless of how many of the time series IDs it is part of,
+   * and the label IDs that are not in the cache are fetched from the store in bulk.
+   *
+   * @param ids The time series IDs to resolve all the names for
+   * @return A future that on completion will contain a decorated time series ID for each of the
+   * provided time series IDs or a {@link LabelException} if any of the label IDs does not exist
+   */
+  public ListenableFuture<Map<TimeSeriesId, DecoratedTimeSeriesId>> resolveAll(
+      final Collection<? extends TimeSeriesId> ids) {
+    final Set<LabelId> metricIds = new HashSet<>();
+    final Set<LabelId> tagKeyIds = new HashSet<>();
+    final Set<LabelId> tagValueIds = new HashSet<>();
+
+    for (final TimeSeriesId id : ids) {
+      metricIds.add(id.metric());
+
+      final Iterator<LabelId> tagIterator = id.tags().iterator();
+      while (tagIterator.hasNext()) {
+        tagKeyIds.add(tagIterator.next());
+        tagValueIds.add(tagIterator.next());
+      }
+    }
+
+    final ListenableFuture<List<Map<LabelId, String>>> names = allAsList(ImmutableList.of(
+        metrics.getNames(metricIds), tagKeys.getNames(tagKeyIds),
+        tagValues.getNames(tagValueIds)));
+
+    return transform(names,
+        new AsyncFunction<List<Map<LabelId, String>>, Map<TimeSeriesId, DecoratedTimeSeriesId>>() {
+          @Override
+          public ListenableFuture<Map<TimeSeriesId, DecoratedTimeSeriesId>> apply(
+              final List<Map<LabelId, String>> names) {
+            // These are in the same order as they are provided in the call to Futures#allAsList.
+            final Map<LabelId, String> metricNames = names.get(0);
+            final Map<LabelId, String> tagKeyNames = names.get(1);
+            final Map<LabelId, String> tagValueNames = names.get(2);
+
+            final ImmutableMap.Builder<TimeSeriesId, DecoratedTimeSeriesId> decoratedIds =
+                ImmutableMap.builder();
+
+            for (final TimeSeriesId id : ids) {
+              final String metricName = metricNames.get(id.metric());
+
+              if (metricName == null) {
+                return Futures.immediateFailedFuture(
+                    new LabelException(id.metric(), LabelType.METRIC, "There is no such ID"));
+              }
+
+              final List<String> tagNames = new ArrayList<>(id.tags().size());
+              final Iterator<LabelId> tagIterator = id.tags().iterator();
+
+              while (tagIterator.hasNext()) {
+                final LabelId tagKey = tagIterator.next();
+                final LabelId tagValue = tagIterator.next();
+
+                if (!tagKeyNames.containsKey(tagKey)) {
+                  return Futures.immediateFailedFuture(
+                      new LabelException(tagKey, LabelType.TAGK, "There is no such ID"));
+                }
+
+                if (!tagValueNames.containsKey(tagValue)) {
+                  return Futures.immediateFailedFuture(
+                      new LabelException(tagValue, LabelType.TAGV, "There is no such ID"));
+                }
+
+                tagNames.add(tagKeyNames.get(tagKey));
+                tagNames.add(tagValueNames.get(tagValue));
+              }
+
+              decoratedIds.put(id, DecoratedTimeSeriesId.create(metricName, tagNames));
+            }
+
+            return Futures.immediateFuture(decoratedIds.build());
+          }
+        });
+  }
+
   private ListenableFuture<List<String>> resolveTags(final List<LabelId> tags) {
     final List<ListenableFuture<String>> resolvedTags = new ArrayList<>(tags.size());
 
@@ -0,0 +1,129 @@
+package se.tre.freki.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.utils.InvalidConfigException;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.typesafe.config.Config;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the latest data point that has been written to each time series through this instance
+ * so that queries for the latest data point can be answered without reading it from the store.
+ *
+ * <p>Time series are identified by their metric and tags since the store may hand out different
+ * {@link TimeSeriesId} implementations for writes and queries, and those do not agree on the order
+ * of the tags either. Only a bounded number of time series are remembered. The cache only knows
+ * about the writes that went through this instance and is trusted over the store, so it is only
+ * correct when this instance is the single writer to the store. With several writers a query will
+ * get a stale data point whenever the newest one was written by another node.
+ */
+final class LatestPointCache {
+  private final Cache<Map.Entry<LabelId, Map<LabelId, LabelId>>, DataPoint> points;
+
+  /**
+   * Create a new empty cache.
+   *
+   * @param maxSize The maximum number of time series to remember the latest data point of
+   */
+  LatestPointCache(final long maxSize) {
+    checkArgument(maxSize > 0, "The max size must be larger than zero");
+    this.points = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .build();
+  }
+
+  /**
+   * Create a new instance configured by the {@code freki.core.latest_points} settings in the
+   * provided config.
+   *
+   * @param config The config to read the settings from
+   * @return A newly created instance
+   * @throws InvalidConfigException if any of the settings are invalid
+   */
+  static LatestPointCache fromConfig(final Config config) {
+    final long maxSize = config.getLong("freki.core.latest_points.max_size");
+
+    if (maxSize < 1) {
+      throw new InvalidConfigException(config.getValue("freki.core.latest_points.max_size"),
+          "The max number of time series must be larger than zero");
+    }
+
+    return new LatestPointCache(maxSize);
+  }
+
+  /**
+   * Get the key of the provided time series. The tags are kept in a map from tag key to tag value
+   * so that the key does not depend on the order of the tags.
+   */
+  private static Map.Entry<LabelId, Map<LabelId, LabelId>> keyFor(
+      final TimeSeriesId timeSeriesId) {
+    final List<LabelId> tags = timeSeriesId.tags();
+    final ImmutableMap.Builder<LabelId, LabelId> tagMap = ImmutableMap.builder();
+
+    for (int i = 0; i < tags.size(); i += 2) {
+      tagMap.put(tags.get(i), tags.get(i + 1));
+    }
+
+    return Maps.immutableEntry(timeSeriesId.metric(), tagMap.build());
+  }
+
+  /**
+   * Remember the provided data point if it is newer than the latest one of its time series so far.
+   * The data point must not be a view that changes.
+   */
+  void add(final TimeSeriesId timeSeriesId, final DataPoint dataPoint) {
+    points.asMap().merge(keyFor(timeSeriesId), dataPoint,
+        (latest, added) -> added.timestamp() >= latest.timestamp() ? added : latest);
+  }
+
+  /**
+   * Remember the provided data point like {@link #add(TimeSeriesId, DataPoint)} does once the
+   * provided write of it has succeeded.
+   */
+  void addOnSuccess(final ListenableFuture<?> write,
+                    final TimeSeriesId timeSeriesId,
+                    final DataPoint dataPoint) {
+    Futures.addCallback(write, new FutureCallback<Object>() {
+      @Override
+      public void onSuccess(final Object result) {
+        add(timeSeriesId, dataPoint);
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        // The failure is reported to whoever wrote the data point.
+      }
+    });
+  }
+
+  /**
+   * Get the latest data point of the provided time series if it is known and within the provided
+   * time bounds. A data point that is newer than the end time does not say anything about which
+   * data point is the latest within the bounds so it is not returned either.
+   */
+  Optional<DataPoint> latest(final TimeSeriesId timeSeriesId,
+                             final long startTime,
+                             final long endTime) {
+    final DataPoint latest = points.getIfPresent(keyFor(timeSeriesId));
+
+    if (latest == null || latest.timestamp() < startTime || latest.timestamp() > endTime) {
+      return Optional.absent();
+    }
+
+    return Optional.of(latest);
+  }
+}
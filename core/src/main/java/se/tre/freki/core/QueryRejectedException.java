@@ -0,0 +1,33 @@
+package se.tre.freki.core;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Exception that indicates that a query was not run because there already were too many queries
+ * running or waiting to run.
+ *
+ * @see QueryScheduler
+ */
+public class QueryRejectedException extends RuntimeException {
+  /**
+   * The reason a query was rejected.
+   */
+  public enum Reason {
+    /** All query slots were taken and the wait queue was full. */
+    QUEUE_FULL,
+    /** The query waited in the queue for longer than the configured queue timeout. */
+    TIMED_OUT
+  }
+
+  private final Reason reason;
+
+  public QueryRejectedException(final Reason reason, final String message) {
+    super(message);
+    this.reason = checkNotNull(reason);
+  }
+
+  /** Why the query was rejected. */
+  public Reason reason() {
+    return reason;
+  }
+}
@@ -0,0 +1,461 @@
+package se.tre.freki.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.stats.Measurable;
+import se.tre.freki.utils.InvalidConfigException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of queries that are run against the store at the same time so that a few
+ * expensive queries can not starve all others.
+ *
+ * <p>Queries that arrive while every slot is taken wait in a queue of their {@link Priority}. When
+ * a slot is freed the queues take turns in proportion to their weights, so batch queries keep
+ * making progress while interactive queries are preferred. Queries that have waited for longer
+ * than the queue timeout and queries that arrive when the queues are full are rejected with a
+ * {@link QueryRejectedException}.
+ *
+ * <p>A query holds its slot until it releases the {@link Slot} that it is given. Queries submitted
+ * with {@link #submit(Priority, Supplier)} release it once the future that they return completes,
+ * queries submitted with {@link #submitUntilReleased(Priority, Function)} release it themselves
+ * once they no longer need it, which may be long after their future has completed. A query whose
+ * future fails or that throws when it is started always has its slot released.
+ */
+public class QueryScheduler implements Measurable {
+  /**
+   * The classes of queries that are queued apart from each other.
+   */
+  public enum Priority {
+    /** Queries that someone is waiting on, such as those behind dashboards. */
+    INTERACTIVE,
+    /** Queries for reports and exports that can wait for the interactive ones. */
+    BATCH
+  }
+
+  private final int maxRunning;
+  private final int maxQueued;
+  private final long queueTimeoutMillis;
+  private final ScheduledExecutorService timeoutExecutor;
+
+  private final Map<Priority, Integer> weights;
+
+  /**
+   * The queries waiting for a slot of each priority. Guarded by {@code this}.
+   */
+  private final Map<Priority, Queue<PendingQuery<?>>> queues = new EnumMap<>(Priority.class);
+
+  /**
+   * How far ahead each priority is in taking its turn compared to its weight. Guarded by {@code
+   * this}.
+   */
+  private final Map<Priority, Integer> credits = new EnumMap<>(Priority.class);
+
+  /**
+   * The number of queries that hold a slot. Guarded by {@code this}.
+   */
+  private int running;
+  /**
+   * The number of queries in all queues. Guarded by {@code this}.
+   */
+  private int queued;
+
+  /**
+   * The number of times {@link #drain()} has been requested but not yet served.
+   */
+  private final AtomicInteger drainRequests = new AtomicInteger();
+
+  private final Map<Priority, Timer> waitTimers = new EnumMap<>(Priority.class);
+  private final Map<Priority, Counter> rejected = new EnumMap<>(Priority.class);
+
+  /**
+   * Create a new instance.
+   *
+   * @param maxRunning The maximum number of queries that may run at the same time
+   * @param weights The relative number of freed slots that each priority is given while queries of
+   * several priorities are waiting
+   * @param maxQueued The maximum number of queries that may wait for a slot across all priorities
+   * @param queueTimeoutMillis The maximum number of milliseconds that a query may wait for a slot
+   * @param timeoutExecutor The executor that rejects queries once they have waited for too long
+   */
+  public QueryScheduler(final int maxRunning,
+                        final Map<Priority, Integer> weights,
+                        final int maxQueued,
+                        final long queueTimeoutMillis,
+                        final ScheduledExecutorService timeoutExecutor) {
+    checkArgument(maxRunning > 0, "The max number of running queries must be larger than zero");
+    checkArgument(maxQueued >= 0, "The max number of queued queries must not be negative");
+    checkArgument(queueTimeoutMillis > 0, "The queue timeout must be larger than zero");
+
+    this.maxRunning = maxRunning;
+    this.maxQueued = maxQueued;
+    this.queueTimeoutMillis = queueTimeoutMillis;
+    this.timeoutExecutor = checkNotNull(timeoutExecutor);
+    this.weights = new EnumMap<>(Priority.class);
+
+    for (final Priority priority : Priority.values()) {
+      final Integer weight = weights.get(priority);
+      checkArgument(weight != null && weight > 0,
+          "The weight of %s queries must be larger than zero but was %s", priority, weight);
+
+      this.weights.put(priority, weight);
+      queues.put(priority, new ArrayDeque<>());
+      credits.put(priority, 0);
+      waitTimers.put(priority, new Timer());
+      rejected.put(priority, new Counter());
+    }
+  }
+
+  /**
+   * Create a new instance configured by the {@code freki.core.queries} settings in the provided
+   * config.
+   *
+   * @param config The config to read the settings from
+   * @return A newly created instance
+   * @throws InvalidConfigException if any of the settings are invalid
+   */
+  public static QueryScheduler fromConfig(final Config config) {
+    final int maxRunning = config.getInt("freki.core.queries.max_running");
+
+    if (maxRunning < 1) {
+      throw new InvalidConfigException(config.getValue("freki.core.queries.max_running"),
+          "The max number of running queries must be larger than zero");
+    }
+
+    final int maxQueued = config.getInt("freki.core.queries.max_queued");
+
+    if (maxQueued < 0) {
+      throw new InvalidConfigException(config.getValue("freki.core.queries.max_queued"),
+          "The max number of queued queries must not be negative");
+    }
+
+    final long queueTimeout = config.getDuration("freki.core.queries.queue_timeout",
+        TimeUnit.MILLISECONDS);
+
+    if (queueTimeout < 1) {
+      throw new InvalidConfigException(config.getValue("freki.core.queries.queue_timeout"),
+          "The queue timeout must be at least one millisecond");
+    }
+
+    final Map<Priority, Integer> weights = new EnumMap<>(Priority.class);
+
+    for (final Priority priority : Priority.values()) {
+      final String path =
+          "freki.core.queries.weights." + priority.name().toLowerCase(Locale.ENGLISH);
+      final int weight = config.getInt(path);
+
+      if (weight < 1) {
+        throw new InvalidConfigException(config.getValue(path),
+            "The weight of a priority must be larger than zero");
+      }
+
+      weights.put(priority, weight);
+    }
+
+    final ScheduledExecutorService timeoutExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("freki-query-timeouts-%d")
+            .setDaemon(true)
+            .build());
+
+    return new QueryScheduler(maxRunning, weights, maxQueued, queueTimeout, timeoutExecutor);
+  }
+
+  /**
+   * Run the provided query as soon as there is a free slot for it and release the slot once the
+   * future of the query completes.
+   *
+   * @param priority The priority of the query
+   * @param query A supplier that starts the query
+   * @return A future that will contain the result of the query or a {@link
+   * QueryRejectedException} if it was not run
+   */
+  public <T> ListenableFuture<T> submit(final Priority priority,
+                                        final Supplier<ListenableFuture<T>> query) {
+    return submitUntilReleased(priority, slot -> releaseOnCompletion(query.get(), slot));
+  }
+
+  private static <T> ListenableFuture<T> releaseOnCompletion(final ListenableFuture<T> future,
+                                                             final Slot slot) {
+    future.addListener(slot::release, MoreExecutors.directExecutor());
+    return future;
+  }
+
+  /**
+   * Run the provided query as soon as there is a free slot for it and hold the slot until the
+   * query releases it. This lets queries whose results are read lazily hold their slot until the
+   * results have been read.
+   *
+   * @param priority The priority of the query
+   * @param query A function that starts the query given the slot that it must release once it is
+   * done
+   * @return A future that will contain the result of the query or a {@link
+   * QueryRejectedException} if it was not run
+   */
+  public <T> ListenableFuture<T> submitUntilReleased(
+      final Priority priority,
+      final Function<Slot, ListenableFuture<T>> query) {
+    final PendingQuery<T> pending;
+
+    synchronized (this) {
+      // Queries may not skip past those that are already waiting.
+      if (queued == 0 && running < maxRunning) {
+        running++;
+        waitTimers.get(priority).update(0, TimeUnit.NANOSECONDS);
+        return run(query);
+      }
+
+      if (queued >= maxQueued) {
+        return Futures.immediateFailedFuture(reject(priority,
+            QueryRejectedException.Reason.QUEUE_FULL,
+            "There are already " + queued + " queries waiting to run"));
+      }
+
+      pending = new PendingQuery<>(priority, query);
+      pending.timeout = timeoutExecutor.schedule(() -> timeout(pending), queueTimeoutMillis,
+          TimeUnit.MILLISECONDS);
+      queues.get(priority).add(pending);
+      queued++;
+    }
+
+    return pending.result;
+  }
+
+  /**
+   * Start the query in a slot that already has been taken. The slot is freed if the query fails,
+   * otherwise it is up to the query to free it.
+   */
+  private <T> ListenableFuture<T> run(final Function<Slot, ListenableFuture<T>> query) {
+    final Slot slot = new Slot();
+    final ListenableFuture<T> future;
+
+    try {
+      future = query.apply(slot);
+    } catch (RuntimeException e) {
+      slot.release();
+      throw e;
+    }
+
+    Futures.addCallback(future, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(final T result) {
+        // The query releases the slot once it is done with it.
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        slot.release();
+      }
+    });
+
+    return future;
+  }
+
+  private void release() {
+    synchronized (this) {
+      running--;
+    }
+
+    drain();
+  }
+
+  /**
+   * Start as many queued queries as there are free slots for. Queries that complete immediately
+   * call this method again from within {@link PendingQuery#start()}, those calls only record that
+   * another pass is needed so that the stack does not grow with the length of the queues.
+   */
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+
+    int requests = 1;
+
+    do {
+      PendingQuery<?> next;
+
+      while ((next = pollAdmitted()) != null) {
+        next.start();
+      }
+
+      requests = drainRequests.addAndGet(-requests);
+    } while (requests != 0);
+  }
+
+  /**
+   * Remove and return the next queued query if there is a free slot for it, the slot is taken on
+   * its behalf. Every priority with waiting queries earns its weight in credits each turn and the
+   * one with the most credits pays for the turn with the weights of all of them, which spreads the
+   * turns of each priority evenly in proportion to its weight.
+   */
+  private synchronized PendingQuery<?> pollAdmitted() {
+    if (queued == 0 || running >= maxRunning) {
+      return null;
+    }
+
+    Priority next = null;
+    int totalWeight = 0;
+
+    for (final Priority priority : Priority.values()) {
+      if (queues.get(priority).isEmpty()) {
+        credits.put(priority, 0);
+        continue;
+      }
+
+      final int weight = weights.get(priority);
+      credits.put(priority, credits.get(priority) + weight);
+      totalWeight += weight;
+
+      if (next == null || credits.get(priority) > credits.get(next)) {
+        next = priority;
+      }
+    }
+
+    credits.put(next, credits.get(next) - totalWeight);
+    queued--;
+    running++;
+    return queues.get(next).remove();
+  }
+
+  /**
+   * Remove the provided query from its queue and reject it unless it already has been started.
+   */
+  private void timeout(final PendingQuery<?> pending) {
+    synchronized (this) {
+      if (!queues.get(pending.priority).remove(pending)) {
+        return;
+      }
+
+      queued--;
+    }
+
+    pending.result.setException(reject(pending.priority, QueryRejectedException.Reason.TIMED_OUT,
+        "The query waited for longer than " + queueTimeoutMillis + " ms to run"));
+  }
+
+  private QueryRejectedException reject(final Priority priority,
+                                        final QueryRejectedException.Reason reason,
+                                        final String message) {
+    rejected.get(priority).inc();
+    return new QueryRejectedException(reason, message);
+  }
+
+  @Override
+  public void registerMetricsWith(final MetricRegistry registry) {
+    registry.register("freki.core.queries.running", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        synchronized (QueryScheduler.this) {
+          return running;
+        }
+      }
+    });
+
+    registry.register("freki.core.queries.queued", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        synchronized (QueryScheduler.this) {
+          return queued;
+        }
+      }
+    });
+
+    for (final Priority priority : Priority.values()) {
+      final String name = priority.name().toLowerCase(Locale.ENGLISH);
+      registry.register("freki.core.queries." + name + ".wait", waitTimers.get(priority));
+      registry.register("freki.core.queries." + name + ".rejected", rejected.get(priority));
+    }
+  }
+
+  /**
+   * The slot that a running query holds. Releasing it more than once has no effect.
+   */
+  public final class Slot {
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Slot() {
+    }
+
+    /**
+     * Free the slot so that the next query that waits for one may run.
+     */
+    public void release() {
+      if (released.compareAndSet(false, true)) {
+        QueryScheduler.this.release();
+      }
+    }
+  }
+
+  /**
+   * A query that is waiting in a queue for a slot.
+   */
+  private class PendingQuery<T> {
+    private final Priority priority;
+    private final Function<Slot, ListenableFuture<T>> query;
+    private final SettableFuture<T> result = SettableFuture.create();
+    private final long queuedAt = System.nanoTime();
+
+    /** Set while the query is queued, before it can be started. */
+    private ScheduledFuture<?> timeout;
+
+    PendingQuery(final Priority priority, final Function<Slot, ListenableFuture<T>> query) {
+      this.priority = priority;
+      this.query = query;
+    }
+
+    /**
+     * Start the query, the slot must already have been taken.
+     */
+    void start() {
+      timeout.cancel(false);
+      waitTimers.get(priority).update(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+
+      final ListenableFuture<T> future;
+
+      try {
+        future = run(query);
+      } catch (RuntimeException e) {
+        result.setException(e);
+        return;
+      }
+
+      Futures.addCallback(future, new FutureCallback<T>() {
+        @Override
+        public void onSuccess(final T value) {
+          result.set(value);
+        }
+
+        @Override
+        public void onFailure(final Throwable throwable) {
+          result.setException(throwable);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package se.tre.freki.core;
+
+import se.tre.freki.labels.TimeSeriesId;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A handle to a time series whose metric and tags have already been validated and resolved. Data
+ * points that are added through a handle skip the validation and label lookups that {@link
+ * DataPointsClient#addPoint(String, long, long, java.util.Map)} has to do for every data point.
+ *
+ * <p>Handles are obtained from {@link DataPointsClient#seriesHandle(String, java.util.Map)} and are
+ * meant to be held on to by producers that write to the same time series over and over again. A
+ * handle is not updated if any of the labels behind it are renamed or deleted, producers that need
+ * to observe such changes should obtain a new handle.
+ */
+@AutoValue
+public abstract class SeriesHandle {
+  static SeriesHandle create(final String metric,
+                             final ImmutableMap<String, String> tags,
+                             final TimeSeriesId timeSeriesId) {
+    return new AutoValue_SeriesHandle(metric, tags, timeSeriesId);
+  }
+
+  /**
+   * Hide the constructor and prevent subclasses other than the one provided by {@link AutoValue}.
+   */
+  SeriesHandle() {
+  }
+
+  /** The name of the metric of the time series. */
+  public abstract String metric();
+
+  /** The tags of the time series. */
+  public abstract ImmutableMap<String, String> tags();
+
+  /**
+   * The resolved time series ID as prepared by the store. This carries the stores own key for the
+   * time series, if it has any.
+   */
+  abstract TimeSeriesId timeSeriesId();
+}
@@ -0,0 +1,178 @@
+package se.tre.freki.core;
+
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.utils.AsyncIterator;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the slot of a query until every iterator in its result has been read to the end, has
+ * failed or has been closed. The iterators of a query result read lazily from the store so the
+ * query keeps loading the store for as long as any of them is still being read.
+ */
+final class SlotHolder {
+  private final QueryScheduler.Slot slot;
+
+  /** The number of iterators that may still be read. */
+  private final AtomicInteger unread;
+
+  private SlotHolder(final QueryScheduler.Slot slot, final int iterators) {
+    this.slot = slot;
+    this.unread = new AtomicInteger(iterators);
+  }
+
+  /**
+   * Wrap every iterator in the provided query result so that the provided slot is released once
+   * all of them are done with. The slot is released right away if the result is empty. Iterators
+   * that hand out blocks of data points are wrapped in iterators that do so as well.
+   *
+   * @param result The query result to wrap the iterators of
+   * @param slot The slot that the query holds
+   * @return A map with the same keys in the same order as the provided one
+   */
+  static <K> Map<K, AsyncIterator<? extends DataPoint>> holdUntilRead(
+      final Map<K, AsyncIterator<? extends DataPoint>> result,
+      final QueryScheduler.Slot slot) {
+    if (result.isEmpty()) {
+      slot.release();
+      return result;
+    }
+
+    final SlotHolder holder = new SlotHolder(slot, result.size());
+    final Map<K, AsyncIterator<? extends DataPoint>> held = new LinkedHashMap<>(result.size());
+
+    for (final Map.Entry<K, AsyncIterator<? extends DataPoint>> entry : result.entrySet()) {
+      held.put(entry.getKey(), holder.hold(entry.getValue()));
+    }
+
+    return held;
+  }
+
+  private AsyncIterator<? extends DataPoint> hold(
+      final AsyncIterator<? extends DataPoint> iterator) {
+    if (iterator instanceof DataPointBlockIterator) {
+      return new HeldBlockIterator((DataPointBlockIterator) iterator);
+    }
+
+    return new HeldIterator<>(iterator);
+  }
+
+  private void iteratorDone() {
+    if (unread.decrementAndGet() == 0) {
+      slot.release();
+    }
+  }
+
+  private class HeldIterator<E> implements AsyncIterator<E> {
+    private final AsyncIterator<? extends E> iterator;
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    HeldIterator(final AsyncIterator<? extends E> iterator) {
+      this.iterator = iterator;
+    }
+
+    /**
+     * Give back the share of this iterator in the slot unless it already has been.
+     */
+    void markDone() {
+      if (done.compareAndSet(false, true)) {
+        iteratorDone();
+      }
+    }
+
+    @Override
+    public boolean hasMoreWithoutFetching() {
+      return iterator.hasMoreWithoutFetching();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> fetchMore() {
+      final ListenableFuture<Boolean> fetched = iterator.fetchMore();
+
+      Futures.addCallback(fetched, new FutureCallback<Boolean>() {
+        @Override
+        public void onSuccess(final Boolean hasMore) {
+          if (!hasMore) {
+            markDone();
+          }
+        }
+
+        @Override
+        public void onFailure(final Throwable throwable) {
+          markDone();
+        }
+      });
+
+      return fetched;
+    }
+
+    @Override
+    public boolean hasNext() {
+      final boolean hasNext;
+
+      try {
+        hasNext = iterator.hasNext();
+      } catch (RuntimeException e) {
+        markDone();
+        throw e;
+      }
+
+      if (!hasNext) {
+        markDone();
+      }
+
+      return hasNext;
+    }
+
+    @Override
+    public E next() {
+      return iterator.next();
+    }
+
+    @Override
+    public void close() {
+      try {
+        iterator.close();
+      } finally {
+        markDone();
+      }
+    }
+  }
+
+  private final class HeldBlockIterator extends HeldIterator<DataPoint>
+      implements DataPointBlockIterator {
+    private final DataPointBlockIterator blocks;
+
+    HeldBlockIterator(final DataPointBlockIterator blocks) {
+      super(blocks);
+      this.blocks = blocks;
+    }
+
+    @Override
+    public int nextBlock(final DataPointBlock block) {
+      final int read;
+
+      try {
+        read = blocks.nextBlock(block);
+      } catch (RuntimeException e) {
+        markDone();
+        throw e;
+      }
+
+      if (read == 0) {
+        markDone();
+      }
+
+      return read;
+    }
+  }
+}
@@ -0,0 +1,622 @@
+package se.tre.freki.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import se.tre.freki.labels.LabelException;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.stats.Measurable;
+import se.tre.freki.storage.AddPointsResult;
+import se.tre.freki.utils.InvalidConfigException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * A local log that incoming data points are appended to before they are written to the store. A
+ * data point is acknowledged as soon as it is in the log, a flusher thread then writes the logged
+ * data points to the store in batches. If the store is slow or unavailable the data points stay in
+ * the log and the flusher retries until the store accepts them, so short storage outages do not
+ * lose data points nor slow down ingest.
+ *
+ * <p>The log is split into memory mapped segment files of a fixed size. Appending to the log is a
+ * sequential write into the mapped memory of the newest segment, the operating system writes the
+ * pages to disk in the background. Segments are forced to disk when they are filled and when the
+ * log is closed, a crash of the machine may therefore lose the data points in the newest segment
+ * while a crash of the process does not.
+ *
+ * <p>Segments are deleted once all of their data points have been written to the store. Segments
+ * that are found in the directory when the log is opened are replayed from the start. A segment
+ * that was partly flushed before a restart will have some of its data points written twice, this is
+ * harmless since writing a data point is idempotent.
+ *
+ * <p>Each record is laid out as a 4 byte length, a 4 byte CRC32 of the payload and the payload
+ * itself. A length of zero marks the end of a segment and a record with a bad checksum is treated
+ * as a torn write, nothing after it in the segment is read.
+ */
+class WriteAheadLog implements Measurable, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+
+  private static final String SEGMENT_SUFFIX = ".wal";
+  private static final int HEADER_SIZE = 8;
+
+  private static final byte LONG_VALUE = 0;
+  private static final byte FLOAT_VALUE = 1;
+  private static final byte DOUBLE_VALUE = 2;
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Path directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final int batchSize;
+  private final long retryIntervalNanos;
+
+  /**
+   * Writes a batch of data points, it is handed to the log when the log is started.
+   */
+  private Function<List<IncomingDataPoint>, ListenableFuture<AddPointsResult>> writer;
+
+  /**
+   * The segments with data points that have not been flushed yet, oldest first. Only the last
+   * segment is appended to and only the first segment is flushed from.
+   */
+  private final Deque<Segment> segments = new ConcurrentLinkedDeque<>();
+  /**
+   * Guards appending to the last segment and rolling over to a new segment.
+   */
+  private final Object appendLock = new Object();
+  private long nextSegmentId;
+
+  private final Thread flusher;
+  private volatile boolean running;
+
+  private final Timer flushTimer = new Timer();
+  private final Counter flushFailures = new Counter();
+  private final Counter rejected = new Counter();
+  private final Counter dropped = new Counter();
+
+  /**
+   * Open the log in the provided directory. Any segments that are left in the directory will be
+   * replayed once the log is started.
+   *
+   * @param directory The directory to keep the segment files in, it will be created if it does not
+   * exist
+   * @param segmentSize The size in bytes of each segment file
+   * @param maxSegments The maximum number of segments to keep before new data points are rejected
+   * @param batchSize The maximum number of data points to hand to the writer at once
+   * @param retryIntervalMillis How long to wait before retrying a batch the writer failed
+   * @throws IOException if the directory or the segments in it could not be opened
+   */
+  WriteAheadLog(
+      final Path directory,
+      final int segmentSize,
+      final int maxSegments,
+      final int batchSize,
+      final long retryIntervalMillis)
+      throws IOException {
+    checkArgument(segmentSize > HEADER_SIZE, "The segment size must be larger than %s",
+        HEADER_SIZE);
+    checkArgument(maxSegments > 0, "The max number of segments must be larger than zero");
+    checkArgument(batchSize > 0, "The batch size must be larger than zero");
+    checkArgument(retryIntervalMillis >= 0, "The retry interval must not be negative");
+
+    this.directory = checkNotNull(directory);
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    this.batchSize = batchSize;
+    this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+
+    Files.createDirectories(directory);
+    openExistingSegments();
+
+    this.flusher = new Thread(this::flushUntilClosed, "freki-wal-flusher");
+    this.flusher.setDaemon(true);
+  }
+
+  /**
+   * Open the log configured by the {@code freki.core.wal} settings in the provided config.
+   *
+   * @param config The config to read the settings from
+   * @return An opened log that has not been started
+   * @throws InvalidConfigException if any of the settings are invalid
+   * @throws IOException if the directory or the segments in it could not be opened
+   */
+  static WriteAheadLog fromConfig(final Config config) throws IOException {
+    final Path directory = Paths.get(config.getString("freki.core.wal.directory"));
+    final long segmentSize = config.getBytes("freki.core.wal.segment_size");
+
+    if (segmentSize <= HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+      throw new InvalidConfigException(config.getValue("freki.core.wal.segment_size"),
+          "The segment size must be larger than " + HEADER_SIZE + " bytes and smaller than 2GB");
+    }
+
+    final int maxSegments = config.getInt("freki.core.wal.max_segments");
+
+    if (maxSegments < 1) {
+      throw new InvalidConfigException(config.getValue("freki.core.wal.max_segments"),
+          "The max number of segments must be larger than zero");
+    }
+
+    final int batchSize = config.getInt("freki.core.wal.batch_size");
+
+    if (batchSize < 1) {
+      throw new InvalidConfigException(config.getValue("freki.core.wal.batch_size"),
+          "The batch size must be larger than zero");
+    }
+
+    final long retryInterval = config.getDuration("freki.core.wal.retry_interval",
+        TimeUnit.MILLISECONDS);
+
+    return new WriteAheadLog(directory, (int) segmentSize, maxSegments, batchSize, retryInterval);
+  }
+
+  private void openExistingSegments() throws IOException {
+    final List<Path> paths = new ArrayList<>();
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      for (final Path path : stream) {
+        paths.add(path);
+      }
+    }
+
+    // The names are zero padded so sorting them by name sorts them by age.
+    Collections.sort(paths);
+
+    for (final Path path : paths) {
+      final String name = path.getFileName().toString();
+      final long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+      final Segment segment = Segment.open(path);
+
+      if (segment.writePosition == 0) {
+        segment.delete();
+        continue;
+      }
+
+      LOG.info("Replaying write-ahead log segment {} with {} bytes", path,
+          segment.writePosition);
+      segments.add(segment);
+      nextSegmentId = id + 1;
+    }
+  }
+
+  /**
+   * Start the thread that flushes the log to the store.
+   *
+   * @param writer Writes a batch of data points and returns a future that describes the outcome
+   */
+  void start(
+      final Function<List<IncomingDataPoint>, ListenableFuture<AddPointsResult>> writer) {
+    checkState(!running, "The write-ahead log has already been started");
+    this.writer = checkNotNull(writer);
+    running = true;
+    flusher.start();
+  }
+
+  /**
+   * Stop accepting data points and stop the flusher. Data points that have not been flushed stay in
+   * the log and will be replayed when it is opened again.
+   */
+  @Override
+  public void close() {
+    running = false;
+
+    if (flusher.isAlive()) {
+      LockSupport.unpark(flusher);
+      Uninterruptibles.joinUninterruptibly(flusher);
+    }
+
+    synchronized (appendLock) {
+      for (final Segment segment : segments) {
+        segment.close();
+      }
+    }
+  }
+
+  /**
+   * Append the data point to the log.
+   *
+   * @param point The data point to append
+   * @return {@code true} if the data point is in the log, {@code false} if the log has reached its
+   * max number of segments or has been closed
+   * @throws IOException if a new segment was needed but could not be created
+   * @throws IllegalArgumentException if the data point is too large to fit in a segment
+   */
+  boolean append(final IncomingDataPoint point) throws IOException {
+    final byte[] metric = encode(point.metric());
+    final List<byte[]> tags = new ArrayList<>(point.tags().size() * 2);
+    int size = 2 + metric.length + 1 + 8 + 1 + 8;
+
+    for (final Map.Entry<String, String> tag : point.tags().entrySet()) {
+      final byte[] key = encode(tag.getKey());
+      final byte[] value = encode(tag.getValue());
+      tags.add(key);
+      tags.add(value);
+      size += 2 + key.length + 2 + value.length;
+    }
+
+    final int recordSize = HEADER_SIZE + size;
+    checkArgument(recordSize <= segmentSize, "The data point needs %s bytes but segments are only"
+                                             + " %s bytes", recordSize, segmentSize);
+
+    synchronized (appendLock) {
+      if (!running) {
+        return false;
+      }
+
+      Segment segment = segments.peekLast();
+
+      if (segment == null || segment.sealed || segment.remaining() < recordSize) {
+        if (segments.size() >= maxSegments) {
+          rejected.inc();
+          return false;
+        }
+
+        if (segment != null) {
+          segment.seal();
+        }
+
+        segment = Segment.create(directory.resolve(segmentName(nextSegmentId)), segmentSize);
+        nextSegmentId++;
+        segments.add(segment);
+      }
+
+      final MappedByteBuffer buffer = segment.buffer;
+      final int start = segment.writePosition;
+
+      buffer.position(start + HEADER_SIZE);
+      buffer.putShort((short) metric.length).put(metric);
+      buffer.put((byte) point.tags().size());
+      for (final byte[] label : tags) {
+        buffer.putShort((short) label.length).put(label);
+      }
+
+      writeDataPoint(buffer, point.dataPoint());
+
+      buffer.putInt(start, size);
+      buffer.putInt(start + 4, checksum(buffer, start + HEADER_SIZE, size));
+
+      // The flusher only reads up to the write position so this publishes the record to it.
+      segment.writePosition = start + recordSize;
+    }
+
+    return true;
+  }
+
+  private static byte[] encode(final String label) {
+    final byte[] bytes = label.getBytes(UTF_8);
+    checkArgument(bytes.length <= Short.MAX_VALUE, "The label %s is too long", label);
+    return bytes;
+  }
+
+  private static void writeDataPoint(final MappedByteBuffer buffer, final DataPoint dataPoint) {
+    buffer.putLong(dataPoint.timestamp());
+
+    if (dataPoint instanceof DataPoint.LongDataPoint) {
+      buffer.put(LONG_VALUE).putLong(((DataPoint.LongDataPoint) dataPoint).value());
+    } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+      buffer.put(FLOAT_VALUE).putLong(
+          Float.floatToRawIntBits(((DataPoint.FloatDataPoint) dataPoint).value()));
+    } else if (dataPoint instanceof DataPoint.DoubleDataPoint) {
+      buffer.put(DOUBLE_VALUE).putLong(
+          Double.doubleToRawLongBits(((DataPoint.DoubleDataPoint) dataPoint).value()));
+    } else {
+      throw new IllegalArgumentException("Unknown type of data point " + dataPoint);
+    }
+  }
+
+  private static int checksum(final MappedByteBuffer buffer, final int offset, final int length) {
+    final ByteBuffer payload = buffer.duplicate();
+    payload.limit(offset + length).position(offset);
+
+    final CRC32 crc = new CRC32();
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  private static String segmentName(final long id) {
+    return String.format("%020d%s", id, SEGMENT_SUFFIX);
+  }
+
+  /**
+   * Read up to {@link #batchSize} data points from the segment starting at its read position. The
+   * read position is not moved.
+   *
+   * @return The position in the segment after the last data point that was read
+   */
+  private int readBatch(final Segment segment, final List<IncomingDataPoint> batch) {
+    final ByteBuffer buffer = segment.buffer.duplicate();
+    final int end = segment.writePosition;
+    int position = segment.readPosition;
+
+    while (position < end && batch.size() < batchSize) {
+      final int size = buffer.getInt(position);
+      buffer.position(position + HEADER_SIZE);
+      batch.add(readDataPoint(buffer));
+      position += HEADER_SIZE + size;
+    }
+
+    return position;
+  }
+
+  private static IncomingDataPoint readDataPoint(final ByteBuffer buffer) {
+    final String metric = readString(buffer);
+    final int tagCount = buffer.get();
+    final ImmutableMap.Builder<String, String> tags = ImmutableMap.builder();
+
+    for (int i = 0; i < tagCount; i++) {
+      tags.put(readString(buffer), readString(buffer));
+    }
+
+    final long timestamp = buffer.getLong();
+    final byte type = buffer.get();
+    final long value = buffer.getLong();
+
+    switch (type) {
+      case FLOAT_VALUE:
+        return IncomingDataPoint.create(metric, tags.build(),
+            DataPoints.floatPoint(timestamp, Float.intBitsToFloat((int) value)));
+      case DOUBLE_VALUE:
+        return IncomingDataPoint.create(metric, tags.build(),
+            DataPoints.doublePoint(timestamp, Double.longBitsToDouble(value)));
+      case LONG_VALUE:
+      default:
+        return IncomingDataPoint.create(metric, tags.build(),
+            DataPoints.longPoint(timestamp, value));
+    }
+  }
+
+  private static String readString(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getShort()];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private void flushUntilClosed() {
+    final List<IncomingDataPoint> batch = new ArrayList<>(batchSize);
+
+    while (running) {
+      final Segment segment = segments.peekFirst();
+
+      if (segment == null) {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+        continue;
+      }
+
+      // Read the flag before the batch, nothing can be appended to a segment once it is sealed.
+      final boolean sealed = segment.sealed;
+      final int position = readBatch(segment, batch);
+
+      if (batch.isEmpty()) {
+        if (sealed) {
+          // Everything in a sealed segment has been flushed so it is no longer needed.
+          segments.pollFirst();
+          segment.delete();
+        } else {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+
+        continue;
+      }
+
+      if (flush(batch)) {
+        segment.readPosition = position;
+      } else {
+        flushFailures.inc();
+        LockSupport.parkNanos(retryIntervalNanos);
+      }
+
+      batch.clear();
+    }
+  }
+
+  /**
+   * Write the batch to the store and wait for it to complete.
+   *
+   * @return {@code true} if the batch no longer needs to be kept in the log
+   */
+  private boolean flush(final List<IncomingDataPoint> batch) {
+    final Timer.Context time = flushTimer.time();
+
+    try {
+      final AddPointsResult result = Uninterruptibles.getUninterruptibly(writer.apply(batch));
+
+      for (final Throwable failure : result.failures().values()) {
+        // Data points that will never succeed are dropped so that they do not hold up the rest of
+        // the log, only retry for other failures.
+        if (!isPermanent(failure)) {
+          LOG.warn("Failed to flush {} out of {} data points from the write-ahead log, will retry",
+              result.failures().size(), result.size(), failure);
+          return false;
+        }
+      }
+
+      for (final Map.Entry<Integer, Throwable> failure : result.failures().entrySet()) {
+        LOG.warn("Dropping data point {} from the write-ahead log", batch.get(failure.getKey()),
+            failure.getValue());
+        dropped.inc();
+      }
+
+      return true;
+    } catch (Exception e) {
+      LOG.warn("Failed to flush {} data points from the write-ahead log, will retry", batch.size(),
+          e);
+      return false;
+    } finally {
+      time.stop();
+    }
+  }
+
+  /**
+   * Check if the provided failure of a single data point will happen again no matter how many
+   * times it is retried. Data points that are invalid or that use labels that do not exist and
+   * may not be created fail for good.
+   */
+  private static boolean isPermanent(final Throwable failure) {
+    for (final Throwable cause : Throwables.getCausalChain(failure)) {
+      if (cause instanceof IllegalArgumentException || cause instanceof LabelException) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public void registerMetricsWith(final MetricRegistry registry) {
+    registry.register("freki.core.wal.segments", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return segments.size();
+      }
+    });
+
+    registry.register("freki.core.wal.backlog_bytes", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        long backlog = 0;
+        for (final Segment segment : segments) {
+          backlog += segment.writePosition - segment.readPosition;
+        }
+        return backlog;
+      }
+    });
+
+    registry.register("freki.core.wal.flush_time", flushTimer);
+    registry.register("freki.core.wal.flush_failures", flushFailures);
+    registry.register("freki.core.wal.rejected", rejected);
+    registry.register("freki.core.wal.dropped", dropped);
+  }
+
+  /**
+   * A single memory mapped file in the log.
+   */
+  private static final class Segment {
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The position after the last complete record. Only written while holding the append lock.
+     */
+    volatile int writePosition;
+    /**
+     * The position of the first record that has not been flushed. Only used by the flusher.
+     */
+    volatile int readPosition;
+    /**
+     * Whether the segment will not be appended to anymore.
+     */
+    volatile boolean sealed;
+
+    private Segment(final Path path, final FileChannel channel, final MappedByteBuffer buffer) {
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+
+    static Segment create(final Path path, final int size) throws IOException {
+      try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+        file.setLength(size);
+      }
+
+      final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /**
+     * Open an existing segment and find the end of the last complete record in it. The returned
+     * segment is sealed.
+     */
+    static Segment open(final Path path) throws IOException {
+      final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      final Segment segment = new Segment(path, channel,
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+
+      final MappedByteBuffer buffer = segment.buffer;
+      int position = 0;
+
+      while (position + HEADER_SIZE <= buffer.capacity()) {
+        final int size = buffer.getInt(position);
+
+        if (size <= 0 || position + HEADER_SIZE + size > buffer.capacity()
+            || buffer.getInt(position + 4) != checksum(buffer, position + HEADER_SIZE, size)) {
+          break;
+        }
+
+        position += HEADER_SIZE + size;
+      }
+
+      segment.writePosition = position;
+      segment.sealed = true;
+      return segment;
+    }
+
+    int remaining() {
+      return buffer.capacity() - writePosition;
+    }
+
+    /**
+     * Stop appending to the segment and force it to disk.
+     */
+    void seal() {
+      sealed = true;
+      buffer.force();
+    }
+
+    void close() {
+      buffer.force();
+
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close write-ahead log segment {}", path, e);
+      }
+    }
+
+    void delete() {
+      try {
+        channel.close();
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete write-ahead log segment {}", path, e);
+      }
+    }
+  }
+}
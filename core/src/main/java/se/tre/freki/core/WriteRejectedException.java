@@ -0,0 +1,35 @@
+package se.tre.freki.core;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Exception that indicates that a write was not admitted because there already are too many writes
+ * in flight.
+ *
+ * @see AdmissionController
+ */
+public class WriteRejectedException extends RuntimeException {
+  /**
+   * The reason a write was rejected.
+   */
+  public enum Reason {
+    /** The limit on in-flight writes has been reached and the policy is to reject. */
+    INFLIGHT_LIMIT,
+    /** The limit on in-flight writes has been reached and the wait queue is full. */
+    QUEUE_FULL,
+    /** The limit on in-flight writes was not lifted within the configured block timeout. */
+    TIMED_OUT
+  }
+
+  private final Reason reason;
+
+  public WriteRejectedException(final Reason reason, final String message) {
+    super(message);
+    this.reason = checkNotNull(reason);
+  }
+
+  /** Why the write was rejected. */
+  public Reason reason() {
+    return reason;
+  }
+}
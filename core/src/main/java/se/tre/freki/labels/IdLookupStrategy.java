@@ -4,6 +4,7 @@ import static com.google.common.util.concurrent.Futures.transform;
 
 import com.google.common.base.Optional;
 import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
@@ -47,7 +48,8 @@ public interface IdLookupStrategy {
 
   /**
    * An ID lookup strategy that will create an ID for the provided name if it does not already
-   * exist.
+   * exist. If someone else creates the same name at the same time and wins, the ID they created
+   * will be returned instead.
    */
   class CreatingIdLookupStrategy implements IdLookupStrategy {
     private static final Logger LOG = LoggerFactory.getLogger(CreatingIdLookupStrategy.class);
@@ -64,13 +66,41 @@ public interface IdLookupStrategy {
               if (!id.isPresent()) {
                 LOG.info("Creating missing label with name {} in context {}",
                     name, labelClientTypeContext);
-                return labelClientTypeContext.createId(name);
+                return Futures.withFallback(labelClientTypeContext.createId(name),
+                    new ExistingIdFallback(labelClientTypeContext, name));
               }
 
               return Futures.immediateFuture(id.get());
             }
           });
     }
+
+    /**
+     * A fallback that looks up the ID of the name again if the name was taken while trying to
+     * create it.
+     */
+    private static class ExistingIdFallback implements FutureFallback<LabelId> {
+      private final LabelClientTypeContext labelClientTypeContext;
+      private final String name;
+
+      ExistingIdFallback(final LabelClientTypeContext labelClientTypeContext,
+                         final String name) {
+        this.labelClientTypeContext = labelClientTypeContext;
+        this.name = name;
+      }
+
+      @Override
+      public ListenableFuture<LabelId> create(@Nonnull final Throwable throwable) {
+        if (!(throwable instanceof LabelException)) {
+          return Futures.immediateFailedFuture(throwable);
+        }
+
+        LOG.info("Name {} in context {} was created concurrently, looking it up instead",
+            name, labelClientTypeContext);
+        return transform(labelClientTypeContext.getId(name),
+            new ToLabelIdOrThrow(name, labelClientTypeContext.type()));
+      }
+    }
   }
 
   /**
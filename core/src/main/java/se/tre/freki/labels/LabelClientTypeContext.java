@@ -18,15 +18,20 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nonnull;
 
@@ -118,6 +123,48 @@ public class LabelClientTypeContext implements Measurable {
     return transform(store.getName(id, type), new CacheNameFunction());
   }
 
+  /**
+   * Finds the names associated with all of the provided IDs. Names that are not in the cache are
+   * fetched from the store in a single call. IDs that do not have a name are left out of the
+   * returned map.
+   *
+   * @param ids The IDs to find the names of
+   * @see #getName(LabelId)
+   */
+  @Nonnull
+  public ListenableFuture<Map<LabelId, String>> getNames(final Collection<LabelId> ids) {
+    final Map<LabelId, String> cachedNames = new HashMap<>();
+    final List<LabelId> missingIds = new ArrayList<>();
+
+    for (final LabelId id : ImmutableSet.copyOf(ids)) {
+      final String name = idCache.getIfPresent(id);
+
+      if (name == null) {
+        missingIds.add(id);
+      } else {
+        cachedNames.put(id, name);
+      }
+    }
+
+    if (missingIds.isEmpty()) {
+      return Futures.<Map<LabelId, String>>immediateFuture(cachedNames);
+    }
+
+    return transform(store.getNames(missingIds, type),
+        new Function<Map<LabelId, String>, Map<LabelId, String>>() {
+          @Override
+          public Map<LabelId, String> apply(final Map<LabelId, String> fetchedNames) {
+            for (final Map.Entry<LabelId, String> fetchedName : fetchedNames.entrySet()) {
+              addNameToCache(fetchedName.getKey(), fetchedName.getValue());
+              addIdToCache(fetchedName.getValue(), fetchedName.getKey());
+            }
+
+            cachedNames.putAll(fetchedNames);
+            return cachedNames;
+          }
+        });
+  }
+
   private void addNameToCache(final LabelId id,
                               final String name) {
     final String foundName = idCache.getIfPresent(id);
@@ -202,6 +249,21 @@ public class LabelClientTypeContext implements Measurable {
     // start the assignment dance after stashing the deferred
     ListenableFuture<LabelId> uid = store.createLabel(name, type);
 
+    Futures.addCallback(uid, new FutureCallback<LabelId>() {
+      @Override
+      public void onSuccess(final LabelId uid) {
+        // Completed by the transformation below once the caches have been updated.
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        // Fail anyone that is waiting for this assignment and let the next attempt start over.
+        synchronized (pendingAssignments) {
+          pendingAssignments.remove(name).setException(throwable);
+        }
+      }
+    });
+
     return transform(uid, new Function<LabelId, LabelId>() {
       @Nonnull
       @Override
@@ -267,6 +329,8 @@ public class LabelClientTypeContext implements Measurable {
             idCache.put(oldUid.get(), newName);   // update  ID -> new name
             nameCache.invalidate(oldName);  // remove  old name -> ID
 
+            idEventBus.post(new LabelRenamedEvent(oldUid.get(), newName, type, oldName));
+
             // Delete the old forward mapping.
             return store.deleteLabel(oldName, type);
           }
@@ -0,0 +1,34 @@
+package se.tre.freki.labels;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The event that should be published to an {@link com.google.common.eventbus.EventBus} when a label
+ * has been renamed.
+ */
+public class LabelRenamedEvent extends LabelEvent {
+  private final String oldName;
+
+  /**
+   * Create an event for the label with the specified arguments. No arguments should be {@code
+   * null}.
+   *
+   * @param id The id of the label that has been renamed
+   * @param name The new name of the label
+   * @param type The type of the label that has been renamed
+   * @param oldName The name the label had before it was renamed
+   */
+  public LabelRenamedEvent(final LabelId id,
+                           final String name,
+                           final LabelType type,
+                           final String oldName) {
+    super(id, name, type);
+    this.oldName = oldName;
+  }
+
+  /** The name the label had before it was renamed. */
+  @Nonnull
+  public String getOldName() {
+    return oldName;
+  }
+}
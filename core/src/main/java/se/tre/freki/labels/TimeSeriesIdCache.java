@@ -0,0 +1,175 @@
+package se.tre.freki.labels;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.addCallback;
+
+import se.tre.freki.stats.CacheEvictionCountGauge;
+import se.tre.freki.stats.CacheHitRateGauge;
+import se.tre.freki.stats.CacheMissRateGauge;
+import se.tre.freki.stats.Measurable;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+
+/**
+ * A cache of resolved {@link TimeSeriesId}s keyed on the names of the metric and tags behind them.
+ * This allows the label lookups of a time series that has been seen before to be skipped
+ * altogether.
+ *
+ * <p>Instances of this class should be registered to the same {@link
+ * com.google.common.eventbus.EventBus} as the {@link LabelClientTypeContext}s so that the cache is
+ * invalidated when labels are renamed or deleted. A label that is created does not need to
+ * invalidate anything since no cached time series can refer to a name that did not exist before.
+ */
+public class TimeSeriesIdCache implements Measurable {
+  private final Cache<String, TimeSeriesId> cache;
+
+  /**
+   * Incremented every time the cache is invalidated. Lookups that started before an invalidation
+   * will not be added to the cache as they may have resolved names that no longer are valid.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Create a new cache that will hold at most {@code maxCacheSize} time series IDs.
+   *
+   * @param maxCacheSize The maximum number of time series IDs to cache
+   */
+  public TimeSeriesIdCache(final long maxCacheSize) {
+    cache = CacheBuilder.newBuilder()
+        .maximumSize(maxCacheSize)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Build the canonical string representation of the provided metric and tags. Neither '{', ',' or
+   * '=' are allowed in label names so the representation is unambiguous.
+   */
+  @Nonnull
+  static String keyFor(final String metric, final Map<String, String> tags) {
+    final SortedMap<String, String> sortedTags = tags instanceof SortedMap
+        ? (SortedMap<String, String>) tags
+        : new TreeMap<>(tags);
+
+    final StringBuilder key = new StringBuilder(metric.length() + 2 + sortedTags.size() * 16)
+        .append(metric)
+        .append('{');
+
+    boolean first = true;
+    for (final Map.Entry<String, String> tag : sortedTags.entrySet()) {
+      if (!first) {
+        key.append(',');
+      }
+
+      key.append(tag.getKey()).append('=').append(tag.getValue());
+      first = false;
+    }
+
+    return key.append('}').toString();
+  }
+
+  /**
+   * Get the time series ID behind the provided metric and tags. If it is not in the cache then the
+   * provided supplier will be asked to resolve it and the result will be cached once it is
+   * available.
+   *
+   * @param metric The metric name of the time series
+   * @param tags The tag names and values of the time series
+   * @param resolver Resolves the time series ID if it is not cached
+   * @return A future that on completion will contain the time series ID
+   */
+  @Nonnull
+  public ListenableFuture<TimeSeriesId> get(final String metric,
+                                            final Map<String, String> tags,
+                                            final Supplier<ListenableFuture<TimeSeriesId>>
+                                                resolver) {
+    final String key = keyFor(metric, tags);
+    final TimeSeriesId cached = cache.getIfPresent(key);
+
+    if (cached != null) {
+      return Futures.immediateFuture(cached);
+    }
+
+    final long resolveGeneration = generation.get();
+    final ListenableFuture<TimeSeriesId> resolved = checkNotNull(resolver.get());
+
+    addCallback(resolved, new FutureCallback<TimeSeriesId>() {
+      @Override
+      public void onSuccess(final TimeSeriesId timeSeriesId) {
+        if (generation.get() == resolveGeneration) {
+          cache.put(key, timeSeriesId);
+        }
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        // Failures are not cached, the next lookup will try again.
+      }
+    });
+
+    return resolved;
+  }
+
+  /**
+   * The number of times the cache has been invalidated. Callers that keep time series IDs of their
+   * own can compare this between lookups to learn when they should drop them.
+   */
+  public long generation() {
+    return generation.get();
+  }
+
+  /**
+   * Remove all cached time series IDs. Renames and deletions are rare enough that it is not worth
+   * keeping track of which time series refer to which names.
+   */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  /**
+   * The method that subscribes to {@link LabelRenamedEvent}s. You should not call this directly,
+   * post messages to the event bus that this listener is registered to instead.
+   *
+   * @param event The published event.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void labelRenamed(final LabelRenamedEvent event) {
+    invalidateAll();
+  }
+
+  /**
+   * The method that subscribes to {@link LabelDeletedEvent}s. You should not call this directly,
+   * post messages to the event bus that this listener is registered to instead.
+   *
+   * @param event The published event.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void labelDeleted(final LabelDeletedEvent event) {
+    invalidateAll();
+  }
+
+  @Override
+  public void registerMetricsWith(final MetricRegistry registry) {
+    registry.register("freki.core.time_series_ids.hitRate", new CacheHitRateGauge(cache));
+    registry.register("freki.core.time_series_ids.missRate", new CacheMissRateGauge(cache));
+    registry.register("freki.core.time_series_ids.evictionCount",
+        new CacheEvictionCountGauge(cache));
+  }
+}
@@ -0,0 +1,321 @@
+package se.tre.freki.plugins;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.meta.Annotation;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.utils.InvalidConfigException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link RealTimePublisher} that puts data points in a bounded queue and returns immediately. A
+ * dedicated dispatcher thread takes the data points off the queue and hands them in batches to
+ * {@link RealTimePublisher#publishDataPoints(List)} of the publisher it wraps. This keeps the I/O
+ * of a slow publisher off the ingest path.
+ *
+ * <p>The dispatcher waits for each batch to be published before it takes the next one, when the
+ * wrapped publisher can not keep up the queue fills up and the configured {@link Policy} decides
+ * what happens to new data points. Annotations are passed straight through.
+ */
+public class BatchingRealTimePublisher extends RealTimePublisher {
+  private static final Logger LOG = LoggerFactory.getLogger(BatchingRealTimePublisher.class);
+
+  /**
+   * The future returned for every data point that was put in the queue or dropped.
+   */
+  private static final ListenableFuture<Void> QUEUED = Futures.immediateFuture(null);
+
+  /**
+   * How long the dispatcher waits for the first data point of a batch before it checks whether it
+   * has been closed.
+   */
+  private static final long POLL_TIMEOUT_MILLIS = 100;
+
+  /**
+   * What to do with data points when the queue is full.
+   */
+  public enum Policy {
+    /**
+     * Block the calling thread until there is room in the queue.
+     */
+    BLOCK,
+    /**
+     * Discard the data point and count it in the {@code freki.publisher.dropped} metric.
+     */
+    DROP
+  }
+
+  private final RealTimePublisher delegate;
+  private final BlockingQueue<PublishedDataPoint> queue;
+  private final int batchSize;
+  private final long lingerNanos;
+  private final Policy policy;
+
+  private final Thread dispatcher;
+  private volatile boolean running;
+
+  private final Counter dropped = new Counter();
+  private final Timer publishTimer = new Timer();
+
+  /**
+   * Create a new instance that publishes to the provided publisher once it has been started.
+   *
+   * @param delegate The publisher to hand batches of data points to
+   * @param queueSize The maximum number of data points to hold in the queue
+   * @param batchSize The maximum number of data points to publish at once
+   * @param lingerMillis How long to wait for a batch to fill up before it is published anyway
+   * @param policy What to do with data points when the queue is full
+   */
+  public BatchingRealTimePublisher(final RealTimePublisher delegate,
+                                   final int queueSize,
+                                   final int batchSize,
+                                   final long lingerMillis,
+                                   final Policy policy) {
+    checkArgument(queueSize > 0, "The queue size must be larger than zero");
+    checkArgument(batchSize > 0, "The batch size must be larger than zero");
+    checkArgument(lingerMillis >= 0, "The linger time must not be negative");
+
+    this.delegate = checkNotNull(delegate);
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.batchSize = batchSize;
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    this.policy = checkNotNull(policy);
+
+    this.dispatcher = new Thread(this::dispatchUntilClosed, "freki-publisher-dispatcher");
+    this.dispatcher.setDaemon(true);
+  }
+
+  /**
+   * Create and start a new instance that wraps the provided publisher and is configured by the
+   * {@code freki.publisher.batching} settings in the provided config.
+   *
+   * @param config The config to read the settings from
+   * @param delegate The publisher to hand batches of data points to
+   * @return A started instance
+   * @throws InvalidConfigException if any of the settings are invalid
+   */
+  public static BatchingRealTimePublisher fromConfig(final Config config,
+                                                     final RealTimePublisher delegate) {
+    final int queueSize = config.getInt("freki.publisher.batching.queue_size");
+
+    if (queueSize < 1) {
+      throw new InvalidConfigException(config.getValue("freki.publisher.batching.queue_size"),
+          "The queue size must be larger than zero");
+    }
+
+    final int batchSize = config.getInt("freki.publisher.batching.batch_size");
+
+    if (batchSize < 1) {
+      throw new InvalidConfigException(config.getValue("freki.publisher.batching.batch_size"),
+          "The batch size must be larger than zero");
+    }
+
+    final long linger = config.getDuration("freki.publisher.batching.linger",
+        TimeUnit.MILLISECONDS);
+    final String policyName = config.getString("freki.publisher.batching.policy");
+    final Policy policy;
+
+    try {
+      policy = Policy.valueOf(policyName.toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidConfigException(config.getValue("freki.publisher.batching.policy"),
+          "The policy must be one of block or drop", e);
+    }
+
+    final BatchingRealTimePublisher publisher =
+        new BatchingRealTimePublisher(delegate, queueSize, batchSize, linger, policy);
+    publisher.start();
+    return publisher;
+  }
+
+  /**
+   * Start the dispatcher thread.
+   */
+  public void start() {
+    running = true;
+    dispatcher.start();
+  }
+
+  /**
+   * Stop the dispatcher once it has published the data points that are in the queue and close the
+   * wrapped publisher.
+   */
+  @Override
+  public void close() throws IOException {
+    running = false;
+
+    if (dispatcher.isAlive()) {
+      Uninterruptibles.joinUninterruptibly(dispatcher);
+    }
+
+    delegate.close();
+  }
+
+  @Override
+  public String version() {
+    return delegate.version();
+  }
+
+  @Override
+  public ListenableFuture<Void> publishDataPoint(final String metric,
+                                                 final long timestamp,
+                                                 final long value,
+                                                 final Map<String, String> tags,
+                                                 final TimeSeriesId timeSeriesId) {
+    return enqueue(PublishedDataPoint.create(metric, tags,
+        DataPoints.longPoint(timestamp, value), timeSeriesId));
+  }
+
+  @Override
+  public ListenableFuture<Void> publishDataPoint(final String metric,
+                                                 final long timestamp,
+                                                 final double value,
+                                                 final Map<String, String> tags,
+                                                 final TimeSeriesId timeSeriesId) {
+    return enqueue(PublishedDataPoint.create(metric, tags,
+        DataPoints.doublePoint(timestamp, value), timeSeriesId));
+  }
+
+  @Override
+  public ListenableFuture<Void> publishDataPoints(final List<PublishedDataPoint> points) {
+    for (final PublishedDataPoint point : points) {
+      enqueue(point);
+    }
+
+    return QUEUED;
+  }
+
+  @Override
+  public ListenableFuture<Void> publishAnnotation(final Annotation annotation) {
+    return delegate.publishAnnotation(annotation);
+  }
+
+  /**
+   * Put the data point in the queue. Dropped data points are only counted, failing the returned
+   * future would make every caller log an error at the moment the publisher is already overloaded.
+   */
+  private ListenableFuture<Void> enqueue(final PublishedDataPoint point) {
+    if (policy == Policy.BLOCK) {
+      Uninterruptibles.putUninterruptibly(queue, point);
+    } else if (!queue.offer(point)) {
+      dropped.inc();
+    }
+
+    return QUEUED;
+  }
+
+  private void dispatchUntilClosed() {
+    while (running || !queue.isEmpty()) {
+      final List<PublishedDataPoint> batch = nextBatch();
+
+      if (!batch.isEmpty()) {
+        publish(batch);
+      }
+    }
+  }
+
+  /**
+   * Take the next batch off the queue. The batch is returned when it is full or when {@link
+   * #lingerNanos} has passed since its first data point was taken.
+   *
+   * @return The next batch, it is empty if the queue stayed empty for a while
+   */
+  private List<PublishedDataPoint> nextBatch() {
+    final List<PublishedDataPoint> batch = new ArrayList<>(batchSize);
+
+    try {
+      final PublishedDataPoint first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+      if (first == null) {
+        return batch;
+      }
+
+      batch.add(first);
+      final long deadline = System.nanoTime() + lingerNanos;
+
+      while (batch.size() < batchSize) {
+        queue.drainTo(batch, batchSize - batch.size());
+
+        final long remaining = deadline - System.nanoTime();
+
+        if (batch.size() >= batchSize || remaining <= 0) {
+          break;
+        }
+
+        final PublishedDataPoint next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+
+        if (next == null) {
+          break;
+        }
+
+        batch.add(next);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    return batch;
+  }
+
+  private void publish(final List<PublishedDataPoint> batch) {
+    final Timer.Context time = publishTimer.time();
+
+    try {
+      Uninterruptibles.getUninterruptibly(delegate.publishDataPoints(batch));
+    } catch (ExecutionException e) {
+      LOG.error("Received an exception from {} while publishing {} data points", delegate,
+          batch.size(), e.getCause());
+    } catch (RuntimeException e) {
+      LOG.error("Received an exception from {} while publishing {} data points", delegate,
+          batch.size(), e);
+    } finally {
+      time.stop();
+    }
+  }
+
+  @Override
+  public MetricSet metrics() {
+    final Map<String, Metric> metrics = ImmutableMap.<String, Metric>builder()
+        .put("freki.publisher.queue_depth", new Gauge<Integer>() {
+          @Override
+          public Integer getValue() {
+            return queue.size();
+          }
+        })
+        .put("freki.publisher.dropped", dropped)
+        .put("freki.publisher.publish_time", publishTimer)
+        .putAll(delegate.metrics().getMetrics())
+        .build();
+
+    return new MetricSet() {
+      @Override
+      public Map<String, Metric> getMetrics() {
+        return metrics;
+      }
+    };
+  }
+}
@@ -33,7 +33,13 @@ public class PluginsModule {
           .forType(RealTimePublisherDescriptor.class)
           .pluginWithName(config.getString("freki.publisher.plugin"));
 
-      return descriptor.create(config);
+      final RealTimePublisher publisher = descriptor.create(config);
+
+      if (config.getBoolean("freki.publisher.batching.enabled")) {
+        return BatchingRealTimePublisher.fromConfig(config, publisher);
+      }
+
+      return publisher;
     } catch (Exception e) {
       throw new IllegalStateException("Unable to instantiate the configured realtime publisher", e);
     }
@@ -0,0 +1,46 @@
+package se.tre.freki.plugins;
+
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.query.DataPoint;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * A data point that has been written to the store and that should be published together with the
+ * time series it belongs to. Instances of this class are published in batches through {@link
+ * RealTimePublisher#publishDataPoints(java.util.List)}.
+ */
+@AutoValue
+public abstract class PublishedDataPoint {
+  /**
+   * Create an instance with the provided information.
+   */
+  public static PublishedDataPoint create(final String metric,
+                                          final Map<String, String> tags,
+                                          final DataPoint dataPoint,
+                                          final TimeSeriesId timeSeriesId) {
+    return new AutoValue_PublishedDataPoint(metric, ImmutableMap.copyOf(tags), dataPoint,
+        timeSeriesId);
+  }
+
+  /**
+   * Hide the constructor and prevent subclasses other than the one provided by {@link AutoValue}.
+   */
+  PublishedDataPoint() {
+  }
+
+  /** The name of the metric the data point belongs to. */
+  public abstract String metric();
+
+  /** The tags of the time series the data point belongs to. */
+  public abstract ImmutableMap<String, String> tags();
+
+  /** The timestamp and value of the data point. */
+  public abstract DataPoint dataPoint();
+
+  /** The ID of the time series the data point belongs to. */
+  public abstract TimeSeriesId timeSeriesId();
+}
@@ -3,9 +3,14 @@ package se.tre.freki.plugins;
 
 import se.tre.freki.labels.TimeSeriesId;
 import se.tre.freki.meta.Annotation;
+import se.tre.freki.query.DataPoint;
 
+import com.google.common.base.Functions;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -45,6 +50,35 @@ public abstract class RealTimePublisher extends Plugin {
                                                           final Map<String, String> tags,
                                                           final TimeSeriesId timeSeriesId);
 
+  /**
+   * Publish all of the provided data points to the backing sink. Publishers that can send several
+   * data points in one request should override this method, the default implementation publishes
+   * the data points one by one.
+   *
+   * @param points The data points to publish
+   * @return A future that indicates the completion of the call
+   */
+  public ListenableFuture<Void> publishDataPoints(final List<PublishedDataPoint> points) {
+    final List<ListenableFuture<Void>> published = new ArrayList<>(points.size());
+
+    for (final PublishedDataPoint point : points) {
+      final DataPoint dataPoint = point.dataPoint();
+
+      if (dataPoint instanceof DataPoint.LongDataPoint) {
+        published.add(publishDataPoint(point.metric(), dataPoint.timestamp(),
+            ((DataPoint.LongDataPoint) dataPoint).value(), point.tags(), point.timeSeriesId()));
+      } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+        published.add(publishDataPoint(point.metric(), dataPoint.timestamp(),
+            ((DataPoint.FloatDataPoint) dataPoint).value(), point.tags(), point.timeSeriesId()));
+      } else {
+        published.add(publishDataPoint(point.metric(), dataPoint.timestamp(),
+            ((DataPoint.DoubleDataPoint) dataPoint).value(), point.tags(), point.timeSeriesId()));
+      }
+    }
+
+    return Futures.transform(Futures.allAsList(published), Functions.<Void>constant(null));
+  }
+
   /**
    * Publish the provided annotation to the backing sink.
    *
@@ -14,4 +14,18 @@ public interface DataPoint {
   interface DoubleDataPoint extends DataPoint {
     double value();
   }
+
+  /**
+   * A summary of all data points of a time series within one bucket of a {@link RollupInterval}.
+   * The timestamp is the start of the bucket and the value is the average of the data points.
+   */
+  interface RollupDataPoint extends DoubleDataPoint {
+    double min();
+
+    double max();
+
+    double sum();
+
+    long count();
+  }
 }
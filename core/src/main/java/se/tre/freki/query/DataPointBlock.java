@@ -0,0 +1,144 @@
+package se.tre.freki.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A reusable block of data points that are laid out in primitive arrays. All data points in a block
+ * have values of the same type, which one is decided by the first data point that is added after
+ * the block was created or cleared. Only the value array that matches that type holds values.
+ *
+ * <p>Blocks are filled by a {@link DataPointBlockIterator} and let consumers that work through
+ * many data points, such as serializers and aggregators, read them without a virtual call and a
+ * type check per data point. Only the first {@link #size()} elements of the arrays are valid, the
+ * rest may contain data points from a previous use of the block.
+ */
+public final class DataPointBlock {
+  /**
+   * The type of the values in a block.
+   */
+  public enum ValueType {
+    LONG, FLOAT, DOUBLE
+  }
+
+  private final long[] timestamps;
+
+  private long[] longValues;
+  private float[] floatValues;
+  private double[] doubleValues;
+
+  private ValueType type;
+  private int size;
+
+  /**
+   * Create a new empty block.
+   *
+   * @param capacity The maximum number of data points the block can hold
+   */
+  public DataPointBlock(final int capacity) {
+    checkArgument(capacity > 0, "The capacity must be larger than zero");
+    this.timestamps = new long[capacity];
+  }
+
+  /**
+   * Remove all data points from the block so that it can be filled again.
+   */
+  public void clear() {
+    size = 0;
+    type = null;
+  }
+
+  /**
+   * Check whether a data point with a value of the provided type can be added to this block. This
+   * is the case as long as the block is not full and it either is empty or already holds values of
+   * the same type.
+   */
+  public boolean accepts(final ValueType valueType) {
+    return size < timestamps.length && (size == 0 || type == valueType);
+  }
+
+  /**
+   * Add a data point with a long value. The caller must have made sure that the block {@link
+   * #accepts(ValueType)} it.
+   */
+  public void addLong(final long timestamp, final long value) {
+    if (size == 0) {
+      type = ValueType.LONG;
+      longValues = longValues == null ? new long[timestamps.length] : longValues;
+    }
+
+    timestamps[size] = timestamp;
+    longValues[size++] = value;
+  }
+
+  /**
+   * Add a data point with a single precision floating point value. The caller must have made sure
+   * that the block {@link #accepts(ValueType)} it.
+   */
+  public void addFloat(final long timestamp, final float value) {
+    if (size == 0) {
+      type = ValueType.FLOAT;
+      floatValues = floatValues == null ? new float[timestamps.length] : floatValues;
+    }
+
+    timestamps[size] = timestamp;
+    floatValues[size++] = value;
+  }
+
+  /**
+   * Add a data point with a double precision floating point value. The caller must have made sure
+   * that the block {@link #accepts(ValueType)} it.
+   */
+  public void addDouble(final long timestamp, final double value) {
+    if (size == 0) {
+      type = ValueType.DOUBLE;
+      doubleValues = doubleValues == null ? new double[timestamps.length] : doubleValues;
+    }
+
+    timestamps[size] = timestamp;
+    doubleValues[size++] = value;
+  }
+
+  public int capacity() {
+    return timestamps.length;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isFull() {
+    return size == timestamps.length;
+  }
+
+  /**
+   * The type of the values in this block or {@code null} if it is empty.
+   */
+  public ValueType type() {
+    return type;
+  }
+
+  public long[] timestamps() {
+    return timestamps;
+  }
+
+  /**
+   * The values of the data points if the block holds long values.
+   */
+  public long[] longValues() {
+    return longValues;
+  }
+
+  /**
+   * The values of the data points if the block holds single precision floating point values.
+   */
+  public float[] floatValues() {
+    return floatValues;
+  }
+
+  /**
+   * The values of the data points if the block holds double precision floating point values.
+   */
+  public double[] doubleValues() {
+    return doubleValues;
+  }
+}
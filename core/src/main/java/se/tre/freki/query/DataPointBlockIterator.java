@@ -0,0 +1,23 @@
+package se.tre.freki.query;
+
+import se.tre.freki.utils.AsyncIterator;
+
+/**
+ * An {@link AsyncIterator} over data points that can also hand out its data points a block at a
+ * time. Calls to {@link #nextBlock(DataPointBlock)} may be freely mixed with calls to {@link
+ * #next()}, both continue where the other left off.
+ *
+ * @see DataPointBlocks#blocksOf(AsyncIterator)
+ */
+public interface DataPointBlockIterator extends AsyncIterator<DataPoint> {
+  /**
+   * Clear the provided block and fill it with the next data points of this iterator. This blocks
+   * like {@link #hasNext()} does until there is at least one data point but stops early once no
+   * more data points are available without fetching or once the type of the values changes.
+   *
+   * @param block The block to fill
+   * @return The number of data points in the block, zero if and only if the iterator has no more
+   * data points
+   */
+  int nextBlock(final DataPointBlock block);
+}
@@ -0,0 +1,133 @@
+package se.tre.freki.query;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.utils.AsyncIterator;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Static utility methods for working with data points a {@link DataPointBlock} at a time.
+ */
+public final class DataPointBlocks {
+  private DataPointBlocks() {
+  }
+
+  /**
+   * Get a block iterator over the data points of the provided iterator. Iterators that already
+   * support blocks are returned as they are, all others are wrapped in one that fills blocks one
+   * data point at a time.
+   */
+  public static DataPointBlockIterator blocksOf(final AsyncIterator<? extends DataPoint> iterator) {
+    if (iterator instanceof DataPointBlockIterator) {
+      return (DataPointBlockIterator) iterator;
+    }
+
+    return new IteratorBlockIterator(iterator);
+  }
+
+  /**
+   * Get the type of the value of the provided data point.
+   */
+  static DataPointBlock.ValueType valueType(final DataPoint dataPoint) {
+    if (dataPoint instanceof DataPoint.LongDataPoint) {
+      return DataPointBlock.ValueType.LONG;
+    } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+      return DataPointBlock.ValueType.FLOAT;
+    } else if (dataPoint instanceof DataPoint.DoubleDataPoint) {
+      return DataPointBlock.ValueType.DOUBLE;
+    }
+
+    throw new IllegalArgumentException("Data point " + dataPoint + " has an unknown type");
+  }
+
+  /**
+   * A block iterator that reads the data points of any other iterator one at a time. A data point
+   * that did not fit in the previous block is kept until the next one. Since data points may be
+   * views that change when the iterator moves on that one is never moved past until it has been
+   * added to a block.
+   */
+  private static final class IteratorBlockIterator implements DataPointBlockIterator {
+    private final AsyncIterator<? extends DataPoint> iterator;
+    private DataPoint pending;
+
+    IteratorBlockIterator(final AsyncIterator<? extends DataPoint> iterator) {
+      this.iterator = checkNotNull(iterator);
+    }
+
+    @Override
+    public int nextBlock(final DataPointBlock block) {
+      block.clear();
+
+      if (!hasNext()) {
+        return 0;
+      }
+
+      do {
+        final DataPoint dataPoint = pending != null ? pending : iterator.next();
+        pending = dataPoint;
+
+        if (!add(block, dataPoint)) {
+          break;
+        }
+
+        pending = null;
+      } while (!block.isFull() && iterator.hasMoreWithoutFetching());
+
+      return block.size();
+    }
+
+    private static boolean add(final DataPointBlock block, final DataPoint dataPoint) {
+      final DataPointBlock.ValueType type = valueType(dataPoint);
+
+      if (!block.accepts(type)) {
+        return false;
+      }
+
+      switch (type) {
+        case LONG:
+          block.addLong(dataPoint.timestamp(), ((DataPoint.LongDataPoint) dataPoint).value());
+          break;
+        case FLOAT:
+          block.addFloat(dataPoint.timestamp(), ((DataPoint.FloatDataPoint) dataPoint).value());
+          break;
+        default:
+          block.addDouble(dataPoint.timestamp(), ((DataPoint.DoubleDataPoint) dataPoint).value());
+          break;
+      }
+
+      return true;
+    }
+
+    @Override
+    public boolean hasMoreWithoutFetching() {
+      return pending != null || iterator.hasMoreWithoutFetching();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> fetchMore() {
+      if (pending != null) {
+        return Futures.immediateFuture(true);
+      }
+
+      return iterator.fetchMore();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return pending != null || iterator.hasNext();
+    }
+
+    @Override
+    public DataPoint next() {
+      if (pending != null) {
+        final DataPoint dataPoint = pending;
+        pending = null;
+        return dataPoint;
+      }
+
+      return iterator.next();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package se.tre.freki.query;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Factory methods for immutable {@link DataPoint} instances that carry their value with them. These
+ * are meant for data points that are on their way into a store, for example as part of a batch of
+ * incoming data points.
+ */
+public final class DataPoints {
+  private DataPoints() {
+  }
+
+  /**
+   * Create a data point with a long value.
+   */
+  public static DataPoint.LongDataPoint longPoint(final long timestamp, final long value) {
+    return new AutoValue_DataPoints_ImmutableLongDataPoint(timestamp, value);
+  }
+
+  /**
+   * Create a data point with a single precision floating point value.
+   */
+  public static DataPoint.FloatDataPoint floatPoint(final long timestamp, final float value) {
+    return new AutoValue_DataPoints_ImmutableFloatDataPoint(timestamp, value);
+  }
+
+  /**
+   * Create a data point with a double precision floating point value.
+   */
+  public static DataPoint.DoubleDataPoint doublePoint(final long timestamp, final double value) {
+    return new AutoValue_DataPoints_ImmutableDoubleDataPoint(timestamp, value);
+  }
+
+  /**
+   * Create a rollup of the data points within a bucket that starts at the provided timestamp.
+   */
+  public static DataPoint.RollupDataPoint rollupPoint(final long timestamp,
+                                                      final double min,
+                                                      final double max,
+                                                      final double sum,
+                                                      final long count) {
+    return new AutoValue_DataPoints_ImmutableRollupDataPoint(timestamp, min, max, sum, count);
+  }
+
+  @AutoValue
+  abstract static class ImmutableLongDataPoint implements DataPoint.LongDataPoint {
+  }
+
+  @AutoValue
+  abstract static class ImmutableFloatDataPoint implements DataPoint.FloatDataPoint {
+  }
+
+  @AutoValue
+  abstract static class ImmutableDoubleDataPoint implements DataPoint.DoubleDataPoint {
+  }
+
+  @AutoValue
+  abstract static class ImmutableRollupDataPoint implements DataPoint.RollupDataPoint {
+    @Override
+    public double value() {
+      return sum() / count();
+    }
+  }
+}
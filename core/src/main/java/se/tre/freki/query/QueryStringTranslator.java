@@ -24,6 +24,7 @@ import se.tre.freki.query.predicate.WildcardTimeSeriesIdPredicate;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.misc.NotNull;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
@@ -99,25 +100,63 @@ public class QueryStringTranslator extends se.tre.freki.query.SelectParserBaseLi
   public void enterSince(@NotNull final se.tre.freki.query.SelectParser.SinceContext ctx) {
     super.enterSince(ctx);
 
-    long finalTime = now;
+    buildTime(now - duration(ctx.week, ctx.day, ctx.hour, ctx.minute, ctx.second));
+  }
+
+  @Override
+  public void enterResolution(
+      @NotNull final se.tre.freki.query.SelectParser.ResolutionContext ctx) {
+    super.enterResolution(ctx);
+
+    queryBuilder.resolution(duration(ctx.week, ctx.day, ctx.hour, ctx.minute, ctx.second));
+  }
+
+  @Override
+  public void enterLimit(@NotNull final se.tre.freki.query.SelectParser.LimitContext ctx) {
+    super.enterLimit(ctx);
+
+    if (ctx.LAST() != null) {
+      queryBuilder.limit(1).descending(true);
+      return;
+    }
+
+    final int limit = Integer.parseInt(ctx.count.getText());
+
+    if (limit < 1) {
+      throw new QueryException("The limit must be at least one but was " + limit);
+    }
 
-    if (ctx.week != null) {
-      finalTime = finalTime - Long.parseLong(ctx.week.getText()) * WEEK_IN_MILLISECONDS;
+    queryBuilder.limit(limit).descending(ctx.DESC() != null);
+  }
+
+  /**
+   * Sum up the provided parts of a duration in milliseconds. Parts that are {@code null} were left
+   * out of the query and count as zero.
+   */
+  private static long duration(final Token week,
+                               final Token day,
+                               final Token hour,
+                               final Token minute,
+                               final Token second) {
+    long duration = 0;
+
+    if (week != null) {
+      duration += Long.parseLong(week.getText()) * WEEK_IN_MILLISECONDS;
     }
-    if (ctx.day != null) {
-      finalTime = finalTime - Long.parseLong(ctx.day.getText()) * DAY_IN_MILLISECONDS;
+    if (day != null) {
+      duration += Long.parseLong(day.getText()) * DAY_IN_MILLISECONDS;
     }
-    if (ctx.hour != null) {
-      finalTime = finalTime - Long.parseLong(ctx.hour.getText()) * HOUR_IN_MILLISECONDS;
+    if (hour != null) {
+      duration += Long.parseLong(hour.getText()) * HOUR_IN_MILLISECONDS;
     }
-    if (ctx.minute != null) {
-      finalTime = finalTime - Long.parseLong(ctx.minute.getText()) * MINUTE_IN_MILLISECONDS;
+    if (minute != null) {
+      duration += Long.parseLong(minute.getText()) * MINUTE_IN_MILLISECONDS;
     }
-    if (ctx.second != null) {
-      finalTime = finalTime - Long.parseLong(ctx.second.getText()) * SECOND_IN_MILLISECONDS;
+    if (second != null) {
+      duration += Long.parseLong(second.getText()) * SECOND_IN_MILLISECONDS;
     }
 
-    buildTime(finalTime);
+    return duration;
   }
 
   @Override
@@ -0,0 +1,61 @@
+package se.tre.freki.query;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.base.Optional;
+
+/**
+ * The intervals that data points are rolled up into as they are written. Each rollup summarizes
+ * all data points of a time series within one bucket of the interval as a {@link
+ * DataPoint.RollupDataPoint}. Buckets are aligned to the epoch.
+ */
+public enum RollupInterval {
+  MINUTE(MILLISECONDS.convert(1, MINUTES)),
+  HOUR(MILLISECONDS.convert(1, HOURS));
+
+  private final long duration;
+
+  RollupInterval(final long duration) {
+    this.duration = duration;
+  }
+
+  /**
+   * Find the coarsest interval that is not any coarser than the provided resolution. A query that
+   * asks for one data point every {@code resolution} milliseconds can be answered by the rollups of
+   * the returned interval.
+   *
+   * @param resolution The resolution in milliseconds that a query asks for
+   * @return The coarsest interval that satisfies the resolution or absent if raw data points are
+   * needed
+   */
+  public static Optional<RollupInterval> coarsestWithin(final long resolution) {
+    RollupInterval coarsest = null;
+
+    for (final RollupInterval interval : values()) {
+      if (interval.duration <= resolution) {
+        coarsest = interval;
+      }
+    }
+
+    return Optional.fromNullable(coarsest);
+  }
+
+  /**
+   * The number of milliseconds each bucket of this interval covers.
+   */
+  public long duration() {
+    return duration;
+  }
+
+  /**
+   * Get the start of the bucket that the provided timestamp falls within.
+   *
+   * @param timestamp A timestamp in milliseconds
+   * @return The timestamp in milliseconds of the start of the bucket
+   */
+  public long bucketFor(final long timestamp) {
+    return timestamp - Math.floorMod(timestamp, duration);
+  }
+}
@@ -0,0 +1,263 @@
+package se.tre.freki.query;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.query.predicate.AlternationTimeSeriesIdPredicate;
+import se.tre.freki.query.predicate.SimpleTimeSeriesIdPredicate;
+import se.tre.freki.query.predicate.TimeSeriesIdPredicate;
+import se.tre.freki.query.predicate.TimeSeriesQueryPredicate;
+import se.tre.freki.query.predicate.TimeSeriesTagPredicate;
+import se.tre.freki.query.predicate.TimeSeriesTagPredicate.TimeSeriesTagOperator;
+import se.tre.freki.query.predicate.WildcardTimeSeriesIdPredicate;
+import se.tre.freki.stats.Measurable;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-memory inverted index of time series that resolves the time series that match a query
+ * predicate without reading anything from the store.
+ *
+ * <p>Every time series is given a dense ordinal as it is added. The ordinals of the time series
+ * that use each metric, tag key, tag value and tag are kept as {@link SeriesPostings}, and
+ * predicates are evaluated with bitmap operations over them.
+ *
+ * <p>A predicate with the {@link TimeSeriesTagOperator#EQUALS} operator matches the time series
+ * that have at least one tag whose key and value match the key and value of the predicate, one
+ * with the {@link TimeSeriesTagOperator#NOT_EQUALS} operator matches all other time series.
+ *
+ * <p>Time series are never removed. The index only knows about the time series it has been told
+ * about, so it is up to the store to add every time series that may be queried.
+ *
+ * @param <T> The type of the time series IDs that are returned by {@link #resolve}
+ */
+public class SeriesIndex<T extends TimeSeriesId> implements Measurable {
+  private final Function<? super T, ?> keyFunction;
+
+  /**
+   * The ordinals of the time series keyed by the key of each time series. This is read without
+   * holding the lock so that time series that already have been added are cheap to add again.
+   */
+  private final ConcurrentMap<Object, Integer> ordinals = new ConcurrentHashMap<>();
+
+  private final List<T> series = new ArrayList<>();
+  private final Map<LabelId, SeriesPostings> metrics = new HashMap<>();
+  private final Map<LabelId, SeriesPostings> tagKeys = new HashMap<>();
+  private final Map<LabelId, SeriesPostings> tagValues = new HashMap<>();
+  private final Map<Map.Entry<LabelId, LabelId>, SeriesPostings> tags = new HashMap<>();
+
+  /**
+   * Create a new empty index.
+   *
+   * @param keyFunction A function that returns a key that identifies each time series, a time
+   * series whose key already is in the index is not added again
+   */
+  public SeriesIndex(final Function<? super T, ?> keyFunction) {
+    this.keyFunction = checkNotNull(keyFunction);
+  }
+
+  /**
+   * Check if a time series with the provided key already is in the index. This lets callers that
+   * add time series often skip building them when they already have been added.
+   *
+   * @param key The key of a time series as returned by the key function of this index
+   * @return {@code true} if a time series with the key is in the index
+   */
+  public boolean contains(final Object key) {
+    return ordinals.containsKey(key);
+  }
+
+  /**
+   * Add the provided time series to the index unless it already is in it.
+   *
+   * @param timeSeries The time series to add
+   * @return {@code true} if the time series was not in the index before
+   */
+  public boolean add(final T timeSeries) {
+    final Object key = keyFunction.apply(timeSeries);
+
+    if (ordinals.containsKey(key)) {
+      return false;
+    }
+
+    synchronized (series) {
+      if (ordinals.containsKey(key)) {
+        return false;
+      }
+
+      final int ordinal = series.size();
+      series.add(timeSeries);
+
+      postingsFor(metrics, timeSeries.metric()).add(ordinal);
+
+      final Iterator<LabelId> tagIterator = timeSeries.tags().iterator();
+
+      while (tagIterator.hasNext()) {
+        final LabelId tagKey = tagIterator.next();
+        final LabelId tagValue = tagIterator.next();
+
+        postingsFor(tagKeys, tagKey).add(ordinal);
+        postingsFor(tagValues, tagValue).add(ordinal);
+        postingsFor(tags, Maps.immutableEntry(tagKey, tagValue)).add(ordinal);
+      }
+
+      ordinals.put(key, ordinal);
+      return true;
+    }
+  }
+
+  private static <K> SeriesPostings postingsFor(final Map<K, SeriesPostings> postings,
+                                                final K label) {
+    return postings.computeIfAbsent(label, ignored -> new SeriesPostings());
+  }
+
+  /**
+   * Find the time series that match the provided predicate.
+   *
+   * @param predicate The metric and tag predicates to match the time series against
+   * @return The matching time series in the order they were added
+   */
+  public List<T> resolve(final TimeSeriesQueryPredicate predicate) {
+    synchronized (series) {
+      final BitSet matching = new BitSet(series.size());
+      final SeriesPostings metric = metrics.get(predicate.metric());
+
+      if (metric != null) {
+        metric.orInto(matching);
+      }
+
+      for (final TimeSeriesTagPredicate tagPredicate : predicate.tagPredicates()) {
+        final Optional<BitSet> tagMatching = withTag(tagPredicate);
+
+        if (tagPredicate.operator() == TimeSeriesTagOperator.EQUALS) {
+          if (tagMatching.isPresent()) {
+            matching.and(tagMatching.get());
+          }
+        } else if (tagMatching.isPresent()) {
+          matching.andNot(tagMatching.get());
+        } else {
+          matching.clear();
+        }
+      }
+
+      final ImmutableList.Builder<T> matchingSeries = ImmutableList.builder();
+
+      for (int ordinal = matching.nextSetBit(0); ordinal >= 0;
+           ordinal = matching.nextSetBit(ordinal + 1)) {
+        matchingSeries.add(series.get(ordinal));
+      }
+
+      return matchingSeries.build();
+    }
+  }
+
+  /**
+   * Get the ordinals of the time series that have a tag that matches the key and value of the
+   * provided predicate, or absent if both of them are wildcards and every time series matches.
+   */
+  private Optional<BitSet> withTag(final TimeSeriesTagPredicate predicate) {
+    final Optional<ImmutableSet<LabelId>> keys = idsOf(predicate.key());
+    final Optional<ImmutableSet<LabelId>> values = idsOf(predicate.value());
+    final BitSet matching = new BitSet(series.size());
+
+    if (keys.isPresent() && values.isPresent()) {
+      for (final LabelId key : keys.get()) {
+        for (final LabelId value : values.get()) {
+          orInto(tags.get(Maps.immutableEntry(key, value)), matching);
+        }
+      }
+    } else if (keys.isPresent()) {
+      for (final LabelId key : keys.get()) {
+        orInto(tagKeys.get(key), matching);
+      }
+    } else if (values.isPresent()) {
+      for (final LabelId value : values.get()) {
+        orInto(tagValues.get(value), matching);
+      }
+    } else {
+      return Optional.absent();
+    }
+
+    return Optional.of(matching);
+  }
+
+  private static void orInto(final SeriesPostings postings, final BitSet target) {
+    if (postings != null) {
+      postings.orInto(target);
+    }
+  }
+
+  /**
+   * Get the IDs that the provided ID predicate matches or absent if it is a wildcard that matches
+   * every ID.
+   */
+  private static Optional<ImmutableSet<LabelId>> idsOf(final TimeSeriesIdPredicate predicate) {
+    if (predicate instanceof SimpleTimeSeriesIdPredicate) {
+      return Optional.of(ImmutableSet.of(((SimpleTimeSeriesIdPredicate) predicate).id()));
+    } else if (predicate instanceof AlternationTimeSeriesIdPredicate) {
+      return Optional.of(((AlternationTimeSeriesIdPredicate) predicate).ids());
+    } else if (predicate instanceof WildcardTimeSeriesIdPredicate) {
+      return Optional.absent();
+    }
+
+    throw new IllegalArgumentException("Unknown time series ID predicate " + predicate);
+  }
+
+  /**
+   * The number of time series in the index.
+   */
+  public int size() {
+    return ordinals.size();
+  }
+
+  /**
+   * The approximate number of bytes that the postings of all labels take up.
+   */
+  long postingsBytes() {
+    synchronized (series) {
+      long bytes = 0;
+
+      for (final Map<?, SeriesPostings> postings :
+          ImmutableList.of(metrics, tagKeys, tagValues, tags)) {
+        for (final SeriesPostings labelPostings : postings.values()) {
+          bytes += labelPostings.bytes();
+        }
+      }
+
+      return bytes;
+    }
+  }
+
+  @Override
+  public void registerMetricsWith(final MetricRegistry registry) {
+    registry.register("freki.series_index.series", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return size();
+      }
+    });
+
+    registry.register("freki.series_index.postings_bytes", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return postingsBytes();
+      }
+    });
+  }
+}
@@ -0,0 +1,92 @@
+package se.tre.freki.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The ordinals of the time series that use a single label. The ordinals are kept in a sorted array
+ * while there are few of them compared to the largest one and in a bitmap once the bitmap would be
+ * smaller, which keeps both rare and common labels compact.
+ *
+ * <p>Ordinals are handed out in increasing order so they must also be added in increasing order.
+ * Instances are not thread safe.
+ */
+final class SeriesPostings {
+  private static final int INITIAL_CAPACITY = 4;
+
+  /**
+   * The ordinals while the postings are sparse, {@code null} once they are kept in {@link #bits}.
+   */
+  private int[] ordinals = new int[INITIAL_CAPACITY];
+  private BitSet bits;
+
+  private int size;
+  private int last = -1;
+
+  /**
+   * Add the provided ordinal, which must not be smaller than any ordinal that has been added
+   * before. Adding the largest ordinal again has no effect.
+   */
+  void add(final int ordinal) {
+    checkArgument(ordinal >= last, "Ordinal %s is smaller than %s", ordinal, last);
+
+    if (ordinal == last) {
+      return;
+    }
+
+    last = ordinal;
+    size++;
+
+    if (bits != null) {
+      bits.set(ordinal);
+      return;
+    }
+
+    if (size > ordinals.length) {
+      ordinals = Arrays.copyOf(ordinals, ordinals.length * 2);
+    }
+
+    ordinals[size - 1] = ordinal;
+
+    // A bitmap needs one bit per ordinal up to the largest one, the array 32 bits per ordinal.
+    if (size > INITIAL_CAPACITY && (long) size * Integer.SIZE > ordinal) {
+      bits = new BitSet(ordinal + 1);
+
+      for (int i = 0; i < size; i++) {
+        bits.set(ordinals[i]);
+      }
+
+      ordinals = null;
+    }
+  }
+
+  /**
+   * Set the bits of the ordinals in these postings in the provided bitmap.
+   */
+  void orInto(final BitSet target) {
+    if (bits != null) {
+      target.or(bits);
+      return;
+    }
+
+    for (int i = 0; i < size; i++) {
+      target.set(ordinals[i]);
+    }
+  }
+
+  /**
+   * The number of ordinals in these postings.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * The approximate number of bytes that the ordinals take up.
+   */
+  long bytes() {
+    return bits != null ? bits.size() / Byte.SIZE : (long) ordinals.length * Integer.BYTES;
+  }
+}
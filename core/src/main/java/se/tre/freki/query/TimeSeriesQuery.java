@@ -2,6 +2,7 @@ package se.tre.freki.query;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import se.tre.freki.core.QueryScheduler;
 import se.tre.freki.query.predicate.TimeSeriesQueryPredicate;
 
 import com.google.auto.value.AutoValue;
@@ -11,8 +12,17 @@ import com.google.auto.value.AutoValue;
  */
 @AutoValue
 public abstract class TimeSeriesQuery {
+  /**
+   * Create a new builder for an interactive query that asks for every data point in ascending
+   * order and leaves the fetch size up to the store.
+   */
   public static Builder builder() {
-    return new AutoValue_TimeSeriesQuery.Builder();
+    return new AutoValue_TimeSeriesQuery.Builder()
+        .resolution(0)
+        .fetchSize(0)
+        .limit(0)
+        .descending(false)
+        .priority(QueryScheduler.Priority.INTERACTIVE);
   }
 
   @AutoValue.Builder
@@ -28,6 +38,11 @@ public abstract class TimeSeriesQuery {
       checkState(query.endTime() >= 0, "The query must have a positive or zero end time.");
       checkState(query.endTime() >= query.startTime(), "The end time must be larger or equal to "
                                                        + "the start time.");
+      checkState(query.resolution() >= 0, "The resolution must not be negative.");
+      checkState(query.fetchSize() >= 0, "The fetch size must not be negative.");
+      checkState(query.limit() >= 0, "The limit must not be negative.");
+      checkState(!query.descending() || query.limit() > 0, "A descending query must have a "
+                                                          + "limit.");
       return query;
     }
 
@@ -36,6 +51,36 @@ public abstract class TimeSeriesQuery {
     public abstract Builder endTime(final long endTime);
 
     public abstract Builder predicate(final TimeSeriesQueryPredicate predicate);
+
+    /**
+     * Set the number of milliseconds between the data points that the query asks for. A query
+     * with a resolution of zero, which is the default, asks for every data point.
+     */
+    public abstract Builder resolution(final long resolution);
+
+    /**
+     * Set the number of data points that the store should read per request. A fetch size of zero,
+     * which is the default, leaves it up to the store.
+     */
+    public abstract Builder fetchSize(final int fetchSize);
+
+    /**
+     * Set the maximum number of data points to return per time series. A limit of zero, which is
+     * the default, returns every data point within the time bounds.
+     */
+    public abstract Builder limit(final int limit);
+
+    /**
+     * Set whether the data points should be returned newest first. Together with a {@link
+     * #limit(int)} this asks for the latest data points of each time series.
+     */
+    public abstract Builder descending(final boolean descending);
+
+    /**
+     * Set the priority that the query is scheduled with. The store gives the reads of queries with
+     * a higher priority precedence over those of queries with a lower priority.
+     */
+    public abstract Builder priority(final QueryScheduler.Priority priority);
   }
 
   /**
@@ -44,9 +89,43 @@ public abstract class TimeSeriesQuery {
   TimeSeriesQuery() {
   }
 
+  /**
+   * Create a new builder that starts out with the information of this query.
+   */
+  public abstract Builder toBuilder();
+
   public abstract TimeSeriesQueryPredicate predicate();
 
   public abstract long startTime();
 
   public abstract long endTime();
+
+  /**
+   * The number of milliseconds between the data points that the query asks for or zero if it asks
+   * for every data point.
+   *
+   * @see RollupInterval#coarsestWithin(long)
+   */
+  public abstract long resolution();
+
+  /**
+   * The number of data points that the store should read per request or zero if it is up to the
+   * store.
+   */
+  public abstract int fetchSize();
+
+  /**
+   * The maximum number of data points to return per time series or zero if there is no limit.
+   */
+  public abstract int limit();
+
+  /**
+   * Whether the data points should be returned newest first.
+   */
+  public abstract boolean descending();
+
+  /**
+   * The priority that the query is scheduled with.
+   */
+  public abstract QueryScheduler.Priority priority();
 }
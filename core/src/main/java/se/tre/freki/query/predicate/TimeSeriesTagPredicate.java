@@ -25,7 +25,11 @@ public class TimeSeriesTagPredicate {
     return operator;
   }
 
-  enum TimeSeriesTagOperator {
+  /**
+   * Whether a time series must have a tag that matches both the key and the value to match the
+   * predicate or must not have any such tag.
+   */
+  public enum TimeSeriesTagOperator {
     EQUALS, NOT_EQUALS
   }
 
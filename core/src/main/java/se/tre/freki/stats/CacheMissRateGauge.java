@@ -0,0 +1,22 @@
+package se.tre.freki.stats;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.cache.Cache;
+
+/**
+ * A metrics gauge that measures the miss rate on a Guava cache.
+ */
+public class CacheMissRateGauge implements Gauge<Double> {
+  private final Cache<?, ?> cache;
+
+  public CacheMissRateGauge(final Cache<?, ?> cache) {
+    this.cache = checkNotNull(cache);
+  }
+
+  @Override
+  public Double getValue() {
+    return cache.stats().missRate();
+  }
+}
@@ -1,8 +1,11 @@
 package se.tre.freki.stats;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.addCallback;
+import static com.google.common.util.concurrent.Futures.transform;
 
 import se.tre.freki.core.DataPointsClient;
+import se.tre.freki.core.SeriesHandle;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
@@ -14,12 +17,17 @@ import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Clock;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,6 +41,13 @@ public class FrekiMetricReporter extends ScheduledReporter {
   private final DataPointsClient client;
   private final ImmutableMap<String, String> defaultTags;
 
+  /**
+   * Handles to the time series that have been written to before keyed on the name of the metric in
+   * the registry, including any suffix. The set of metrics in a registry rarely changes so this
+   * saves us from validating and resolving the same metric and tags on every report.
+   */
+  private final ConcurrentMap<String, ListenableFuture<SeriesHandle>> seriesHandles;
+
   /**
    * Create a new reporter that will write all metrics in the provided registry to the data points
    * client periodically. The provided map of default tags will be added to every data point
@@ -50,6 +65,7 @@ public class FrekiMetricReporter extends ScheduledReporter {
     this.clock = checkNotNull(clock);
     this.client = checkNotNull(dataPointsClient);
     this.defaultTags = ImmutableMap.copyOf(defaultTags);
+    this.seriesHandles = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -80,15 +96,12 @@ public class FrekiMetricReporter extends ScheduledReporter {
   private void reportGauge(final String name, final Gauge gauge, final long time) {
     final Object value = gauge.getValue();
 
-    final String metric = Metrics.metricIn(name);
-    final Map<String, String> tags = tags(name);
-
     if (value instanceof Integer) {
-      client.addPoint(metric, time, (int) value, tags);
+      addPoint(name, "", time, (int) value);
     } else if (value instanceof Long) {
-      client.addPoint(metric, time, (long) value, tags);
+      addPoint(name, "", time, (long) value);
     } else if (value instanceof Double) {
-      client.addPoint(metric, time, (double) value, tags);
+      addPoint(name, "", time, (double) value);
     }
   }
 
@@ -96,12 +109,7 @@ public class FrekiMetricReporter extends ScheduledReporter {
    * Write the current value of the counter to the database.
    */
   private void reportCounter(final String name, final Counter counter, final long timestamp) {
-    final String metric = Metrics.metricIn(name);
-    final Map<String, String> tags = tags(name);
-
-    final long value = counter.getCount();
-
-    client.addPoint(metric, timestamp, value, tags);
+    addPoint(name, "", timestamp, counter.getCount());
   }
 
   /**
@@ -110,21 +118,81 @@ public class FrekiMetricReporter extends ScheduledReporter {
   private void reportTimer(final String name, final Timer timer, final long time) {
     final Snapshot snapshot = timer.getSnapshot();
 
-    final String metric = Metrics.metricIn(name);
-    final Map<String, String> tags = tags(name);
-
-    client.addPoint(metric + ".count", time, timer.getCount(), tags);
-    client.addPoint(metric + ".min", time, convertDuration(snapshot.getMin()), tags);
-    client.addPoint(metric + ".max", time, convertDuration(snapshot.getMax()), tags);
-    client.addPoint(metric + ".mean", time, convertDuration(snapshot.getMean()), tags);
-    client.addPoint(metric + ".stdDev", time, convertDuration(snapshot.getStdDev()), tags);
-    client.addPoint(metric + ".median", time, convertDuration(snapshot.getMedian()), tags);
-    client.addPoint(metric + ".pct75th", time, convertDuration(snapshot.get75thPercentile()), tags);
-    client.addPoint(metric + ".pct95th", time, convertDuration(snapshot.get95thPercentile()), tags);
-    client.addPoint(metric + ".pct98th", time, convertDuration(snapshot.get98thPercentile()), tags);
-    client.addPoint(metric + ".pct99th", time, convertDuration(snapshot.get99thPercentile()), tags);
-    client.addPoint(metric + ".pct999th", time, convertDuration(snapshot.get999thPercentile()),
-        tags);
+    addPoint(name, ".count", time, timer.getCount());
+    addPoint(name, ".min", time, convertDuration(snapshot.getMin()));
+    addPoint(name, ".max", time, convertDuration(snapshot.getMax()));
+    addPoint(name, ".mean", time, convertDuration(snapshot.getMean()));
+    addPoint(name, ".stdDev", time, convertDuration(snapshot.getStdDev()));
+    addPoint(name, ".median", time, convertDuration(snapshot.getMedian()));
+    addPoint(name, ".pct75th", time, convertDuration(snapshot.get75thPercentile()));
+    addPoint(name, ".pct95th", time, convertDuration(snapshot.get95thPercentile()));
+    addPoint(name, ".pct98th", time, convertDuration(snapshot.get98thPercentile()));
+    addPoint(name, ".pct99th", time, convertDuration(snapshot.get99thPercentile()));
+    addPoint(name, ".pct999th", time, convertDuration(snapshot.get999thPercentile()));
+  }
+
+  /**
+   * Write a long value to the time series behind the metric with the provided registry name and
+   * suffix.
+   */
+  private void addPoint(final String name,
+                        final String suffix,
+                        final long time,
+                        final long value) {
+    transform(seriesHandle(name, suffix), new AsyncFunction<SeriesHandle, Void>() {
+      @Override
+      public ListenableFuture<Void> apply(final SeriesHandle series) {
+        return client.addPoint(series, time, value);
+      }
+    });
+  }
+
+  /**
+   * Write a double value to the time series behind the metric with the provided registry name and
+   * suffix.
+   */
+  private void addPoint(final String name,
+                        final String suffix,
+                        final long time,
+                        final double value) {
+    transform(seriesHandle(name, suffix), new AsyncFunction<SeriesHandle, Void>() {
+      @Override
+      public ListenableFuture<Void> apply(final SeriesHandle series) {
+        return client.addPoint(series, time, value);
+      }
+    });
+  }
+
+  /**
+   * Get a handle to the time series behind the metric with the provided registry name and suffix.
+   * Handles that could not be resolved are forgotten so that they are tried again on the next
+   * report.
+   */
+  private ListenableFuture<SeriesHandle> seriesHandle(final String name, final String suffix) {
+    final String key = name + suffix;
+    final ListenableFuture<SeriesHandle> cached = seriesHandles.get(key);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    final ListenableFuture<SeriesHandle> seriesHandle =
+        client.seriesHandle(Metrics.metricIn(name) + suffix, tags(name));
+    seriesHandles.put(key, seriesHandle);
+
+    addCallback(seriesHandle, new FutureCallback<SeriesHandle>() {
+      @Override
+      public void onSuccess(final SeriesHandle series) {
+      }
+
+      @Override
+      public void onFailure(final Throwable throwable) {
+        LOG.debug("Unable to resolve the time series for {}", key, throwable);
+        seriesHandles.remove(key, seriesHandle);
+      }
+    });
+
+    return seriesHandle;
   }
 
   /**
@@ -0,0 +1,52 @@
+package se.tre.freki.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * The outcome of adding a batch of data points. A batch as a whole does not fail because some of
+ * its data points could not be written, instead the reason for each failed data point is recorded
+ * against the index it had in the batch.
+ */
+@AutoValue
+public abstract class AddPointsResult {
+  /**
+   * Create a result for a batch of {@code size} data points where none failed.
+   */
+  public static AddPointsResult successful(final int size) {
+    return create(size, ImmutableMap.<Integer, Throwable>of());
+  }
+
+  /**
+   * Create a result for a batch of {@code size} data points where the data points at the indexes
+   * in {@code failures} failed with the associated exceptions.
+   */
+  public static AddPointsResult create(final int size,
+                                       final Map<Integer, Throwable> failures) {
+    checkArgument(size >= 0, "The size of a batch must not be negative");
+    checkArgument(failures.size() <= size, "There are more failures (%s) than data points (%s)",
+        failures.size(), size);
+    return new AutoValue_AddPointsResult(size, ImmutableMap.copyOf(failures));
+  }
+
+  /**
+   * Hide the constructor and prevent subclasses other than the one provided by {@link AutoValue}.
+   */
+  AddPointsResult() {
+  }
+
+  /** The number of data points in the batch. */
+  public abstract int size();
+
+  /** The exceptions of the data points that failed keyed on their index in the batch. */
+  public abstract ImmutableMap<Integer, Throwable> failures();
+
+  /** Whether all data points in the batch were written. */
+  public boolean isSuccessful() {
+    return failures().isEmpty();
+  }
+}
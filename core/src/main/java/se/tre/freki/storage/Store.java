@@ -6,15 +6,23 @@ import se.tre.freki.labels.TimeSeriesId;
 import se.tre.freki.meta.Annotation;
 import se.tre.freki.meta.LabelMeta;
 import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.RollupInterval;
 import se.tre.freki.query.TimeSeriesQuery;
 import se.tre.freki.stats.Measurable;
 import se.tre.freki.utils.AsyncIterator;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nonnull;
 
@@ -57,9 +65,95 @@ public abstract class Store implements Closeable, Measurable {
   public abstract ListenableFuture<Optional<String>> getName(final LabelId id,
                                                              final LabelType type);
 
+  /**
+   * Fetch the IDs behind all of the provided names. Names that do not have an ID are left out of
+   * the returned map.
+   *
+   * <p>The default implementation looks up each distinct name with {@link #getId(String,
+   * LabelType)}. Stores that are able to fetch several IDs in fewer or cheaper requests should
+   * override it.
+   *
+   * @param names The names to fetch the IDs behind
+   * @param type The type of the names
+   * @return A future that on completion will contain the ID behind each name that has one
+   */
+  @Nonnull
+  public ListenableFuture<Map<String, LabelId>> getIds(final Collection<String> names,
+                                                       final LabelType type) {
+    return lookupEach(names, name -> getId(name, type));
+  }
+
+  /**
+   * Fetch the names behind all of the provided IDs. IDs that do not have a name are left out of the
+   * returned map.
+   *
+   * <p>The default implementation looks up each distinct ID with {@link #getName(LabelId,
+   * LabelType)}. Stores that are able to fetch several names in fewer or cheaper requests should
+   * override it.
+   *
+   * @param ids The IDs to fetch the names behind
+   * @param type The type of the IDs
+   * @return A future that on completion will contain the name behind each ID that has one
+   */
+  @Nonnull
+  public ListenableFuture<Map<LabelId, String>> getNames(final Collection<LabelId> ids,
+                                                         final LabelType type) {
+    return lookupEach(ids, id -> getName(id, type));
+  }
+
+  /**
+   * Look up every distinct key with the provided function at once and collect the keys that were
+   * found into a map.
+   */
+  private static <K, V> ListenableFuture<Map<K, V>> lookupEach(
+      final Collection<K> keys,
+      final Function<K, ListenableFuture<Optional<V>>> lookup) {
+    final ImmutableSet<K> distinctKeys = ImmutableSet.copyOf(keys);
+    final List<ListenableFuture<Optional<V>>> lookups = new ArrayList<>(distinctKeys.size());
+
+    for (final K key : distinctKeys) {
+      lookups.add(lookup.apply(key));
+    }
+
+    return Futures.transform(Futures.allAsList(lookups),
+        new Function<List<Optional<V>>, Map<K, V>>() {
+          @Override
+          public Map<K, V> apply(final List<Optional<V>> values) {
+            final ImmutableMap.Builder<K, V> found = ImmutableMap.builder();
+            final Iterator<Optional<V>> valueIterator = values.iterator();
+
+            for (final K key : distinctKeys) {
+              final Optional<V> value = valueIterator.next();
+
+              if (value.isPresent()) {
+                found.put(key, value.get());
+              }
+            }
+
+            return found.build();
+          }
+        });
+  }
+
   //
   // Datapoints
   //
+
+  /**
+   * Convert the provided time series ID into the representation this store uses internally. Stores
+   * that derive a key from the metric and tags of a time series should compute it here so that
+   * data points that later are added with the returned time series ID can skip doing so.
+   *
+   * <p>The default implementation returns the provided time series ID as is.
+   *
+   * @param timeSeriesId The time series ID to prepare
+   * @return A time series ID with the same metric and tags as the provided one
+   */
+  @Nonnull
+  public TimeSeriesId prepareTimeSeriesId(final TimeSeriesId timeSeriesId) {
+    return timeSeriesId;
+  }
+
   @Nonnull
   public abstract ListenableFuture<Void> addPoint(final TimeSeriesId tsuid,
                                                   final long timestamp,
@@ -76,7 +170,23 @@ public abstract class Store implements Closeable, Measurable {
                                                   final long value);
 
   /**
-   * Perform a query against this store and get the data points that match.
+   * Add all of the provided data points. Implementations are encouraged to write the data points in
+   * as few requests as possible.
+   *
+   * <p>The returned future will not fail because individual data points could not be written.
+   * Instead each failure is reported in the {@link AddPointsResult} against the index the data
+   * point had in {@code points}.
+   *
+   * @param points The data points to write together with the time series they belong to
+   * @return A future that on completion will describe which data points failed, if any
+   */
+  @Nonnull
+  public abstract ListenableFuture<AddPointsResult> addPoints(
+      final List<TimeSeriesDataPoint> points);
+
+  /**
+   * Perform a query against this store and get the data points that match. The data points of
+   * each time series are returned in the order and up to the limit that the query asks for.
    *
    * @param query A specification of which data points are sought.
    * @return A map that is keyd on the time series that matched and an iterator of all data points
@@ -86,6 +196,27 @@ public abstract class Store implements Closeable, Measurable {
   public abstract ListenableFuture<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> query(
       final TimeSeriesQuery query);
 
+  /**
+   * Perform a query against the rollups of the provided interval that this store keeps. Each
+   * returned data point is a {@link DataPoint.RollupDataPoint} that covers one bucket of the
+   * interval, except for the time that the rollups do not cover where the data points are returned
+   * as they were written.
+   *
+   * <p>The default implementation is for stores that do not keep any rollups and answers the query
+   * with all matching data points as {@link #query(TimeSeriesQuery)} does.
+   *
+   * @param query A specification of which data points are sought
+   * @param interval The interval of the rollups to read
+   * @return A map that is keyed on the time series that matched and an iterator of the data points
+   * within the limits
+   */
+  @Nonnull
+  public ListenableFuture<Map<TimeSeriesId, AsyncIterator<? extends DataPoint>>> queryRollups(
+      final TimeSeriesQuery query,
+      final RollupInterval interval) {
+    return query(query);
+  }
+
   //
   // Annotations
   //
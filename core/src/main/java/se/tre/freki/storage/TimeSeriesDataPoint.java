@@ -0,0 +1,33 @@
+package se.tre.freki.storage;
+
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.query.DataPoint;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * A single data point together with the time series it belongs to. This is the unit of work that
+ * is handed to {@link Store#addPoints(java.util.List)}.
+ */
+@AutoValue
+public abstract class TimeSeriesDataPoint {
+  /**
+   * Create an instance with the provided information.
+   */
+  public static TimeSeriesDataPoint create(final TimeSeriesId timeSeriesId,
+                                           final DataPoint dataPoint) {
+    return new AutoValue_TimeSeriesDataPoint(timeSeriesId, dataPoint);
+  }
+
+  /**
+   * Hide the constructor and prevent subclasses other than the one provided by {@link AutoValue}.
+   */
+  TimeSeriesDataPoint() {
+  }
+
+  /** The time series that the data point belongs to. */
+  public abstract TimeSeriesId timeSeriesId();
+
+  /** The data point, timestamp and value, that should be written. */
+  public abstract DataPoint dataPoint();
+}
@@ -0,0 +1,72 @@
+package se.tre.freki.storage.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a stream of bits written by a {@link BitWriter} from a byte buffer. The position of the
+ * provided buffer is never changed.
+ */
+final class BitReader {
+  private final ByteBuffer buffer;
+  private final int offset;
+
+  /**
+   * The number of bits that have been read.
+   */
+  private long position;
+
+  BitReader(final ByteBuffer buffer, final int offset) {
+    this.buffer = buffer;
+    this.offset = offset;
+  }
+
+  boolean readBit() {
+    final int value = buffer.get(offset + (int) (position >>> 3));
+    final boolean bit = (value & (0x80 >>> (position & 7))) != 0;
+    position++;
+    return bit;
+  }
+
+  /**
+   * Read {@code count} bits and return them as the least significant bits of a long.
+   *
+   * @param count The number of bits to read, between 0 and 64
+   */
+  long readBits(final int count) {
+    long value = 0;
+    int remaining = count;
+
+    while (remaining > 0) {
+      final int current = buffer.get(offset + (int) (position >>> 3)) & 0xFF;
+      final int available = 8 - (int) (position & 7);
+      final int bits = Math.min(available, remaining);
+      final int chunk = (current >>> (available - bits)) & ((1 << bits) - 1);
+
+      value = (value << bits) | chunk;
+
+      position += bits;
+      remaining -= bits;
+    }
+
+    return value;
+  }
+
+  /**
+   * Read a value written by {@link BitWriter#writeVarLong(long)}.
+   */
+  long readVarLong() {
+    long value = 0;
+    int shift = 0;
+
+    while (true) {
+      final long group = readBits(8);
+      value |= (group & 0x7F) << shift;
+
+      if ((group & 0x80) == 0) {
+        return value;
+      }
+
+      shift += 7;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package se.tre.freki.storage.compression;
+
+import java.util.Arrays;
+
+/**
+ * Writes a stream of bits to a growing byte array, most significant bit first.
+ */
+final class BitWriter {
+  private byte[] bytes;
+
+  /**
+   * The number of bits that have been written.
+   */
+  private long position;
+
+  BitWriter(final int initialCapacity) {
+    this.bytes = new byte[Math.max(initialCapacity, 8)];
+  }
+
+  /**
+   * Write a single bit.
+   */
+  void writeBit(final boolean bit) {
+    ensureCapacity(1);
+
+    if (bit) {
+      bytes[(int) (position >>> 3)] |= (byte) (0x80 >>> (position & 7));
+    }
+
+    position++;
+  }
+
+  /**
+   * Write the {@code count} least significant bits of {@code value}, most significant first.
+   *
+   * @param value The value whose bits to write
+   * @param count The number of bits to write, between 0 and 64
+   */
+  void writeBits(final long value, final int count) {
+    ensureCapacity(count);
+
+    int remaining = count;
+
+    while (remaining > 0) {
+      final int index = (int) (position >>> 3);
+      final int free = 8 - (int) (position & 7);
+      final int bits = Math.min(free, remaining);
+      final int shift = remaining - bits;
+      final int chunk = (int) ((value >>> shift) & ((1 << bits) - 1));
+
+      bytes[index] |= (byte) (chunk << (free - bits));
+
+      position += bits;
+      remaining -= bits;
+    }
+  }
+
+  /**
+   * Write the value as groups of seven bits, least significant group first, where each group is
+   * preceded by a bit that tells whether another group follows.
+   */
+  void writeVarLong(final long value) {
+    long remaining = value;
+
+    while ((remaining & ~0x7FL) != 0) {
+      writeBits(0x80 | (remaining & 0x7F), 8);
+      remaining >>>= 7;
+    }
+
+    writeBits(remaining, 8);
+  }
+
+  /**
+   * A copy of the bytes that have been written, the last byte is padded with zero bits.
+   */
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, (int) ((position + 7) >>> 3));
+  }
+
+  private void ensureCapacity(final int bits) {
+    final long required = (position + bits + 7) >>> 3;
+
+    if (required > bytes.length) {
+      bytes = Arrays.copyOf(bytes, (int) Math.max(required, bytes.length * 2L));
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package se.tre.freki.storage.compression;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Decodes a chunk written by a {@link ChunkEncoder}. The decoder is a cursor, each call to {@link
+ * #next()} moves it to the next data point whose timestamp and value then can be read with {@link
+ * #timestamp()} and the value accessor for the {@link #type()} of the chunk. This means that
+ * decoding does not allocate anything per data point.
+ */
+public final class ChunkDecoder {
+  private final ChunkType type;
+  private final int size;
+  private final BitReader bits;
+
+  private int index;
+
+  private long timestamp;
+  private long delta;
+  private long value;
+  private int leading;
+  private int trailing;
+
+  /**
+   * Create a new decoder positioned before the first data point in the provided chunk. The position
+   * of the buffer is not changed.
+   *
+   * @param chunk The encoded chunk
+   * @throws IllegalArgumentException if the chunk was encoded in an unknown format
+   */
+  public ChunkDecoder(final ByteBuffer chunk) {
+    final int offset = chunk.position();
+    final byte version = chunk.get(offset);
+
+    checkArgument(version == ChunkEncoder.FORMAT_VERSION, "Unknown chunk format %s", version);
+
+    final int typeOrdinal = chunk.get(offset + 1);
+    checkArgument(typeOrdinal >= 0 && typeOrdinal < ChunkType.values().length,
+        "Unknown chunk type %s", typeOrdinal);
+
+    this.type = ChunkType.values()[typeOrdinal];
+    this.size = chunk.getInt(offset + 2);
+    this.bits = new BitReader(chunk, offset + ChunkEncoder.HEADER_SIZE);
+  }
+
+  /**
+   * The type of the values in the chunk.
+   */
+  public ChunkType type() {
+    return type;
+  }
+
+  /**
+   * The total number of data points in the chunk.
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean hasNext() {
+    return index < size;
+  }
+
+  /**
+   * Move to the next data point.
+   *
+   * @throws NoSuchElementException if there are no more data points in the chunk
+   */
+  public void next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException("There are no more data points in the chunk");
+    }
+
+    if (index == 0) {
+      timestamp = bits.readBits(64);
+      value = bits.readBits(type == ChunkType.FLOAT ? Integer.SIZE : Long.SIZE);
+    } else {
+      delta += unZigZag(readDeltaOfDelta());
+      timestamp += delta;
+
+      switch (type) {
+        case LONG:
+          value += unZigZag(bits.readVarLong());
+          break;
+        case FLOAT:
+          readFloatingPoint(Integer.SIZE);
+          break;
+        case DOUBLE:
+        default:
+          readFloatingPoint(Long.SIZE);
+          break;
+      }
+    }
+
+    index++;
+  }
+
+  /**
+   * The timestamp of the current data point.
+   */
+  public long timestamp() {
+    return timestamp;
+  }
+
+  /**
+   * The value of the current data point if this is a chunk of long values.
+   */
+  public long longValue() {
+    return value;
+  }
+
+  /**
+   * The value of the current data point if this is a chunk of float values.
+   */
+  public float floatValue() {
+    return Float.intBitsToFloat((int) value);
+  }
+
+  /**
+   * The value of the current data point if this is a chunk of double values.
+   */
+  public double doubleValue() {
+    return Double.longBitsToDouble(value);
+  }
+
+  private long readDeltaOfDelta() {
+    if (!bits.readBit()) {
+      return 0;
+    } else if (!bits.readBit()) {
+      return bits.readBits(7);
+    } else if (!bits.readBit()) {
+      return bits.readBits(9);
+    } else if (!bits.readBit()) {
+      return bits.readBits(12);
+    } else if (!bits.readBit()) {
+      return bits.readBits(32);
+    }
+
+    return bits.readBits(64);
+  }
+
+  private void readFloatingPoint(final int width) {
+    if (!bits.readBit()) {
+      return;
+    }
+
+    if (bits.readBit()) {
+      final int lengthBits = width == Long.SIZE ? 6 : 5;
+      leading = (int) bits.readBits(lengthBits);
+      final int meaningful = (int) bits.readBits(lengthBits) + 1;
+      trailing = width - leading - meaningful;
+    }
+
+    final long xor = bits.readBits(width - leading - trailing) << trailing;
+    value ^= xor;
+  }
+
+  private static long unZigZag(final long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
@@ -0,0 +1,231 @@
+package se.tre.freki.storage.compression;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import se.tre.freki.query.DataPoint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the data points of a single time series into a compact chunk in the style of the Gorilla
+ * paper by Pelkonen et al. Timestamps are stored as the difference between consecutive deltas,
+ * floating point values as the XOR of consecutive values and long values as zig-zag encoded
+ * deltas. Regular intervals and slowly changing values therefore only take a few bits per data
+ * point.
+ *
+ * <p>Data points must be added in strictly increasing timestamp order and all of them must have
+ * values of the type the encoder was created for. Use a {@link ChunkDecoder} to read the data
+ * points back.
+ */
+public final class ChunkEncoder {
+  static final byte FORMAT_VERSION = 1;
+
+  /**
+   * The number of bytes before the bit stream starts, the format version, the type and the number
+   * of data points.
+   */
+  static final int HEADER_SIZE = 6;
+
+  private final ChunkType type;
+  private final BitWriter bits;
+
+  private int size;
+
+  private long previousTimestamp;
+  private long previousDelta;
+  private long previousValue;
+  private int previousLeading = -1;
+  private int previousTrailing;
+
+  /**
+   * Create a new encoder for data points with values of the provided type.
+   *
+   * @param type The type of values that will be added
+   * @param expectedSize The number of data points that are expected to be added, used to size the
+   * initial buffer
+   */
+  public ChunkEncoder(final ChunkType type, final int expectedSize) {
+    this.type = checkNotNull(type);
+    this.bits = new BitWriter(16 + expectedSize * 2);
+  }
+
+  /**
+   * The type of values this encoder accepts.
+   */
+  public ChunkType type() {
+    return type;
+  }
+
+  /**
+   * The number of data points that have been added.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Add a data point with a long value.
+   *
+   * @throws IllegalStateException if the encoder is not for long values
+   * @throws IllegalArgumentException if the timestamp is not larger than the previous one
+   */
+  public void add(final long timestamp, final long value) {
+    checkState(type == ChunkType.LONG, "This encoder does not accept long values");
+    addTimestamp(timestamp);
+
+    if (size == 1) {
+      bits.writeBits(value, 64);
+    } else {
+      bits.writeVarLong(zigZag(value - previousValue));
+    }
+
+    previousValue = value;
+  }
+
+  /**
+   * Add a data point with a single precision floating point value.
+   *
+   * @throws IllegalStateException if the encoder is not for float values
+   * @throws IllegalArgumentException if the timestamp is not larger than the previous one
+   */
+  public void add(final long timestamp, final float value) {
+    checkState(type == ChunkType.FLOAT, "This encoder does not accept float values");
+    addTimestamp(timestamp);
+    addFloatingPoint(Float.floatToRawIntBits(value) & 0xFFFFFFFFL, Integer.SIZE);
+  }
+
+  /**
+   * Add a data point with a double precision floating point value.
+   *
+   * @throws IllegalStateException if the encoder is not for double values
+   * @throws IllegalArgumentException if the timestamp is not larger than the previous one
+   */
+  public void add(final long timestamp, final double value) {
+    checkState(type == ChunkType.DOUBLE, "This encoder does not accept double values");
+    addTimestamp(timestamp);
+    addFloatingPoint(Double.doubleToRawLongBits(value), Long.SIZE);
+  }
+
+  /**
+   * Add a data point of any type.
+   *
+   * @throws IllegalStateException if the value of the data point is not of the type of the encoder
+   * @throws IllegalArgumentException if the timestamp is not larger than the previous one
+   */
+  public void add(final DataPoint dataPoint) {
+    if (dataPoint instanceof DataPoint.LongDataPoint) {
+      add(dataPoint.timestamp(), ((DataPoint.LongDataPoint) dataPoint).value());
+    } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+      add(dataPoint.timestamp(), ((DataPoint.FloatDataPoint) dataPoint).value());
+    } else if (dataPoint instanceof DataPoint.DoubleDataPoint) {
+      add(dataPoint.timestamp(), ((DataPoint.DoubleDataPoint) dataPoint).value());
+    } else {
+      throw new IllegalArgumentException("Unknown type of data point " + dataPoint);
+    }
+  }
+
+  /**
+   * Encode the added data points into a newly allocated buffer that is ready to be read.
+   */
+  public ByteBuffer encode() {
+    final byte[] stream = bits.toByteArray();
+    final ByteBuffer chunk = ByteBuffer.allocate(HEADER_SIZE + stream.length)
+        .put(FORMAT_VERSION)
+        .put((byte) type.ordinal())
+        .putInt(size)
+        .put(stream);
+    chunk.flip();
+    return chunk;
+  }
+
+  private void addTimestamp(final long timestamp) {
+    if (size == 0) {
+      bits.writeBits(timestamp, 64);
+    } else {
+      checkArgument(timestamp > previousTimestamp,
+          "Timestamps must be strictly increasing but %s came after %s", timestamp,
+          previousTimestamp);
+
+      final long delta = timestamp - previousTimestamp;
+      writeDeltaOfDelta(zigZag(delta - previousDelta));
+      previousDelta = delta;
+    }
+
+    previousTimestamp = timestamp;
+    size++;
+  }
+
+  /**
+   * Write a zig-zag encoded delta of delta using the smallest of a few fixed widths that it fits
+   * in. The widths are prefixed by a unary code so that the common case of a regular interval only
+   * takes a single bit.
+   */
+  private void writeDeltaOfDelta(final long deltaOfDelta) {
+    if (deltaOfDelta == 0) {
+      bits.writeBit(false);
+    } else if ((deltaOfDelta >>> 7) == 0) {
+      bits.writeBits(0b10, 2);
+      bits.writeBits(deltaOfDelta, 7);
+    } else if ((deltaOfDelta >>> 9) == 0) {
+      bits.writeBits(0b110, 3);
+      bits.writeBits(deltaOfDelta, 9);
+    } else if ((deltaOfDelta >>> 12) == 0) {
+      bits.writeBits(0b1110, 4);
+      bits.writeBits(deltaOfDelta, 12);
+    } else if ((deltaOfDelta >>> 32) == 0) {
+      bits.writeBits(0b11110, 5);
+      bits.writeBits(deltaOfDelta, 32);
+    } else {
+      bits.writeBits(0b11111, 5);
+      bits.writeBits(deltaOfDelta, 64);
+    }
+  }
+
+  /**
+   * Write the XOR of the value and the previous value. Only the bits between the leading and
+   * trailing zeros of the XOR are written, if they fit within the window of the previous value the
+   * window is reused and otherwise a new window is written first.
+   */
+  private void addFloatingPoint(final long value, final int width) {
+    if (size == 1) {
+      bits.writeBits(value, width);
+      previousValue = value;
+      return;
+    }
+
+    final long xor = value ^ previousValue;
+    previousValue = value;
+
+    if (xor == 0) {
+      bits.writeBit(false);
+      return;
+    }
+
+    bits.writeBit(true);
+
+    final int lengthBits = width == Long.SIZE ? 6 : 5;
+    final int leading = Long.numberOfLeadingZeros(xor) - (Long.SIZE - width);
+    final int trailing = Long.numberOfTrailingZeros(xor);
+
+    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+      bits.writeBit(false);
+      bits.writeBits(xor >>> previousTrailing, width - previousLeading - previousTrailing);
+    } else {
+      final int meaningful = width - leading - trailing;
+
+      bits.writeBit(true);
+      bits.writeBits(leading, lengthBits);
+      bits.writeBits(meaningful - 1, lengthBits);
+      bits.writeBits(xor >>> trailing, meaningful);
+
+      previousLeading = leading;
+      previousTrailing = trailing;
+    }
+  }
+
+  private static long zigZag(final long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+}
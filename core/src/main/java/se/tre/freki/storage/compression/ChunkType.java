@@ -0,0 +1,8 @@
+package se.tre.freki.storage.compression;
+
+/**
+ * The type of the values in a chunk. All data points in a chunk have values of the same type.
+ */
+public enum ChunkType {
+  LONG, FLOAT, DOUBLE
+}
@@ -0,0 +1,5 @@
+
+@ParametersAreNonnullByDefault
+package se.tre.freki.storage.compression;
+
+import javax.annotation.ParametersAreNonnullByDefault;
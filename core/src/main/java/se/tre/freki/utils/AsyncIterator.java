@@ -31,4 +31,12 @@ public interface AsyncIterator<E> extends Iterator<E> {
    * @return A future that is done once new elements are available
    */
   ListenableFuture<Boolean> fetchMore();
+
+  /**
+   * Tell the iterator that it will not be read any further so that anything that is held on its
+   * behalf can be given back before it is exhausted. Iterators that do not hold on to anything do
+   * not need to implement this, which is why the default implementation does nothing.
+   */
+  default void close() {
+  }
 }
@@ -0,0 +1,242 @@
+package se.tre.freki.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import se.tre.freki.query.QueryException;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Static utility methods for creating and wrapping {@link AsyncIterator}s.
+ */
+public final class AsyncIterators {
+  private AsyncIterators() {
+  }
+
+  /**
+   * Get an iterator that returns at most the first {@code limit} elements of the provided
+   * iterator.
+   *
+   * @param iterator The iterator to read the elements from
+   * @param limit The maximum number of elements to return, must be larger than zero
+   * @return An iterator that stops after {@code limit} elements
+   */
+  public static <E> AsyncIterator<E> limit(final AsyncIterator<E> iterator, final int limit) {
+    checkArgument(limit > 0, "The limit must be larger than zero");
+    return new LimitingIterator<>(checkNotNull(iterator), limit);
+  }
+
+  /**
+   * Get an iterator over the elements of the list that the future returned by the provided
+   * supplier will contain. The supplier is not called until the iterator is first used so nothing
+   * is read for iterators that are never looked at.
+   *
+   * @param elements A supplier of a future that will contain the elements to iterate over
+   * @return An iterator that reads its elements once it is used
+   */
+  public static <E> AsyncIterator<E> deferred(
+      final Supplier<? extends ListenableFuture<? extends List<E>>> elements) {
+    return new DeferredIterator<>(checkNotNull(elements));
+  }
+
+  /**
+   * Get an iterator over the elements of the provided list.
+   */
+  public static <E> AsyncIterator<E> of(final List<E> elements) {
+    return deferred(Suppliers.ofInstance(Futures.immediateFuture(elements)));
+  }
+
+  /**
+   * Get an iterator that returns the elements of the iterators returned by the provided suppliers
+   * one after the other. Each supplier is not called until the iterator before it has been
+   * exhausted so nothing is read for iterators that are never reached.
+   *
+   * @param iterators Suppliers of the iterators to read in order
+   * @return An iterator over the elements of all of the supplied iterators
+   */
+  public static <E> AsyncIterator<E> concat(
+      final List<? extends Supplier<? extends AsyncIterator<? extends E>>> iterators) {
+    return new ConcatenatedIterator<>(iterators.iterator());
+  }
+
+  private static final class LimitingIterator<E> implements AsyncIterator<E> {
+    private final AsyncIterator<E> iterator;
+    private int remaining;
+
+    LimitingIterator(final AsyncIterator<E> iterator, final int limit) {
+      this.iterator = iterator;
+      this.remaining = limit;
+    }
+
+    @Override
+    public boolean hasMoreWithoutFetching() {
+      return remaining > 0 && iterator.hasMoreWithoutFetching();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> fetchMore() {
+      if (remaining == 0) {
+        return Futures.immediateFuture(false);
+      }
+
+      return iterator.fetchMore();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0 && iterator.hasNext();
+    }
+
+    @Override
+    public E next() {
+      if (remaining == 0) {
+        throw new NoSuchElementException("The limit has been reached");
+      }
+
+      remaining--;
+      return iterator.next();
+    }
+  }
+
+  private static final class DeferredIterator<E> implements AsyncIterator<E> {
+    private final Supplier<? extends ListenableFuture<? extends List<E>>> supplier;
+
+    private ListenableFuture<? extends List<E>> elements;
+    private Iterator<E> iterator;
+
+    DeferredIterator(final Supplier<? extends ListenableFuture<? extends List<E>>> supplier) {
+      this.supplier = supplier;
+    }
+
+    private ListenableFuture<? extends List<E>> elements() {
+      if (elements == null) {
+        elements = supplier.get();
+      }
+
+      return elements;
+    }
+
+    /**
+     * Get an iterator over the elements, this blocks until they have been read.
+     */
+    private Iterator<E> iterator() {
+      if (iterator == null) {
+        try {
+          iterator = Uninterruptibles.getUninterruptibly(elements()).iterator();
+        } catch (ExecutionException e) {
+          throw new QueryException("Unable to read the elements", e.getCause());
+        }
+      }
+
+      return iterator;
+    }
+
+    @Override
+    public boolean hasMoreWithoutFetching() {
+      return elements().isDone() && iterator().hasNext();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> fetchMore() {
+      return Futures.transform(elements(), new Function<List<E>, Boolean>() {
+        @Override
+        public Boolean apply(final List<E> elements) {
+          return iterator().hasNext();
+        }
+      });
+    }
+
+    @Override
+    public boolean hasNext() {
+      return iterator().hasNext();
+    }
+
+    @Override
+    public E next() {
+      return iterator().next();
+    }
+  }
+
+  private static final class ConcatenatedIterator<E> implements AsyncIterator<E> {
+    private final Iterator<? extends Supplier<? extends AsyncIterator<? extends E>>> suppliers;
+
+    /**
+     * The iterator that is being read, {@code null} until the first one has been asked for.
+     */
+    private AsyncIterator<? extends E> current;
+
+    ConcatenatedIterator(
+        final Iterator<? extends Supplier<? extends AsyncIterator<? extends E>>> suppliers) {
+      this.suppliers = suppliers;
+    }
+
+    /**
+     * Move on to the next iterator.
+     *
+     * @return {@code false} if there are no more iterators to move on to
+     */
+    private boolean advance() {
+      if (!suppliers.hasNext()) {
+        return false;
+      }
+
+      current = suppliers.next().get();
+      return true;
+    }
+
+    @Override
+    public boolean hasMoreWithoutFetching() {
+      return current != null && current.hasMoreWithoutFetching();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> fetchMore() {
+      if (current == null && !advance()) {
+        return Futures.immediateFuture(false);
+      }
+
+      return Futures.transform(current.fetchMore(), new AsyncFunction<Boolean, Boolean>() {
+        @Override
+        public ListenableFuture<Boolean> apply(final Boolean fetched) {
+          if (fetched || current.hasMoreWithoutFetching()) {
+            return Futures.immediateFuture(true);
+          }
+
+          return advance() ? fetchMore() : Futures.immediateFuture(false);
+        }
+      });
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (current == null || !current.hasNext()) {
+        if (!advance()) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException("There are no more elements to iterate over");
+      }
+
+      return current.next();
+    }
+  }
+}
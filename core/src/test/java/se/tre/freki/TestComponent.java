@@ -1,10 +1,13 @@
 package se.tre.freki;
 
+import se.tre.freki.core.AdmissionControllerTest;
 import se.tre.freki.core.ConfigModule;
 import se.tre.freki.core.CoreModule;
+import se.tre.freki.core.DataPointsClientTest;
 import se.tre.freki.core.LabelClientTest;
 import se.tre.freki.core.MetaClientAnnotationTest;
 import se.tre.freki.core.MetaClientLabelMetaTest;
+import se.tre.freki.core.QuerySchedulerTest;
 import se.tre.freki.labels.LabelClientTypeContextTest;
 import se.tre.freki.labels.WildcardIdLookupStrategyTest;
 import se.tre.freki.plugins.PluginsModule;
@@ -45,6 +48,8 @@ public interface TestComponent {
 
   void inject(LabelClientTest idClientTest);
 
+  void inject(DataPointsClientTest dataPointsClientTest);
+
   void inject(MetaClientAnnotationTest metaClientAnnotationTest);
 
   void inject(IdChangeIndexerListenerTest idChangeIndexerListenerTest);
@@ -53,6 +58,10 @@ public interface TestComponent {
 
   void inject(QueryStringTranslatorTest queryStringTranslatorTest);
 
+  void inject(AdmissionControllerTest admissionControllerTest);
+
+  void inject(QuerySchedulerTest querySchedulerTest);
+
   SearchPlugin searchPlugin();
 
   RealTimePublisher realTimePublisher();
@@ -0,0 +1,225 @@
+package se.tre.freki.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import se.tre.freki.DaggerTestComponent;
+import se.tre.freki.utils.InvalidConfigException;
+import se.tre.freki.utils.TestUtil;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValueFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+
+public class AdmissionControllerTest {
+  @Rule
+  public final Timeout timeout = Timeout.millis(TestUtil.TIMEOUT);
+
+  @Inject Config config;
+
+  private SettableFuture<Void> pending;
+  private List<Integer> started;
+
+  @Before
+  public void setUp() {
+    DaggerTestComponent.create().inject(this);
+
+    pending = SettableFuture.create();
+    started = new ArrayList<>();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroMaxInflight() {
+    new AdmissionController(0, AdmissionController.Policy.REJECT, 0, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorNegativeMaxQueued() {
+    new AdmissionController(1, AdmissionController.Policy.QUEUE, -1, 0);
+  }
+
+  @Test
+  public void testFromConfig() {
+    AdmissionController.fromConfig(config);
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testFromConfigInvalidPolicy() {
+    AdmissionController.fromConfig(config.withValue("freki.core.inflight_writes.policy",
+        ConfigValueFactory.fromAnyRef("drop")));
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testFromConfigZeroMaxInflight() {
+    AdmissionController.fromConfig(config.withValue("freki.core.max_inflight_writes",
+        ConfigValueFactory.fromAnyRef(0)));
+  }
+
+  @Test
+  public void testRejectWhenFull() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(2, AdmissionController.Policy.REJECT, 0, 0);
+
+    admission.submit(2, () -> pending);
+    assertRejected(admission.submit(1, write(1)), WriteRejectedException.Reason.INFLIGHT_LIMIT);
+    assertTrue(started.isEmpty());
+  }
+
+  @Test
+  public void testRejectAdmitsAfterCompletion() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(2, AdmissionController.Policy.REJECT, 0, 0);
+
+    admission.submit(2, () -> pending);
+    pending.set(null);
+
+    admission.submit(2, write(1)).get();
+    assertEquals(1, started.size());
+  }
+
+  @Test
+  public void testOversizedWriteIsAdmitted() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(2, AdmissionController.Policy.REJECT, 0, 0);
+
+    admission.submit(10, write(1)).get();
+    assertEquals(1, started.size());
+  }
+
+  @Test
+  public void testReturnsResultOfWrite() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(2, AdmissionController.Policy.REJECT, 0, 0);
+
+    final Object value = new Object();
+    assertSame(value, admission.submit(1, () -> Futures.immediateFuture(value)).get());
+  }
+
+  @Test
+  public void testQueueStartsInOrder() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(1, AdmissionController.Policy.QUEUE, 10, 0);
+
+    admission.submit(1, () -> pending);
+    final ListenableFuture<Void> first = admission.submit(1, write(1));
+    final ListenableFuture<Void> second = admission.submit(1, write(2));
+
+    assertTrue(started.isEmpty());
+    assertFalse(first.isDone());
+
+    pending.set(null);
+
+    first.get();
+    second.get();
+    assertEquals(1, (int) started.get(0));
+    assertEquals(2, (int) started.get(1));
+  }
+
+  @Test
+  public void testQueueRejectsWhenQueueFull() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(1, AdmissionController.Policy.QUEUE, 1, 0);
+
+    admission.submit(1, () -> pending);
+    admission.submit(1, write(1));
+
+    assertRejected(admission.submit(1, write(2)), WriteRejectedException.Reason.QUEUE_FULL);
+  }
+
+  @Test
+  public void testQueueFullMessageNamesQueue() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(1, AdmissionController.Policy.QUEUE, 1, 0);
+
+    admission.submit(1, () -> pending);
+    admission.submit(1, write(1));
+
+    try {
+      admission.submit(1, write(2)).get();
+      fail("The write should have been rejected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().getMessage().contains("waiting to be written"));
+    }
+  }
+
+  @Test
+  public void testQueuePropagatesFailure() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(1, AdmissionController.Policy.QUEUE, 1, 0);
+
+    admission.submit(1, () -> pending);
+    final ListenableFuture<Void> queued = admission.submit(1,
+        () -> Futures.<Void>immediateFailedFuture(new IllegalStateException()));
+
+    pending.set(null);
+
+    try {
+      queued.get();
+      fail("The queued write should have failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void testQueueDrainsLongQueue() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(1, AdmissionController.Policy.QUEUE, 100000, 0);
+
+    admission.submit(1, () -> pending);
+
+    ListenableFuture<Void> last = null;
+    for (int i = 0; i < 100000; i++) {
+      last = admission.submit(1, write(i));
+    }
+
+    pending.set(null);
+
+    last.get();
+    assertEquals(100000, started.size());
+  }
+
+  @Test
+  public void testBlockTimesOut() throws Exception {
+    final AdmissionController admission =
+        new AdmissionController(1, AdmissionController.Policy.BLOCK, 0, 10);
+
+    admission.submit(1, () -> pending);
+
+    assertRejected(admission.submit(1, write(1)), WriteRejectedException.Reason.TIMED_OUT);
+  }
+
+  private Supplier<ListenableFuture<Void>> write(final int id) {
+    return () -> {
+      started.add(id);
+      return Futures.immediateFuture(null);
+    };
+  }
+
+  private static void assertRejected(final ListenableFuture<?> future,
+                                     final WriteRejectedException.Reason reason)
+      throws InterruptedException {
+    try {
+      future.get();
+      fail("The write should have been rejected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof WriteRejectedException);
+      assertEquals(reason, ((WriteRejectedException) e.getCause()).reason());
+    }
+  }
+}
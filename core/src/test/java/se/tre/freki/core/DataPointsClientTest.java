@@ -0,0 +1,284 @@
+package se.tre.freki.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static se.tre.freki.labels.LabelType.METRIC;
+import static se.tre.freki.labels.LabelType.TAGK;
+import static se.tre.freki.labels.LabelType.TAGV;
+
+import se.tre.freki.DaggerTestComponent;
+import se.tre.freki.labels.LabelException;
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.plugins.RealTimePublisher;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.query.TimeSeriesQuery;
+import se.tre.freki.query.predicate.SimpleTimeSeriesIdPredicate;
+import se.tre.freki.query.predicate.TimeSeriesQueryPredicate;
+import se.tre.freki.query.predicate.TimeSeriesTagPredicate;
+import se.tre.freki.storage.AddPointsResult;
+import se.tre.freki.storage.Store;
+import se.tre.freki.storage.TimeSeriesDataPoint;
+import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.TestUtil;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValueFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import javax.inject.Inject;
+
+public class DataPointsClientTest {
+  private static final ImmutableMap<String, String> TAGS = ImmutableMap.of("host", "web01");
+
+  @Rule
+  public final Timeout timeout = Timeout.millis(TestUtil.TIMEOUT);
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Inject Store store;
+  @Inject LabelClient labelClient;
+  @Inject RealTimePublisher publisher;
+  @Inject Config config;
+  @Inject DataPointsClient dataPointsClient;
+
+  @Before
+  public void setUp() throws Exception {
+    DaggerTestComponent.create().inject(this);
+
+    store.createLabel("sys.cpu.0", METRIC).get();
+    store.createLabel("host", TAGK).get();
+    store.createLabel("web01", TAGV).get();
+  }
+
+  /**
+   * Create a client for the provided store that is configured by the provided config in the same
+   * way as the injected one.
+   */
+  private DataPointsClient client(final Store store, final Config config) {
+    final CoreModule module = new CoreModule();
+    return new DataPointsClient(store, labelClient, publisher, config,
+        module.provideAdmissionController(config),
+        module.provideQueryScheduler(config),
+        module.provideLatestPointCache(config),
+        module.provideIngestPipeline(config),
+        module.provideWriteAheadLog(config));
+  }
+
+  @Test
+  public void testAddPointsAllSuccessful() throws Exception {
+    final List<IncomingDataPoint> points = ImmutableList.of(
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.longPoint(1000, 1)),
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.floatPoint(2000, 2.5f)),
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.doublePoint(3000, 3.5)));
+
+    final AddPointsResult result = dataPointsClient.addPoints(points).get();
+
+    assertTrue(result.isSuccessful());
+    assertEquals(3, result.size());
+  }
+
+  @Test
+  public void testAddPointsEmpty() throws Exception {
+    final AddPointsResult result =
+        dataPointsClient.addPoints(ImmutableList.<IncomingDataPoint>of()).get();
+
+    assertTrue(result.isSuccessful());
+    assertEquals(0, result.size());
+  }
+
+  @Test
+  public void testAddPointsInvalidTimestampReported() throws Exception {
+    final List<IncomingDataPoint> points = ImmutableList.of(
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.longPoint(1000, 1)),
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.longPoint(-1, 2)),
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.longPoint(3000, 3)));
+
+    final AddPointsResult result = dataPointsClient.addPoints(points).get();
+
+    assertFalse(result.isSuccessful());
+    assertEquals(ImmutableList.of(1), result.failures().keySet().asList());
+    assertTrue(result.failures().get(1) instanceof IllegalArgumentException);
+  }
+
+  @Test
+  public void testAddPointsMissingLabelReported() throws Exception {
+    final List<IncomingDataPoint> points = ImmutableList.of(
+        IncomingDataPoint.create("sys.cpu.1", TAGS, DataPoints.longPoint(1000, 1)),
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.longPoint(2000, 2)),
+        IncomingDataPoint.create("sys.cpu.1", TAGS, DataPoints.longPoint(3000, 3)));
+
+    final AddPointsResult result = dataPointsClient.addPoints(points).get();
+
+    assertEquals(2, result.failures().size());
+    assertTrue(result.failures().get(0) instanceof LabelException);
+    assertTrue(result.failures().get(2) instanceof LabelException);
+  }
+
+  @Test
+  public void testAddPointsStoreFailureMappedToIndex() throws Exception {
+    final Store failingStore = spy(store);
+    final Exception storeFailure = new Exception();
+    doReturn(Futures.immediateFuture(AddPointsResult.create(2,
+        ImmutableMap.<Integer, Throwable>of(1, storeFailure))))
+        .when(failingStore).addPoints(anyListOf(TimeSeriesDataPoint.class));
+
+    final DataPointsClient client = client(failingStore, config);
+
+    final List<IncomingDataPoint> points = ImmutableList.of(
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.longPoint(-1, 1)),
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.longPoint(2000, 2)),
+        IncomingDataPoint.create("sys.cpu.0", TAGS, DataPoints.longPoint(3000, 3)));
+
+    final AddPointsResult result = client.addPoints(points).get();
+
+    assertEquals(2, result.failures().size());
+    assertTrue(result.failures().get(0) instanceof IllegalArgumentException);
+    assertSame(storeFailure, result.failures().get(2));
+  }
+
+  @Test
+  public void testSeriesHandleResolves() throws Exception {
+    final SeriesHandle series = dataPointsClient.seriesHandle("sys.cpu.0", TAGS).get();
+
+    assertEquals("sys.cpu.0", series.metric());
+    assertEquals(TAGS, series.tags());
+    assertEquals(labelClient.getTimeSeriesId("sys.cpu.0", TAGS).get().metric(),
+        series.timeSeriesId().metric());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSeriesHandleInvalidMetric() throws Exception {
+    dataPointsClient.seriesHandle("Not!A:Valid@Name", TAGS);
+  }
+
+  @Test
+  public void testSeriesHandleMissingLabel() throws Exception {
+    try {
+      dataPointsClient.seriesHandle("sys.cpu.1", TAGS).get();
+      fail("The metric does not exist and the handle should not have been resolved");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof LabelException);
+    }
+  }
+
+  @Test
+  public void testAddPointWithSeriesHandle() throws Exception {
+    final SeriesHandle series = dataPointsClient.seriesHandle("sys.cpu.0", TAGS).get();
+
+    dataPointsClient.addPoint(series, 1000, 1L).get();
+    dataPointsClient.addPoint(series, 2000, 2.5f).get();
+    dataPointsClient.addPoint(series, 3000, 3.5).get();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddPointWithSeriesHandleNegativeTimestamp() throws Exception {
+    final SeriesHandle series = dataPointsClient.seriesHandle("sys.cpu.0", TAGS).get();
+    dataPointsClient.addPoint(series, -1, 1L);
+  }
+
+  @Test
+  public void testAddPointWithSeriesHandleGoesThroughWriteAheadLog() throws Exception {
+    final Store walStore = spy(store);
+    final DataPointsClient client = client(walStore, config
+        .withValue("freki.core.wal.enabled", ConfigValueFactory.fromAnyRef(true))
+        .withValue("freki.core.wal.directory",
+            ConfigValueFactory.fromAnyRef(folder.newFolder("wal").toString()))
+        .withValue("freki.core.wal.segment_size", ConfigValueFactory.fromAnyRef("1M")));
+
+    client.start();
+
+    final SeriesHandle series = client.seriesHandle("sys.cpu.0", TAGS).get();
+    client.addPoint(series, 1000, 1L).get();
+
+    verify(walStore, timeout(TestUtil.TIMEOUT)).addPoints(anyListOf(TimeSeriesDataPoint.class));
+    verify(walStore, never()).addPoint(any(TimeSeriesId.class), anyLong(), anyLong());
+  }
+
+  @Test
+  public void testQueryLatestAnsweredFromCache() throws Exception {
+    final Store queryStore = spy(store);
+    final DataPointsClient client = client(queryStore,
+        config.withValue("freki.core.latest_points.enabled", ConfigValueFactory.fromAnyRef(true)));
+
+    final SeriesHandle series = client.seriesHandle("sys.cpu.0", TAGS).get();
+    client.addPoint(series, 1000, 1L).get();
+    client.addPoint(series, 2000, 2L).get();
+
+    @SuppressWarnings("unchecked")
+    final AsyncIterator<DataPoint> storeDataPoints = mock(AsyncIterator.class);
+    doReturn(Futures.immediateFuture(ImmutableMap.of(series.timeSeriesId(), storeDataPoints)))
+        .when(queryStore).query(any(TimeSeriesQuery.class));
+
+    final TimeSeriesQueryPredicate.Builder predicate = TimeSeriesQueryPredicate.builder();
+    predicate.metric(series.timeSeriesId().metric());
+    predicate.addTagPredicate(TimeSeriesTagPredicate.eq(
+        SimpleTimeSeriesIdPredicate.id(labelClient.lookupId("host", TAGK).get()),
+        SimpleTimeSeriesIdPredicate.id(labelClient.lookupId("web01", TAGV).get())));
+
+    final TimeSeriesQuery query = TimeSeriesQuery.builder()
+        .startTime(0)
+        .endTime(5000)
+        .predicate(predicate.build())
+        .limit(1)
+        .descending(true)
+        .build();
+
+    final AsyncIterator<? extends DataPoint> dataPoints =
+        Iterables.getOnlyElement(client.query(query).get().values());
+
+    assertEquals(2000, dataPoints.next().timestamp());
+    assertFalse(dataPoints.hasNext());
+    verifyZeroInteractions(storeDataPoints);
+  }
+
+  @Test
+  public void testQueryPassesPriorityToStore() throws Exception {
+    final Store queryStore = spy(store);
+    final DataPointsClient client = client(queryStore, config);
+
+    doReturn(Futures.immediateFuture(ImmutableMap.of()))
+        .when(queryStore).query(any(TimeSeriesQuery.class));
+
+    final TimeSeriesQueryPredicate.Builder predicate = TimeSeriesQueryPredicate.builder();
+    predicate.metric(labelClient.lookupId("sys.cpu.0", METRIC).get());
+    predicate.addTagPredicate(TimeSeriesTagPredicate.eq(
+        SimpleTimeSeriesIdPredicate.id(labelClient.lookupId("host", TAGK).get()),
+        SimpleTimeSeriesIdPredicate.id(labelClient.lookupId("web01", TAGV).get())));
+
+    client.query(TimeSeriesQuery.builder()
+        .startTime(0)
+        .endTime(5000)
+        .predicate(predicate.build())
+        .build(), QueryScheduler.Priority.BATCH).get();
+
+    final ArgumentCaptor<TimeSeriesQuery> query = ArgumentCaptor.forClass(TimeSeriesQuery.class);
+    verify(queryStore).query(query.capture());
+    assertEquals(QueryScheduler.Priority.BATCH, query.getValue().priority());
+  }
+}
@@ -0,0 +1,339 @@
+package se.tre.freki.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.storage.AddPointsResult;
+import se.tre.freki.utils.TestUtil;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IngestPipelineTest {
+  private static final String METRIC = "sys.cpu.0";
+  private static final ImmutableMap<String, String> TAGS = ImmutableMap.of("host", "web01");
+
+  @Rule
+  public final Timeout timeout = Timeout.millis(TestUtil.TIMEOUT);
+
+  private RecordingSink sink;
+
+  private IngestPipeline pipeline;
+
+  @Before
+  public void setUp() {
+    sink = new RecordingSink();
+  }
+
+  @After
+  public void tearDown() {
+    if (pipeline != null) {
+      pipeline.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroBufferSize() {
+    new IngestPipeline(1, 0, 1, 16);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroShards() {
+    new IngestPipeline(0, 1, 1, 16);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroBatchSize() {
+    new IngestPipeline(1, 1, 0, 16);
+  }
+
+  @Test
+  public void testCapacityRoundedToPowerOfTwo() {
+    assertEquals(1, new IngestPipeline(1, 1, 1, 16).capacity());
+    assertEquals(8, new IngestPipeline(1, 5, 1, 16).capacity());
+    assertEquals(8, new IngestPipeline(1, 8, 1, 16).capacity());
+  }
+
+  @Test
+  public void testOfferBeforeStartRejected() {
+    pipeline = new IngestPipeline(1, 4, 1, 16);
+    assertFalse(pipeline.offer(METRIC, TAGS, 1000L, 1L));
+  }
+
+  @Test
+  public void testOfferWhenFullRejected() throws Exception {
+    final CountDownLatch taken = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final RecordingSink stuckSink = new RecordingSink() {
+      @Override
+      public ListenableFuture<AddPointsResult> write(final List<IncomingDataPoint> points,
+                                                     final List<TimeSeriesId> timeSeriesIds) {
+        taken.countDown();
+        Uninterruptibles.awaitUninterruptibly(release);
+        return super.write(points, timeSeriesIds);
+      }
+    };
+
+    pipeline = new IngestPipeline(1, 2, 1, 16);
+    pipeline.start(stuckSink);
+
+    // Wait for the only worker to get stuck on the first data point.
+    assertTrue(pipeline.offer(METRIC, TAGS, 999L, 0L));
+    taken.await();
+
+    assertTrue(pipeline.offer(METRIC, TAGS, 1000L, 1L));
+    assertTrue(pipeline.offer(METRIC, TAGS, 1001L, 2L));
+    assertFalse(pipeline.offer(METRIC, TAGS, 1002L, 3L));
+
+    release.countDown();
+  }
+
+  @Test
+  public void testCloseWritesStagedPoints() {
+    pipeline = new IngestPipeline(1, 16, 4, 16);
+    pipeline.start(sink);
+
+    assertTrue(pipeline.offer(METRIC, TAGS, 1000L, 1L));
+    assertTrue(pipeline.offer(METRIC, TAGS, 1001L, 2.5F));
+    assertTrue(pipeline.offer(METRIC, TAGS, 1002L, 3.5D));
+
+    pipeline.close();
+
+    assertEquals(3, sink.written.size());
+    assertEquals(METRIC, sink.written.get(0).metric());
+    assertEquals(TAGS, sink.written.get(0).tags());
+    assertEquals(1L, ((DataPoint.LongDataPoint) sink.written.get(0).dataPoint()).value());
+    assertEquals(2.5F, ((DataPoint.FloatDataPoint) sink.written.get(1).dataPoint()).value(), 0);
+    assertEquals(3.5D, ((DataPoint.DoubleDataPoint) sink.written.get(2).dataPoint()).value(), 0);
+    assertEquals(1002L, sink.written.get(2).dataPoint().timestamp());
+  }
+
+  @Test
+  public void testBatchSizeRespected() {
+    pipeline = new IngestPipeline(1, 64, 4, 16);
+    pipeline.start(sink);
+
+    for (int i = 0; i < 50; i++) {
+      assertTrue(pipeline.offer(METRIC, TAGS, 1000L + i, (long) i));
+    }
+
+    pipeline.close();
+
+    assertEquals(50, sink.written.size());
+    for (final int batchSize : sink.batchSizes) {
+      assertTrue(batchSize <= 4);
+    }
+  }
+
+  @Test
+  public void testSlotsReusedAcrossLaps() {
+    pipeline = new IngestPipeline(2, 4, 2, 16);
+    pipeline.start(sink);
+
+    int accepted = 0;
+    while (accepted < 1000) {
+      if (pipeline.offer(METRIC, TAGS, 1000L + accepted, (long) accepted)) {
+        accepted++;
+      }
+    }
+
+    pipeline.close();
+
+    assertEquals(1000, sink.written.size());
+  }
+
+  @Test
+  public void testOfferAfterCloseRejected() {
+    pipeline = new IngestPipeline(1, 4, 1, 16);
+    pipeline.start(sink);
+    pipeline.close();
+
+    assertFalse(pipeline.offer(METRIC, TAGS, 1000L, 1L));
+  }
+
+  @Test
+  public void testSeriesWrittenInOrderAcrossShards() {
+    pipeline = new IngestPipeline(4, 64, 8, 16);
+    pipeline.start(sink);
+
+    for (int i = 0; i < 400; i++) {
+      final ImmutableMap<String, String> tags = ImmutableMap.of("host", "web" + (i % 10));
+      while (!pipeline.offer(METRIC, tags, 1000L + i, (long) i)) {
+        Thread.yield();
+      }
+    }
+
+    pipeline.close();
+
+    assertEquals(400, sink.written.size());
+
+    final Map<Map<String, String>, Long> lastTimestamps = new HashMap<>();
+    for (final IncomingDataPoint point : sink.written) {
+      final Long last = lastTimestamps.put(point.tags(), point.dataPoint().timestamp());
+      assertTrue(last == null || last < point.dataPoint().timestamp());
+    }
+  }
+
+  @Test
+  public void testResolvedSeriesRemembered() {
+    pipeline = new IngestPipeline(1, 16, 1, 16);
+    pipeline.start(sink);
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(pipeline.offer(METRIC, TAGS, 1000L + i, (long) i));
+    }
+
+    pipeline.close();
+
+    assertEquals(10, sink.written.size());
+    assertEquals(1, sink.resolved.get());
+  }
+
+  @Test
+  public void testResolvedSeriesForgottenOnNewGeneration() {
+    pipeline = new IngestPipeline(1, 16, 1, 16);
+    pipeline.start(sink);
+
+    assertTrue(pipeline.offer(METRIC, TAGS, 1000L, 1L));
+    awaitWritten(1);
+
+    sink.generation.incrementAndGet();
+
+    assertTrue(pipeline.offer(METRIC, TAGS, 1001L, 2L));
+    pipeline.close();
+
+    assertEquals(2, sink.resolved.get());
+  }
+
+  @Test
+  public void testResolvedSeriesForgottenOnInvalidationDuringLookup() {
+    final RecordingSink invalidatingSink = new RecordingSink() {
+      @Override
+      public ListenableFuture<TimeSeriesId> resolve(final String metric,
+                                                    final Map<String, String> tags) {
+        resolved.incrementAndGet();
+        final SettableFuture<TimeSeriesId> lookup = SettableFuture.create();
+
+        // The lookup completes only after the time series it resolves has been invalidated.
+        new Thread(() -> invalidateAndComplete(lookup)).start();
+        return lookup;
+      }
+
+      private void invalidateAndComplete(final SettableFuture<TimeSeriesId> lookup) {
+        Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        generation.incrementAndGet();
+        lookup.set(mock(TimeSeriesId.class));
+      }
+    };
+
+    pipeline = new IngestPipeline(1, 16, 1, 16);
+    pipeline.start(invalidatingSink);
+
+    assertTrue(pipeline.offer(METRIC, TAGS, 1000L, 1L));
+
+    while (invalidatingSink.written.isEmpty()) {
+      Thread.yield();
+    }
+
+    assertTrue(pipeline.offer(METRIC, TAGS, 1001L, 2L));
+    pipeline.close();
+
+    assertEquals(2, invalidatingSink.resolved.get());
+  }
+
+  @Test
+  public void testOfferCopiesTags() {
+    pipeline = new IngestPipeline(1, 16, 1, 16);
+    pipeline.start(sink);
+
+    final Map<String, String> tags = new HashMap<>(TAGS);
+    assertTrue(pipeline.offer(METRIC, tags, 1000L, 1L));
+    tags.put("host", "changed");
+
+    pipeline.close();
+
+    assertEquals(TAGS, sink.written.get(0).tags());
+  }
+
+  @Test
+  public void testUnresolvedSeriesNotWritten() {
+    final RecordingSink failingSink = new RecordingSink() {
+      @Override
+      public ListenableFuture<TimeSeriesId> resolve(final String metric,
+                                                    final Map<String, String> tags) {
+        if (tags.containsKey("broken")) {
+          return Futures.immediateFailedFuture(new IllegalArgumentException("Unknown"));
+        }
+
+        return super.resolve(metric, tags);
+      }
+    };
+
+    pipeline = new IngestPipeline(1, 16, 4, 16);
+    pipeline.start(failingSink);
+
+    assertTrue(pipeline.offer(METRIC, ImmutableMap.of("broken", "yes"), 1000L, 1L));
+    assertTrue(pipeline.offer(METRIC, TAGS, 1001L, 2L));
+    pipeline.close();
+
+    assertEquals(1, failingSink.written.size());
+    assertEquals(TAGS, failingSink.written.get(0).tags());
+  }
+
+  private void awaitWritten(final int count) {
+    while (sink.written.size() < count) {
+      Thread.yield();
+    }
+  }
+
+  private static class RecordingSink implements IngestPipeline.Sink {
+    final List<IncomingDataPoint> written = Collections.synchronizedList(new ArrayList<>());
+    final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger resolved = new AtomicInteger();
+    final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public ListenableFuture<TimeSeriesId> resolve(final String metric,
+                                                  final Map<String, String> tags) {
+      resolved.incrementAndGet();
+      return Futures.immediateFuture(mock(TimeSeriesId.class));
+    }
+
+    @Override
+    public long resolveGeneration() {
+      return generation.get();
+    }
+
+    @Override
+    public ListenableFuture<AddPointsResult> write(final List<IncomingDataPoint> points,
+                                                   final List<TimeSeriesId> timeSeriesIds) {
+      assertEquals(points.size(), timeSeriesIds.size());
+      batchSizes.add(points.size());
+      written.addAll(points);
+      return Futures.immediateFuture(AddPointsResult.successful(points.size()));
+    }
+  }
+}
@@ -14,6 +14,7 @@ import se.tre.freki.DaggerTestComponent;
 import se.tre.freki.labels.LabelException;
 import se.tre.freki.labels.LabelId;
 import se.tre.freki.labels.StaticTimeSeriesId;
+import se.tre.freki.labels.TimeSeriesId;
 import se.tre.freki.query.DecoratedTimeSeriesId;
 import se.tre.freki.storage.Store;
 import se.tre.freki.utils.TestUtil;
@@ -24,6 +25,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import javax.inject.Inject;
 
@@ -177,4 +179,36 @@ public class LabelClientTest {
       assertTrue(e.getCause() instanceof LabelException);
     }
   }
+
+  @Test
+  public void testResolveAllSharesLabels() throws Exception {
+    final LabelId tagKeyId = store.createLabel("host", TAGK).get();
+    final LabelId web02 = store.createLabel("web02", TAGV).get();
+    final StaticTimeSeriesId first = new StaticTimeSeriesId(sysCpu0,
+        ImmutableList.of(tagKeyId, web01));
+    final StaticTimeSeriesId second = new StaticTimeSeriesId(sysCpu0,
+        ImmutableList.of(tagKeyId, web02));
+
+    final Map<TimeSeriesId, DecoratedTimeSeriesId> decoratedIds =
+        labelClient.resolveAll(ImmutableList.of(first, second)).get();
+
+    assertEquals(DecoratedTimeSeriesId.create("sys.cpu.0", ImmutableList.of("host", "web01")),
+        decoratedIds.get(first));
+    assertEquals(DecoratedTimeSeriesId.create("sys.cpu.0", ImmutableList.of("host", "web02")),
+        decoratedIds.get(second));
+  }
+
+  @Test
+  public void testResolveAllOneDoesNotExist() throws Exception {
+    final LabelId tagKeyId = store.createLabel("host", TAGK).get();
+    final StaticTimeSeriesId timeSeriesId = new StaticTimeSeriesId(sysCpu0,
+        ImmutableList.of(tagKeyId, tagKeyId));
+
+    try {
+      labelClient.resolveAll(ImmutableList.of(timeSeriesId)).get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof LabelException);
+    }
+  }
 }
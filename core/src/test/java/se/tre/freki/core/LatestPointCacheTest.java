@@ -0,0 +1,117 @@
+package se.tre.freki.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.labels.StaticTimeSeriesId;
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.storage.MemoryLabelId;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LatestPointCacheTest {
+  private LatestPointCache cache;
+  private LabelId metric;
+  private ImmutableList<LabelId> tags;
+  private TimeSeriesId timeSeriesId;
+
+  @Before
+  public void setUp() {
+    cache = new LatestPointCache(10);
+    metric = new MemoryLabelId();
+    tags = ImmutableList.<LabelId>of(new MemoryLabelId(), new MemoryLabelId());
+    timeSeriesId = new StaticTimeSeriesId(metric, tags);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroMaxSize() {
+    new LatestPointCache(0);
+  }
+
+  @Test
+  public void testLatestUnknown() {
+    assertFalse(cache.latest(timeSeriesId, 0, Long.MAX_VALUE).isPresent());
+  }
+
+  @Test
+  public void testLatestKeepsNewest() {
+    cache.add(timeSeriesId, DataPoints.longPoint(20, 2));
+    cache.add(timeSeriesId, DataPoints.longPoint(10, 1));
+
+    assertEquals(20, cache.latest(timeSeriesId, 0, 100).get().timestamp());
+  }
+
+  @Test
+  public void testLatestMatchesEqualTimeSeries() {
+    cache.add(timeSeriesId, DataPoints.longPoint(20, 2));
+
+    final TimeSeriesId equalTimeSeriesId =
+        new StaticTimeSeriesId(metric, ImmutableList.copyOf(tags));
+    assertEquals(20, cache.latest(equalTimeSeriesId, 0, 100).get().timestamp());
+  }
+
+  @Test
+  public void testLatestMatchesReorderedTags() {
+    final LabelId key1 = new MemoryLabelId();
+    final LabelId value1 = new MemoryLabelId();
+    final LabelId key2 = new MemoryLabelId();
+    final LabelId value2 = new MemoryLabelId();
+    final LabelId key3 = new MemoryLabelId();
+    final LabelId value3 = new MemoryLabelId();
+
+    cache.add(new StaticTimeSeriesId(metric,
+            ImmutableList.of(key1, value1, key2, value2, key3, value3)),
+        DataPoints.longPoint(20, 2));
+
+    final TimeSeriesId reordered = new StaticTimeSeriesId(metric,
+        ImmutableList.of(key3, value3, key1, value1, key2, value2));
+    assertEquals(20, cache.latest(reordered, 0, 100).get().timestamp());
+  }
+
+  @Test
+  public void testLatestDistinguishesTagValues() {
+    final LabelId key1 = new MemoryLabelId();
+    final LabelId key2 = new MemoryLabelId();
+    final LabelId value1 = new MemoryLabelId();
+    final LabelId value2 = new MemoryLabelId();
+
+    cache.add(new StaticTimeSeriesId(metric, ImmutableList.of(key1, value1, key2, value2)),
+        DataPoints.longPoint(20, 2));
+
+    final TimeSeriesId swapped = new StaticTimeSeriesId(metric,
+        ImmutableList.of(key2, value1, key1, value2));
+    assertFalse(cache.latest(swapped, 0, 100).isPresent());
+  }
+
+  @Test
+  public void testLatestOutsideBounds() {
+    cache.add(timeSeriesId, DataPoints.longPoint(20, 2));
+
+    assertFalse(cache.latest(timeSeriesId, 21, 100).isPresent());
+    assertFalse(cache.latest(timeSeriesId, 0, 19).isPresent());
+  }
+
+  @Test
+  public void testAddOnSuccessWaitsForWrite() {
+    final SettableFuture<Void> write = SettableFuture.create();
+    cache.addOnSuccess(write, timeSeriesId, DataPoints.longPoint(20, 2));
+
+    assertFalse(cache.latest(timeSeriesId, 0, 100).isPresent());
+    write.set(null);
+    assertEquals(20, cache.latest(timeSeriesId, 0, 100).get().timestamp());
+  }
+
+  @Test
+  public void testAddOnFailureIsIgnored() {
+    cache.addOnSuccess(Futures.immediateFailedFuture(new Exception()), timeSeriesId,
+        DataPoints.longPoint(20, 2));
+
+    assertFalse(cache.latest(timeSeriesId, 0, 100).isPresent());
+  }
+}
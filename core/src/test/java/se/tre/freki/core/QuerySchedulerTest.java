@@ -0,0 +1,255 @@
+package se.tre.freki.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import se.tre.freki.DaggerTestComponent;
+import se.tre.freki.core.QueryScheduler.Priority;
+import se.tre.freki.utils.InvalidConfigException;
+import se.tre.freki.utils.TestUtil;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValueFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+
+public class QuerySchedulerTest {
+  private static final Map<Priority, Integer> WEIGHTS =
+      ImmutableMap.of(Priority.INTERACTIVE, 3, Priority.BATCH, 1);
+
+  @Rule
+  public final Timeout timeout = Timeout.millis(TestUtil.TIMEOUT);
+
+  @Inject Config config;
+
+  private ScheduledExecutorService executor;
+  private SettableFuture<Void> pending;
+  private List<Integer> started;
+
+  @Before
+  public void setUp() {
+    DaggerTestComponent.create().inject(this);
+
+    executor = Executors.newSingleThreadScheduledExecutor();
+    pending = SettableFuture.create();
+    started = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroMaxRunning() {
+    new QueryScheduler(0, WEIGHTS, 0, 1000, executor);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorMissingWeight() {
+    new QueryScheduler(1, ImmutableMap.of(Priority.INTERACTIVE, 1), 0, 1000, executor);
+  }
+
+  @Test
+  public void testFromConfig() {
+    QueryScheduler.fromConfig(config);
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testFromConfigZeroWeight() {
+    QueryScheduler.fromConfig(config.withValue("freki.core.queries.weights.batch",
+        ConfigValueFactory.fromAnyRef(0)));
+  }
+
+  @Test
+  public void testRunsImmediatelyWithFreeSlot() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 0, 1000, executor);
+
+    scheduler.submit(Priority.BATCH, query(1)).get();
+    assertEquals(ImmutableList.of(1), started);
+  }
+
+  @Test
+  public void testRejectsWhenQueueFull() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 1, 1000, executor);
+
+    scheduler.submit(Priority.INTERACTIVE, () -> pending);
+    scheduler.submit(Priority.INTERACTIVE, query(1));
+
+    assertRejected(scheduler.submit(Priority.BATCH, query(2)),
+        QueryRejectedException.Reason.QUEUE_FULL);
+  }
+
+  @Test
+  public void testQueuedRunsOnceSlotIsFreed() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 10, 1000, executor);
+
+    scheduler.submit(Priority.INTERACTIVE, () -> pending);
+    final ListenableFuture<Void> queued = scheduler.submit(Priority.INTERACTIVE, query(1));
+
+    assertTrue(started.isEmpty());
+    assertFalse(queued.isDone());
+
+    pending.set(null);
+
+    queued.get();
+    assertEquals(ImmutableList.of(1), started);
+  }
+
+  @Test
+  public void testWeightedTurns() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 100, 1000, executor);
+
+    scheduler.submit(Priority.INTERACTIVE, () -> pending);
+
+    for (int i = 0; i < 4; i++) {
+      scheduler.submit(Priority.BATCH, query(100 + i));
+    }
+
+    ListenableFuture<Void> last = null;
+    for (int i = 0; i < 6; i++) {
+      last = scheduler.submit(Priority.INTERACTIVE, query(i));
+    }
+
+    pending.set(null);
+    last.get();
+
+    // Interactive queries get three turns for every turn of the batch queries.
+    assertEquals(ImmutableList.of(0, 1, 100, 2, 3, 4, 101, 5, 102, 103), started);
+  }
+
+  @Test
+  public void testQueuedTimesOut() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 10, 10, executor);
+
+    scheduler.submit(Priority.INTERACTIVE, () -> pending);
+
+    assertRejected(scheduler.submit(Priority.BATCH, query(1)),
+        QueryRejectedException.Reason.TIMED_OUT);
+
+    pending.set(null);
+    assertTrue(started.isEmpty());
+  }
+
+  @Test
+  public void testDrainsLongQueue() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 100000, 60000, executor);
+
+    scheduler.submit(Priority.INTERACTIVE, () -> pending);
+
+    ListenableFuture<Void> last = null;
+    for (int i = 0; i < 100000; i++) {
+      last = scheduler.submit(Priority.INTERACTIVE, query(i));
+    }
+
+    pending.set(null);
+
+    last.get();
+    assertEquals(100000, started.size());
+  }
+
+  @Test
+  public void testFreesSlotWhenQueryThrows() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 0, 1000, executor);
+
+    try {
+      scheduler.submit(Priority.INTERACTIVE, QuerySchedulerTest::failingQuery);
+      fail("The query should have thrown");
+    } catch (IllegalStateException e) {
+      scheduler.submit(Priority.INTERACTIVE, query(1)).get();
+    }
+
+    assertEquals(ImmutableList.of(1), started);
+  }
+
+  @Test
+  public void testHoldsSlotUntilReleased() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 10, 1000, executor);
+    final List<QueryScheduler.Slot> slots = new ArrayList<>();
+
+    scheduler.submitUntilReleased(Priority.INTERACTIVE, slot -> holding(slot, slots)).get();
+    final ListenableFuture<Void> queued = scheduler.submit(Priority.INTERACTIVE, query(1));
+
+    assertTrue(started.isEmpty());
+
+    slots.get(0).release();
+
+    queued.get();
+    assertEquals(ImmutableList.of(1), started);
+  }
+
+  @Test
+  public void testReleaseTwiceFreesOneSlot() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 10, 1000, executor);
+    final List<QueryScheduler.Slot> slots = new ArrayList<>();
+
+    scheduler.submitUntilReleased(Priority.INTERACTIVE, slot -> holding(slot, slots)).get();
+    scheduler.submitUntilReleased(Priority.INTERACTIVE, slot -> holding(slot, slots));
+    final ListenableFuture<Void> queued = scheduler.submit(Priority.INTERACTIVE, query(1));
+
+    slots.get(0).release();
+    slots.get(0).release();
+
+    assertEquals(2, slots.size());
+    assertFalse(queued.isDone());
+  }
+
+  @Test
+  public void testFreesHeldSlotWhenQueryFails() throws Exception {
+    final QueryScheduler scheduler = new QueryScheduler(1, WEIGHTS, 0, 1000, executor);
+
+    scheduler.submitUntilReleased(Priority.INTERACTIVE,
+        slot -> Futures.immediateFailedFuture(new IllegalStateException()));
+    scheduler.submit(Priority.INTERACTIVE, query(1)).get();
+
+    assertEquals(ImmutableList.of(1), started);
+  }
+
+  private static ListenableFuture<Void> holding(final QueryScheduler.Slot slot,
+                                                final List<QueryScheduler.Slot> slots) {
+    slots.add(slot);
+    return Futures.immediateFuture(null);
+  }
+
+  private Supplier<ListenableFuture<Void>> query(final int id) {
+    return () -> {
+      started.add(id);
+      return Futures.immediateFuture(null);
+    };
+  }
+
+  private static ListenableFuture<Void> failingQuery() {
+    throw new IllegalStateException();
+  }
+
+  private static void assertRejected(final ListenableFuture<?> future,
+                                     final QueryRejectedException.Reason reason)
+      throws InterruptedException {
+    try {
+      future.get();
+      fail("The query should have been rejected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof QueryRejectedException);
+      assertEquals(reason, ((QueryRejectedException) e.getCause()).reason());
+    }
+  }
+}
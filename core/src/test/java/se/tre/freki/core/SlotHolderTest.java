@@ -0,0 +1,157 @@
+package se.tre.freki.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import se.tre.freki.core.QueryScheduler.Priority;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.query.DataPointBlocks;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.utils.AsyncIterator;
+import se.tre.freki.utils.AsyncIterators;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class SlotHolderTest {
+  private ScheduledExecutorService executor;
+  private QueryScheduler scheduler;
+  private QueryScheduler.Slot slot;
+
+  @Before
+  public void setUp() throws Exception {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    scheduler = new QueryScheduler(1,
+        ImmutableMap.of(Priority.INTERACTIVE, 1, Priority.BATCH, 1), 10, 60000, executor);
+    scheduler.submitUntilReleased(Priority.INTERACTIVE, this::take).get();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private ListenableFuture<Void> take(final QueryScheduler.Slot slot) {
+    this.slot = slot;
+    return Futures.immediateFuture(null);
+  }
+
+  /**
+   * Submit a query that completes right away to the scheduler and return its future, which is done
+   * once the slot of the held query has been released.
+   */
+  private ListenableFuture<Void> next() {
+    return scheduler.submit(Priority.INTERACTIVE, () -> Futures.immediateFuture(null));
+  }
+
+  private Map<String, AsyncIterator<? extends DataPoint>> hold(
+      final Map<String, AsyncIterator<? extends DataPoint>> result) {
+    return SlotHolder.holdUntilRead(result, slot);
+  }
+
+  private static AsyncIterator<? extends DataPoint> series(final long timestamp) {
+    return AsyncIterators.of(ImmutableList.of(DataPoints.longPoint(timestamp, 1)));
+  }
+
+  @Test
+  public void testEmptyResultReleasesRightAway() {
+    hold(ImmutableMap.<String, AsyncIterator<? extends DataPoint>>of());
+
+    assertTrue(next().isDone());
+  }
+
+  @Test
+  public void testReleasesOnceAllAreRead() {
+    final Map<String, AsyncIterator<? extends DataPoint>> held = hold(
+        ImmutableMap.<String, AsyncIterator<? extends DataPoint>>of(
+            "a", series(1),
+            "b", series(2)));
+    final ListenableFuture<Void> next = next();
+
+    final AsyncIterator<? extends DataPoint> first = held.get("a");
+    assertEquals(1, first.next().timestamp());
+    assertFalse(first.hasNext());
+    assertFalse(first.hasNext());
+    assertFalse(next.isDone());
+
+    final AsyncIterator<? extends DataPoint> second = held.get("b");
+    second.next();
+    assertFalse(second.hasNext());
+    assertTrue(next.isDone());
+  }
+
+  @Test
+  public void testReleasesOnceAllAreClosed() {
+    final Map<String, AsyncIterator<? extends DataPoint>> held = hold(
+        ImmutableMap.<String, AsyncIterator<? extends DataPoint>>of(
+            "a", series(1),
+            "b", series(2)));
+    final ListenableFuture<Void> next = next();
+
+    held.get("a").close();
+    held.get("a").close();
+    assertFalse(next.isDone());
+
+    held.get("b").close();
+    assertTrue(next.isDone());
+  }
+
+  @Test
+  public void testFetchMoreExhaustedReleases() {
+    final Map<String, AsyncIterator<? extends DataPoint>> held = hold(
+        ImmutableMap.<String, AsyncIterator<? extends DataPoint>>of(
+            "a", AsyncIterators.of(ImmutableList.<DataPoint>of())));
+    final ListenableFuture<Void> next = next();
+
+    held.get("a").fetchMore();
+    assertTrue(next.isDone());
+  }
+
+  @Test
+  public void testKeepsOrder() {
+    final Map<String, AsyncIterator<? extends DataPoint>> held = hold(
+        ImmutableMap.<String, AsyncIterator<? extends DataPoint>>of(
+            "b", series(1),
+            "a", series(2)));
+
+    assertEquals(ImmutableList.of("b", "a"), ImmutableList.copyOf(held.keySet()));
+  }
+
+  @Test
+  public void testKeepsBlockIterators() {
+    final DataPointBlockIterator blocks = DataPointBlocks.blocksOf(series(1));
+    final Map<String, AsyncIterator<? extends DataPoint>> held = hold(
+        ImmutableMap.<String, AsyncIterator<? extends DataPoint>>of("a", blocks));
+    final ListenableFuture<Void> next = next();
+
+    assertTrue(held.get("a") instanceof DataPointBlockIterator);
+
+    final DataPointBlockIterator heldBlocks = (DataPointBlockIterator) held.get("a");
+    final DataPointBlock block = new DataPointBlock(8);
+    assertEquals(1, heldBlocks.nextBlock(block));
+    assertFalse(next.isDone());
+
+    assertEquals(0, heldBlocks.nextBlock(block));
+    assertTrue(next.isDone());
+  }
+
+  @Test
+  public void testPlainIteratorsStayPlain() {
+    final Map<String, AsyncIterator<? extends DataPoint>> held = hold(
+        ImmutableMap.<String, AsyncIterator<? extends DataPoint>>of("a", series(1)));
+
+    assertFalse(held.get("a") instanceof DataPointBlockIterator);
+  }
+}
@@ -0,0 +1,266 @@
+package se.tre.freki.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import se.tre.freki.labels.LabelException;
+import se.tre.freki.labels.LabelType;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.storage.AddPointsResult;
+import se.tre.freki.utils.TestUtil;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+public class WriteAheadLogTest {
+  private static final String METRIC = "sys.cpu.0";
+  private static final ImmutableMap<String, String> TAGS = ImmutableMap.of("host", "web01");
+
+  @Rule
+  public final Timeout timeout = Timeout.millis(TestUtil.TIMEOUT);
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private List<IncomingDataPoint> written;
+  private AtomicBoolean storeAvailable;
+  private Function<List<IncomingDataPoint>, ListenableFuture<AddPointsResult>> writer;
+
+  private WriteAheadLog wal;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = folder.newFolder("wal").toPath();
+    written = Collections.synchronizedList(new ArrayList<>());
+    storeAvailable = new AtomicBoolean(true);
+    writer = batch -> {
+      if (!storeAvailable.get()) {
+        return Futures.immediateFailedFuture(new IllegalStateException("Store is down"));
+      }
+
+      written.addAll(batch);
+      return Futures.immediateFuture(AddPointsResult.successful(batch.size()));
+    };
+  }
+
+  @After
+  public void tearDown() {
+    if (wal != null) {
+      wal.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorTinySegmentSize() throws IOException {
+    new WriteAheadLog(directory, 8, 1, 1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroMaxSegments() throws IOException {
+    new WriteAheadLog(directory, 1024, 0, 1, 0);
+  }
+
+  @Test
+  public void testAppendBeforeStartRejected() throws IOException {
+    wal = new WriteAheadLog(directory, 1024, 1, 10, 0);
+    assertFalse(wal.append(point(1000L, 1L)));
+  }
+
+  @Test
+  public void testAppendedPointsFlushed() throws IOException {
+    wal = new WriteAheadLog(directory, 1024, 4, 10, 0);
+    wal.start(writer);
+
+    assertTrue(wal.append(point(1000L, 1L)));
+    assertTrue(wal.append(IncomingDataPoint.create(METRIC, TAGS,
+        DataPoints.floatPoint(1001L, 2.5F))));
+    assertTrue(wal.append(IncomingDataPoint.create(METRIC, TAGS,
+        DataPoints.doublePoint(1002L, 3.5D))));
+
+    awaitWritten(3);
+
+    assertEquals(METRIC, written.get(0).metric());
+    assertEquals(TAGS, written.get(0).tags());
+    assertEquals(1L, ((DataPoint.LongDataPoint) written.get(0).dataPoint()).value());
+    assertEquals(2.5F, ((DataPoint.FloatDataPoint) written.get(1).dataPoint()).value(), 0);
+    assertEquals(3.5D, ((DataPoint.DoubleDataPoint) written.get(2).dataPoint()).value(), 0);
+    assertEquals(1002L, written.get(2).dataPoint().timestamp());
+  }
+
+  @Test
+  public void testRetriesWhileStoreUnavailable() throws IOException {
+    storeAvailable.set(false);
+    wal = new WriteAheadLog(directory, 1024, 4, 10, 1);
+    wal.start(writer);
+
+    assertTrue(wal.append(point(1000L, 1L)));
+    assertTrue(written.isEmpty());
+
+    storeAvailable.set(true);
+    awaitWritten(1);
+  }
+
+  @Test
+  public void testUnknownLabelDoesNotHoldUpLaterPoints() throws IOException {
+    writer = batch -> {
+      final Map<Integer, Throwable> failures = new HashMap<>();
+
+      for (int i = 0; i < batch.size(); i++) {
+        if (batch.get(i).dataPoint().timestamp() == 1000L) {
+          failures.put(i, new LabelException("web02", LabelType.TAGV, "No such name"));
+        } else {
+          written.add(batch.get(i));
+        }
+      }
+
+      return Futures.immediateFuture(AddPointsResult.create(batch.size(), failures));
+    };
+
+    wal = new WriteAheadLog(directory, 64, 4, 1, 1);
+    wal.start(writer);
+
+    assertTrue(wal.append(point(1000L, 1L)));
+    assertTrue(wal.append(point(1001L, 2L)));
+    assertTrue(wal.append(point(1002L, 3L)));
+
+    awaitWritten(2);
+    assertTrue(wal.append(point(1003L, 4L)));
+    awaitWritten(3);
+
+    // The batches that were retried would have been written again.
+    assertEquals(1001L, written.get(0).dataPoint().timestamp());
+    assertEquals(1002L, written.get(1).dataPoint().timestamp());
+    assertEquals(1003L, written.get(2).dataPoint().timestamp());
+  }
+
+  @Test
+  public void testReplaysUnflushedSegments() throws IOException {
+    storeAvailable.set(false);
+    wal = new WriteAheadLog(directory, 1024, 4, 10, 1);
+    wal.start(writer);
+
+    assertTrue(wal.append(point(1000L, 1L)));
+    assertTrue(wal.append(point(1001L, 2L)));
+    wal.close();
+
+    storeAvailable.set(true);
+    wal = new WriteAheadLog(directory, 1024, 4, 10, 1);
+    wal.start(writer);
+
+    awaitWritten(2);
+    assertEquals(1000L, written.get(0).dataPoint().timestamp());
+    assertEquals(1001L, written.get(1).dataPoint().timestamp());
+  }
+
+  @Test
+  public void testReplayStopsAtTornRecord() throws IOException {
+    storeAvailable.set(false);
+    wal = new WriteAheadLog(directory, 1024, 4, 10, 1);
+    wal.start(writer);
+
+    assertTrue(wal.append(point(1000L, 1L)));
+    assertTrue(wal.append(point(1001L, 2L)));
+    wal.close();
+
+    // Flip a byte at the very end of the second record so that its checksum no longer matches.
+    final Path segment = onlySegment();
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      final ByteBuffer header = ByteBuffer.allocate(4);
+      channel.read(header, 0);
+      final int secondEnd = 2 * (8 + header.getInt(0));
+      channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xff}), secondEnd - 1);
+    }
+
+    storeAvailable.set(true);
+    wal = new WriteAheadLog(directory, 1024, 4, 10, 1);
+    wal.start(writer);
+
+    awaitWritten(1);
+    assertEquals(1000L, written.get(0).dataPoint().timestamp());
+  }
+
+  @Test
+  public void testRejectsWhenAllSegmentsFull() throws IOException {
+    storeAvailable.set(false);
+    wal = new WriteAheadLog(directory, 64, 2, 10, 1);
+    wal.start(writer);
+
+    // Each record is larger than half a segment so every data point needs a segment of its own.
+    assertTrue(wal.append(point(1000L, 1L)));
+    assertTrue(wal.append(point(1001L, 2L)));
+    assertFalse(wal.append(point(1002L, 3L)));
+  }
+
+  @Test
+  public void testFlushedSegmentsDeleted() throws IOException {
+    wal = new WriteAheadLog(directory, 64, 4, 10, 0);
+    wal.start(writer);
+
+    for (int i = 0; i < 10; i++) {
+      while (!wal.append(point(1000L + i, i))) {
+        Thread.yield();
+      }
+    }
+
+    awaitWritten(10);
+
+    // Only the segment that is appended to is kept.
+    while (segmentCount() > 1) {
+      Thread.yield();
+    }
+  }
+
+  private static IncomingDataPoint point(final long timestamp, final long value) {
+    return IncomingDataPoint.create(METRIC, TAGS, DataPoints.longPoint(timestamp, value));
+  }
+
+  private void awaitWritten(final int count) {
+    while (written.size() < count) {
+      Thread.yield();
+    }
+
+    assertEquals(count, written.size());
+  }
+
+  private Path onlySegment() throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      return stream.iterator().next();
+    }
+  }
+
+  private int segmentCount() throws IOException {
+    int count = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (final Path ignored : stream) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
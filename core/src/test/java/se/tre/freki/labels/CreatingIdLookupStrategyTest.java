@@ -1,6 +1,7 @@
 package se.tre.freki.labels;
 
 import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -11,6 +12,7 @@ import se.tre.freki.storage.MemoryLabelId;
 import se.tre.freki.utils.TestUtil;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -45,4 +47,17 @@ public class CreatingIdLookupStrategyTest {
     lookupStrategy.getId(typeContext, "presentName");
     verify(typeContext, times(0)).createId("presentName");
   }
+
+  @Test
+  public void testGetIdForConcurrentlyCreatedId() throws Exception {
+    final LabelId existingId = MemoryLabelId.randomLabelId();
+    final LabelClientTypeContext typeContext = mock(LabelClientTypeContext.class);
+    when(typeContext.type()).thenReturn(LabelType.METRIC);
+    when(typeContext.getId(eq("racedName")))
+        .thenReturn(immediateFuture(Optional.<LabelId>absent()))
+        .thenReturn(immediateFuture(Optional.of(existingId)));
+    when(typeContext.createId("racedName")).thenReturn(Futures.<LabelId>immediateFailedFuture(
+        new LabelException("racedName", LabelType.METRIC, "Name was already taken")));
+    assertEquals(existingId, lookupStrategy.getId(typeContext, "racedName").get());
+  }
 }
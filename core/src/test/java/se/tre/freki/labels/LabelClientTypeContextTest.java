@@ -19,6 +19,7 @@ import se.tre.freki.utils.TestUtil;
 
 import com.google.common.base.Optional;
 import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.junit.Before;
 import org.junit.Rule;
@@ -148,6 +149,28 @@ public final class LabelClientTypeContextTest {
     verify(eventBus).post(any(LabelCreatedEvent.class));
   }
 
+  @Test
+  public void createIdCanBeRetriedAfterFailure() throws Exception {
+    final Store store = mock(Store.class);
+    final LabelId labelId = randomLabelId();
+    when(store.createLabel("foo", LabelType.METRIC))
+        .thenReturn(Futures.<LabelId>immediateFailedFuture(
+            new LabelException("foo", LabelType.METRIC, "Name was already taken")))
+        .thenReturn(immediateFuture(labelId));
+
+    typeContext = new LabelClientTypeContext(store, LabelType.METRIC, eventBus,
+        MAX_CACHE_SIZE);
+
+    try {
+      typeContext.createId("foo").get();
+      fail("The first attempt should fail like the store did");
+    } catch (ExecutionException exception) {
+      assertTrue(exception.getCause() instanceof LabelException);
+    }
+
+    assertEquals(labelId, typeContext.createId("foo").get());
+  }
+
   @Test
   public void testRenameNewNameExists() throws Exception {
     typeContext = new LabelClientTypeContext(store, LabelType.METRIC, eventBus,
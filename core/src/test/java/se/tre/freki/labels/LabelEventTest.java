@@ -19,4 +19,17 @@ public class LabelEventTest {
     assertEquals(name, event.getName());
     assertEquals(type, event.getType());
   }
+
+  @Test
+  public void renamedCtorSetsArguments() {
+    final LabelId id = mock(LabelId.class);
+    final LabelType type = LabelType.METRIC;
+
+    LabelRenamedEvent event = new LabelRenamedEvent(id, "sys.cpu.1", type, "sys.cpu");
+
+    assertSame(id, event.getId());
+    assertEquals("sys.cpu.1", event.getName());
+    assertEquals("sys.cpu", event.getOldName());
+    assertEquals(type, event.getType());
+  }
 }
@@ -0,0 +1,125 @@
+package se.tre.freki.labels;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static se.tre.freki.storage.MemoryLabelId.randomLabelId;
+
+import se.tre.freki.utils.TestUtil;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class TimeSeriesIdCacheTest {
+  private static final String METRIC = "sys.cpu.0";
+  private static final ImmutableMap<String, String> TAGS = ImmutableMap.of("host", "web01");
+
+  @Rule
+  public final Timeout timeout = Timeout.millis(TestUtil.TIMEOUT);
+
+  private TimeSeriesIdCache cache;
+  private CountingResolver resolver;
+
+  @Before
+  public void setUp() {
+    cache = new TimeSeriesIdCache(100);
+    resolver = new CountingResolver();
+  }
+
+  @Test
+  public void testKeyForIgnoresTagOrder() {
+    final ImmutableMap<String, String> tags = ImmutableMap.of("a", "1", "b", "2");
+    final ImmutableMap<String, String> reversed = ImmutableMap.of("b", "2", "a", "1");
+    assertEquals(TimeSeriesIdCache.keyFor(METRIC, tags),
+        TimeSeriesIdCache.keyFor(METRIC, reversed));
+  }
+
+  @Test
+  public void testKeyForDistinguishesTags() {
+    final ImmutableMap<String, String> tags = ImmutableMap.of("a", "1", "b", "2");
+    final ImmutableMap<String, String> other = ImmutableMap.of("a", "12");
+    assertNotEquals(TimeSeriesIdCache.keyFor(METRIC, tags),
+        TimeSeriesIdCache.keyFor(METRIC, other));
+  }
+
+  @Test
+  public void testGetCachesResolved() throws Exception {
+    final TimeSeriesId first = cache.get(METRIC, TAGS, resolver).get();
+    final TimeSeriesId second = cache.get(METRIC, TAGS, resolver).get();
+
+    assertSame(first, second);
+    assertEquals(1, resolver.calls.get());
+  }
+
+  @Test
+  public void testGetDoesNotCacheFailure() throws Exception {
+    cache.get(METRIC, TAGS,
+        () -> Futures.<TimeSeriesId>immediateFailedFuture(new LabelException("a", LabelType.TAGK,
+            "fail")));
+    cache.get(METRIC, TAGS, resolver).get();
+
+    assertEquals(1, resolver.calls.get());
+  }
+
+  @Test
+  public void testRenameEventInvalidates() throws Exception {
+    final EventBus eventBus = new EventBus();
+    eventBus.register(cache);
+
+    final TimeSeriesId first = cache.get(METRIC, TAGS, resolver).get();
+    eventBus.post(new LabelRenamedEvent(randomLabelId(), "web02", LabelType.TAGV, "web01"));
+    final TimeSeriesId second = cache.get(METRIC, TAGS, resolver).get();
+
+    assertNotSame(first, second);
+    assertEquals(2, resolver.calls.get());
+  }
+
+  @Test
+  public void testDeleteEventInvalidates() throws Exception {
+    final EventBus eventBus = new EventBus();
+    eventBus.register(cache);
+
+    cache.get(METRIC, TAGS, resolver).get();
+    eventBus.post(new LabelDeletedEvent(randomLabelId(), "web01", LabelType.TAGV));
+    cache.get(METRIC, TAGS, resolver).get();
+
+    assertEquals(2, resolver.calls.get());
+  }
+
+  @Test
+  public void testResolveSpanningInvalidationNotCached() throws Exception {
+    final SettableFuture<TimeSeriesId> pending = SettableFuture.create();
+    cache.get(METRIC, TAGS, () -> pending);
+
+    cache.invalidateAll();
+    pending.set(mock(TimeSeriesId.class));
+
+    cache.get(METRIC, TAGS, resolver).get();
+    assertEquals(1, resolver.calls.get());
+  }
+
+  private static class CountingResolver implements Supplier<ListenableFuture<TimeSeriesId>> {
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public ListenableFuture<TimeSeriesId> get() {
+      calls.incrementAndGet();
+      return Futures.<TimeSeriesId>immediateFuture(
+          new StaticTimeSeriesId(randomLabelId(), ImmutableList.of(randomLabelId(),
+              randomLabelId())));
+    }
+  }
+}
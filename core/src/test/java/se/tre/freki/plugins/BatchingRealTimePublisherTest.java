@@ -0,0 +1,207 @@
+package se.tre.freki.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import se.tre.freki.labels.TimeSeriesId;
+import se.tre.freki.meta.Annotation;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.utils.InvalidConfigException;
+import se.tre.freki.utils.TestUtil;
+
+import com.codahale.metrics.Counter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class BatchingRealTimePublisherTest {
+  private static final String METRIC = "sys.cpu.0";
+  private static final ImmutableMap<String, String> TAGS = ImmutableMap.of("host", "web01");
+
+  @Rule
+  public final Timeout timeout = Timeout.millis(TestUtil.TIMEOUT);
+
+  private RecordingPublisher delegate;
+  private TimeSeriesId timeSeriesId;
+
+  @Before
+  public void setUp() {
+    delegate = new RecordingPublisher();
+    timeSeriesId = mock(TimeSeriesId.class);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroQueueSize() {
+    new BatchingRealTimePublisher(delegate, 0, 1, 0, BatchingRealTimePublisher.Policy.DROP);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCtorZeroBatchSize() {
+    new BatchingRealTimePublisher(delegate, 1, 0, 0, BatchingRealTimePublisher.Policy.DROP);
+  }
+
+  @Test(expected = InvalidConfigException.class)
+  public void testFromConfigInvalidPolicy() {
+    final Config config = ConfigFactory.load().withValue("freki.publisher.batching.policy",
+        ConfigValueFactory.fromAnyRef("sometimes"));
+    BatchingRealTimePublisher.fromConfig(config, delegate);
+  }
+
+  @Test
+  public void testPublishesInBatches() throws IOException {
+    final BatchingRealTimePublisher publisher = new BatchingRealTimePublisher(delegate, 100, 4,
+        0, BatchingRealTimePublisher.Policy.BLOCK);
+
+    for (int i = 0; i < 10; i++) {
+      publisher.publishDataPoint(METRIC, 1000L + i, (long) i, TAGS, timeSeriesId);
+    }
+
+    publisher.start();
+    publisher.close();
+
+    assertEquals(10, delegate.points.size());
+    assertEquals(3, delegate.batchSizes.size());
+    for (final int batchSize : delegate.batchSizes) {
+      assertTrue(batchSize <= 4);
+    }
+
+    assertEquals(1000L, delegate.points.get(0).dataPoint().timestamp());
+    assertEquals(9L, ((DataPoint.LongDataPoint) delegate.points.get(9).dataPoint()).value());
+  }
+
+  @Test
+  public void testLingerPublishesPartialBatch() throws IOException {
+    final BatchingRealTimePublisher publisher = new BatchingRealTimePublisher(delegate, 100, 100,
+        1, BatchingRealTimePublisher.Policy.BLOCK);
+    publisher.start();
+
+    publisher.publishDataPoint(METRIC, 1000L, 1.5D, TAGS, timeSeriesId);
+
+    while (delegate.points.isEmpty()) {
+      Thread.yield();
+    }
+
+    assertEquals(1.5D,
+        ((DataPoint.DoubleDataPoint) delegate.points.get(0).dataPoint()).value(), 0);
+    publisher.close();
+  }
+
+  @Test
+  public void testDropWhenFull() throws IOException {
+    final BatchingRealTimePublisher publisher = new BatchingRealTimePublisher(delegate, 2, 1,
+        0, BatchingRealTimePublisher.Policy.DROP);
+
+    publisher.publishDataPoint(METRIC, 1000L, 1L, TAGS, timeSeriesId);
+    publisher.publishDataPoint(METRIC, 1001L, 2L, TAGS, timeSeriesId);
+    publisher.publishDataPoint(METRIC, 1002L, 3L, TAGS, timeSeriesId);
+
+    final Counter dropped =
+        (Counter) publisher.metrics().getMetrics().get("freki.publisher.dropped");
+    assertEquals(1, dropped.getCount());
+
+    publisher.start();
+    publisher.close();
+
+    assertEquals(2, delegate.points.size());
+  }
+
+  @Test
+  public void testPublishDataPointsQueuesAll() throws IOException {
+    final BatchingRealTimePublisher publisher = new BatchingRealTimePublisher(delegate, 100, 100,
+        0, BatchingRealTimePublisher.Policy.BLOCK);
+
+    final List<PublishedDataPoint> points = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      points.add(PublishedDataPoint.create(METRIC, TAGS,
+          DataPoints.longPoint(1000L + i, i), timeSeriesId));
+    }
+
+    publisher.publishDataPoints(points);
+    publisher.start();
+    publisher.close();
+
+    assertEquals(points, delegate.points);
+  }
+
+  @Test
+  public void testCloseClosesDelegate() throws IOException {
+    final BatchingRealTimePublisher publisher = new BatchingRealTimePublisher(delegate, 1, 1,
+        0, BatchingRealTimePublisher.Policy.DROP);
+    publisher.start();
+    publisher.close();
+
+    assertTrue(delegate.closed);
+  }
+
+  @Test
+  public void testAnnotationsPassedThrough() throws Exception {
+    final BatchingRealTimePublisher publisher = new BatchingRealTimePublisher(delegate, 1, 1,
+        0, BatchingRealTimePublisher.Policy.DROP);
+
+    assertSame(delegate.annotationResult, publisher.publishAnnotation(mock(Annotation.class)));
+  }
+
+  private static class RecordingPublisher extends RealTimePublisher {
+    final List<PublishedDataPoint> points = Collections.synchronizedList(new ArrayList<>());
+    final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    final SettableFuture<Void> annotationResult = SettableFuture.create();
+    volatile boolean closed;
+
+    @Override
+    public ListenableFuture<Void> publishDataPoint(final String metric,
+                                                   final long timestamp,
+                                                   final long value,
+                                                   final Map<String, String> tags,
+                                                   final TimeSeriesId timeSeriesId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ListenableFuture<Void> publishDataPoint(final String metric,
+                                                   final long timestamp,
+                                                   final double value,
+                                                   final Map<String, String> tags,
+                                                   final TimeSeriesId timeSeriesId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ListenableFuture<Void> publishDataPoints(final List<PublishedDataPoint> batch) {
+      batchSizes.add(batch.size());
+      points.addAll(batch);
+      return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<Void> publishAnnotation(final Annotation annotation) {
+      return annotationResult;
+    }
+
+    @Override
+    public String version() {
+      return "0.0.0";
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package se.tre.freki.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import se.tre.freki.utils.CollectionBackedAsyncIterator;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+public class DataPointBlocksTest {
+  private DataPointBlockIterator blocksOf(final DataPoint... dataPoints) {
+    return DataPointBlocks.blocksOf(
+        new CollectionBackedAsyncIterator<>(ImmutableList.copyOf(dataPoints)));
+  }
+
+  @Test
+  public void testBlocksOfBlockIteratorIsSame() {
+    final DataPointBlockIterator blocks = blocksOf();
+    assertSame(blocks, DataPointBlocks.blocksOf(blocks));
+  }
+
+  @Test
+  public void testNextBlockFillsToCapacity() {
+    final DataPointBlockIterator blocks = blocksOf(DataPoints.longPoint(10, 1),
+        DataPoints.longPoint(20, 2), DataPoints.longPoint(30, 3));
+    final DataPointBlock block = new DataPointBlock(2);
+
+    assertEquals(2, blocks.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.LONG, block.type());
+    assertEquals(20, block.timestamps()[1]);
+    assertEquals(2, block.longValues()[1]);
+
+    assertEquals(1, blocks.nextBlock(block));
+    assertEquals(30, block.timestamps()[0]);
+    assertEquals(0, blocks.nextBlock(block));
+  }
+
+  @Test
+  public void testNextBlockEndsOnTypeChange() {
+    final DataPointBlockIterator blocks = blocksOf(DataPoints.longPoint(10, 1),
+        DataPoints.doublePoint(20, 0.5), DataPoints.floatPoint(30, 1.5F));
+    final DataPointBlock block = new DataPointBlock(8);
+
+    assertEquals(1, blocks.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.LONG, block.type());
+
+    assertEquals(1, blocks.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.DOUBLE, block.type());
+    assertEquals(0.5, block.doubleValues()[0], 0);
+
+    assertEquals(30, blocks.next().timestamp());
+    assertEquals(0, blocks.nextBlock(block));
+  }
+
+  @Test
+  public void testRollupPointsAreDoubles() {
+    final DataPointBlockIterator blocks = blocksOf(DataPoints.rollupPoint(10, 1, 3, 4, 2));
+    final DataPointBlock block = new DataPointBlock(8);
+
+    assertEquals(1, blocks.nextBlock(block));
+    assertEquals(DataPointBlock.ValueType.DOUBLE, block.type());
+    assertEquals(2, block.doubleValues()[0], 0);
+  }
+}
@@ -94,6 +94,56 @@ public class QueryStringTranslatorTest {
     }
   }
 
+  @Test
+  public void testDefaultResolution() throws Exception {
+    TimeSeriesQuery timeSeriesQuery = testHelper("SELECT sys.cpu.0{host=web01} BETWEEN 1 AND 5000");
+    Assert.assertEquals(0L, timeSeriesQuery.resolution());
+  }
+
+  @Test
+  public void testResolution() throws Exception {
+    TimeSeriesQuery timeSeriesQuery =
+        testHelper("SELECT sys.cpu.0{host=web01} BETWEEN 1 AND 5000 EVERY 1H 30M");
+    Assert.assertEquals(5400000L, timeSeriesQuery.resolution());
+  }
+
+  @Test
+  public void testDefaultLimit() throws Exception {
+    TimeSeriesQuery timeSeriesQuery = testHelper("SELECT sys.cpu.0{host=web01} BETWEEN 1 AND 5000");
+    Assert.assertEquals(0, timeSeriesQuery.limit());
+    Assert.assertFalse(timeSeriesQuery.descending());
+  }
+
+  @Test
+  public void testLast() throws Exception {
+    TimeSeriesQuery timeSeriesQuery =
+        testHelper("SELECT sys.cpu.0{host=web01} BETWEEN 1 AND 5000 LAST");
+    Assert.assertEquals(1, timeSeriesQuery.limit());
+    Assert.assertTrue(timeSeriesQuery.descending());
+  }
+
+  @Test
+  public void testLimitDescending() throws Exception {
+    TimeSeriesQuery timeSeriesQuery =
+        testHelper("SELECT sys.cpu.0{host=web01} BETWEEN 1 AND 5000 EVERY 1M LIMIT 10 DESC");
+    Assert.assertEquals(10, timeSeriesQuery.limit());
+    Assert.assertTrue(timeSeriesQuery.descending());
+    Assert.assertEquals(60000L, timeSeriesQuery.resolution());
+  }
+
+  @Test
+  public void testLimitAscending() throws Exception {
+    TimeSeriesQuery timeSeriesQuery =
+        testHelper("SELECT sys.cpu.0{host=web01} BETWEEN 1 AND 5000 LIMIT 3");
+    Assert.assertEquals(3, timeSeriesQuery.limit());
+    Assert.assertFalse(timeSeriesQuery.descending());
+  }
+
+  @Test(expected = QueryException.class)
+  public void testLimitZero() throws Exception {
+    testHelper("SELECT sys.cpu.0{host=web01} BETWEEN 1 AND 5000 LIMIT 0");
+  }
+
   @Test(expected = QueryException.class)
   public void testMissingTagField() throws Exception {
 
@@ -0,0 +1,41 @@
+package se.tre.freki.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+public class RollupIntervalTest {
+  @Test
+  public void testCoarsestWithinZeroIsAbsent() {
+    assertFalse(RollupInterval.coarsestWithin(0).isPresent());
+  }
+
+  @Test
+  public void testCoarsestWithinSubMinuteIsAbsent() {
+    assertFalse(RollupInterval.coarsestWithin(RollupInterval.MINUTE.duration() - 1).isPresent());
+  }
+
+  @Test
+  public void testCoarsestWithinMinute() {
+    assertEquals(RollupInterval.MINUTE,
+        RollupInterval.coarsestWithin(RollupInterval.HOUR.duration() - 1).get());
+  }
+
+  @Test
+  public void testCoarsestWithinDay() {
+    assertEquals(RollupInterval.HOUR,
+        RollupInterval.coarsestWithin(24 * RollupInterval.HOUR.duration()).get());
+  }
+
+  @Test
+  public void testBucketFor() {
+    assertEquals(1434542400000L, RollupInterval.HOUR.bucketFor(1434545416154L));
+    assertEquals(1434545400000L, RollupInterval.MINUTE.bucketFor(1434545416154L));
+  }
+
+  @Test
+  public void testBucketForNegative() {
+    assertEquals(-RollupInterval.MINUTE.duration(), RollupInterval.MINUTE.bucketFor(-1));
+  }
+}
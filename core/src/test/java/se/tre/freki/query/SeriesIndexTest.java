@@ -0,0 +1,149 @@
+package se.tre.freki.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.tre.freki.query.predicate.AlternationTimeSeriesIdPredicate.ids;
+import static se.tre.freki.query.predicate.SimpleTimeSeriesIdPredicate.id;
+import static se.tre.freki.query.predicate.TimeSeriesTagPredicate.eq;
+import static se.tre.freki.query.predicate.TimeSeriesTagPredicate.neq;
+import static se.tre.freki.query.predicate.WildcardTimeSeriesIdPredicate.wildcard;
+import static se.tre.freki.storage.MemoryLabelId.randomLabelId;
+
+import se.tre.freki.labels.LabelId;
+import se.tre.freki.labels.StaticTimeSeriesId;
+import se.tre.freki.query.predicate.TimeSeriesQueryPredicate;
+import se.tre.freki.query.predicate.TimeSeriesTagPredicate;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeriesIndexTest {
+  private static final LabelId CPU = randomLabelId();
+  private static final LabelId MEM = randomLabelId();
+  private static final LabelId HOST = randomLabelId();
+  private static final LabelId DC = randomLabelId();
+  private static final LabelId WEB01 = randomLabelId();
+  private static final LabelId WEB02 = randomLabelId();
+
+  private static final StaticTimeSeriesId CPU_WEB01 =
+      new StaticTimeSeriesId(CPU, ImmutableList.of(HOST, WEB01));
+  private static final StaticTimeSeriesId CPU_WEB02 =
+      new StaticTimeSeriesId(CPU, ImmutableList.of(HOST, WEB02));
+  private static final StaticTimeSeriesId CPU_DC_WEB01 =
+      new StaticTimeSeriesId(CPU, ImmutableList.of(DC, WEB01));
+  private static final StaticTimeSeriesId MEM_WEB01 =
+      new StaticTimeSeriesId(MEM, ImmutableList.of(HOST, WEB01));
+
+  private SeriesIndex<StaticTimeSeriesId> index;
+
+  @Before
+  public void setUp() {
+    index = new SeriesIndex<>(timeSeries -> ImmutableList.builder()
+        .add(timeSeries.metric())
+        .addAll(timeSeries.tags())
+        .build());
+
+    index.add(CPU_WEB01);
+    index.add(CPU_WEB02);
+    index.add(CPU_DC_WEB01);
+    index.add(MEM_WEB01);
+  }
+
+  @Test
+  public void testAddExistingReturnsFalse() {
+    assertFalse(index.add(new StaticTimeSeriesId(CPU, ImmutableList.of(HOST, WEB01))));
+    assertEquals(4, index.size());
+  }
+
+  @Test
+  public void testAddNewReturnsTrue() {
+    assertTrue(index.add(new StaticTimeSeriesId(MEM, ImmutableList.of(HOST, WEB02))));
+    assertEquals(5, index.size());
+  }
+
+  @Test
+  public void testContainsAddedKey() {
+    assertTrue(index.contains(ImmutableList.of(CPU, HOST, WEB01)));
+  }
+
+  @Test
+  public void testContainsMissingKey() {
+    assertFalse(index.contains(ImmutableList.of(MEM, HOST, WEB02)));
+  }
+
+  @Test
+  public void testResolveMissingMetric() {
+    assertTrue(resolve(randomLabelId(), eq(wildcard(), wildcard())).isEmpty());
+  }
+
+  @Test
+  public void testResolveEqualsMatchesKeyAndValueOfSameTag() {
+    assertEquals(ImmutableList.of(CPU_WEB01), resolve(CPU, eq(id(HOST), id(WEB01))));
+  }
+
+  @Test
+  public void testResolveEqualsAlternation() {
+    assertEquals(ImmutableList.of(CPU_WEB01, CPU_WEB02),
+        resolve(CPU, eq(id(HOST), ids(WEB01, WEB02))));
+  }
+
+  @Test
+  public void testResolveEqualsWildcardValue() {
+    assertEquals(ImmutableList.of(CPU_DC_WEB01), resolve(CPU, eq(id(DC), wildcard())));
+  }
+
+  @Test
+  public void testResolveEqualsWildcardKey() {
+    assertEquals(ImmutableList.of(CPU_WEB01, CPU_DC_WEB01),
+        resolve(CPU, eq(wildcard(), id(WEB01))));
+  }
+
+  @Test
+  public void testResolveEqualsWildcards() {
+    assertEquals(ImmutableList.of(CPU_WEB01, CPU_WEB02, CPU_DC_WEB01),
+        resolve(CPU, eq(wildcard(), wildcard())));
+  }
+
+  @Test
+  public void testResolveNotEquals() {
+    assertEquals(ImmutableList.of(CPU_WEB02, CPU_DC_WEB01),
+        resolve(CPU, neq(id(HOST), id(WEB01))));
+  }
+
+  @Test
+  public void testResolveNotEqualsWildcards() {
+    assertTrue(resolve(CPU, neq(wildcard(), wildcard())).isEmpty());
+  }
+
+  @Test
+  public void testResolveIntersectsTagPredicates() {
+    assertEquals(ImmutableList.of(CPU_WEB02),
+        resolve(CPU, eq(id(HOST), wildcard()), neq(wildcard(), id(WEB01))));
+  }
+
+  @Test
+  public void testRegisterMetrics() {
+    final MetricRegistry registry = new MetricRegistry();
+    index.registerMetricsWith(registry);
+
+    final Gauge<?> series = (Gauge<?>) registry.getMetrics().get("freki.series_index.series");
+    assertEquals(4, series.getValue());
+    assertTrue(index.postingsBytes() > 0);
+  }
+
+  private ImmutableList<StaticTimeSeriesId> resolve(final LabelId metric,
+                                                    final TimeSeriesTagPredicate... tags) {
+    final TimeSeriesQueryPredicate.Builder builder = TimeSeriesQueryPredicate.builder();
+    builder.metric(metric);
+
+    for (final TimeSeriesTagPredicate tag : tags) {
+      builder.addTagPredicate(tag);
+    }
+
+    return ImmutableList.copyOf(index.resolve(builder.build()));
+  }
+}
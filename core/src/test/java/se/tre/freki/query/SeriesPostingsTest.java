@@ -0,0 +1,71 @@
+package se.tre.freki.query;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+public class SeriesPostingsTest {
+  private SeriesPostings postings;
+
+  @Before
+  public void setUp() {
+    postings = new SeriesPostings();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddDecreasing() {
+    postings.add(5);
+    postings.add(4);
+  }
+
+  @Test
+  public void testAddLastAgain() {
+    postings.add(5);
+    postings.add(5);
+    assertEquals(1, postings.size());
+  }
+
+  @Test
+  public void testSparseStaysArray() {
+    for (int i = 0; i < 10; i++) {
+      postings.add(i * 1000);
+    }
+
+    assertEquals(10, postings.size());
+    assertEquals(16 * Integer.BYTES, postings.bytes());
+    assertEquals(expected(0, 1000, 10), orInto());
+  }
+
+  @Test
+  public void testDenseSwitchesToBitmap() {
+    for (int i = 0; i < 100; i++) {
+      postings.add(i * 2);
+    }
+
+    assertEquals(100, postings.size());
+    assertEquals(expected(0, 2, 100), orInto());
+
+    postings.add(1000);
+    assertEquals(101, postings.size());
+    assertEquals(1000, orInto().previousSetBit(Integer.MAX_VALUE - 1));
+  }
+
+  private BitSet orInto() {
+    final BitSet target = new BitSet();
+    postings.orInto(target);
+    return target;
+  }
+
+  private static BitSet expected(final int start, final int step, final int count) {
+    final BitSet bits = new BitSet();
+
+    for (int i = 0; i < count; i++) {
+      bits.set(start + i * step);
+    }
+
+    return bits;
+  }
+}
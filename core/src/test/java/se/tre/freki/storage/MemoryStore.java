@@ -21,6 +21,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import javax.annotation.Nonnull;
@@ -86,6 +87,27 @@ public class MemoryStore extends Store {
     return Futures.immediateFuture(null);
   }
 
+  @Nonnull
+  @Override
+  public ListenableFuture<AddPointsResult> addPoints(final List<TimeSeriesDataPoint> points) {
+    for (final TimeSeriesDataPoint point : points) {
+      final DataPoint dataPoint = point.dataPoint();
+
+      if (dataPoint instanceof DataPoint.LongDataPoint) {
+        addPoint(point.timeSeriesId(), (Number) ((DataPoint.LongDataPoint) dataPoint).value(),
+            dataPoint.timestamp());
+      } else if (dataPoint instanceof DataPoint.FloatDataPoint) {
+        addPoint(point.timeSeriesId(), (Number) ((DataPoint.FloatDataPoint) dataPoint).value(),
+            dataPoint.timestamp());
+      } else if (dataPoint instanceof DataPoint.DoubleDataPoint) {
+        addPoint(point.timeSeriesId(), (Number) ((DataPoint.DoubleDataPoint) dataPoint).value(),
+            dataPoint.timestamp());
+      }
+    }
+
+    return Futures.immediateFuture(AddPointsResult.successful(points.size()));
+  }
+
   @Override
   public void close() {
   }
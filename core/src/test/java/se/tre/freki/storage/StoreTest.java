@@ -17,12 +17,14 @@ import se.tre.freki.labels.StaticTimeSeriesId;
 import se.tre.freki.labels.TimeSeriesId;
 import se.tre.freki.meta.LabelMeta;
 import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
 import se.tre.freki.query.TimeSeriesQuery;
 import se.tre.freki.query.predicate.TimeSeriesQueryPredicate;
 import se.tre.freki.utils.AsyncIterator;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -99,6 +101,20 @@ public abstract class StoreTest<K extends Store> {
     assertFalse(missing.isPresent());
   }
 
+  @Test
+  public void testGetIdsSkipsMissing() throws Exception {
+    final Map<String, LabelId> ids =
+        store.getIds(ImmutableList.of(NAME, MISSING, NAME), TYPE).get();
+    assertEquals(ImmutableMap.of(NAME, nameId), ids);
+  }
+
+  @Test
+  public void testGetNamesSkipsMissing() throws Exception {
+    final Map<LabelId, String> names =
+        store.getNames(ImmutableList.of(nameId, missingLabelId()), TYPE).get();
+    assertEquals(ImmutableMap.of(nameId, NAME), names);
+  }
+
   @Test
   public void testRenameIdFoundOnNewName() throws Exception {
     store.renameLabel(NEW, nameId, TYPE).get();
@@ -150,6 +166,46 @@ public abstract class StoreTest<K extends Store> {
     }
   }
   
+  @Test
+  public void testAddPointsFetchesData() throws Exception {
+    final LabelId metric = store.createLabel("metric1", METRIC).get();
+    final LabelId tagk = store.createLabel("tagk1", TAGK).get();
+    final LabelId tagv = store.createLabel("tagv1", TAGV).get();
+    final List<LabelId> tags = ImmutableList.of(tagk, tagv);
+    final StaticTimeSeriesId timeSeriesId = new StaticTimeSeriesId(metric, tags);
+
+    final long startTime = 123123123;
+    final long value = 123123;
+
+    final ImmutableList.Builder<TimeSeriesDataPoint> points = ImmutableList.builder();
+    for (long time = startTime; time < startTime + 10; time++) {
+      points.add(TimeSeriesDataPoint.create(timeSeriesId, DataPoints.longPoint(time, value)));
+    }
+
+    final AddPointsResult result = store.addPoints(points.build()).get();
+    assertTrue(result.isSuccessful());
+    assertEquals(10, result.size());
+
+    final TimeSeriesQueryPredicate.Builder predicate = TimeSeriesQueryPredicate.builder();
+    predicate.metric(metric);
+    predicate.addTagPredicate(eq(id(tagk), id(tagv)));
+
+    final TimeSeriesQuery query = TimeSeriesQuery.builder()
+        .startTime(startTime)
+        .endTime(startTime + 10)
+        .predicate(predicate.build())
+        .build();
+
+    final AsyncIterator<? extends DataPoint> iterator =
+        store.query(query).get().values().iterator().next();
+
+    for (long time = startTime; time < startTime + 10; time++) {
+      final DataPoint.LongDataPoint dataPoint = (DataPoint.LongDataPoint) iterator.next();
+      assertEquals(time, dataPoint.timestamp());
+      assertEquals(value, dataPoint.value());
+    }
+  }
+
   @Test
   public void testGetLabelMetaMissingId() throws Exception {
     final LabelId miss = missingLabelId();
@@ -0,0 +1,151 @@
+package se.tre.freki.storage.compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import se.tre.freki.query.DataPoints;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+public class ChunkEncoderTest {
+  private static final long START = 1434499200000L;
+
+  @Test
+  public void testEmptyChunk() {
+    final ChunkDecoder decoder = new ChunkDecoder(new ChunkEncoder(ChunkType.LONG, 0).encode());
+    assertEquals(ChunkType.LONG, decoder.type());
+    assertEquals(0, decoder.size());
+    assertFalse(decoder.hasNext());
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testNextOnExhaustedChunk() {
+    new ChunkDecoder(new ChunkEncoder(ChunkType.LONG, 0).encode()).next();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testWrongValueType() {
+    new ChunkEncoder(ChunkType.LONG, 1).add(START, 1.5D);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTimestampsMustIncrease() {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, 2);
+    encoder.add(START, 1L);
+    encoder.add(START, 2L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownFormat() {
+    new ChunkDecoder(ByteBuffer.wrap(new byte[] {0, 0, 0, 0, 0, 0}));
+  }
+
+  @Test
+  public void testLongRoundTrip() {
+    final Random random = new Random(42);
+    final long[] timestamps = new long[500];
+    final long[] values = new long[500];
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, timestamps.length);
+
+    long timestamp = START;
+    long value = 0;
+
+    for (int i = 0; i < timestamps.length; i++) {
+      timestamp += 1 + random.nextInt(20000);
+      value += random.nextInt(1000) - 500;
+      timestamps[i] = timestamp;
+      values[i] = i == 7 ? Long.MIN_VALUE : i == 8 ? Long.MAX_VALUE : value;
+      encoder.add(timestamps[i], values[i]);
+    }
+
+    final ChunkDecoder decoder = new ChunkDecoder(encoder.encode());
+    assertEquals(timestamps.length, decoder.size());
+
+    for (int i = 0; i < timestamps.length; i++) {
+      assertTrue(decoder.hasNext());
+      decoder.next();
+      assertEquals(timestamps[i], decoder.timestamp());
+      assertEquals(values[i], decoder.longValue());
+    }
+
+    assertFalse(decoder.hasNext());
+  }
+
+  @Test
+  public void testDoubleRoundTrip() {
+    final Random random = new Random(42);
+    final double[] values = {0, 0, 1.5, 1.5, -1.5, Double.NaN, Double.MAX_VALUE,
+        Double.MIN_VALUE, random.nextDouble(), random.nextGaussian(), 12.25, 12.5, 12.75};
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.DOUBLE, values.length);
+
+    for (int i = 0; i < values.length; i++) {
+      encoder.add(START + i * 10000L, values[i]);
+    }
+
+    final ChunkDecoder decoder = new ChunkDecoder(encoder.encode());
+
+    for (int i = 0; i < values.length; i++) {
+      decoder.next();
+      assertEquals(START + i * 10000L, decoder.timestamp());
+      assertEquals(Double.doubleToRawLongBits(values[i]),
+          Double.doubleToRawLongBits(decoder.doubleValue()));
+    }
+  }
+
+  @Test
+  public void testFloatRoundTrip() {
+    final float[] values = {0, 0.1F, 0.1F, -7.25F, Float.NaN, Float.MAX_VALUE, Float.MIN_VALUE,
+        3.0F, 3.5F};
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.FLOAT, values.length);
+
+    for (int i = 0; i < values.length; i++) {
+      encoder.add(DataPoints.floatPoint(START + i * 60000L - (i % 2), values[i]));
+    }
+
+    final ChunkDecoder decoder = new ChunkDecoder(encoder.encode());
+    assertEquals(ChunkType.FLOAT, decoder.type());
+
+    for (int i = 0; i < values.length; i++) {
+      decoder.next();
+      assertEquals(START + i * 60000L - (i % 2), decoder.timestamp());
+      assertEquals(Float.floatToRawIntBits(values[i]),
+          Float.floatToRawIntBits(decoder.floatValue()));
+    }
+  }
+
+  @Test
+  public void testRegularIntervalIsCompact() {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.DOUBLE, 360);
+
+    for (int i = 0; i < 360; i++) {
+      encoder.add(START + i * 10000L, 42.0D);
+    }
+
+    // The header, the first data point and the first delta take a fixed number of bytes, after
+    // that every data point only needs one bit for the timestamp and one for the value.
+    assertTrue(encoder.encode().remaining() <= ChunkEncoder.HEADER_SIZE + 16 + 5 + 359 / 4 + 1);
+  }
+
+  @Test
+  public void testDecoderRespectsBufferPosition() {
+    final ChunkEncoder encoder = new ChunkEncoder(ChunkType.LONG, 1);
+    encoder.add(START, 17L);
+    final ByteBuffer chunk = encoder.encode();
+
+    final ByteBuffer padded = ByteBuffer.allocate(chunk.remaining() + 3);
+    padded.position(3);
+    padded.put(chunk);
+    padded.position(3);
+
+    final ChunkDecoder decoder = new ChunkDecoder(padded);
+    decoder.next();
+    assertEquals(START, decoder.timestamp());
+    assertEquals(17L, decoder.longValue());
+    assertEquals(3, padded.position());
+  }
+}
@@ -0,0 +1,126 @@
+package se.tre.freki.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class AsyncIteratorsTest {
+  @Test(expected = IllegalArgumentException.class)
+  public void testLimitZero() {
+    AsyncIterators.limit(new CollectionBackedAsyncIterator<>(ImmutableList.of(1)), 0);
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testLimitStopsAfterLimit() {
+    final AsyncIterator<Integer> iterator = AsyncIterators.limit(
+        new CollectionBackedAsyncIterator<>(ImmutableList.of(1, 2, 3)), 2);
+
+    assertEquals(1, (int) iterator.next());
+    assertEquals(2, (int) iterator.next());
+    assertFalse(iterator.hasNext());
+    assertFalse(iterator.hasMoreWithoutFetching());
+    iterator.next();
+  }
+
+  @Test
+  public void testLimitLargerThanIterator() throws Exception {
+    final AsyncIterator<Integer> iterator = AsyncIterators.limit(
+        new CollectionBackedAsyncIterator<>(ImmutableList.of(1)), 5);
+
+    assertEquals(1, (int) iterator.next());
+    assertFalse(iterator.hasNext());
+    assertFalse(iterator.fetchMore().get());
+  }
+
+  @Test
+  public void testDeferredIsNotReadUntilUsed() throws Exception {
+    final SettableFuture<List<Integer>> elements = SettableFuture.create();
+    final int[] calls = new int[1];
+
+    final AsyncIterator<Integer> iterator = AsyncIterators.deferred(
+        new Supplier<ListenableFuture<List<Integer>>>() {
+          @Override
+          public ListenableFuture<List<Integer>> get() {
+            calls[0]++;
+            return elements;
+          }
+        });
+
+    assertEquals(0, calls[0]);
+    assertFalse(iterator.hasMoreWithoutFetching());
+
+    final ListenableFuture<Boolean> fetched = iterator.fetchMore();
+    elements.set(ImmutableList.of(1, 2));
+
+    assertTrue(fetched.get());
+    assertTrue(iterator.hasMoreWithoutFetching());
+    assertEquals(1, (int) iterator.next());
+    assertEquals(2, (int) iterator.next());
+    assertFalse(iterator.hasNext());
+    assertEquals(1, calls[0]);
+  }
+
+  @Test
+  public void testOf() throws Exception {
+    final AsyncIterator<Integer> iterator = AsyncIterators.of(ImmutableList.of(1));
+
+    assertTrue(iterator.hasMoreWithoutFetching());
+    assertEquals(1, (int) iterator.next());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testConcatReadsInOrder() throws Exception {
+    final List<Supplier<AsyncIterator<Integer>>> iterators = ImmutableList.of(
+        () -> AsyncIterators.of(ImmutableList.of(1, 2)),
+        () -> AsyncIterators.of(ImmutableList.<Integer>of()),
+        () -> AsyncIterators.of(ImmutableList.of(3)));
+    final AsyncIterator<Integer> iterator = AsyncIterators.concat(iterators);
+
+    assertEquals(1, (int) iterator.next());
+    assertEquals(2, (int) iterator.next());
+    assertEquals(3, (int) iterator.next());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testConcatFetchMoreMovesOnToNext() throws Exception {
+    final List<Supplier<AsyncIterator<Integer>>> iterators = ImmutableList.of(
+        () -> AsyncIterators.of(ImmutableList.<Integer>of()),
+        () -> AsyncIterators.of(ImmutableList.of(1)));
+    final AsyncIterator<Integer> iterator = AsyncIterators.concat(iterators);
+
+    assertTrue(iterator.fetchMore().get());
+    assertTrue(iterator.hasMoreWithoutFetching());
+    assertEquals(1, (int) iterator.next());
+    assertFalse(iterator.fetchMore().get());
+  }
+
+  @Test
+  public void testConcatDoesNotAskForIteratorsUntilReached() throws Exception {
+    final int[] calls = new int[1];
+    final List<Supplier<AsyncIterator<Integer>>> iterators = ImmutableList.of(
+        () -> AsyncIterators.of(ImmutableList.of(1)),
+        () -> counted(calls, 2));
+    final AsyncIterator<Integer> iterator = AsyncIterators.concat(iterators);
+
+    assertEquals(1, (int) iterator.next());
+    assertEquals(0, calls[0]);
+    assertEquals(2, (int) iterator.next());
+    assertEquals(1, calls[0]);
+  }
+
+  private static AsyncIterator<Integer> counted(final int[] calls, final int element) {
+    calls[0]++;
+    return AsyncIterators.of(ImmutableList.of(element));
+  }
+}
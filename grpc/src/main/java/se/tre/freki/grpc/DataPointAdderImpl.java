@@ -4,10 +4,20 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.util.concurrent.Futures.addCallback;
 
 import se.tre.freki.core.DataPointsClient;
+import se.tre.freki.core.IncomingDataPoint;
+import se.tre.freki.core.WriteRejectedException;
+import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.storage.AddPointsResult;
 
 import com.google.common.util.concurrent.FutureCallback;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
@@ -46,6 +56,61 @@ class DataPointAdderImpl implements DataPointAdderGrpc.DataPointAdder {
             request.getTags()), new AddPointCallback(responseObserver));
   }
 
+  @Override
+  public void addDataPoints(final AddDataPointsRequest request,
+                            final StreamObserver<AddDataPointsResponse> responseObserver) {
+    final List<IncomingDataPoint> points = new ArrayList<>(request.getPointsCount());
+    final List<Integer> indexes = new ArrayList<>(request.getPointsCount());
+    final AddDataPointsResponse.Builder response = AddDataPointsResponse.newBuilder();
+
+    for (int index = 0; index < request.getPointsCount(); index++) {
+      final DataPointEntry entry = request.getPoints(index);
+      final DataPoint dataPoint = dataPointFor(entry);
+
+      if (dataPoint == null) {
+        response.addFailures(DataPointFailure.newBuilder()
+            .setIndex(index)
+            .setMessage("The data point has no value")
+            .build());
+        continue;
+      }
+
+      points.add(IncomingDataPoint.create(entry.getMetric(), entry.getTags(), dataPoint));
+      indexes.add(index);
+    }
+
+    addCallback(dataPointsClient.addPoints(points),
+        new AddPointsCallback(responseObserver, response, indexes));
+  }
+
+  /**
+   * Create a data point with the timestamp and value in the provided entry or null if the entry
+   * has no value set.
+   */
+  @Nullable
+  private static DataPoint dataPointFor(final DataPointEntry entry) {
+    switch (entry.getValueCase()) {
+      case FLOAT_VALUE:
+        return DataPoints.floatPoint(entry.getTimestamp(), entry.getFloatValue());
+      case DOUBLE_VALUE:
+        return DataPoints.doublePoint(entry.getTimestamp(), entry.getDoubleValue());
+      case LONG_VALUE:
+        return DataPoints.longPoint(entry.getTimestamp(), entry.getLongValue());
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Create the exception to report a write that was not admitted with, the client should back off
+   * before it tries again.
+   */
+  private static StatusRuntimeException resourceExhausted(final Throwable throwable) {
+    return Status.RESOURCE_EXHAUSTED
+        .withDescription(throwable.getMessage())
+        .asRuntimeException();
+  }
+
   private static class AddPointCallback implements FutureCallback<Void> {
     private final StreamObserver<AddDataPointResponse> responseObserver;
 
@@ -65,6 +130,11 @@ class DataPointAdderImpl implements DataPointAdderGrpc.DataPointAdder {
 
     @Override
     public void onFailure(final Throwable throwable) {
+      if (throwable instanceof WriteRejectedException) {
+        responseObserver.onError(resourceExhausted(throwable));
+        return;
+      }
+
       responseObserver.onValue(
           AddDataPointResponse
               .newBuilder()
@@ -73,4 +143,51 @@ class DataPointAdderImpl implements DataPointAdderGrpc.DataPointAdder {
       responseObserver.onCompleted();
     }
   }
+
+  private static class AddPointsCallback implements FutureCallback<AddPointsResult> {
+    private final StreamObserver<AddDataPointsResponse> responseObserver;
+    private final AddDataPointsResponse.Builder response;
+    private final List<Integer> indexes;
+
+    /**
+     * Create a callback that will complete the provided response. The failures reported by the
+     * data points client are translated to the index of the data point in the request using
+     * {@code indexes}.
+     */
+    public AddPointsCallback(final StreamObserver<AddDataPointsResponse> responseObserver,
+                             final AddDataPointsResponse.Builder response,
+                             final List<Integer> indexes) {
+      this.responseObserver = responseObserver;
+      this.response = response;
+      this.indexes = indexes;
+    }
+
+    @Override
+    public void onSuccess(final AddPointsResult result) {
+      for (final Map.Entry<Integer, Throwable> failure : result.failures().entrySet()) {
+        response.addFailures(DataPointFailure.newBuilder()
+            .setIndex(indexes.get(failure.getKey()))
+            .setMessage(String.valueOf(failure.getValue().getMessage()))
+            .build());
+      }
+
+      responseObserver.onValue(response
+          .setMessage(response.getFailuresCount() == 0 ? "OK" : "PARTIAL")
+          .build());
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void onFailure(final Throwable throwable) {
+      if (throwable instanceof WriteRejectedException) {
+        responseObserver.onError(resourceExhausted(throwable));
+        return;
+      }
+
+      responseObserver.onValue(response
+          .setMessage(throwable.getMessage())
+          .build());
+      responseObserver.onCompleted();
+    }
+  }
 }
@@ -3,6 +3,7 @@ package se.tre.freki.grpc;
 
 import se.tre.freki.application.CommandLineApplication;
 import se.tre.freki.application.CommandLineOptions;
+import se.tre.freki.core.DataPointsClient;
 import se.tre.freki.utils.InvalidConfigException;
 
 import com.google.common.io.Closeables;
@@ -23,10 +24,12 @@ public final class GRpcApplication {
   private static final Logger LOG = LoggerFactory.getLogger(GRpcApplication.class);
 
   private ServerImpl server;
+  private final DataPointsClient dataPointsClient;
 
   @Inject
-  GRpcApplication(final ServerImpl server) {
+  GRpcApplication(final ServerImpl server, final DataPointsClient dataPointsClient) {
     this.server = server;
+    this.dataPointsClient = dataPointsClient;
   }
 
   /**
@@ -83,6 +86,7 @@ public final class GRpcApplication {
    * @throws IOException if the server had already been started
    */
   private void start() throws IOException {
+    dataPointsClient.start();
     server.start();
 
     LOG.info("gRPC server started and is now listening for incoming connections");
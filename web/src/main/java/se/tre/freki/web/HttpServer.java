@@ -55,6 +55,7 @@ public final class HttpServer {
           .build();
 
       final Config config = httpServerComponent.config();
+      httpServerComponent.dataPointsClient().start();
 
       final EventLoopGroup bossGroup = EventLoopGroups.sharedBossGroup(
           config.getInt("freki.web.threads.boss_group"));
@@ -1,5 +1,7 @@
 package se.tre.freki.web;
 
+import se.tre.freki.core.DataPointsClient;
+
 import com.typesafe.config.Config;
 import dagger.Component;
 
@@ -10,5 +12,7 @@ import javax.inject.Singleton;
 interface HttpServerComponent {
   Config config();
 
+  DataPointsClient dataPointsClient();
+
   HttpServerInitializer httpServerInitializer();
 }
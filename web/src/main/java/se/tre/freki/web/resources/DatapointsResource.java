@@ -1,10 +1,17 @@
 package se.tre.freki.web.resources;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.addCallback;
 import static io.netty.handler.codec.http.HttpResponseStatus.ACCEPTED;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
 import static io.netty.handler.codec.http.HttpResponseStatus.UNPROCESSABLE_ENTITY;
 
 import se.tre.freki.core.DataPointsClient;
+import se.tre.freki.core.IncomingDataPoint;
+import se.tre.freki.core.WriteRejectedException;
+import se.tre.freki.query.DataPoints;
+import se.tre.freki.storage.AddPointsResult;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -13,6 +20,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
@@ -20,8 +30,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * A resource that accepts post requests whose body contains a JSON array of datapoints.
@@ -55,10 +68,23 @@ public final class DatapointsResource extends Resource {
         return response(UNPROCESSABLE_ENTITY);
       }
 
+      final List<IncomingDataPoint> datapoints = new ArrayList<>(rootNode.size());
+
       for (final JsonNode datapointNode : rootNode) {
-        readDatapoint(datapointNode);
+        datapoints.add(readDatapoint(datapointNode));
+      }
+
+      final ListenableFuture<AddPointsResult> addPoints = datapointsClient.addPoints(datapoints);
+      final WriteRejectedException rejection = rejection(addPoints);
+
+      if (rejection != null) {
+        LOG.info("Rejected {} data points: {}", datapoints.size(), rejection.getMessage());
+        return response(rejection.reason() == WriteRejectedException.Reason.INFLIGHT_LIMIT
+            ? TOO_MANY_REQUESTS : SERVICE_UNAVAILABLE);
       }
 
+      addCallback(addPoints, new AddPointsLoggingCallback());
+
       return response(ACCEPTED);
     } catch (JsonProcessingException e) {
       LOG.info("Malformed JSON while adding data point", e);
@@ -69,12 +95,37 @@ public final class DatapointsResource extends Resource {
     }
   }
 
+  /**
+   * Get the exception the provided future failed with if it has already completed because the
+   * write was not admitted.
+   *
+   * @return The {@link WriteRejectedException} or {@code null} if the write was admitted or has not
+   * completed yet
+   */
+  private static WriteRejectedException rejection(final ListenableFuture<?> future) {
+    if (!future.isDone()) {
+      return null;
+    }
+
+    try {
+      Uninterruptibles.getUninterruptibly(future);
+      return null;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof WriteRejectedException) {
+        return (WriteRejectedException) e.getCause();
+      }
+
+      return null;
+    }
+  }
+
   /**
    * Extract a single datapoint out of the provided {@link JsonNode}.
    *
    * @throws JsonMappingException if the provided JSON can not be parsed into a datapoint.
    */
-  private void readDatapoint(final JsonNode datapointNode) throws JsonMappingException {
+  private IncomingDataPoint readDatapoint(final JsonNode datapointNode)
+      throws JsonMappingException {
     final String metric = datapointNode.get("metric").textValue();
     final ImmutableMap<String, String> tags = readTags(datapointNode.get("tags"));
     final long timestamp = datapointNode.get("timestamp").asLong();
@@ -84,11 +135,14 @@ public final class DatapointsResource extends Resource {
     // Look for one of the supported JSON fields for a value and use the first
     // one when adding the datapoint.
     if ((value = checkField(datapointNode, "longValue")) != null) {
-      datapointsClient.addPoint(metric, timestamp, value.longValue(), tags);
+      return IncomingDataPoint.create(metric, tags,
+          DataPoints.longPoint(timestamp, value.longValue()));
     } else if ((value = checkField(datapointNode, "floatValue")) != null) {
-      datapointsClient.addPoint(metric, timestamp, value.floatValue(), tags);
+      return IncomingDataPoint.create(metric, tags,
+          DataPoints.floatPoint(timestamp, value.floatValue()));
     } else if ((value = checkField(datapointNode, "doubleValue")) != null) {
-      datapointsClient.addPoint(metric, timestamp, value.doubleValue(), tags);
+      return IncomingDataPoint.create(metric, tags,
+          DataPoints.doublePoint(timestamp, value.doubleValue()));
     } else {
       throw new JsonMappingException("JSON contains no recognized value fields");
     }
@@ -139,6 +193,29 @@ public final class DatapointsResource extends Resource {
     return tags.build();
   }
 
+  /**
+   * Callback that logs the data points in a batch that could not be added. The response has already
+   * been sent by the time the batch completes so there is no one else to tell.
+   */
+  private static class AddPointsLoggingCallback implements FutureCallback<AddPointsResult> {
+    @Override
+    public void onSuccess(final AddPointsResult result) {
+      if (!result.isSuccessful()) {
+        LOG.warn("Failed to add {} out of {} data points", result.failures().size(),
+            result.size());
+
+        for (final Map.Entry<Integer, Throwable> failure : result.failures().entrySet()) {
+          LOG.debug("Failed to add data point at index {}", failure.getKey(), failure.getValue());
+        }
+      }
+    }
+
+    @Override
+    public void onFailure(final Throwable throwable) {
+      LOG.error("Failed to add data points", throwable);
+    }
+  }
+
   /**
    * Predicate to check if a {@link JsonNode} contains a numeric value.
    */
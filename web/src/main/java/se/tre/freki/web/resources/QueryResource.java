@@ -4,9 +4,15 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 
 import se.tre.freki.core.DataPointsClient;
+import se.tre.freki.core.QueryRejectedException;
+import se.tre.freki.core.QueryScheduler;
 import se.tre.freki.query.DataPoint;
+import se.tre.freki.query.DataPointBlock;
+import se.tre.freki.query.DataPointBlockIterator;
+import se.tre.freki.query.DataPointBlocks;
 import se.tre.freki.query.DecoratedTimeSeriesId;
 import se.tre.freki.query.QueryException;
 import se.tre.freki.utils.AsyncIterator;
@@ -24,8 +30,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
@@ -35,6 +41,9 @@ import java.util.concurrent.ExecutionException;
 public final class QueryResource extends Resource {
   private static final Logger LOG = LoggerFactory.getLogger(QueryResource.class);
 
+  /** The number of data points to write at a time. */
+  private static final int BLOCK_SIZE = 1024;
+
   private final DataPointsClient datapointsClient;
   private final ObjectMapper objectMapper;
 
@@ -63,48 +72,26 @@ public final class QueryResource extends Resource {
         return response(BAD_REQUEST);
       }
 
-      final Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>> dataPoints =
-          datapointsClient.query(query).get();
-
-      final ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-      final JsonFactory jsonFactory = objectMapper.getFactory();
-      final JsonGenerator jsonGenerator = jsonFactory.createGenerator(out);
-
-      jsonGenerator.writeStartObject();
-
-      for (final Map.Entry<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>> timeSeries :
-          dataPoints.entrySet()) {
-        jsonGenerator.writeArrayFieldStart(timeSeries.getKey().toString());
+      final QueryScheduler.Priority priority;
 
-        final Iterator<? extends DataPoint> timeSerieDataPoints = timeSeries.getValue();
-
-        while (timeSerieDataPoints.hasNext()) {
-          final DataPoint next = timeSerieDataPoints.next();
-          jsonGenerator.writeStartArray(2);
+      try {
+        priority = priorityOf(parameters.get("priority"));
+      } catch (IllegalArgumentException e) {
+        LOG.info("Received query request with unknown priority {}", parameters.get("priority"));
+        return response(BAD_REQUEST);
+      }
 
-          if (next instanceof DataPoint.LongDataPoint) {
-            jsonGenerator.writeNumber(((DataPoint.LongDataPoint) next).value());
-          } else if (next instanceof DataPoint.FloatDataPoint) {
-            jsonGenerator.writeNumber(((DataPoint.FloatDataPoint) next).value());
-          } else if (next instanceof DataPoint.DoubleDataPoint) {
-            jsonGenerator.writeNumber(((DataPoint.DoubleDataPoint) next).value());
-          } else {
-            throw new AssertionError("Almost wrote a data point with an impossible data type:"
-                                     + next);
-          }
-
-          jsonGenerator.writeNumber(next.timestamp());
-          jsonGenerator.writeEndArray();
+      final Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>> dataPoints =
+          datapointsClient.query(query, priority).get();
+
+      try {
+        return response(OK, Unpooled.wrappedBuffer(write(dataPoints)));
+      } finally {
+        // The query holds its slot until every time series has been read or closed.
+        for (final AsyncIterator<? extends DataPoint> timeSeries : dataPoints.values()) {
+          timeSeries.close();
         }
-
-        jsonGenerator.writeEndArray();
       }
-
-      jsonGenerator.writeEndObject();
-      jsonGenerator.close();
-
-      return response(OK, Unpooled.wrappedBuffer(out.toByteArray()));
     } catch (QueryException e) {
       LOG.warn("Encountered an exception while executing query", e);
       return response(BAD_REQUEST);
@@ -112,6 +99,11 @@ public final class QueryResource extends Resource {
       LOG.warn("Interrupted while executing query", e);
       return response(INTERNAL_SERVER_ERROR);
     } catch (ExecutionException e) {
+      if (e.getCause() instanceof QueryRejectedException) {
+        LOG.info("Rejected query: {}", e.getCause().getMessage());
+        return response(SERVICE_UNAVAILABLE);
+      }
+
       LOG.warn("Encountered an exception while executing query", e);
       return response(INTERNAL_SERVER_ERROR);
     } catch (IOException e) {
@@ -119,4 +111,91 @@ public final class QueryResource extends Resource {
       return response(INTERNAL_SERVER_ERROR);
     }
   }
+
+  /**
+   * Write the provided query result as a JSON object with an array of data points for each time
+   * series.
+   */
+  private byte[] write(
+      final Map<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>> dataPoints)
+      throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    final JsonFactory jsonFactory = objectMapper.getFactory();
+    final JsonGenerator jsonGenerator = jsonFactory.createGenerator(out);
+
+    jsonGenerator.writeStartObject();
+
+    final DataPointBlock block = new DataPointBlock(BLOCK_SIZE);
+
+    for (final Map.Entry<DecoratedTimeSeriesId, AsyncIterator<? extends DataPoint>> timeSeries :
+        dataPoints.entrySet()) {
+      jsonGenerator.writeArrayFieldStart(timeSeries.getKey().toString());
+
+      final DataPointBlockIterator blocks = DataPointBlocks.blocksOf(timeSeries.getValue());
+
+      while (blocks.nextBlock(block) > 0) {
+        writeBlock(jsonGenerator, block);
+      }
+
+      jsonGenerator.writeEndArray();
+    }
+
+    jsonGenerator.writeEndObject();
+    jsonGenerator.close();
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Get the priority that is named by the first of the provided parameter values or the
+   * interactive priority if there are none.
+   *
+   * @throws IllegalArgumentException if the name is not the name of a priority
+   */
+  private static QueryScheduler.Priority priorityOf(final List<String> priorities) {
+    if (priorities == null || priorities.isEmpty()) {
+      return QueryScheduler.Priority.INTERACTIVE;
+    }
+
+    return QueryScheduler.Priority.valueOf(priorities.get(0).toUpperCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Write each data point in the provided block as a JSON array of its value and timestamp.
+   */
+  private static void writeBlock(final JsonGenerator jsonGenerator,
+                                 final DataPointBlock block) throws IOException {
+    final long[] timestamps = block.timestamps();
+
+    switch (block.type()) {
+      case LONG:
+        final long[] longValues = block.longValues();
+        for (int i = 0; i < block.size(); i++) {
+          jsonGenerator.writeStartArray(2);
+          jsonGenerator.writeNumber(longValues[i]);
+          jsonGenerator.writeNumber(timestamps[i]);
+          jsonGenerator.writeEndArray();
+        }
+        break;
+      case FLOAT:
+        final float[] floatValues = block.floatValues();
+        for (int i = 0; i < block.size(); i++) {
+          jsonGenerator.writeStartArray(2);
+          jsonGenerator.writeNumber(floatValues[i]);
+          jsonGenerator.writeNumber(timestamps[i]);
+          jsonGenerator.writeEndArray();
+        }
+        break;
+      default:
+        final double[] doubleValues = block.doubleValues();
+        for (int i = 0; i < block.size(); i++) {
+          jsonGenerator.writeStartArray(2);
+          jsonGenerator.writeNumber(doubleValues[i]);
+          jsonGenerator.writeNumber(timestamps[i]);
+          jsonGenerator.writeEndArray();
+        }
+        break;
+    }
+  }
 }